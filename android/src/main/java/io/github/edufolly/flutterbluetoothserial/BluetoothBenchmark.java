@@ -0,0 +1,375 @@
+package io.github.edufolly.flutterbluetoothserial;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import android.os.SystemClock;
+
+/// Link measurement driven by the connection threads: the writer thread sends data, the reading
+/// thread consumes read data (instead of the usual read pipeline) and all times are taken there,
+/// by `SystemClock.elapsedRealtimeNanos`.
+///
+/// `Latency` measures round trip time against echoing device (or loopback), `Throughput` measures
+/// rate of writing, reading or echoing bulk data.
+abstract class BluetoothBenchmark
+{
+    /// Listener of benchmark result
+    interface Listener {
+        /// Called once, with result map or error
+        void onFinished(Map<String, Object> result, IOException error);
+    }
+
+    protected final BluetoothConnection connection;
+    private final Listener listener;
+    private final long timeoutMillis;
+    private boolean finished = false;
+
+    BluetoothBenchmark(BluetoothConnection connection, long timeoutMillis, Listener listener) {
+        if (timeoutMillis <= 0) {
+            throw new IllegalArgumentException("timeout must be positive");
+        }
+        this.connection = connection;
+        this.timeoutMillis = timeoutMillis;
+        this.listener = listener;
+    }
+
+    synchronized boolean isFinished() {
+        return finished;
+    }
+
+    /// Starts the measurement (called by the connection)
+    abstract void start() throws IOException;
+
+    /// Called by the reading thread with data as read, returns whether the data were consumed
+    abstract boolean onRead(byte[] data, int length, long timestamp);
+
+    /// Called when the connection closes
+    void onClosed() {
+        finish(null, new IOException("disconnected"));
+    }
+
+    protected long getTimeoutMillis() {
+        return timeoutMillis;
+    }
+
+    protected ScheduledFuture<?> schedule(Runnable action, long delayMillis) {
+        return BluetoothConnection.getScheduler().schedule(action, delayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    protected void finish(Map<String, Object> result, IOException error) {
+        synchronized (this) {
+            if (finished) {
+                return;
+            }
+            finished = true;
+        }
+        onFinished();
+        listener.onFinished(result, error);
+    }
+
+    /// Called once when finished, before the listener, to release resources (like timers)
+    protected void onFinished() {}
+
+    /// Round trip latency: sends the payload `count` times, each after the previous one was echoed
+    /// back completely (or timed out), and records time from writing to reading the whole echo.
+    ///
+    /// First byte of each probe is replaced by its sequence number, so echo of another probe is not
+    /// taken for the awaited one: bytes before the awaited sequence number are skipped as stale. After
+    /// timeout, read data are ignored for another timeout before the next probe, letting late echo drain.
+    static class Latency extends BluetoothBenchmark
+    {
+        private final byte[] payload;
+        private final int count;
+        private final BluetoothLatencyHistogram histogram = new BluetoothLatencyHistogram();
+
+        // Current probe state (guarded by `this`)
+        private int probe = -1;
+        private byte[] expected = null;
+        private volatile long sentTime = 0;
+        private int received = 0;
+        private boolean mismatched = false;
+        private boolean draining = false;
+        private ScheduledFuture<?> timeout = null;
+
+        // Metrics (guarded by `this`)
+        private int lost = 0;
+        private int corrupted = 0;
+        private long staleBytes = 0;
+        private long minNanos = Long.MAX_VALUE;
+
+        Latency(BluetoothConnection connection, byte[] payload, int count, long timeoutMillis, Listener listener) {
+            super(connection, timeoutMillis, listener);
+            if (payload == null || payload.length == 0) {
+                throw new IllegalArgumentException("payload cannot be empty");
+            }
+            if (count <= 0) {
+                throw new IllegalArgumentException("count must be positive");
+            }
+            this.payload = payload;
+            this.count = count;
+        }
+
+        @Override
+        void start() throws IOException {
+            sendNext();
+        }
+
+        @Override
+        boolean onRead(byte[] data, int length, long timestamp) {
+            boolean complete = false;
+            synchronized (this) {
+                if (probe < 0 || draining || received >= expected.length) {
+                    // Late echo of timed out probe, or unexpected data
+                    staleBytes += length;
+                    return true;
+                }
+                int offset = 0;
+                if (received == 0) {
+                    while (offset < length && data[offset] != expected[0]) {
+                        offset++;
+                    }
+                    staleBytes += offset;
+                }
+                final int matched = Math.min(length - offset, expected.length - received);
+                for (int i = 0; i < matched && !mismatched; i++) {
+                    mismatched = data[offset + i] != expected[received + i];
+                }
+                received += matched;
+                if (received >= expected.length) {
+                    staleBytes += length - offset - matched;
+                    complete = true;
+                    if (timeout != null) {
+                        timeout.cancel(false);
+                    }
+                    if (mismatched) {
+                        corrupted++;
+                    }
+                    final long roundTrip = timestamp - sentTime;
+                    histogram.record(roundTrip);
+                    minNanos = Math.min(minNanos, roundTrip);
+                }
+            }
+            if (complete) {
+                next();
+            }
+            return true;
+        }
+
+        /// Moves to next probe, or finishes after the last one
+        private void next() {
+            if (isFinished()) {
+                return;
+            }
+            try {
+                sendNext();
+            } catch (IOException ex) {
+                finish(null, ex);
+            }
+        }
+
+        private void sendNext() throws IOException {
+            final int current;
+            final byte[] data;
+            synchronized (this) {
+                if (probe + 1 >= count) {
+                    current = -1;
+                    data = null;
+                } else {
+                    current = ++probe;
+                    data = payload.clone();
+                    data[0] = (byte) current;
+                    expected = data;
+                    received = 0;
+                    mismatched = false;
+                    timeout = schedule(() -> onTimeout(current), getTimeoutMillis());
+                }
+            }
+            if (current < 0) {
+                finish(getResult(), null);
+                return;
+            }
+            connection.enqueueWrite(new BluetoothWriteJob(BluetoothWriteJob.LANE_CONTROL) {
+                private boolean written = false;
+
+                @Override
+                byte[] nextChunk() {
+                    if (written) {
+                        return null;
+                    }
+                    written = true;
+                    // Taken right before writing, so queueing behind other writes is not counted
+                    sentTime = SystemClock.elapsedRealtimeNanos();
+                    return data;
+                }
+
+                @Override
+                void onFinished(IOException error) {
+                    if (error != null) {
+                        finish(null, error);
+                    }
+                }
+            });
+        }
+
+        private void onTimeout(int timedOutProbe) {
+            synchronized (this) {
+                if (probe != timedOutProbe || received >= expected.length || draining) {
+                    return;
+                }
+                lost++;
+                // Late echo is ignored until the next probe, and skipped by sequence number after that
+                draining = true;
+                timeout = schedule(this::onDrained, getTimeoutMillis());
+            }
+        }
+
+        private void onDrained() {
+            synchronized (this) {
+                draining = false;
+            }
+            next();
+        }
+
+        @Override
+        protected synchronized void onFinished() {
+            if (timeout != null) {
+                timeout.cancel(false);
+            }
+        }
+
+        private synchronized Map<String, Object> getResult() {
+            Map<String, Object> result = histogram.toMap();
+            result.put("sent", count);
+            result.put("lost", lost);
+            result.put("corrupted", corrupted);
+            result.put("staleBytes", staleBytes);
+            result.put("minMicros", minNanos == Long.MAX_VALUE ? 0L : minNanos / 1000);
+            return result;
+        }
+    }
+
+    /// Throughput: writes (`WRITE`), reads (`READ`, sent by the remote device) or writes and reads back
+    /// (`ECHO`) given count of bytes, measuring time from first write (or read) to the last byte, and
+    /// recording latency of each chunk write (or interval between reads).
+    static class Throughput extends BluetoothBenchmark
+    {
+        enum Direction { WRITE, READ, ECHO }
+
+        private final Direction direction;
+        private final long bytes;
+        private final int chunkSize;
+        private final BluetoothLatencyHistogram histogram = new BluetoothLatencyHistogram();
+
+        private volatile long startTime = 0;
+        private ScheduledFuture<?> timeout = null;
+
+        // Writing state (used only by the writer thread)
+        private volatile long written = 0;
+        private long chunkStartTime = 0;
+
+        // Reading state (used only by the reading thread)
+        private volatile long read = 0;
+        private long lastReadTime = 0;
+
+        Throughput(BluetoothConnection connection, Direction direction, long bytes, int chunkSize, long timeoutMillis, Listener listener) {
+            super(connection, timeoutMillis, listener);
+            if (bytes <= 0 || chunkSize <= 0) {
+                throw new IllegalArgumentException("bytes and chunk size must be positive");
+            }
+            this.direction = direction;
+            this.bytes = bytes;
+            this.chunkSize = chunkSize;
+        }
+
+        @Override
+        void start() throws IOException {
+            synchronized (this) {
+                timeout = schedule(() -> finish(getResult(false, SystemClock.elapsedRealtimeNanos()), null), getTimeoutMillis());
+            }
+            if (direction == Direction.READ) {
+                return;
+            }
+
+            final byte[] chunk = new byte[chunkSize];
+            // Pattern, so echo can be checked by eye in capture logs
+            for (int i = 0; i < chunkSize; i++) {
+                chunk[i] = (byte) i;
+            }
+            connection.enqueueWrite(new BluetoothWriteJob(BluetoothWriteJob.LANE_BULK) {
+                @Override
+                byte[] nextChunk() {
+                    if (written >= bytes || isFinished()) {
+                        return null;
+                    }
+                    chunkStartTime = SystemClock.elapsedRealtimeNanos();
+                    if (startTime == 0) {
+                        startTime = chunkStartTime;
+                    }
+                    final long remaining = bytes - written;
+                    return remaining >= chunkSize ? chunk : Arrays.copyOf(chunk, (int) remaining);
+                }
+
+                @Override
+                void onChunkWritten(int length) {
+                    final long now = SystemClock.elapsedRealtimeNanos();
+                    written += length;
+                    if (direction == Direction.WRITE) {
+                        histogram.record(now - chunkStartTime);
+                        if (written >= bytes) {
+                            finish(getResult(true, now), null);
+                        }
+                    }
+                }
+
+                @Override
+                void onFinished(IOException error) {
+                    if (error != null) {
+                        finish(null, error);
+                    }
+                }
+            });
+        }
+
+        @Override
+        boolean onRead(byte[] data, int length, long timestamp) {
+            if (direction == Direction.WRITE) {
+                return false;
+            }
+            if (read == 0 && direction == Direction.READ) {
+                startTime = timestamp;
+            } else if (read > 0) {
+                histogram.record(timestamp - lastReadTime);
+            }
+            lastReadTime = timestamp;
+            read += length;
+            if (read >= bytes) {
+                finish(getResult(true, timestamp), null);
+            }
+            return true;
+        }
+
+        @Override
+        protected synchronized void onFinished() {
+            if (timeout != null) {
+                timeout.cancel(false);
+            }
+        }
+
+        private Map<String, Object> getResult(boolean completed, long endTime) {
+            final long transferred = direction == Direction.WRITE ? written : Math.min(read, bytes);
+            final long duration = startTime == 0 ? 0 : endTime - startTime;
+            Map<String, Object> result = new HashMap<>();
+            result.put("completed", completed);
+            result.put("bytes", transferred);
+            result.put("durationMicros", duration / 1000);
+            result.put("bytesPerSecond", duration <= 0 ? 0L : (long) (transferred * 1e9 / duration));
+            // Chunk write latency for writing, interval between reads otherwise
+            result.put("chunkLatency", histogram.toMap());
+            return result;
+        }
+    }
+}
@@ -0,0 +1,253 @@
+package io.github.edufolly.flutterbluetoothserial;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+
+import android.bluetooth.BluetoothDevice;
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+
+/// Handles multiple outgoing bonding processes at once, using one shared bond state receiver.
+///
+/// All methods are expected to be called from the main thread (the same as broadcast receivers).
+class BluetoothBondingEngine
+{
+    private static final String TAG = "FlutterBluePlugin";
+
+    /// Hidden `BluetoothDevice.EXTRA_REASON`, delivered with `BOND_NONE` after failed bonding
+    private static final String EXTRA_REASON = "android.bluetooth.device.extra.REASON";
+
+    /// Window used to calculate bonding throughput
+    private static final long THROUGHPUT_WINDOW_MILLIS = 60 * 1000;
+
+    /// Callback for finished bonding process
+    interface Callback {
+        /// Called with `true` if bonded, `false` if canceled or failed gracefully
+        void onFinished(boolean bonded);
+
+        /// Called if bonding process could not be finished
+        void onError(String message);
+    }
+
+    /// Single ongoing bonding process
+    private class PendingBond implements Runnable {
+        final BluetoothDevice device;
+        final Callback callback;
+        final long startTime = SystemClock.elapsedRealtime();
+
+        PendingBond(BluetoothDevice device, Callback callback) {
+            this.device = device;
+            this.callback = callback;
+        }
+
+        /// Timeout of the bond
+        @Override
+        public void run() {
+            Log.d(TAG, "Bonding timed out (address: " + device.getAddress() + ")");
+            cancelBondProcess(device);
+            finish(this, false, "timeout");
+        }
+    }
+
+    private final Context context;
+    private final Handler handler = new Handler(Looper.getMainLooper());
+
+    /// Ongoing bonding processes by remote device address
+    private final Map<String, PendingBond> pendingBonds = new HashMap<>();
+
+    private final BroadcastReceiver bondStateReceiver;
+    private boolean isReceiverRegistered = false;
+
+    // Metrics
+    private int startedCount = 0;
+    private int bondedCount = 0;
+    private int failedCount = 0;
+    private long totalBondingMillis = 0;
+    private final Map<String, Integer> failureReasons = new HashMap<>();
+    /// Completion times of successful bonds within the throughput window
+    private final ArrayDeque<Long> recentBonds = new ArrayDeque<>();
+
+    BluetoothBondingEngine(Context context) {
+        this.context = context;
+
+        bondStateReceiver = new BroadcastReceiver() {
+            @Override
+            public void onReceive(Context context, Intent intent) {
+                switch (intent.getAction()) {
+                    // @TODO . BluetoothDevice.ACTION_PAIRING_CANCEL
+                    case BluetoothDevice.ACTION_BOND_STATE_CHANGED:
+                        final BluetoothDevice someDevice = intent.getParcelableExtra(BluetoothDevice.EXTRA_DEVICE);
+                        final PendingBond bond = pendingBonds.get(someDevice.getAddress());
+                        if (bond == null) {
+                            break;
+                        }
+
+                        final int newBondState = intent.getIntExtra(BluetoothDevice.EXTRA_BOND_STATE, BluetoothDevice.ERROR);
+                        switch (newBondState) {
+                            case BluetoothDevice.BOND_BONDING:
+                                // Wait for true bond result :F
+                                return;
+                            case BluetoothDevice.BOND_BONDED:
+                                finish(bond, true, null);
+                                break;
+                            case BluetoothDevice.BOND_NONE:
+                                finish(bond, false, reasonToString(intent.getIntExtra(EXTRA_REASON, BluetoothDevice.ERROR)));
+                                break;
+                            default:
+                                pendingBonds.remove(someDevice.getAddress());
+                                handler.removeCallbacks(bond);
+                                failedCount++;
+                                countFailureReason("invalid_state");
+                                unregisterIfIdle();
+                                bond.callback.onError("invalid bond state while bonding");
+                                break;
+                        }
+                        break;
+
+                    default:
+                        // Ignore.
+                        break;
+                }
+            }
+        };
+    }
+
+    /// Checks is there ongoing bonding process for given address
+    boolean isBonding(String address) {
+        return pendingBonds.containsKey(address);
+    }
+
+    /// Starts bonding with given device, optionally failing after given timeout (non-positive for none).
+    /// Returns `false` if bonding process could not be started.
+    boolean bond(BluetoothDevice device, long timeoutMillis, Callback callback) {
+        final String address = device.getAddress();
+        if (pendingBonds.containsKey(address)) {
+            return false;
+        }
+
+        final PendingBond bond = new PendingBond(device, callback);
+        pendingBonds.put(address, bond);
+
+        if (!isReceiverRegistered) {
+            final IntentFilter filter = new IntentFilter(BluetoothDevice.ACTION_BOND_STATE_CHANGED);
+            //filter.setPriority(pairingRequestReceiverPriority + 1);
+            context.registerReceiver(bondStateReceiver, filter);
+            isReceiverRegistered = true;
+        }
+
+        if (!device.createBond()) {
+            pendingBonds.remove(address);
+            unregisterIfIdle();
+            return false;
+        }
+
+        startedCount++;
+        if (timeoutMillis > 0) {
+            handler.postDelayed(bond, timeoutMillis);
+        }
+        Log.d(TAG, "Bonding started (address: " + address + ", pending: " + pendingBonds.size() + ")");
+        return true;
+    }
+
+    /// Fails all ongoing bonding processes and releases the receiver
+    void cancelAll() {
+        for (PendingBond bond : pendingBonds.values().toArray(new PendingBond[0])) {
+            cancelBondProcess(bond.device);
+            finish(bond, false, "canceled");
+        }
+    }
+
+    /// Returns bonding metrics
+    Map<String, Object> getStats() {
+        trimRecentBonds(SystemClock.elapsedRealtime());
+
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("pending", pendingBonds.size());
+        stats.put("started", startedCount);
+        stats.put("bonded", bondedCount);
+        stats.put("failed", failedCount);
+        stats.put("bondsPerMinute", recentBonds.size());
+        stats.put("averageBondingMillis", bondedCount == 0 ? 0 : (int) (totalBondingMillis / bondedCount));
+        stats.put("failureReasons", new HashMap<>(failureReasons));
+        return stats;
+    }
+
+    private void finish(PendingBond bond, boolean bonded, String failureReason) {
+        final String address = bond.device.getAddress();
+        if (pendingBonds.get(address) != bond) {
+            return;
+        }
+        pendingBonds.remove(address);
+        handler.removeCallbacks(bond);
+
+        final long now = SystemClock.elapsedRealtime();
+        if (bonded) {
+            bondedCount++;
+            totalBondingMillis += now - bond.startTime;
+            recentBonds.addLast(now);
+            trimRecentBonds(now);
+        } else {
+            failedCount++;
+            countFailureReason(failureReason);
+        }
+
+        unregisterIfIdle();
+        bond.callback.onFinished(bonded);
+    }
+
+    private void countFailureReason(String reason) {
+        Integer count = failureReasons.get(reason);
+        failureReasons.put(reason, count == null ? 1 : count + 1);
+    }
+
+    private void trimRecentBonds(long now) {
+        while (!recentBonds.isEmpty() && now - recentBonds.peekFirst() > THROUGHPUT_WINDOW_MILLIS) {
+            recentBonds.removeFirst();
+        }
+    }
+
+    private void unregisterIfIdle() {
+        if (isReceiverRegistered && pendingBonds.isEmpty()) {
+            try {
+                context.unregisterReceiver(bondStateReceiver);
+            } catch (IllegalArgumentException ex) {
+                // Ignore `Receiver not registered` exception
+            }
+            isReceiverRegistered = false;
+        }
+    }
+
+    /// Helper function to abort bonding process using hidden API
+    static private void cancelBondProcess(BluetoothDevice device) {
+        try {
+            java.lang.reflect.Method method;
+            method = device.getClass().getMethod("cancelBondProcess");
+            method.invoke(device);
+        } catch (Exception ex) {
+            Log.w(TAG, "Canceling bonding process failed (address: " + device.getAddress() + ")");
+        }
+    }
+
+    /// Helper function to describe hidden `BluetoothDevice.UNBOND_REASON_*` values
+    static private String reasonToString(int reason) {
+        switch (reason) {
+            case 1: return "auth_failed";
+            case 2: return "auth_rejected";
+            case 3: return "auth_canceled";
+            case 4: return "remote_device_down";
+            case 5: return "discovery_in_progress";
+            case 6: return "auth_timeout";
+            case 7: return "repeated_attempts";
+            case 8: return "remote_auth_canceled";
+            case 9: return "removed";
+            default: return "unknown";
+        }
+    }
+}
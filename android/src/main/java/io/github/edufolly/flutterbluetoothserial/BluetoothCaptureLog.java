@@ -0,0 +1,290 @@
+package io.github.edufolly.flutterbluetoothserial;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+/// Capture log of raw connection data, appended to memory-mapped, rotated segment files on background thread.
+///
+/// Segments are named `<path>.<index>` (index starting from 1). Each segment starts with header
+/// (`MAGIC`, 4 bytes), followed by records: timestamp (8, `SystemClock.elapsedRealtimeNanos`),
+/// direction (1, `DIRECTION_*`), length (4) and data. Zero direction marks end of the records.
+class BluetoothCaptureLog
+{
+    private static final String TAG = "FlutterBluePlugin";
+
+    static final byte DIRECTION_IN = 1;
+    static final byte DIRECTION_OUT = 2;
+
+    private static final int MAGIC = 0x46425343; // "FBSC"
+    private static final int HEADER_SIZE = 4;
+    private static final int RECORD_HEADER_SIZE = 8 + 1 + 4;
+
+    /// Listener for replayed records
+    interface ReplayListener {
+        /// Called for each record, returns `false` to stop replaying
+        boolean onRecord(long timestampNanos, byte direction, byte[] data);
+    }
+
+    private final String basePath;
+    private final int segmentSize;
+    private final int maxSegments;
+
+    /// Single thread doing all the file operations, so appending never blocks the caller
+    private final ExecutorService executor = Executors.newSingleThreadExecutor();
+    private final AtomicBoolean closed = new AtomicBoolean();
+
+    // Accessed only by the executor thread
+    private int segmentIndex = 0;
+    private RandomAccessFile segmentFile = null;
+    private MappedByteBuffer segment = null;
+
+    // Metrics (written only by the executor thread)
+    private volatile long recordsCount = 0;
+    private volatile long bytesCount = 0;
+    private volatile int segmentsCount = 0;
+
+    BluetoothCaptureLog(String basePath, int segmentSize, int maxSegments) {
+        if (segmentSize < HEADER_SIZE + RECORD_HEADER_SIZE + 1) {
+            throw new IllegalArgumentException("segment size too small");
+        }
+        this.basePath = basePath;
+        this.segmentSize = segmentSize;
+        this.maxSegments = maxSegments;
+
+        // Remove segments of older capture with the same path, so replay would not mix them
+        executor.execute(this::deleteOldSegments);
+    }
+
+    /// Queues record to be appended, with current time as timestamp. Data must not be modified later.
+    void append(byte direction, byte[] data) {
+        append(direction, data, SystemClock.elapsedRealtimeNanos());
+    }
+
+    /// Queues record to be appended, with given time (as `SystemClock.elapsedRealtimeNanos`, for example
+    /// the time data were read from the socket). Data must not be modified later.
+    void append(byte direction, byte[] data, long timestamp) {
+        try {
+            executor.execute(() -> write(timestamp, direction, data));
+        } catch (java.util.concurrent.RejectedExecutionException ex) {
+            // Log already closed
+        }
+    }
+
+    /// Writes all queued records and closes the log, returning its metrics.
+    /// Closing again (for example both on disconnection and by stopping capture) only returns the metrics.
+    Map<String, Object> close() {
+        if (!closed.compareAndSet(false, true)) {
+            return getStats();
+        }
+        executor.execute(this::closeSegment);
+        executor.shutdown();
+        try {
+            executor.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+        return getStats();
+    }
+
+    Map<String, Object> getStats() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("records", recordsCount);
+        stats.put("bytes", bytesCount);
+        stats.put("segments", segmentsCount);
+        return stats;
+    }
+
+    private void write(long timestamp, byte direction, byte[] data) {
+        try {
+            // Records larger than segment are split
+            int offset = 0;
+            do {
+                if (segment == null || segment.remaining() < RECORD_HEADER_SIZE + 1) {
+                    openNextSegment();
+                }
+                final int length = Math.min(data.length - offset, segment.remaining() - RECORD_HEADER_SIZE);
+                if (length < data.length - offset && segment.position() > HEADER_SIZE && data.length - offset <= segmentSize - HEADER_SIZE - RECORD_HEADER_SIZE) {
+                    // Whole record fits into the next segment
+                    openNextSegment();
+                    continue;
+                }
+                segment.putLong(timestamp);
+                segment.put(direction);
+                segment.putInt(length);
+                segment.put(data, offset, length);
+                offset += length;
+                recordsCount++;
+            } while (offset < data.length);
+            bytesCount += data.length;
+        } catch (IOException ex) {
+            Log.e(TAG, "Writing to capture log failed", ex);
+        }
+    }
+
+    private void openNextSegment() throws IOException {
+        closeSegment();
+
+        segmentIndex++;
+        segmentFile = new RandomAccessFile(segmentPath(basePath, segmentIndex), "rw");
+        segmentFile.setLength(0); // Make sure there are no leftovers from older captures
+        segment = segmentFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+        segment.putInt(MAGIC);
+        segmentsCount++;
+
+        // Remove the oldest segment if over the limit
+        if (maxSegments > 0 && segmentIndex > maxSegments) {
+            new File(segmentPath(basePath, segmentIndex - maxSegments)).delete();
+        }
+    }
+
+    private void closeSegment() {
+        if (segment == null) {
+            return;
+        }
+        segment.force();
+        try {
+            segmentFile.close();
+        } catch (IOException ex) {
+            // Ignore, everything is already forced to the file
+        }
+        unmap(segment);
+        segment = null;
+        segmentFile = null;
+    }
+
+    /// Releases mapping of the buffer right away, instead of waiting for garbage collection (which keeps
+    /// the file mapped meanwhile). The buffer must not be used anymore. If releasing is not supported
+    /// by the runtime, the mapping is left to garbage collection.
+    private static void unmap(MappedByteBuffer buffer) {
+        try {
+            // Android
+            Class<?> nioUtils = Class.forName("java.nio.NioUtils");
+            Method free = nioUtils.getMethod("freeDirectBuffer", ByteBuffer.class);
+            free.invoke(null, buffer);
+            return;
+        } catch (Exception ex) {
+            // Not available, try other runtime
+        }
+        try {
+            // Java 9+
+            Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            Field field = unsafeClass.getDeclaredField("theUnsafe");
+            field.setAccessible(true);
+            Method invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+            invokeCleaner.invoke(field.get(null), buffer);
+        } catch (Exception ex) {
+            // Left to garbage collection
+        }
+    }
+
+    private void deleteOldSegments() {
+        for (File file : listSegments(basePath)) {
+            file.delete();
+        }
+    }
+
+    /// Lists all existing segment files of capture log with given path
+    private static List<File> listSegments(String basePath) {
+        final File base = new File(basePath);
+        final File directory = base.getAbsoluteFile().getParentFile();
+        final String prefix = base.getName() + ".";
+        final File[] files = directory == null ? null : directory.listFiles();
+        List<File> segments = new ArrayList<>();
+        if (files == null) {
+            return segments;
+        }
+        for (File file : files) {
+            final String name = file.getName();
+            if (name.startsWith(prefix) && name.length() > prefix.length() && name.substring(prefix.length()).matches("[0-9]{1,9}")) {
+                segments.add(file);
+            }
+        }
+        return segments;
+    }
+
+    private static String segmentPath(String basePath, int index) {
+        return basePath + "." + index;
+    }
+
+    /// Reads records of capture log with given path, from the oldest available segment.
+    /// If `realtime` is set, records are passed with the same time spacing as captured.
+    /// Returns count of replayed records.
+    static long replay(String basePath, boolean realtime, ReplayListener listener) throws IOException {
+        // Find the oldest segment still available (older might be removed by rotation)
+        int index = Integer.MAX_VALUE;
+        for (File file : listSegments(basePath)) {
+            final String name = file.getName();
+            index = Math.min(index, Integer.parseInt(name.substring(name.lastIndexOf('.') + 1)));
+        }
+        if (index == Integer.MAX_VALUE) {
+            throw new IOException("capture log not found");
+        }
+
+        long count = 0;
+        long firstTimestamp = 0;
+        long startTime = 0;
+        for (; new File(segmentPath(basePath, index)).exists(); index++) {
+            try (RandomAccessFile file = new RandomAccessFile(segmentPath(basePath, index), "r")) {
+                ByteBuffer buffer = file.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, file.length());
+                if (buffer.remaining() < HEADER_SIZE || buffer.getInt() != MAGIC) {
+                    throw new IOException("invalid capture log segment: " + segmentPath(basePath, index));
+                }
+
+                while (buffer.remaining() >= RECORD_HEADER_SIZE) {
+                    final long timestamp = buffer.getLong();
+                    final byte direction = buffer.get();
+                    if (direction == 0) {
+                        break;
+                    }
+                    final byte[] data;
+                    try {
+                        data = new byte[buffer.getInt()];
+                        buffer.get(data);
+                    } catch (BufferUnderflowException | NegativeArraySizeException ex) {
+                        throw new IOException("truncated capture log segment: " + segmentPath(basePath, index));
+                    }
+
+                    if (realtime) {
+                        if (count == 0) {
+                            firstTimestamp = timestamp;
+                            startTime = System.nanoTime();
+                        }
+                        final long delay = (timestamp - firstTimestamp) - (System.nanoTime() - startTime);
+                        if (delay > 0) {
+                            try {
+                                Thread.sleep(delay / 1000000, (int) (delay % 1000000));
+                            } catch (InterruptedException ex) {
+                                Thread.currentThread().interrupt();
+                                return count;
+                            }
+                        }
+                    }
+
+                    count++;
+                    if (!listener.onRecord(timestamp, direction, data)) {
+                        return count;
+                    }
+                }
+            }
+        }
+        return count;
+    }
+}
@@ -0,0 +1,153 @@
+package io.github.edufolly.flutterbluetoothserial;
+
+/// Checksum algorithms used to validate frames: table-driven CRC (8, 16 or 32 bits), XOR and sum.
+///
+/// CRCs are described by the usual parameters: width, polynomial, initial value, input and output
+/// reflection and final XOR value (see "A Painless Guide to CRC Error Detection Algorithms").
+final class BluetoothChecksum
+{
+    private enum Kind { CRC, XOR, SUM }
+
+    private final Kind kind;
+    private final int width;
+    private final long init;
+    private final boolean refIn;
+    private final boolean refOut;
+    private final long xorOut;
+    private final long mask;
+    private final long[] table;
+
+    private BluetoothChecksum(Kind kind, int width, long poly, long init, boolean refIn, boolean refOut, long xorOut) {
+        this.kind = kind;
+        this.width = width;
+        this.mask = width == 64 ? -1L : (1L << width) - 1;
+        this.init = refIn ? reflect(init, width) : init;
+        this.refIn = refIn;
+        this.refOut = refOut;
+        this.xorOut = xorOut;
+        this.table = kind == Kind.CRC ? buildTable(poly) : null;
+    }
+
+    /// Generic CRC of given width (8, 16 or 32 bits)
+    static BluetoothChecksum crc(int width, long poly, long init, boolean refIn, boolean refOut, long xorOut) {
+        if (width != 8 && width != 16 && width != 32) {
+            throw new IllegalArgumentException("unsupported CRC width: " + width);
+        }
+        return new BluetoothChecksum(Kind.CRC, width, poly, init, refIn, refOut, xorOut);
+    }
+
+    /// Returns checksum by name: `crc8`, `crc8-maxim`, `crc16-modbus`, `crc16-ccitt` (CCITT-FALSE),
+    /// `crc16-xmodem`, `crc16-kermit`, `crc32`, `xor` or `sum8`.
+    static BluetoothChecksum byName(String name) {
+        switch (name) {
+            case "crc8":         return crc(8, 0x07, 0x00, false, false, 0x00);
+            case "crc8-maxim":   return crc(8, 0x31, 0x00, true, true, 0x00);
+            case "crc16-modbus": return crc(16, 0x8005, 0xFFFF, true, true, 0x0000);
+            case "crc16-ccitt":  return crc(16, 0x1021, 0xFFFF, false, false, 0x0000);
+            case "crc16-xmodem": return crc(16, 0x1021, 0x0000, false, false, 0x0000);
+            case "crc16-kermit": return crc(16, 0x1021, 0x0000, true, true, 0x0000);
+            case "crc32":        return crc(32, 0x04C11DB7L, 0xFFFFFFFFL, true, true, 0xFFFFFFFFL);
+            case "xor":          return new BluetoothChecksum(Kind.XOR, 8, 0, 0, false, false, 0);
+            case "sum8":         return new BluetoothChecksum(Kind.SUM, 8, 0, 0, false, false, 0);
+            default:
+                throw new IllegalArgumentException("unknown checksum algorithm: " + name);
+        }
+    }
+
+    /// Size of the checksum in bytes
+    int size() {
+        return width / 8;
+    }
+
+    /// Computes checksum of given data range
+    long compute(byte[] data, int offset, int length) {
+        final int end = offset + length;
+        switch (kind) {
+            case XOR: {
+                int value = 0;
+                for (int i = offset; i < end; i++) {
+                    value ^= data[i];
+                }
+                return value & 0xFF;
+            }
+
+            case SUM: {
+                int value = 0;
+                for (int i = offset; i < end; i++) {
+                    value += data[i];
+                }
+                return value & 0xFF;
+            }
+
+            default: {
+                long crc = init;
+                if (refIn) {
+                    for (int i = offset; i < end; i++) {
+                        crc = table[(int) ((crc ^ data[i]) & 0xFF)] ^ (crc >>> 8);
+                    }
+                } else {
+                    final int shift = width - 8;
+                    for (int i = offset; i < end; i++) {
+                        crc = (table[(int) (((crc >>> shift) ^ data[i]) & 0xFF)] ^ (crc << 8)) & mask;
+                    }
+                }
+                if (refIn != refOut) {
+                    crc = reflect(crc, width);
+                }
+                return (crc ^ xorOut) & mask;
+            }
+        }
+    }
+
+    /// Reads checksum value stored in data at given offset
+    long read(byte[] data, int offset, boolean bigEndian) {
+        final int size = size();
+        long value = 0;
+        for (int i = 0; i < size; i++) {
+            value = (value << 8) | (data[offset + (bigEndian ? i : size - 1 - i)] & 0xFF);
+        }
+        return value;
+    }
+
+    /// Writes checksum value into data at given offset
+    void write(long value, byte[] data, int offset, boolean bigEndian) {
+        final int size = size();
+        for (int i = 0; i < size; i++) {
+            data[offset + (bigEndian ? size - 1 - i : i)] = (byte) (value >>> (8 * i));
+        }
+    }
+
+    private long[] buildTable(long poly) {
+        long[] table = new long[256];
+        if (refIn) {
+            final long reflectedPoly = reflect(poly, width);
+            for (int i = 0; i < 256; i++) {
+                long crc = i;
+                for (int bit = 0; bit < 8; bit++) {
+                    crc = (crc & 1) != 0 ? (crc >>> 1) ^ reflectedPoly : crc >>> 1;
+                }
+                table[i] = crc;
+            }
+        } else {
+            final long topBit = 1L << (width - 1);
+            for (int i = 0; i < 256; i++) {
+                long crc = ((long) i) << (width - 8);
+                for (int bit = 0; bit < 8; bit++) {
+                    crc = (crc & topBit) != 0 ? (crc << 1) ^ poly : crc << 1;
+                }
+                table[i] = crc & mask;
+            }
+        }
+        return table;
+    }
+
+    private static long reflect(long value, int width) {
+        long result = 0;
+        for (int i = 0; i < width; i++) {
+            if ((value & (1L << i)) != 0) {
+                result |= 1L << (width - 1 - i);
+            }
+        }
+        return result;
+    }
+}
@@ -0,0 +1,28 @@
+package io.github.edufolly.flutterbluetoothserial;
+
+import java.io.IOException;
+
+/// Codec transforming connection payloads: written data are encoded before being sent,
+/// read data are decoded right after being read (before framing).
+///
+/// Codecs are stateful streams, encoding and decoding are each called from single thread at once.
+public interface BluetoothCodec
+{
+    /// Creates new codec instance for a connection
+    interface Factory {
+        BluetoothCodec create(java.util.Map<String, Object> options);
+    }
+
+    /// Encodes data to be written, so remote device can decode them without waiting for more data
+    byte[] encode(byte[] data) throws IOException;
+
+    /// Decodes chunk of read data (not necessarily whole encoded blocks), returns empty array if more data are needed
+    byte[] decode(byte[] data, int length) throws IOException;
+
+    /// Drops decoding state, for example after invalid data were received
+    void reset();
+
+    /// Releases resources of the codec (for example native memory), called once the codec is replaced
+    /// or its connection is closed. Encoding or decoding afterwards fails.
+    void close();
+}
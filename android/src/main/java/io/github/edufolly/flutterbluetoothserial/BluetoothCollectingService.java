@@ -0,0 +1,134 @@
+package io.github.edufolly.flutterbluetoothserial;
+
+import android.app.Notification;
+import android.app.NotificationChannel;
+import android.app.NotificationManager;
+import android.app.PendingIntent;
+import android.app.Service;
+import android.content.Context;
+import android.content.Intent;
+import android.os.Build;
+import android.os.IBinder;
+import android.util.Log;
+import android.util.SparseArray;
+
+import androidx.core.app.NotificationCompat;
+import androidx.core.content.ContextCompat;
+
+/// Foreground service keeping the process (and connections collecting data natively) alive without any activity.
+///
+/// Collecting connections are registered process-wide, so data collected while detached
+/// can be taken in bulk by the plugin attached to a new engine.
+public class BluetoothCollectingService extends Service
+{
+    private static final String TAG = "FlutterBluePlugin";
+    private static final String NOTIFICATION_CHANNEL_ID = "flutter_bluetooth_serial_collecting";
+    private static final int NOTIFICATION_ID = 1451;
+
+    static final String EXTRA_TITLE = "title";
+    static final String EXTRA_TEXT = "text";
+
+    /// Connections collecting data in background, by connection ID
+    private static final SparseArray<BluetoothConnection> collectingConnections = new SparseArray<>(2);
+
+    /// Adds connection to be collected by the service
+    static void addConnection(int id, BluetoothConnection connection) {
+        synchronized (collectingConnections) {
+            collectingConnections.put(id, connection);
+        }
+    }
+
+    /// Returns collecting connection with given ID (null if not collecting)
+    static BluetoothConnection getConnection(int id) {
+        synchronized (collectingConnections) {
+            return collectingConnections.get(id);
+        }
+    }
+
+    /// Removes connection from collected by the service, returns removed connection (or null)
+    static BluetoothConnection removeConnection(int id) {
+        synchronized (collectingConnections) {
+            final BluetoothConnection connection = collectingConnections.get(id);
+            collectingConnections.remove(id);
+            return connection;
+        }
+    }
+
+    /// Returns IDs of all connections collected by the service
+    static int[] getConnectionIds() {
+        synchronized (collectingConnections) {
+            final int size = collectingConnections.size();
+            int[] ids = new int[size];
+            for (int i = 0; i < size; i++) {
+                ids[i] = collectingConnections.keyAt(i);
+            }
+            return ids;
+        }
+    }
+
+    /// Starts the service in foreground with notification of given title and text
+    static void start(Context context, String title, String text) {
+        Intent intent = new Intent(context, BluetoothCollectingService.class);
+        intent.putExtra(EXTRA_TITLE, title);
+        intent.putExtra(EXTRA_TEXT, text);
+        ContextCompat.startForegroundService(context, intent);
+    }
+
+    /// Stops the service
+    static void stop(Context context) {
+        context.stopService(new Intent(context, BluetoothCollectingService.class));
+    }
+
+    @Override
+    public int onStartCommand(Intent intent, int flags, int startId) {
+        String title = intent == null ? null : intent.getStringExtra(EXTRA_TITLE);
+        String text = intent == null ? null : intent.getStringExtra(EXTRA_TEXT);
+
+        Log.d(TAG, "Background collecting service started");
+        startForeground(NOTIFICATION_ID, buildNotification(
+                title != null ? title : "Bluetooth",
+                text != null ? text : "Collecting data in background"
+        ));
+
+        // Connections do not survive the process, so there is nothing to collect if restarted without them
+        if (getConnectionIds().length == 0) {
+            Log.d(TAG, "No connections to collect, stopping");
+            stopSelf(startId);
+        }
+        return START_NOT_STICKY;
+    }
+
+    @Override
+    public void onDestroy() {
+        Log.d(TAG, "Background collecting service stopped");
+        stopForeground(true);
+        super.onDestroy();
+    }
+
+    @Override
+    public IBinder onBind(Intent intent) {
+        return null;
+    }
+
+    private Notification buildNotification(String title, String text) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+            NotificationManager notificationManager = (NotificationManager) getSystemService(Context.NOTIFICATION_SERVICE);
+            notificationManager.createNotificationChannel(new NotificationChannel(
+                    NOTIFICATION_CHANNEL_ID, "Bluetooth background collecting", NotificationManager.IMPORTANCE_LOW));
+        }
+
+        NotificationCompat.Builder builder = new NotificationCompat.Builder(this, NOTIFICATION_CHANNEL_ID)
+                .setContentTitle(title)
+                .setContentText(text)
+                .setSmallIcon(getApplicationInfo().icon)
+                .setOngoing(true)
+                .setPriority(NotificationCompat.PRIORITY_LOW);
+
+        // Open the application when notification is tapped
+        Intent launchIntent = getPackageManager().getLaunchIntentForPackage(getPackageName());
+        if (launchIntent != null) {
+            builder.setContentIntent(PendingIntent.getActivity(this, 0, launchIntent, PendingIntent.FLAG_IMMUTABLE));
+        }
+        return builder.build();
+    }
+}
@@ -0,0 +1,76 @@
+package io.github.edufolly.flutterbluetoothserial;
+
+import java.util.Arrays;
+
+/// Engine for devices answering text or binary commands: response to each command is recognized
+/// by its `Matcher` (ending delimiter or fixed length, optionally required prefix).
+final class BluetoothCommandEngine extends BluetoothProtocolEngine
+{
+    /// Longest response accepted by delimiter matching
+    static final int MAX_RESPONSE_LENGTH = 4096;
+
+    /// Format of expected response
+    static final class Matcher {
+        final byte[] prefix;
+        final byte[] delimiter;
+        final int length;
+        final boolean stripDelimiter;
+
+        /// Creates matcher of responses ending by delimiter or having fixed length (exactly one
+        /// of them), starting with given prefix (null if any)
+        Matcher(byte[] prefix, byte[] delimiter, int length, boolean stripDelimiter) {
+            if ((delimiter == null || delimiter.length == 0) == (length <= 0)) {
+                throw new IllegalArgumentException("either delimiter or length is required");
+            }
+            if (length > 0 && prefix != null && prefix.length > length) {
+                throw new IllegalArgumentException("prefix cannot be longer than length");
+            }
+            this.prefix = prefix != null && prefix.length > 0 ? prefix : null;
+            this.delimiter = length > 0 ? null : delimiter;
+            this.length = length;
+            this.stripDelimiter = stripDelimiter;
+        }
+
+        /// Returns the response payload (without delimiter, if stripped)
+        byte[] payloadOf(byte[] response) {
+            if (delimiter == null || !stripDelimiter) {
+                return response;
+            }
+            return Arrays.copyOf(response, response.length - delimiter.length);
+        }
+    }
+
+    BluetoothCommandEngine(BluetoothConnection connection, long timeoutMillis) {
+        super(connection, timeoutMillis, 0, 0);
+    }
+
+    @Override
+    protected int parseResponse(byte[] buffer, int length, byte[] request, Object context) {
+        final Matcher matcher = (Matcher) context;
+        if (matcher.prefix != null) {
+            final int checked = Math.min(length, matcher.prefix.length);
+            for (int i = 0; i < checked; i++) {
+                if (buffer[i] != matcher.prefix[i]) {
+                    return -1;
+                }
+            }
+        }
+
+        if (matcher.length > 0) {
+            return length >= matcher.length ? matcher.length : 0;
+        }
+
+        final byte[] delimiter = matcher.delimiter;
+        final int start = matcher.prefix != null ? matcher.prefix.length : 0;
+        outer:
+        for (int i = start; i + delimiter.length <= length; i++) {
+            for (int j = 0; j < delimiter.length; j++) {
+                if (buffer[i + j] != delimiter[j]) {
+                    continue outer;
+                }
+            }
+            return i + delimiter.length;
+        }
+        return length >= MAX_RESPONSE_LENGTH ? -1 : 0;
+    }
+}
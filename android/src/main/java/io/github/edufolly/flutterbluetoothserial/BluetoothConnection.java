@@ -1,26 +1,195 @@
 package io.github.edufolly.flutterbluetoothserial;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.UUID;
 import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 
 import android.bluetooth.BluetoothAdapter;
 import android.bluetooth.BluetoothDevice;
 import android.bluetooth.BluetoothSocket;
+import android.os.SystemClock;
+import android.util.Log;
 
 /// Universal Bluetooth serial connection class (for Java)
 public abstract class BluetoothConnection
 {
+    private static final String TAG = "FlutterBluePlugin";
+
     protected static final UUID DEFAULT_UUID = UUID.fromString("00001101-0000-1000-8000-00805F9B34FB");
 
+    /// Address prefix of loopback transport (everything written is read back)
+    public static final String LOOPBACK_SCHEME = "loopback://";
+    /// Address prefix of replay transport, followed by capture log path and optional `?realtime=false`
+    public static final String REPLAY_SCHEME = "replay://";
+
+    private static final int VIRTUAL_TRANSPORT_BUFFER_SIZE = 64 * 1024;
+
+    /// Default time to wait for queued writes to be written when disconnecting
+    public static final long DEFAULT_DRAIN_TIMEOUT = 1000;
+
+    /// Scheduler shared by all connections for timed work (close timeouts, keepalive checks),
+    /// so no thread per connection is needed
+    private static ScheduledExecutorService scheduler = null;
+
+    /// Count of sockets connecting at the moment, in all connections of the process
+    private static final AtomicInteger connectingCount = new AtomicInteger();
+
+    /// Whether any connection is establishing its socket (discovery has to be off meanwhile)
+    static boolean isAnyConnecting() {
+        return connectingCount.get() > 0;
+    }
+
+    static synchronized ScheduledExecutorService getScheduler() {
+        if (scheduler == null) {
+            scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "BluetoothScheduler");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        return scheduler;
+    }
+
     protected BluetoothAdapter bluetoothAdapter;
 
-    protected ConnectionThread connectionThread = null;
+    /// States of connection session, changed only by atomic transitions:
+    /// `CONNECTING` -> `OPEN` -> (`DRAINING` ->) `CLOSED`
+    static final int STATE_CONNECTING = 0;
+    static final int STATE_OPEN = 1;
+    static final int STATE_DRAINING = 2;
+    static final int STATE_CLOSED = 3;
+    private static final String[] STATE_NAMES = { "connecting", "open", "draining", "closed" };
+
+    /// Current session (null if never connected), swapped only atomically
+    private final AtomicReference<ConnectionThread> connectionThread = new AtomicReference<>();
+
+    /// Buffer for data collected natively instead of `onRead` callback (null if not collecting)
+    private volatile CollectingBuffer collectingBuffer = null;
+
+    /// Log capturing all read and written data (null if not capturing)
+    private final AtomicReference<BluetoothCaptureLog> captureLog = new AtomicReference<>();
+
+    /// Codec encoding written and decoding read payloads (null if sent raw)
+    private volatile BluetoothCodec codec = null;
+
+    /// Pacer limiting write rate (null if written as fast as possible)
+    private volatile BluetoothWritePacer writePacer = null;
+
+    /// Decoder splitting read data into frames (null if data are passed as read)
+    private volatile BluetoothFrameDecoder frameDecoder = null;
+    /// Validator of decoded frames checksums (null if not validating)
+    private volatile BluetoothFrameValidator frameValidator = null;
+
+    /// Receiver of read data redirected to file (null if not receiving)
+    private volatile BluetoothFileReceiver fileReceiver = null;
+
+    /// Benchmark consuming read data while running (null if not running)
+    private volatile BluetoothBenchmark benchmark = null;
+
+    /// Keepalive detecting dead link (null if not checked)
+    private volatile BluetoothKeepalive keepalive = null;
+
+    /// Multiplexer splitting the connection into logical channels (null if not multiplexed)
+    private volatile BluetoothMultiplexer multiplexer = null;
+
+    /// Request-response protocol engine consuming read data (null if not used)
+    private volatile BluetoothProtocolEngine protocolEngine = null;
+
+    /// Named subscriptions getting all read data, besides `onRead` callback
+    private final CopyOnWriteArrayList<BluetoothReadSubscription> subscriptions = new CopyOnWriteArrayList<>();
+
+    // Metrics
+    private final AtomicLong bytesRead = new AtomicLong();
+    private final AtomicLong bytesWritten = new AtomicLong();
+    private final AtomicLong payloadBytesRead = new AtomicLong();
+    private final AtomicLong payloadBytesWritten = new AtomicLong();
+    private volatile long lastCloseLatencyNanos = 0;
+    private final BluetoothLatencyHistogram deliveryLatency = new BluetoothLatencyHistogram();
+    // Write lanes metrics, by lane
+    private final AtomicLong[] laneJobs = { new AtomicLong(), new AtomicLong() };
+    private final AtomicLong[] laneWaitNanos = { new AtomicLong(), new AtomicLong() };
+    private final AtomicLong[] laneMaxWaitNanos = { new AtomicLong(), new AtomicLong() };
 
     public boolean isConnected() {
-        return connectionThread != null && connectionThread.requestedClosing != true;
+        final ConnectionThread thread = connectionThread.get();
+        return thread != null && thread.state.get() == STATE_OPEN;
+    }
+
+    /// Returns count of bytes read and written since the connection object was created
+    public long getTransferredBytes() {
+        return bytesRead.get() + bytesWritten.get();
+    }
+
+    /// Returns connection metrics
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new HashMap<>();
+        final ConnectionThread thread = connectionThread.get();
+        stats.put("state", STATE_NAMES[thread == null ? STATE_CLOSED : thread.state.get()]);
+        stats.put("isConnected", isConnected());
+        stats.put("bytesRead", bytesRead.get());
+        stats.put("bytesWritten", bytesWritten.get());
+        // Payload bytes are counted before encoding and after decoding, so differ from above if codec is used
+        stats.put("payloadBytesRead", payloadBytesRead.get());
+        stats.put("payloadBytesWritten", payloadBytesWritten.get());
+        final String[] laneNames = { "control", "bulk" };
+        for (int lane = 0; lane < BluetoothWriteJob.LANES_COUNT; lane++) {
+            final long jobs = laneJobs[lane].get();
+            final String name = laneNames[lane];
+            stats.put(name + "PendingWrites", thread == null ? 0 : thread.getPendingJobs(lane));
+            stats.put(name + "Writes", jobs);
+            stats.put(name + "AvgWaitMicros", jobs == 0 ? 0L : laneWaitNanos[lane].get() / jobs / 1000);
+            stats.put(name + "MaxWaitMicros", laneMaxWaitNanos[lane].get() / 1000);
+        }
+        stats.put("lastCloseLatencyMicros", lastCloseLatencyNanos / 1000);
+        stats.put("deliveryLatency", deliveryLatency.toMap());
+        final BluetoothKeepalive keepalive = this.keepalive;
+        stats.put("keepalivePings", keepalive == null ? 0L : keepalive.getPingsSent());
+        stats.put("keepaliveRoundTripMicros", keepalive == null ? -1L : keepalive.getLastRoundTripNanos() / 1000);
+        stats.put("keepaliveExpired", keepalive != null && keepalive.isExpired());
+        final BluetoothWritePacer pacer = writePacer;
+        stats.put("pacingDelayMillis", pacer == null ? 0L : pacer.getDelayedNanos() / 1000000);
+        final BluetoothFileReceiver receiver = fileReceiver;
+        stats.put("isReceivingToFile", receiver != null && !receiver.isFinished());
+        stats.put("isCollecting", isCollecting());
+        stats.put("collectingDroppedBytes", getCollectingDroppedBytes());
+        final BluetoothFrameDecoder decoder = frameDecoder;
+        stats.put("framesOverflow", decoder == null ? 0L : decoder.getOverflowCount());
+        final BluetoothFrameValidator validator = frameValidator;
+        stats.put("framesGood", validator == null ? 0L : validator.getGoodFrames());
+        stats.put("framesBad", validator == null ? 0L : validator.getBadFrames());
+        Map<String, Object> subscriptionsStats = new HashMap<>();
+        for (BluetoothReadSubscription subscription : subscriptions) {
+            subscriptionsStats.put(subscription.getName(), subscription.getStats());
+        }
+        stats.put("subscriptions", subscriptionsStats);
+        final BluetoothMultiplexer mux = multiplexer;
+        if (mux != null) {
+            stats.put("multiplexer", mux.getStats());
+        }
+        final BluetoothProtocolEngine engine = protocolEngine;
+        if (engine != null) {
+            stats.put("protocol", engine.getStats());
+        }
+        return stats;
     }
 
 
@@ -35,12 +204,17 @@ public abstract class BluetoothConnection
     // @TODO . `connect` parameter: timeout
     // @TODO . `connect` other methods than `createRfcommSocketToServiceRecord`, including hidden one raw `createRfcommSocket` (on channel).
     // @TODO ? how about turning it into factoried?
-    /// Connects to given device by hardware address
+    /// Connects to given device by hardware address (or virtual address, see `isVirtualAddress`)
     public void connect(String address, UUID uuid) throws IOException {
         if (isConnected()) {
             throw new IOException("already connected");
         }
 
+        if (isVirtualAddress(address)) {
+            connect(createVirtualTransport(address));
+            return;
+        }
+
         BluetoothDevice device = bluetoothAdapter.getRemoteDevice(address);
         if (device == null) {
             throw new IOException("device not found");
@@ -52,56 +226,662 @@ public abstract class BluetoothConnection
         }
 
         // Cancel discovery, even though we didn't start it
-        bluetoothAdapter.cancelDiscovery();
+        connectingCount.incrementAndGet();
+        try {
+            bluetoothAdapter.cancelDiscovery();
+            socket.connect();
+        } finally {
+            connectingCount.decrementAndGet();
+        }
 
-        socket.connect();
+        connect(socket);
+    }
+    /// Uses already connected socket (for example accepted by `BluetoothServer`)
+    public void connect(BluetoothSocket socket) throws IOException {
+        connect(new BluetoothSocketTransport(socket));
+    }
+    /// Uses already connected transport (which is closed if other session is open)
+    public void connect(BluetoothTransport transport) throws IOException {
+        final ConnectionThread current = connectionThread.get();
+        // Other connection is open, or was established meanwhile
+        if (current != null && current.state.get() <= STATE_OPEN) {
+            throw rejectTransport(transport);
+        }
+        final ConnectionThread thread = new ConnectionThread(transport);
+        if (!connectionThread.compareAndSet(current, thread)) {
+            throw rejectTransport(transport);
+        }
+        thread.start();
+    }
 
-        connectionThread = new ConnectionThread(socket);
-        connectionThread.start();
+    /// Closes transport which cannot be used, returns exception to be thrown
+    private static IOException rejectTransport(BluetoothTransport transport) {
+        try {
+            transport.close();
+        } catch (IOException ex) {
+            // Ignore
+        }
+        return new IOException("already connected");
     }
     /// Connects to given device by hardware address (default UUID used)
     public void connect(String address) throws IOException {
         connect(address, DEFAULT_UUID);
     }
     
-    /// Disconnects current session (ignore if not connected)
+    /// Disconnects current session (ignore if not connected), after queued writes are written
     public void disconnect() {
-        if (isConnected()) {
-            connectionThread.cancel();
-            connectionThread = null;
-        }
+        disconnect(DEFAULT_DRAIN_TIMEOUT, null);
+    }
+
+    /// Callback of disconnecting
+    public interface CloseCallback {
+        /// Called once the connection is closed, with time since disconnecting was requested
+        /// and information whether all queued writes were written before closing
+        void onClosed(long latencyMicros, boolean drained);
+    }
+
+    /// Disconnects current session asynchronously: the connection is closed once all queued writes
+    /// are written, or after given timeout. Returns false if not connected (callback is not called then).
+    public boolean disconnect(long drainTimeoutMillis, CloseCallback callback) {
+        final ConnectionThread thread = connectionThread.get();
+        return thread != null && thread.close(drainTimeoutMillis, callback);
     }
 
     /// Writes to connected remote device 
     public void write(byte[] data) throws IOException {
+        WriteDataJob job = new WriteDataJob(data, BluetoothWriteJob.LANE_CONTROL, null);
+        enqueueWrite(job);
+        job.await();
+    }
+
+    /// Callback of asynchronous write
+    public interface WriteCallback {
+        /// Called once data are written, with error if writing failed
+        void onWritten(IOException error);
+    }
+
+    /// Queues data to be written without waiting. Data in control lane are written before any queued data
+    /// in bulk lane (between chunks of bulk transfers), so control commands are not delayed by bulk traffic.
+    public void writeAsync(byte[] data, boolean bulk, WriteCallback callback) throws IOException {
+        enqueueWrite(new WriteDataJob(data, bulk ? BluetoothWriteJob.LANE_BULK : BluetoothWriteJob.LANE_CONTROL, callback));
+    }
+
+    /// Queues job to be written by the connection writer thread (for example file transfer)
+    void enqueueWrite(BluetoothWriteJob job) throws IOException {
+        final ConnectionThread thread = connectionThread.get();
+        if (thread == null || !thread.enqueue(job)) {
+            throw new IOException("not connected");
+        }
+    }
+
+    /// Checks whether the address refers to virtual transport, not using any radio (for testing and benchmarking):
+    /// `loopback://` or `replay://<capture log path>[?realtime=false]`.
+    public static boolean isVirtualAddress(String address) {
+        return address != null && (address.startsWith(LOOPBACK_SCHEME) || address.startsWith(REPLAY_SCHEME));
+    }
+
+    private static BluetoothTransport createVirtualTransport(String address) {
+        if (address.startsWith(LOOPBACK_SCHEME)) {
+            return new LoopbackTransport(VIRTUAL_TRANSPORT_BUFFER_SIZE);
+        }
+
+        String path = address.substring(REPLAY_SCHEME.length());
+        boolean realtime = true;
+        final int queryIndex = path.indexOf('?');
+        if (queryIndex >= 0) {
+            realtime = !path.substring(queryIndex + 1).equals("realtime=false");
+            path = path.substring(0, queryIndex);
+        }
+        return new ReplayTransport(path, realtime, VIRTUAL_TRANSPORT_BUFFER_SIZE);
+    }
+
+    /// Starts collecting read data into native buffer (of given maximal size) instead of passing it to `onRead`
+    public void startCollecting(int maxBytes) {
+        if (collectingBuffer == null) {
+            collectingBuffer = new CollectingBuffer(maxBytes);
+        }
+    }
+
+    /// Stops collecting read data, returning data left in the buffer (null if not collecting)
+    public byte[] stopCollecting() {
+        final CollectingBuffer buffer = collectingBuffer;
+        collectingBuffer = null;
+        return buffer == null ? null : buffer.take();
+    }
+
+    public boolean isCollecting() {
+        return collectingBuffer != null;
+    }
+
+    /// Takes data collected so far, leaving the buffer empty (null if not collecting)
+    public byte[] takeCollected() {
+        final CollectingBuffer buffer = collectingBuffer;
+        return buffer == null ? null : buffer.take();
+    }
+
+    /// Returns count of bytes dropped because of full collecting buffer
+    public long getCollectingDroppedBytes() {
+        final CollectingBuffer buffer = collectingBuffer;
+        return buffer == null ? 0 : buffer.getDroppedBytes();
+    }
+
+    /// Starts capturing all read and written data to given log (replacing previous one, which is returned)
+    BluetoothCaptureLog startCapture(BluetoothCaptureLog log) {
+        return captureLog.getAndSet(log);
+    }
+
+    /// Stops capturing, returning the log (null if not capturing)
+    BluetoothCaptureLog stopCapture() {
+        return captureLog.getAndSet(null);
+    }
+
+    /// Sets codec used to encode written and decode read payloads (null to send data raw), closing previous one.
+    /// Should be set before any data are transferred, as codecs are usually stateful streams.
+    /// The codec is closed and removed once the session ends.
+    public void setCodec(BluetoothCodec codec) {
+        final BluetoothCodec previous;
+        synchronized (this) {
+            previous = this.codec;
+            this.codec = codec;
+        }
+        if (previous != null && previous != codec) {
+            previous.close();
+        }
+    }
+
+    /// Sets pacer limiting write rate (null to write as fast as possible)
+    void setWritePacer(BluetoothWritePacer pacer) {
+        writePacer = pacer;
+    }
+
+    /// Sets decoder splitting read data into frames, so `onRead` is called once per frame
+    /// (null to pass data as read, which also disables validation)
+    void setFrameDecoder(BluetoothFrameDecoder decoder) {
+        if (decoder == null) {
+            frameValidator = null;
+        }
+        frameDecoder = decoder;
+    }
+
+    BluetoothFrameDecoder getFrameDecoder() {
+        return frameDecoder;
+    }
+
+    /// Sets validator of decoded frames checksums (null to disable validation)
+    void setFrameValidator(BluetoothFrameValidator validator) {
+        frameValidator = validator;
+    }
+
+    /// Starts redirecting read data to given file receiver, until its termination is reached
+    void startReceiving(BluetoothFileReceiver receiver) throws IOException {
+        if (!isConnected()) {
+            throw new IOException("not connected");
+        }
+        final BluetoothFileReceiver current = fileReceiver;
+        if (current != null && !current.isFinished()) {
+            throw new IOException("already receiving");
+        }
+        fileReceiver = receiver;
+    }
+
+    /// Starts link measurement, which consumes read data (instead of the usual read pipeline) until finished
+    void startBenchmark(BluetoothBenchmark benchmark) throws IOException {
+        if (!isConnected()) {
+            throw new IOException("not connected");
+        }
+        synchronized (this) {
+            final BluetoothBenchmark current = this.benchmark;
+            if (current != null && !current.isFinished()) {
+                throw new IOException("benchmark already running");
+            }
+            this.benchmark = benchmark;
+        }
+        try {
+            benchmark.start();
+        } catch (IOException ex) {
+            this.benchmark = null;
+            throw ex;
+        }
+    }
+
+    /// Starts checking the link by given keepalive (null to stop), which closes the connection
+    /// (as closed by remote) once the link is considered dead
+    void setKeepalive(BluetoothKeepalive keepalive) throws IOException {
+        final ConnectionThread thread = connectionThread.get();
+        if (keepalive != null && (thread == null || !isConnected())) {
+            throw new IOException("not connected");
+        }
+        final BluetoothKeepalive previous = this.keepalive;
+        this.keepalive = keepalive;
+        if (previous != null) {
+            previous.stop();
+        }
+        if (keepalive != null) {
+            keepalive.start(getScheduler(), new BluetoothKeepalive.Link() {
+                @Override
+                public void ping(byte[] payload) throws IOException {
+                    writeAsync(payload, false, null);
+                }
+
+                @Override
+                public void expire() {
+                    Log.w(TAG, "Link is dead (keepalive expired), closing");
+                    thread.abort();
+                }
+            });
+        }
+    }
+
+    /// Returns whether the connection was closed because keepalive expired
+    public boolean isKeepaliveExpired() {
+        final BluetoothKeepalive keepalive = this.keepalive;
+        return keepalive != null && keepalive.isExpired();
+    }
+
+    /// Starts splitting the connection into logical channels, after which read data are passed
+    /// only to the multiplexer channels (and subscriptions), not to `onRead` callback
+    void setMultiplexer(BluetoothMultiplexer multiplexer) throws IOException {
+        if (!isConnected()) {
+            throw new IOException("not connected");
+        }
+        if (this.multiplexer != null) {
+            throw new IllegalStateException("already multiplexed");
+        }
+        if (protocolEngine != null) {
+            throw new IllegalStateException("protocol engine is set");
+        }
+        this.multiplexer = multiplexer;
+    }
+
+    BluetoothMultiplexer getMultiplexer() {
+        return multiplexer;
+    }
+
+    /// Sets protocol engine (null to remove), after which read data are passed only to the engine
+    /// (and subscriptions), not to `onRead` callback. Requests of replaced engine are failed.
+    void setProtocolEngine(BluetoothProtocolEngine engine) throws IOException {
+        if (engine != null && !isConnected()) {
+            throw new IOException("not connected");
+        }
+        if (engine != null && multiplexer != null) {
+            throw new IllegalStateException("connection is multiplexed");
+        }
+        final BluetoothProtocolEngine previous = protocolEngine;
+        protocolEngine = engine;
+        if (previous != null) {
+            previous.onClosed();
+        }
+    }
+
+    BluetoothProtocolEngine getProtocolEngine() {
+        return protocolEngine;
+    }
+
+    /// Adds named subscription of read data, which gets all data read since now
+    void addSubscription(BluetoothReadSubscription subscription) throws IOException {
         if (!isConnected()) {
             throw new IOException("not connected");
         }
+        synchronized (subscriptions) {
+            if (getSubscription(subscription.getName()) != null) {
+                throw new IllegalStateException("subscription '" + subscription.getName() + "' already exists");
+            }
+            subscriptions.add(subscription);
+        }
+    }
+
+    /// Removes subscription, not affecting the connection nor other subscriptions
+    void removeSubscription(BluetoothReadSubscription subscription) {
+        subscriptions.remove(subscription);
+    }
+
+    /// Returns subscription by name (null if there is no such)
+    BluetoothReadSubscription getSubscription(String name) {
+        for (BluetoothReadSubscription subscription : subscriptions) {
+            if (subscription.getName().equals(name)) {
+                return subscription;
+            }
+        }
+        return null;
+    }
+
+    /// Returns all subscriptions
+    List<BluetoothReadSubscription> getSubscriptions() {
+        return new ArrayList<>(subscriptions);
+    }
+
+    /// Whether data can be injected by `injectRead`, that is the connection uses loopback transport
+    boolean canInjectRead() {
+        final ConnectionThread thread = connectionThread.get();
+        return thread != null && thread.transport instanceof LoopbackTransport;
+    }
+
+    /// Feeds data to the reader thread as if it was read from the remote device (for example replayed capture),
+    /// so the read pipeline is still run by single thread. Only loopback connections support it, as other
+    /// transports cannot be fed without racing with the data actually read.
+    public void injectRead(byte[] data) throws IOException {
+        final ConnectionThread thread = connectionThread.get();
+        if (thread == null || thread.state.get() != STATE_OPEN) {
+            throw new IOException("not connected");
+        }
+        if (!(thread.transport instanceof LoopbackTransport)) {
+            throw new IOException("injecting requires loopback connection");
+        }
+        ((LoopbackTransport) thread.transport).inject(data);
+    }
+
+    /// Passes read data to capture log, codec, subscriptions, then multiplexer or file receiver,
+    /// frame decoder and validator, then to collecting buffer or `onRead` callback
+    private void dispatchRead(byte[] buffer, int length, boolean capture, long timestamp) {
+        final BluetoothCaptureLog log = capture ? captureLog.get() : null;
+        final BluetoothCodec codec = this.codec;
+        final BluetoothFrameDecoder decoder = frameDecoder;
+        final CollectingBuffer collecting = collectingBuffer;
+        if (log == null && codec == null && decoder == null && collecting != null && subscriptions.isEmpty() && multiplexer == null && protocolEngine == null && fileReceiver == null) {
+            // Avoid copying if only collecting
+            payloadBytesRead.addAndGet(length);
+            collecting.append(buffer, length);
+            return;
+        }
+
+        byte[] raw = null;
+        if (log != null) {
+            // Data are captured as transferred (encoded), so replaying goes through the codec again
+            raw = Arrays.copyOf(buffer, length);
+            log.append(BluetoothCaptureLog.DIRECTION_IN, raw, timestamp);
+        }
+
+        byte[] data;
+        if (codec != null) {
+            try {
+                data = codec.decode(buffer, length);
+            } catch (IOException ex) {
+                Log.e(TAG, "Decoding read data failed, dropping", ex);
+                codec.reset();
+                return;
+            }
+            length = data.length;
+            if (length == 0) {
+                return;
+            }
+        } else {
+            data = null;
+        }
+        payloadBytesRead.addAndGet(length);
+
+        if (!subscriptions.isEmpty()) {
+            // Single copy is shared by subscriptions and the rest of the pipeline
+            if (data == null) {
+                data = raw != null ? raw : Arrays.copyOf(buffer, length);
+            }
+            for (BluetoothReadSubscription subscription : subscriptions) {
+                subscription.feed(data);
+            }
+        }
+
+        final BluetoothMultiplexer mux = multiplexer;
+        if (mux != null) {
+            mux.feed(data != null ? data : buffer, length);
+            return;
+        }
+
+        final BluetoothProtocolEngine engine = protocolEngine;
+        if (engine != null) {
+            engine.feed(data != null ? data : buffer, length, timestamp);
+            return;
+        }
+
+        final BluetoothFileReceiver receiver = fileReceiver;
+        if (receiver != null && !receiver.isFramed()) {
+            final byte[] source = data != null ? data : buffer;
+            final int received = receiver.receive(source, length);
+            if (receiver.isFinished() && fileReceiver == receiver) {
+                fileReceiver = null;
+            }
+            if (received >= length) {
+                return;
+            }
+            // Data after the end of receiving continue through the usual pipeline
+            data = Arrays.copyOfRange(source, received, length);
+            length = data.length;
+        }
+
+        if (decoder != null) {
+            // Frames get time of the read which completed them
+            decoder.feed(data != null ? data : buffer, length, (frame) -> dispatchFrame(frame, timestamp));
+            return;
+        }
+
+        if (data == null) {
+            data = raw != null ? raw : Arrays.copyOf(buffer, length);
+        }
+        deliverRead(data, timestamp);
+    }
+
+    /// Validates decoded frame (if validation is enabled) and passes it further
+    private void dispatchFrame(byte[] frame, long timestamp) {
+        final BluetoothFrameValidator validator = frameValidator;
+        if (validator != null) {
+            if (!validator.validate(frame)) {
+                if (validator.getPolicy() == BluetoothFrameValidator.Policy.FLAG) {
+                    onCorruptFrame(frame);
+                }
+                return;
+            }
+            frame = validator.strip(frame);
+        }
+
+        final BluetoothFileReceiver receiver = fileReceiver;
+        if (receiver != null && receiver.isFramed() && receiver.receiveFrame(frame)) {
+            if (receiver.isFinished() && fileReceiver == receiver) {
+                fileReceiver = null;
+            }
+            return;
+        }
+        deliverRead(frame, timestamp);
+    }
 
-        connectionThread.write(data);
+    private void deliverRead(byte[] data, long timestamp) {
+        final CollectingBuffer collecting = collectingBuffer;
+        if (collecting != null) {
+            collecting.append(data, data.length);
+        } else {
+            onRead(data, timestamp);
+        }
     }
 
     /// Callback for reading data.
     protected abstract void onRead(byte[] data);
 
+    /// Callback for reading data, with time the data were read from the transport (as `SystemClock.elapsedRealtimeNanos`,
+    /// for frames time the last part was read). Calls `onRead(byte[])` by default.
+    protected void onRead(byte[] data, long timestampNanos) {
+        onRead(data);
+    }
+
+    /// Returns histogram of latency from reading data to their delivery, as recorded by `recordDeliveryLatency`
+    public BluetoothLatencyHistogram getDeliveryLatency() {
+        return deliveryLatency;
+    }
+
+    /// Records delivery latency of data read at given time (as `SystemClock.elapsedRealtimeNanos`)
+    public void recordDeliveryLatency(long timestampNanos) {
+        deliveryLatency.record(SystemClock.elapsedRealtimeNanos() - timestampNanos);
+    }
+
+    /// Callback for frames which failed checksum validation (only if flagging corrupt frames).
+    protected void onCorruptFrame(byte[] frame) {}
+
     /// Callback for disconnection.
     protected abstract void onDisconnected(boolean byRemote);
 
-    /// Thread to handle connection I/O
+    /// Bounded buffer for collected data, newest data is dropped if full
+    private static class CollectingBuffer {
+        private final int maxBytes;
+        private ByteArrayOutputStream data = new ByteArrayOutputStream(1024);
+        private long droppedBytes = 0;
+
+        CollectingBuffer(int maxBytes) {
+            this.maxBytes = maxBytes;
+        }
+
+        synchronized void append(byte[] buffer, int length) {
+            final int free = maxBytes - data.size();
+            if (free < length) {
+                droppedBytes += length - Math.max(free, 0);
+                length = Math.max(free, 0);
+            }
+            data.write(buffer, 0, length);
+        }
+
+        synchronized long getDroppedBytes() {
+            return droppedBytes;
+        }
+
+        synchronized byte[] take() {
+            final byte[] bytes = data.toByteArray();
+            data = new ByteArrayOutputStream(Math.max(1024, bytes.length));
+            return bytes;
+        }
+    }
+
+    /// Job writing single data array, which can be awaited. Data in bulk lane are written in chunks
+    /// of at most `BULK_CHUNK_SIZE` bytes, so control writes can go between them.
+    private static class WriteDataJob extends BluetoothWriteJob {
+        private static final int BULK_CHUNK_SIZE = 1024;
+
+        private final CountDownLatch latch = new CountDownLatch(1);
+        private final WriteCallback callback;
+        private byte[] data;
+        private int offset = 0;
+        private volatile IOException error = null;
+
+        WriteDataJob(byte[] data, int lane, WriteCallback callback) {
+            super(lane);
+            this.data = data;
+            this.callback = callback;
+        }
+
+        @Override
+        byte[] nextChunk() {
+            if (data == null) {
+                return null;
+            }
+            final int remaining = data.length - offset;
+            if (getLane() == LANE_BULK && remaining > BULK_CHUNK_SIZE) {
+                final byte[] chunk = Arrays.copyOfRange(data, offset, offset + BULK_CHUNK_SIZE);
+                offset += BULK_CHUNK_SIZE;
+                return chunk;
+            }
+            final byte[] chunk = offset == 0 ? data : Arrays.copyOfRange(data, offset, data.length);
+            data = null;
+            return chunk;
+        }
+
+        @Override
+        void onChunkWritten(int length) {
+            if (data == null) {
+                // Written already, no need to wait for the job to be taken again
+                complete(null);
+            }
+        }
+
+        @Override
+        void onFinished(IOException error) {
+            complete(error);
+        }
+
+        private void complete(IOException error) {
+            if (latch.getCount() != 0) {
+                this.error = error;
+                latch.countDown();
+                if (callback != null) {
+                    callback.onWritten(error);
+                }
+            }
+        }
+
+        /// Waits until the data are written, throws if writing failed
+        void await() throws IOException {
+            try {
+                latch.await();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("interrupted while writing");
+            }
+            if (error != null) {
+                throw error;
+            }
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static ConcurrentLinkedQueue<BluetoothWriteJob>[] createWriteQueues() {
+        ConcurrentLinkedQueue<BluetoothWriteJob>[] queues = new ConcurrentLinkedQueue[BluetoothWriteJob.LANES_COUNT];
+        for (int lane = 0; lane < queues.length; lane++) {
+            queues[lane] = new ConcurrentLinkedQueue<>();
+        }
+        return queues;
+    }
+
+    /// Records time the job waited in queue before its writing started
+    private void onJobStarted(BluetoothWriteJob job) {
+        final long waited = System.nanoTime() - job.queuedTime;
+        final int lane = job.getLane();
+        laneJobs[lane].incrementAndGet();
+        laneWaitNanos[lane].addAndGet(waited);
+        if (waited > laneMaxWaitNanos[lane].get()) {
+            laneMaxWaitNanos[lane].set(waited); // Only the writer thread updates it
+        }
+    }
+
+    /// Request to close the connection once drained
+    private static class CloseRequest {
+        final long requestTime;
+        final long deadline;
+        final CloseCallback callback;
+        volatile ScheduledFuture<?> timeout = null;
+
+        CloseRequest(long drainTimeoutMillis, CloseCallback callback) {
+            this.requestTime = System.nanoTime();
+            this.deadline = requestTime + drainTimeoutMillis * 1000000;
+            this.callback = callback;
+        }
+    }
+
+    /// Thread to handle connection I/O. Reading is done by the thread itself,
+    /// writing by separate writer thread processing queued write jobs chunk by chunk.
     private class ConnectionThread extends Thread  {
-        private final BluetoothSocket socket;
+        private final BluetoothTransport transport;
         private final InputStream input;
         private final OutputStream output;
-        private boolean requestedClosing = false;
+
+        /// Session state, checked by read and write paths without locking
+        private final AtomicInteger state = new AtomicInteger(STATE_CONNECTING);
+        private final AtomicReference<CloseRequest> closeRequest = new AtomicReference<>();
+
+        /// Queued write jobs, by lane
+        private final ConcurrentLinkedQueue<BluetoothWriteJob>[] writeQueues = createWriteQueues();
+        /// Signalled whenever job is queued, so idle writer can wake up
+        private final Semaphore writeSignal = new Semaphore(0);
+        private final Thread writerThread = new Thread(this::runWriter, "BluetoothWriter");
+
+        // Accessed only by the writer thread
+        /// Jobs being written, by lane (jobs of the same lane are written one after another)
+        private final BluetoothWriteJob[] currentJobs = new BluetoothWriteJob[BluetoothWriteJob.LANES_COUNT];
+        /// Chunks of current jobs being written in paced pieces, by lane (null if no chunk is partially written)
+        private final byte[][] pendingChunks = new byte[BluetoothWriteJob.LANES_COUNT][];
+        /// Count of bytes of pending chunks written already, by lane
+        private final int[] pendingOffsets = new int[BluetoothWriteJob.LANES_COUNT];
         
-        ConnectionThread(BluetoothSocket socket) {
-            this.socket = socket;
+        ConnectionThread(BluetoothTransport transport) {
+            this.transport = transport;
             InputStream tmpIn = null;
             OutputStream tmpOut = null;
 
             try {
-                tmpIn = socket.getInputStream();
-                tmpOut = socket.getOutputStream();
+                tmpIn = transport.getInputStream();
+                tmpOut = transport.getOutputStream();
             } catch (IOException e) {
                 e.printStackTrace();
             }
@@ -110,22 +890,65 @@ public abstract class BluetoothConnection
             this.output = tmpOut;
         }
 
+        @Override
+        public synchronized void start() {
+            if (!state.compareAndSet(STATE_CONNECTING, STATE_OPEN)) {
+                return;
+            }
+            writerThread.start();
+            super.start();
+        }
+
         /// Thread main code
         public void run() {
             byte[] buffer = new byte[1024];
             int bytes;
 
-            while (!requestedClosing) {
+            // Reading continues while draining, until the transport is closed
+            while (state.get() != STATE_CLOSED) {
                 try {
                     bytes = input.read(buffer);
+                    if (bytes < 0) {
+                        // End of stream
+                        break;
+                    }
+                    // Taken before any processing, as close to the time the data arrived as possible
+                    final long timestamp = SystemClock.elapsedRealtimeNanos();
+                    bytesRead.addAndGet(bytes);
+
+                    final BluetoothKeepalive keepalive = BluetoothConnection.this.keepalive;
+                    if (keepalive != null) {
+                        keepalive.onRead(buffer, bytes);
+                    }
 
-                    onRead(Arrays.copyOf(buffer, bytes));
+                    final BluetoothBenchmark benchmark = BluetoothConnection.this.benchmark;
+                    if (benchmark != null && !benchmark.isFinished() && benchmark.onRead(buffer, bytes, timestamp)) {
+                        continue;
+                    }
+
+                    dispatchRead(buffer, bytes, true, timestamp);
                 } catch (IOException e) {
                     // `input.read` throws when closed by remote device
                     break;
                 }
             }
 
+            // Closed while open means closed by remote, otherwise closing was requested
+            final boolean byRemote = state.compareAndSet(STATE_OPEN, STATE_CLOSED);
+            if (!byRemote) {
+                // Finish closing if still draining (for example remote closed meanwhile)
+                closeTransport(false);
+            }
+
+            // Stop writing, pending jobs are failed
+            writerThread.interrupt();
+
+            // Stop checking the link (expired state is kept for `onDisconnected`)
+            final BluetoothKeepalive keepalive = BluetoothConnection.this.keepalive;
+            if (keepalive != null) {
+                keepalive.stop();
+            }
+
             // Make sure output stream is closed
             if (output != null) {
                 try {
@@ -142,45 +965,266 @@ public abstract class BluetoothConnection
                 catch (Exception e) {}
             }
 
+            // End receiving to file, if any
+            final BluetoothFileReceiver receiver = fileReceiver;
+            if (receiver != null) {
+                fileReceiver = null;
+                receiver.onClosed();
+            }
+
+            // Fail running benchmark, if any
+            final BluetoothBenchmark benchmark = BluetoothConnection.this.benchmark;
+            if (benchmark != null) {
+                benchmark.onClosed();
+            }
+
+            // Fail writes queued in multiplexer channels
+            final BluetoothMultiplexer mux = multiplexer;
+            if (mux != null) {
+                mux.onClosed();
+            }
+
+            // Fail requests of protocol engine
+            final BluetoothProtocolEngine engine = protocolEngine;
+            if (engine != null) {
+                engine.onClosed();
+            }
+
+            // Release codec, its stream state belongs to the ended session
+            setCodec(null);
+
             // Callback on disconnected, with information which side is closing
-            onDisconnected(!requestedClosing);
+            onDisconnected(byRemote);
+        }
+
+        /// Queues write job for the writer thread, returns false if not open
+        boolean enqueue(BluetoothWriteJob job) {
+            if (state.get() != STATE_OPEN) {
+                return false;
+            }
+            job.queuedTime = System.nanoTime();
+            job.setReadyListener(writeSignal::release);
+            writeQueues[job.getLane()].add(job);
+            writeSignal.release();
+            if (state.get() == STATE_CLOSED) {
+                // Writer might have stopped before the job was added
+                failPendingJobs();
+            }
+            return true;
+        }
 
-            // Just prevent unnecessary `cancel`ing
-            requestedClosing = true;
+        /// Returns count of queued write jobs in given lane
+        int getPendingJobs(int lane) {
+            return writeQueues[lane].size();
         }
 
-        /// Writes to output stream
-        public void write(byte[] bytes) {
+        /// Returns job to write next chunk of: continues current job of the most urgent lane having any job ready
+        /// (lanes of jobs waiting for their data are skipped meanwhile)
+        private BluetoothWriteJob nextJob() {
+            for (int lane = 0; lane < BluetoothWriteJob.LANES_COUNT; lane++) {
+                if (currentJobs[lane] == null) {
+                    currentJobs[lane] = writeQueues[lane].poll();
+                    if (currentJobs[lane] != null) {
+                        onJobStarted(currentJobs[lane]);
+                    }
+                }
+                final BluetoothWriteJob job = currentJobs[lane];
+                if (job != null && (pendingChunks[lane] != null || job.isCancelled() || job.isReady())) {
+                    return job;
+                }
+            }
+            return null;
+        }
+
+        /// Whether any lane has job being written (even if waiting for its data)
+        private boolean hasCurrentJobs() {
+            for (BluetoothWriteJob job : currentJobs) {
+                if (job != null) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /// Writer thread main code
+        private void runWriter() {
             try {
-                output.write(bytes);
-            } catch (IOException e) {
-                e.printStackTrace();
+                int currentState;
+                while ((currentState = state.get()) != STATE_CLOSED) {
+                    if (currentState == STATE_DRAINING && System.nanoTime() - closeRequest.get().deadline >= 0) {
+                        // Not drained in time, close anyway
+                        closeTransport(false);
+                        break;
+                    }
+
+                    final BluetoothWriteJob job = nextJob();
+                    if (job == null) {
+                        if (currentState == STATE_DRAINING && !hasCurrentJobs()) {
+                            // Everything written
+                            closeTransport(true);
+                            break;
+                        }
+                        writeSignal.acquire();
+                        continue;
+                    }
+
+                    final int lane = job.getLane();
+                    final byte[] chunk;
+                    try {
+                        if (pendingChunks[lane] == null) {
+                            if (job.isCancelled()) {
+                                currentJobs[lane] = null;
+                                job.onFinished(BluetoothWriteJob.cancelledError());
+                                continue;
+                            }
+                            final byte[] next = job.nextChunk();
+                            if (next == null) {
+                                currentJobs[lane] = null;
+                                job.onFinished(null);
+                                continue;
+                            }
+                            pendingChunks[lane] = next;
+                            pendingOffsets[lane] = 0;
+                        }
+                        chunk = pendingChunks[lane];
+                        if (!writePending(lane)) {
+                            // Rest of the chunk is written after checking more urgent lanes again
+                            continue;
+                        }
+                    } catch (IOException ex) {
+                        currentJobs[lane] = null;
+                        pendingChunks[lane] = null;
+                        job.onFinished(ex);
+                        continue;
+                    }
+                    job.onChunkWritten(chunk.length);
+                }
+            } catch (InterruptedException ex) {
+                // Stopped
+            }
+
+            for (int lane = 0; lane < BluetoothWriteJob.LANES_COUNT; lane++) {
+                if (currentJobs[lane] != null) {
+                    currentJobs[lane].onFinished(new IOException("not connected"));
+                    currentJobs[lane] = null;
+                }
             }
+            failPendingJobs();
         }
 
-        /// Stops the thread, disconnects
-        public void cancel() {
-            if (requestedClosing) {
-                return;
+        private void failPendingJobs() {
+            for (ConcurrentLinkedQueue<BluetoothWriteJob> queue : writeQueues) {
+                BluetoothWriteJob job;
+                while ((job = queue.poll()) != null) {
+                    job.onFinished(new IOException("not connected"));
+                }
+            }
+        }
+
+        /// Writes next piece of pending chunk of given lane: whole chunk, or single piece of at most pacer chunk size
+        /// if pacer is set (so the gap and rate apply within single long chunk too). Returns true once the whole chunk
+        /// was written. Pieces are encoded right before being written, so other lanes can write between them.
+        private boolean writePending(int lane) throws IOException {
+            final byte[] chunk = pendingChunks[lane];
+            final int offset = pendingOffsets[lane];
+            final BluetoothWritePacer pacer = writePacer;
+            final int length = pacer == null ? chunk.length - offset : Math.min(pacer.getChunkSize(), chunk.length - offset);
+            writeChunk(offset == 0 && length == chunk.length ? chunk : Arrays.copyOfRange(chunk, offset, offset + length), pacer);
+            pendingOffsets[lane] = offset + length;
+            if (pendingOffsets[lane] < chunk.length) {
+                return false;
+            }
+            pendingChunks[lane] = null;
+            return true;
+        }
+
+        /// Writes to output stream (encoded if codec is set, paced if pacer is set), called only by the writer thread
+        private void writeChunk(byte[] bytes, BluetoothWritePacer pacer) throws IOException {
+            payloadBytesWritten.addAndGet(bytes.length);
+            final BluetoothCodec codec = BluetoothConnection.this.codec;
+            if (codec != null) {
+                bytes = codec.encode(bytes);
+            }
+
+            if (pacer != null && bytes.length > 0) {
+                pacer.acquire(bytes.length);
+            }
+            writeRaw(bytes);
+        }
+
+        private void writeRaw(byte[] bytes) throws IOException {
+            output.write(bytes);
+            bytesWritten.addAndGet(bytes.length);
+
+            final BluetoothCaptureLog log = captureLog.get();
+            if (log != null) {
+                log.append(BluetoothCaptureLog.DIRECTION_OUT, bytes);
             }
-            requestedClosing = true;
+        }
 
-            // Flush output buffers befoce closing
+        /// Closes the transport without closing request, so the connection ends as closed by remote
+        /// (used when the link is dead, when draining would only wait for timeout)
+        void abort() {
+            if (state.get() != STATE_OPEN) {
+                return;
+            }
             try {
-                output.flush();
+                transport.close();
             }
             catch (Exception e) {}
+        }
+
+        /// Requests closing once queued writes are written (or timeout passes), without blocking the caller.
+        /// Returns false if not open.
+        public boolean close(long drainTimeoutMillis, CloseCallback callback) {
+            if (state.get() != STATE_OPEN) {
+                return false;
+            }
+            final CloseRequest request = new CloseRequest(drainTimeoutMillis, callback);
+            if (!closeRequest.compareAndSet(null, request) || !state.compareAndSet(STATE_OPEN, STATE_DRAINING)) {
+                // Closing already requested or closed by remote meanwhile
+                return false;
+            }
+
+            // Forces closing even if writer is stuck in blocking write
+            request.timeout = getScheduler().schedule(() -> closeTransport(false), drainTimeoutMillis, TimeUnit.MILLISECONDS);
+            writeSignal.release();
+            return true;
+        }
 
-            // Close the connection socket
-            if (socket != null) {
+        /// Closes the transport (once, only if draining), which also ends the reading loop
+        private void closeTransport(boolean drained) {
+            if (!state.compareAndSet(STATE_DRAINING, STATE_CLOSED)) {
+                return;
+            }
+            final CloseRequest request = closeRequest.get();
+            final ScheduledFuture<?> timeout = request.timeout;
+            if (timeout != null) {
+                timeout.cancel(false);
+            }
+
+            // Flush output buffers before closing. Not drained in time means the stream is stalled, then flushing
+            // would block (the timeout runs on the scheduler shared by all connections), so it is closed directly.
+            if (drained) {
                 try {
-                    // Might be useful (see https://stackoverflow.com/a/22769260/4880243)
-                    Thread.sleep(111);
+                    output.flush();
+                }
+                catch (Exception e) {}
+            }
 
-                    socket.close();
+            // Close the connection transport (socket)
+            if (transport != null) {
+                try {
+                    transport.close();
                 }
                 catch (Exception e) {}
             }
+
+            final long latency = System.nanoTime() - request.requestTime;
+            lastCloseLatencyNanos = latency;
+            if (request.callback != null) {
+                request.callback.onClosed(latency / 1000, drained);
+            }
         }
     }
 }
@@ -0,0 +1,140 @@
+package io.github.edufolly.flutterbluetoothserial;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.util.SparseArray;
+
+/// Process-wide core of the plugin: connections registered by ID, shared by all plugin instances
+/// (one per Flutter engine, including headless ones), so single link can serve several engines
+/// without reconnecting.
+///
+/// Results and events are dispatched through single main thread `Handler`, so delivery does not
+/// depend on any activity being attached.
+final class BluetoothConnectionRegistry
+{
+    /// Plugin instance (engine) attached to the registry
+    interface Listener {
+        /// Called on the main thread when link status of any registered connection changes
+        void onLinkStatus(int id, byte status);
+    }
+
+    private static BluetoothConnectionRegistry instance = null;
+
+    /// Returns the registry of the process
+    static synchronized BluetoothConnectionRegistry getInstance() {
+        if (instance == null) {
+            instance = new BluetoothConnectionRegistry();
+        }
+        return instance;
+    }
+
+    private final Handler handler = new Handler(Looper.getMainLooper());
+
+    private final CopyOnWriteArrayList<Listener> listeners = new CopyOnWriteArrayList<>();
+
+    /// Last number given to attached engine, used to name their resources
+    private int lastEngineNumber = 0;
+
+    /// Active connections, by ID (guarded by `this`)
+    private final SparseArray<BluetoothConnection> connections = new SparseArray<>(2);
+
+    /// Last ID given to any connection, unique within the process
+    private int lastConnectionId = 0;
+
+    /// Engines polling by protocol engine of connection, by connection ID (guarded by `this`).
+    /// Protocol engine is shared by all engines using the connection, so it is removed only after
+    /// the last of them stops polling.
+    private final SparseArray<List<Listener>> pollers = new SparseArray<>(2);
+
+    private BluetoothConnectionRegistry() {}
+
+    /// Attaches engine listener, returns number of the engine (unique within the process)
+    synchronized int attach(Listener listener) {
+        listeners.add(listener);
+        return ++lastEngineNumber;
+    }
+
+    void detach(Listener listener) {
+        listeners.remove(listener);
+    }
+
+    /// Runs given action on the main thread
+    void post(Runnable action) {
+        handler.post(action);
+    }
+
+    /// Passes link status change to all attached engines (must be called on the main thread)
+    void notifyLinkStatus(int id, byte status) {
+        for (Listener listener : listeners) {
+            listener.onLinkStatus(id, status);
+        }
+    }
+
+    /// Returns new connection ID
+    synchronized int nextId() {
+        return ++lastConnectionId;
+    }
+
+    synchronized void put(int id, BluetoothConnection connection) {
+        connections.put(id, connection);
+    }
+
+    /// Returns connection with given ID (null if there is no such connection)
+    synchronized BluetoothConnection get(int id) {
+        return connections.get(id);
+    }
+
+    synchronized void remove(int id) {
+        connections.remove(id);
+        pollers.remove(id);
+    }
+
+    /// Records that engine of given listener polls the connection
+    synchronized void addPoller(int id, Listener listener) {
+        List<Listener> list = pollers.get(id);
+        if (list == null) {
+            list = new ArrayList<>(1);
+            pollers.put(id, list);
+        }
+        if (!list.contains(listener)) {
+            list.add(listener);
+        }
+    }
+
+    /// Records that engine of given listener no longer polls the connection, returns whether any
+    /// other engine still does
+    synchronized boolean removePoller(int id, Listener listener) {
+        final List<Listener> list = pollers.get(id);
+        if (list == null) {
+            return false;
+        }
+        list.remove(listener);
+        if (list.isEmpty()) {
+            pollers.remove(id);
+            return false;
+        }
+        return true;
+    }
+
+    /// Returns snapshot of all connections
+    synchronized List<BluetoothConnection> getAll() {
+        final int size = connections.size();
+        List<BluetoothConnection> list = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            list.add(connections.valueAt(i));
+        }
+        return list;
+    }
+
+    /// Removes all connections, returns the removed ones
+    synchronized List<BluetoothConnection> removeAll() {
+        final List<BluetoothConnection> list = getAll();
+        connections.clear();
+        pollers.clear();
+        return list;
+    }
+}
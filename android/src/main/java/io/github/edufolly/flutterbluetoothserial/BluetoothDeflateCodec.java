@@ -0,0 +1,107 @@
+package io.github.edufolly.flutterbluetoothserial;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/// Deflate codec, streaming both ways. Each write is sync-flushed, so it can be inflated
+/// by remote device immediately, while compression still benefits from previously written data.
+///
+/// Deflater and inflater are guarded by themselves, so closing from other thread cannot race
+/// with encoding on the writer thread or decoding on the reading thread.
+class BluetoothDeflateCodec implements BluetoothCodec
+{
+    private final Deflater deflater;
+    private final Inflater inflater;
+    private final byte[] buffer = new byte[4096];
+    private boolean deflaterClosed = false;
+    private boolean inflaterClosed = false;
+
+    /// Creates codec of given compression level, `raw` skips zlib header and checksum
+    BluetoothDeflateCodec(int level, boolean raw) {
+        deflater = new Deflater(level, raw);
+        inflater = new Inflater(raw);
+    }
+
+    @Override
+    public byte[] encode(byte[] data) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(data.length / 2 + 16);
+        synchronized (deflater) {
+            if (deflaterClosed) {
+                throw new IOException("codec closed");
+            }
+            deflater.setInput(data);
+            int length;
+            do {
+                length = deflater.deflate(buffer, 0, buffer.length, Deflater.SYNC_FLUSH);
+                out.write(buffer, 0, length);
+            } while (length == buffer.length);
+        }
+        return out.toByteArray();
+    }
+
+    @Override
+    public byte[] decode(byte[] data, int length) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(length * 3);
+        byte[] output = new byte[4096];
+        int offset = 0;
+        synchronized (inflater) {
+            if (inflaterClosed) {
+                throw new IOException("codec closed");
+            }
+            try {
+                inflater.setInput(data, offset, length);
+                while (true) {
+                    final int count = inflater.inflate(output);
+                    out.write(output, 0, count);
+                    if (inflater.finished()) {
+                        // Remote ended the stream, next data start new one
+                        final int remaining = inflater.getRemaining();
+                        inflater.reset();
+                        if (remaining == 0) {
+                            break;
+                        }
+                        offset += length - remaining;
+                        length = remaining;
+                        inflater.setInput(data, offset, length);
+                    } else if (inflater.needsDictionary()) {
+                        // No dictionary is agreed on, so nothing of the stream could be inflated
+                        throw new IOException("deflate stream requires preset dictionary");
+                    } else if (count == 0 && inflater.needsInput()) {
+                        break;
+                    }
+                }
+            } catch (DataFormatException ex) {
+                throw new IOException("invalid deflate data", ex);
+            }
+        }
+        return out.toByteArray();
+    }
+
+    @Override
+    public void reset() {
+        synchronized (inflater) {
+            if (!inflaterClosed) {
+                inflater.reset();
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        synchronized (deflater) {
+            if (!deflaterClosed) {
+                deflaterClosed = true;
+                deflater.end();
+            }
+        }
+        synchronized (inflater) {
+            if (!inflaterClosed) {
+                inflaterClosed = true;
+                inflater.end();
+            }
+        }
+    }
+}
@@ -0,0 +1,277 @@
+package io.github.edufolly.flutterbluetoothserial;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+
+import android.bluetooth.BluetoothAdapter;
+import android.bluetooth.BluetoothDevice;
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+
+/// Runs duty-cycled discovery: scan windows separated by idle windows, paused while any connection is busy.
+///
+/// Discovery degrades throughput of existing RFCOMM links, so scanning is paused as long as
+/// any connection transfers more than the threshold, and resumed afterwards. It is also paused
+/// while any socket is connecting, as connecting requires discovery to be off.
+///
+/// All methods are expected to be called from the main thread.
+class BluetoothDiscoveryScheduler
+{
+    private static final String TAG = "FlutterBluePlugin";
+
+    /// Interval of checking connections throughput
+    private static final long CHECK_INTERVAL_MILLIS = 1000;
+
+    /// Listener for scheduler events and source of connections to be monitored
+    interface Listener {
+        /// Called for each `ACTION_FOUND` intent
+        void onDeviceFound(Intent intent);
+
+        /// Returns connections to be checked for throughput
+        Iterable<? extends BluetoothConnection> getConnections();
+    }
+
+    private enum State { STOPPED, SCANNING, IDLE, PAUSED }
+
+    private final Context context;
+    private final BluetoothAdapter bluetoothAdapter;
+    private final Listener listener;
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    private final BroadcastReceiver receiver;
+
+    private State state = State.STOPPED;
+    private long scanMillis;
+    private long idleMillis;
+    private long throughputThreshold;
+
+    /// Time of ending current scan window
+    private long windowEndTime;
+    private long windowStartTime;
+
+    /// Last sampled transferred bytes count for each of connections
+    private final WeakHashMap<BluetoothConnection, Long> lastTransferred = new WeakHashMap<>();
+    private long lastCheckTime = 0;
+    private boolean lastCheckBusy = false;
+
+    // Metrics
+    private int cycles = 0;
+    private int pauses = 0;
+    private int inquiries = 0;
+    private long scanningTotalMillis = 0;
+    private long pausedTotalMillis = 0;
+    private long pauseStartTime = 0;
+    private int resultsCount = 0;
+    private final Set<String> foundAddresses = new HashSet<>();
+    private int lastCycleNewDevices = 0;
+
+    private final Runnable tick = this::onTick;
+
+    BluetoothDiscoveryScheduler(Context context, BluetoothAdapter bluetoothAdapter, Listener listener) {
+        this.context = context;
+        this.bluetoothAdapter = bluetoothAdapter;
+        this.listener = listener;
+
+        receiver = new BroadcastReceiver() {
+            @Override
+            public void onReceive(Context context, Intent intent) {
+                switch (intent.getAction()) {
+                    case BluetoothDevice.ACTION_FOUND:
+                        final BluetoothDevice device = intent.getParcelableExtra(BluetoothDevice.EXTRA_DEVICE);
+                        resultsCount++;
+                        if (foundAddresses.add(device.getAddress())) {
+                            lastCycleNewDevices++;
+                        }
+                        listener.onDeviceFound(intent);
+                        break;
+
+                    case BluetoothAdapter.ACTION_DISCOVERY_FINISHED:
+                        // Single inquiry takes about 12 seconds, restart if scan window is still open,
+                        // unless it was canceled for connecting (next tick pauses the scheduler then).
+                        if (state == State.SCANNING && SystemClock.elapsedRealtime() < windowEndTime && !BluetoothConnection.isAnyConnecting()) {
+                            handler.removeCallbacks(tick);
+                            handler.post(tick);
+                        }
+                        break;
+
+                    default:
+                        // Ignore.
+                        break;
+                }
+            }
+        };
+    }
+
+    boolean isRunning() {
+        return state != State.STOPPED;
+    }
+
+    /// Starts scheduled discovery with given scan and idle windows, pausing while any connection
+    /// transfers more than `throughputThreshold` bytes per second (non-positive to never pause).
+    void start(long scanMillis, long idleMillis, long throughputThreshold) {
+        if (isRunning()) {
+            stop();
+        }
+        this.scanMillis = scanMillis;
+        this.idleMillis = idleMillis;
+        this.throughputThreshold = throughputThreshold;
+
+        IntentFilter filter = new IntentFilter();
+        filter.addAction(BluetoothAdapter.ACTION_DISCOVERY_FINISHED);
+        filter.addAction(BluetoothDevice.ACTION_FOUND);
+        context.registerReceiver(receiver, filter);
+
+        Log.d(TAG, "Starting scheduled discovery (scan: " + scanMillis + " ms, idle: " + idleMillis + " ms)");
+        lastTransferred.clear();
+        lastCheckTime = 0;
+        lastCheckBusy = false;
+        startCycle();
+    }
+
+    /// Stops scheduled discovery
+    void stop() {
+        if (!isRunning()) {
+            return;
+        }
+        Log.d(TAG, "Stopping scheduled discovery");
+        handler.removeCallbacks(tick);
+        if (state == State.SCANNING) {
+            endScanning();
+        } else if (state == State.PAUSED) {
+            pausedTotalMillis += SystemClock.elapsedRealtime() - pauseStartTime;
+        }
+        state = State.STOPPED;
+
+        try {
+            context.unregisterReceiver(receiver);
+        } catch (IllegalArgumentException ex) {
+            // Ignore `Receiver not registered` exception
+        }
+    }
+
+    /// Returns discovery coverage metrics
+    Map<String, Object> getStats() {
+        long scanning = scanningTotalMillis;
+        long paused = pausedTotalMillis;
+        final long now = SystemClock.elapsedRealtime();
+        if (state == State.SCANNING) {
+            scanning += now - windowStartTime;
+        } else if (state == State.PAUSED) {
+            paused += now - pauseStartTime;
+        }
+
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("state", state.name().toLowerCase());
+        stats.put("cycles", cycles);
+        stats.put("inquiries", inquiries);
+        stats.put("pauses", pauses);
+        stats.put("scanningMillis", scanning);
+        stats.put("pausedMillis", paused);
+        stats.put("results", resultsCount);
+        stats.put("uniqueDevices", foundAddresses.size());
+        stats.put("lastCycleNewDevices", lastCycleNewDevices);
+        return stats;
+    }
+
+    private void pause() {
+        if (state != State.PAUSED) {
+            Log.d(TAG, "Scheduled discovery paused (connection busy or connecting)");
+            pauses++;
+            pauseStartTime = SystemClock.elapsedRealtime();
+            state = State.PAUSED;
+        }
+        handler.postDelayed(tick, CHECK_INTERVAL_MILLIS);
+    }
+
+    private void startCycle() {
+        if (BluetoothConnection.isAnyConnecting() || isAnyConnectionBusy()) {
+            pause();
+            return;
+        }
+        if (state == State.PAUSED) {
+            Log.d(TAG, "Scheduled discovery resumed");
+            pausedTotalMillis += SystemClock.elapsedRealtime() - pauseStartTime;
+        }
+
+        cycles++;
+        lastCycleNewDevices = 0;
+        state = State.SCANNING;
+        windowStartTime = SystemClock.elapsedRealtime();
+        windowEndTime = windowStartTime + scanMillis;
+        startInquiry();
+        handler.postDelayed(tick, CHECK_INTERVAL_MILLIS);
+    }
+
+    private void startInquiry() {
+        if (!bluetoothAdapter.isDiscovering()) {
+            inquiries++;
+            bluetoothAdapter.startDiscovery();
+        }
+    }
+
+    private void endScanning() {
+        bluetoothAdapter.cancelDiscovery();
+        scanningTotalMillis += SystemClock.elapsedRealtime() - windowStartTime;
+    }
+
+    private void onTick() {
+        final long now = SystemClock.elapsedRealtime();
+        switch (state) {
+            case SCANNING:
+                if (BluetoothConnection.isAnyConnecting() || isAnyConnectionBusy()) {
+                    endScanning();
+                    pause();
+                } else if (now >= windowEndTime) {
+                    endScanning();
+                    state = State.IDLE;
+                    handler.postDelayed(tick, idleMillis);
+                } else {
+                    startInquiry();
+                    handler.postDelayed(tick, Math.min(CHECK_INTERVAL_MILLIS, windowEndTime - now));
+                }
+                break;
+
+            case IDLE:
+            case PAUSED:
+                startCycle();
+                break;
+
+            default:
+                break;
+        }
+    }
+
+    /// Samples transferred bytes of each connection, checking whether any is above the threshold
+    private boolean isAnyConnectionBusy() {
+        if (throughputThreshold <= 0) {
+            return false;
+        }
+
+        final long now = SystemClock.elapsedRealtime();
+        final long elapsed = now - lastCheckTime;
+        if (elapsed < CHECK_INTERVAL_MILLIS / 2) {
+            // Too short period to tell the rate
+            return lastCheckBusy;
+        }
+        lastCheckTime = now;
+
+        boolean busy = false;
+        for (BluetoothConnection connection : listener.getConnections()) {
+            final long transferred = connection.getTransferredBytes();
+            final Long last = lastTransferred.put(connection, transferred);
+            if (last != null && elapsed > 0 && (transferred - last) * 1000 / elapsed > throughputThreshold) {
+                busy = true;
+            }
+        }
+        lastCheckBusy = busy;
+        return busy;
+    }
+}
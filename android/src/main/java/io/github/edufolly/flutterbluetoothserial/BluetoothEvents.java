@@ -0,0 +1,68 @@
+package io.github.edufolly.flutterbluetoothserial;
+
+/// Compact binary encoding of events passed by the consolidated events channel.
+///
+/// Each event is single byte array, starting with type byte:
+/// - `TYPE_ADAPTER_STATE`: previous state (1), new state (1),
+/// - `TYPE_ACL_CONNECTED`, `TYPE_ACL_DISCONNECTED`: address (6),
+/// - `TYPE_BOND_STATE`: address (6), previous bond state (1), new bond state (1),
+/// - `TYPE_LINK_STATUS`: connection ID (4, big endian), link status (1).
+/// States are encoded as signed bytes, with `-1` used for errors or unknown values.
+final class BluetoothEvents
+{
+    static final byte TYPE_ADAPTER_STATE = 1;
+    static final byte TYPE_ACL_CONNECTED = 2;
+    static final byte TYPE_ACL_DISCONNECTED = 3;
+    static final byte TYPE_BOND_STATE = 4;
+    static final byte TYPE_LINK_STATUS = 5;
+
+    static final byte LINK_OPENED = 1;
+    static final byte LINK_CLOSED_BY_LOCAL = 2;
+    static final byte LINK_CLOSED_BY_REMOTE = 3;
+    /// Closed because keepalive detected dead link
+    static final byte LINK_EXPIRED = 4;
+
+    private BluetoothEvents() {}
+
+    static byte[] adapterState(int previousState, int state) {
+        return new byte[] { TYPE_ADAPTER_STATE, toByte(previousState), toByte(state) };
+    }
+
+    static byte[] acl(boolean connected, String address) {
+        byte[] event = new byte[7];
+        event[0] = connected ? TYPE_ACL_CONNECTED : TYPE_ACL_DISCONNECTED;
+        putAddress(event, 1, address);
+        return event;
+    }
+
+    static byte[] bondState(String address, int previousBondState, int bondState) {
+        byte[] event = new byte[9];
+        event[0] = TYPE_BOND_STATE;
+        putAddress(event, 1, address);
+        event[7] = toByte(previousBondState);
+        event[8] = toByte(bondState);
+        return event;
+    }
+
+    static byte[] linkStatus(int connectionId, byte status) {
+        return new byte[] {
+                TYPE_LINK_STATUS,
+                (byte) (connectionId >>> 24),
+                (byte) (connectionId >>> 16),
+                (byte) (connectionId >>> 8),
+                (byte) connectionId,
+                status
+        };
+    }
+
+    /// Writes `XX:XX:XX:XX:XX:XX` address as 6 raw bytes
+    private static void putAddress(byte[] buffer, int offset, String address) {
+        for (int i = 0; i < 6; i++) {
+            buffer[offset + i] = (byte) Integer.parseInt(address.substring(i * 3, i * 3 + 2), 16);
+        }
+    }
+
+    private static byte toByte(int value) {
+        return (value < Byte.MIN_VALUE || value > Byte.MAX_VALUE) ? -1 : (byte) value;
+    }
+}
@@ -0,0 +1,219 @@
+package io.github.edufolly.flutterbluetoothserial;
+
+import java.io.BufferedOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import android.os.SystemClock;
+
+/// Receives read data of the connection into a file, written on background thread.
+///
+/// Receiving ends after `byteCount` bytes, after `delimiter` (searched also across read chunks),
+/// or when the connection closes if neither is set. In framed mode whole frames are written
+/// and the delimiter is matched against whole frames instead.
+class BluetoothFileReceiver
+{
+    private final long byteCount;
+    private final byte[] delimiter;
+    private final int[] delimiterFailure;
+    private final boolean includeDelimiter;
+    private final boolean framed;
+    private final long progressInterval;
+    private final BluetoothTransferListener listener;
+
+    private final OutputStream output;
+    /// Single thread doing all the file operations, so receiving never blocks the reading thread
+    private final ExecutorService executor = Executors.newSingleThreadExecutor();
+
+    // Accessed only by the reading thread
+    private long consumed = 0;
+    /// Count of bytes matching beginning of the delimiter at the end of consumed data, not written yet
+    private int matched = 0;
+
+    private final AtomicBoolean finished = new AtomicBoolean();
+
+    // Accessed only by the executor thread
+    private long written = 0;
+    private long lastProgressTime = 0;
+    private IOException writeError = null;
+
+    BluetoothFileReceiver(String path, long byteCount, byte[] delimiter, boolean includeDelimiter, boolean framed,
+                          long progressInterval, BluetoothTransferListener listener) throws IOException {
+        if (delimiter != null && delimiter.length == 0) {
+            throw new IllegalArgumentException("delimiter cannot be empty");
+        }
+        this.byteCount = byteCount;
+        this.delimiter = delimiter;
+        this.delimiterFailure = delimiter != null && !framed ? buildFailureTable(delimiter) : null;
+        this.includeDelimiter = includeDelimiter;
+        this.framed = framed;
+        this.progressInterval = progressInterval;
+        this.listener = listener;
+        this.output = new BufferedOutputStream(new FileOutputStream(path), 64 * 1024);
+    }
+
+    boolean isFramed() {
+        return framed;
+    }
+
+    boolean isFinished() {
+        return finished.get();
+    }
+
+    /// Receives chunk of read data, returns count of bytes consumed (less than length only if receiving ended)
+    int receive(byte[] data, int length) {
+        if (finished.get()) {
+            return 0;
+        }
+
+        int limit = length;
+        if (byteCount > 0) {
+            limit = (int) Math.min(length, byteCount - consumed);
+        }
+
+        if (delimiter == null) {
+            write(Arrays.copyOf(data, limit));
+            consumed += limit;
+        } else {
+            final int previouslyMatched = matched;
+            for (int i = 0; i < limit; i++) {
+                final byte b = data[i];
+                while (matched > 0 && b != delimiter[matched]) {
+                    matched = delimiterFailure[matched - 1];
+                }
+                if (b == delimiter[matched]) {
+                    matched++;
+                }
+                if (matched == delimiter.length) {
+                    // Found the delimiter
+                    consumed += i + 1;
+                    final int count = previouslyMatched + i + 1 - (includeDelimiter ? 0 : delimiter.length);
+                    writePending(data, previouslyMatched, count);
+                    matched = 0;
+                    finish(null);
+                    return i + 1;
+                }
+            }
+            consumed += limit;
+            // Bytes which might be beginning of the delimiter are held back
+            final boolean limitReached = byteCount > 0 && consumed >= byteCount;
+            writePending(data, previouslyMatched, previouslyMatched + limit - (limitReached ? 0 : matched));
+        }
+
+        if (byteCount > 0 && consumed >= byteCount) {
+            finish(null);
+        }
+        return limit;
+    }
+
+    /// Receives whole frame, returns false if receiving already ended
+    boolean receiveFrame(byte[] frame) {
+        if (finished.get()) {
+            return false;
+        }
+
+        if (delimiter != null && Arrays.equals(frame, delimiter)) {
+            if (includeDelimiter) {
+                write(frame);
+            }
+            finish(null);
+            return true;
+        }
+
+        write(frame);
+        consumed += frame.length;
+        if (byteCount > 0 && consumed >= byteCount) {
+            finish(null);
+        }
+        return true;
+    }
+
+    /// Called when the connection is closed, which ends receiving successfully only if there is no other termination
+    void onClosed() {
+        finish(byteCount <= 0 && delimiter == null ? null : new IOException("disconnected before receiving ended"));
+    }
+
+    /// Ends receiving (only once, even if called from more threads), closing the file on background thread.
+    /// Error is passed to the listener.
+    void finish(IOException error) {
+        if (!finished.compareAndSet(false, true)) {
+            return;
+        }
+
+        executor.execute(() -> {
+            try {
+                output.close();
+            } catch (IOException ex) {
+                if (writeError == null) {
+                    writeError = ex;
+                }
+            }
+            listener.onFinished(written, byteCount > 0 ? byteCount : -1, error != null ? error : writeError);
+        });
+        executor.shutdown();
+    }
+
+    /// Writes `count` bytes not written yet: held back delimiter beginning first, then given data
+    private void writePending(byte[] data, int heldBack, int count) {
+        if (count <= 0) {
+            return;
+        }
+        byte[] pending = new byte[count];
+        final int fromDelimiter = Math.min(heldBack, count);
+        System.arraycopy(delimiter, 0, pending, 0, fromDelimiter);
+        System.arraycopy(data, 0, pending, fromDelimiter, count - fromDelimiter);
+        write(pending);
+    }
+
+    private void write(byte[] data) {
+        if (data.length == 0) {
+            return;
+        }
+        try {
+            executor.execute(() -> writeNow(data));
+        } catch (RejectedExecutionException ex) {
+            // Receiving already ended (cancelled from other thread)
+        }
+    }
+
+    private void writeNow(byte[] data) {
+        if (writeError != null) {
+            return;
+        }
+        try {
+            output.write(data);
+            written += data.length;
+        } catch (IOException ex) {
+            writeError = ex;
+            return;
+        }
+
+        final long now = SystemClock.elapsedRealtime();
+        if (now - lastProgressTime >= progressInterval) {
+            lastProgressTime = now;
+            listener.onProgress(written, byteCount > 0 ? byteCount : -1);
+        }
+    }
+
+    /// Builds Knuth-Morris-Pratt failure table, so delimiter can be matched byte by byte across chunks
+    private static int[] buildFailureTable(byte[] pattern) {
+        int[] failure = new int[pattern.length];
+        int k = 0;
+        for (int i = 1; i < pattern.length; i++) {
+            while (k > 0 && pattern[i] != pattern[k]) {
+                k = failure[k - 1];
+            }
+            if (pattern[i] == pattern[k]) {
+                k++;
+            }
+            failure[i] = k;
+        }
+        return failure;
+    }
+}
@@ -0,0 +1,138 @@
+package io.github.edufolly.flutterbluetoothserial;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import android.os.SystemClock;
+
+/// File sent over the connection in chunks, streamed straight from disk on connection writer thread.
+///
+/// File is read ahead on separate thread, keeping at most `window` chunks ready to be written,
+/// so reading from disk overlaps with sending over the link. While no chunk is read ahead,
+/// the writer thread is free to write other jobs.
+class BluetoothFileTransfer extends BluetoothWriteJob
+{
+    /// Marks end of file in the read ahead queue
+    private static final byte[] END = new byte[0];
+
+    private final String path;
+    private final int chunkSize;
+    private final long total;
+    private final long progressInterval;
+    private final BluetoothTransferListener listener;
+
+    private final BlockingQueue<byte[]> readAhead;
+    private Thread reader;
+    private volatile IOException readError = null;
+
+    // Progress (accessed only by the writer thread)
+    private long transferred = 0;
+    private long lastProgressTime = 0;
+
+    BluetoothFileTransfer(String path, int chunkSize, int window, long progressInterval, BluetoothTransferListener listener) throws IOException {
+        super(LANE_BULK);
+        if (chunkSize <= 0 || window <= 0) {
+            throw new IllegalArgumentException("chunk size and window must be positive");
+        }
+        final File file = new File(path);
+        if (!file.isFile() || !file.canRead()) {
+            throw new IOException("file not readable: " + path);
+        }
+        this.path = path;
+        this.chunkSize = chunkSize;
+        this.total = file.length();
+        this.progressInterval = progressInterval;
+        this.listener = listener;
+        this.readAhead = new ArrayBlockingQueue<>(window);
+    }
+
+    long getTotal() {
+        return total;
+    }
+
+    /// Starts reading the file ahead, should be called before the job is queued
+    void start() {
+        reader = new Thread(() -> {
+            try (InputStream input = new FileInputStream(path)) {
+                while (!isCancelled()) {
+                    byte[] chunk = new byte[chunkSize];
+                    int length = 0;
+                    int count;
+                    // Fill whole chunk (if possible), so chunks are of configured size
+                    while (length < chunkSize && (count = input.read(chunk, length, chunkSize - length)) > 0) {
+                        length += count;
+                    }
+                    if (length == 0) {
+                        break;
+                    }
+                    readAhead.put(length < chunkSize ? Arrays.copyOf(chunk, length) : chunk);
+                    signalReady();
+                }
+            } catch (IOException ex) {
+                readError = ex;
+            } catch (InterruptedException ex) {
+                // Cancelled
+                return;
+            }
+            try {
+                readAhead.put(END);
+                signalReady();
+            } catch (InterruptedException ex) {
+                // Cancelled
+            }
+        }, "FileTransferReader");
+        reader.start();
+    }
+
+    @Override
+    boolean isReady() {
+        return isCancelled() || !readAhead.isEmpty();
+    }
+
+    @Override
+    byte[] nextChunk() throws IOException {
+        final byte[] chunk = readAhead.poll();
+        if (chunk == null) {
+            // Reader stops without marking end only if cancelled
+            throw cancelledError();
+        }
+        if (chunk == END) {
+            if (readError != null) {
+                throw readError;
+            }
+            return null;
+        }
+        return chunk;
+    }
+
+    @Override
+    void onChunkWritten(int length) {
+        transferred += length;
+        final long now = SystemClock.elapsedRealtime();
+        if (now - lastProgressTime >= progressInterval) {
+            lastProgressTime = now;
+            listener.onProgress(transferred, total);
+        }
+    }
+
+    @Override
+    void onFinished(IOException error) {
+        if (reader != null) {
+            reader.interrupt();
+        }
+        listener.onFinished(transferred, total, error);
+    }
+
+    @Override
+    void cancel() {
+        super.cancel();
+        if (reader != null) {
+            reader.interrupt();
+        }
+    }
+}
@@ -0,0 +1,187 @@
+package io.github.edufolly.flutterbluetoothserial;
+
+import java.util.Arrays;
+
+/// Splits stream of read data into frames: by delimiter, by fixed length or by length prefix.
+///
+/// Decoder is stateful (keeps incomplete frame), so single instance should be fed from one thread only.
+class BluetoothFrameDecoder
+{
+    /// Consumer of decoded frames
+    interface FrameConsumer {
+        void onFrame(byte[] frame);
+    }
+
+    private enum Mode { DELIMITER, FIXED_LENGTH, LENGTH_PREFIX }
+
+    private static final int RESYNC = -2;
+
+    private final Mode mode;
+    private final int maxFrameLength;
+
+    // Delimiter mode
+    private final byte[] delimiter;
+    private final boolean stripDelimiter;
+
+    // Fixed length mode
+    private final int frameLength;
+
+    // Length prefix mode
+    private final int lengthOffset;
+    private final int lengthSize;
+    private final boolean lengthBigEndian;
+    private final int lengthAdjustment;
+
+    /// Buffer for incomplete frame
+    private byte[] buffer = new byte[256];
+    private int count = 0;
+    /// Position to continue delimiter search from, avoids scanning the same bytes again
+    private int searchPosition = 0;
+
+    // Metrics
+    private volatile long overflowCount = 0;
+
+    private BluetoothFrameDecoder(Mode mode, int maxFrameLength, byte[] delimiter, boolean stripDelimiter, int frameLength,
+                                  int lengthOffset, int lengthSize, boolean lengthBigEndian, int lengthAdjustment) {
+        this.mode = mode;
+        this.maxFrameLength = maxFrameLength;
+        this.delimiter = delimiter;
+        this.stripDelimiter = stripDelimiter;
+        this.frameLength = frameLength;
+        this.lengthOffset = lengthOffset;
+        this.lengthSize = lengthSize;
+        this.lengthBigEndian = lengthBigEndian;
+        this.lengthAdjustment = lengthAdjustment;
+    }
+
+    /// Frames ending with given delimiter (for example `\r\n`)
+    static BluetoothFrameDecoder delimited(byte[] delimiter, boolean stripDelimiter, int maxFrameLength) {
+        if (delimiter == null || delimiter.length == 0) {
+            throw new IllegalArgumentException("delimiter cannot be empty");
+        }
+        return new BluetoothFrameDecoder(Mode.DELIMITER, maxFrameLength, delimiter, stripDelimiter, 0, 0, 0, false, 0);
+    }
+
+    /// Frames of fixed length
+    static BluetoothFrameDecoder fixedLength(int frameLength) {
+        if (frameLength <= 0) {
+            throw new IllegalArgumentException("frame length must be positive");
+        }
+        return new BluetoothFrameDecoder(Mode.FIXED_LENGTH, frameLength, null, false, frameLength, 0, 0, false, 0);
+    }
+
+    /// Frames with length field (of 1, 2 or 4 bytes) at given offset. Whole frame length is
+    /// `lengthOffset + lengthSize + value + lengthAdjustment`.
+    static BluetoothFrameDecoder lengthPrefixed(int lengthOffset, int lengthSize, boolean bigEndian, int lengthAdjustment, int maxFrameLength) {
+        if (lengthOffset < 0 || (lengthSize != 1 && lengthSize != 2 && lengthSize != 4)) {
+            throw new IllegalArgumentException("invalid length field");
+        }
+        return new BluetoothFrameDecoder(Mode.LENGTH_PREFIX, maxFrameLength, null, false, 0, lengthOffset, lengthSize, bigEndian, lengthAdjustment);
+    }
+
+    /// Returns count of discarded data which would exceed maximal frame length
+    long getOverflowCount() {
+        return overflowCount;
+    }
+
+    /// Drops incomplete frame
+    void reset() {
+        count = 0;
+        searchPosition = 0;
+    }
+
+    /// Feeds decoder with read data, passing all completed frames to the consumer
+    void feed(byte[] data, int length, FrameConsumer consumer) {
+        append(data, length);
+
+        int start = 0;
+        while (true) {
+            final int end = findFrameEnd(start);
+            if (end == RESYNC) {
+                // Invalid frame header, skip single byte to resynchronize
+                start++;
+                searchPosition = start;
+                continue;
+            }
+            if (end < 0) {
+                break;
+            }
+            int frameEnd = end;
+            if (mode == Mode.DELIMITER && stripDelimiter) {
+                frameEnd -= delimiter.length;
+            }
+            consumer.onFrame(Arrays.copyOfRange(buffer, start, frameEnd));
+            start = end;
+            searchPosition = start;
+        }
+
+        // Keep the incomplete frame at beginning of the buffer
+        if (start > 0) {
+            System.arraycopy(buffer, start, buffer, 0, count - start);
+            count -= start;
+            searchPosition -= start;
+        }
+
+        if (maxFrameLength > 0 && count > maxFrameLength) {
+            overflowCount++;
+            reset();
+        }
+    }
+
+    /// Returns end (exclusive) of frame starting at given position, -1 if incomplete or `RESYNC` if invalid
+    private int findFrameEnd(int start) {
+        final int available = count - start;
+        switch (mode) {
+            case DELIMITER: {
+                final int last = count - delimiter.length;
+                for (int i = Math.max(searchPosition, start); i <= last; i++) {
+                    if (buffer[i] == delimiter[0] && matchesDelimiter(i)) {
+                        return i + delimiter.length;
+                    }
+                }
+                searchPosition = Math.max(start, last + 1);
+                return -1;
+            }
+
+            case FIXED_LENGTH:
+                return available >= frameLength ? start + frameLength : -1;
+
+            case LENGTH_PREFIX: {
+                if (available < lengthOffset + lengthSize) {
+                    return -1;
+                }
+                long value = 0;
+                for (int i = 0; i < lengthSize; i++) {
+                    final int b = buffer[start + lengthOffset + (lengthBigEndian ? i : lengthSize - 1 - i)] & 0xFF;
+                    value = (value << 8) | b;
+                }
+                final long total = lengthOffset + lengthSize + value + lengthAdjustment;
+                if (total <= 0 || (maxFrameLength > 0 && total > maxFrameLength)) {
+                    overflowCount++;
+                    return RESYNC;
+                }
+                return available >= total ? start + (int) total : -1;
+            }
+
+            default:
+                return -1;
+        }
+    }
+
+    private boolean matchesDelimiter(int position) {
+        for (int j = 1; j < delimiter.length; j++) {
+            if (buffer[position + j] != delimiter[j]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void append(byte[] data, int length) {
+        if (count + length > buffer.length) {
+            buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, count + length));
+        }
+        System.arraycopy(data, 0, buffer, count, length);
+        count += length;
+    }
+}
@@ -0,0 +1,84 @@
+package io.github.edufolly.flutterbluetoothserial;
+
+import java.util.Arrays;
+
+/// Verifies checksum of decoded frames, counting good and bad ones.
+///
+/// Checksum is expected at the end of the frame (before optional trailer, like delimiter left in frame)
+/// and is computed over frame data starting from `skipStart` (to skip for example start-of-frame marker).
+class BluetoothFrameValidator
+{
+    /// What to do with corrupt frames
+    enum Policy {
+        /// Corrupt frames are dropped (only counted)
+        DROP,
+        /// Corrupt frames are passed to `onCorruptFrame` callback
+        FLAG,
+    }
+
+    private final BluetoothChecksum checksum;
+    private final boolean bigEndian;
+    private final int skipStart;
+    private final int trailerLength;
+    private final Policy policy;
+    private final boolean stripChecksum;
+
+    // Metrics (written only by the reading thread)
+    private volatile long goodFrames = 0;
+    private volatile long badFrames = 0;
+
+    BluetoothFrameValidator(BluetoothChecksum checksum, boolean bigEndian, int skipStart, int trailerLength, Policy policy, boolean stripChecksum) {
+        if (skipStart < 0 || trailerLength < 0) {
+            throw new IllegalArgumentException("offsets cannot be negative");
+        }
+        this.checksum = checksum;
+        this.bigEndian = bigEndian;
+        this.skipStart = skipStart;
+        this.trailerLength = trailerLength;
+        this.policy = policy;
+        this.stripChecksum = stripChecksum;
+    }
+
+    Policy getPolicy() {
+        return policy;
+    }
+
+    long getGoodFrames() {
+        return goodFrames;
+    }
+
+    long getBadFrames() {
+        return badFrames;
+    }
+
+    /// Returns whether the frame checksum is valid
+    boolean validate(byte[] frame) {
+        final int checksumOffset = frame.length - trailerLength - checksum.size();
+        if (checksumOffset < skipStart) {
+            badFrames++;
+            return false;
+        }
+        final long expected = checksum.read(frame, checksumOffset, bigEndian);
+        final long actual = checksum.compute(frame, skipStart, checksumOffset - skipStart);
+        if (expected != actual) {
+            badFrames++;
+            return false;
+        }
+        goodFrames++;
+        return true;
+    }
+
+    /// Returns valid frame as should be passed further (without checksum if `stripChecksum` is set)
+    byte[] strip(byte[] frame) {
+        if (!stripChecksum) {
+            return frame;
+        }
+        final int checksumOffset = frame.length - trailerLength - checksum.size();
+        if (trailerLength == 0) {
+            return Arrays.copyOf(frame, checksumOffset);
+        }
+        byte[] stripped = Arrays.copyOf(frame, frame.length - checksum.size());
+        System.arraycopy(frame, checksumOffset + checksum.size(), stripped, checksumOffset, trailerLength);
+        return stripped;
+    }
+}
@@ -0,0 +1,159 @@
+package io.github.edufolly.flutterbluetoothserial;
+
+import java.io.IOException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/// Detects dead link without waiting for the transport to fail: pings the remote device when
+/// nothing was read for `interval`, and declares the link expired if nothing (or no expected
+/// response, if set) was read for `timeout`.
+///
+/// Checks run as periodic task on scheduler shared by all connections, not on own thread.
+class BluetoothKeepalive
+{
+    /// Link checked by keepalive
+    interface Link {
+        /// Sends ping to the remote device
+        void ping(byte[] payload) throws IOException;
+
+        /// Called once the link is considered dead
+        void expire();
+    }
+
+    /// Shortest period of checks, to avoid busy scheduler with very short intervals
+    private static final long MIN_PERIOD_NANOS = 10 * 1000000L;
+
+    private final byte[] ping;
+    private final byte[] response;
+    private final long intervalNanos;
+    private final long timeoutNanos;
+
+    /// Failure function of the response pattern, for matching across reads
+    private final int[] failure;
+    /// Count of response bytes matched so far (used only by the reading thread)
+    private int matched = 0;
+
+    private volatile long lastActivityTime;
+    private volatile long lastPingTime = 0;
+    private volatile boolean pingPending = false;
+    private volatile boolean expired = false;
+    private ScheduledFuture<?> task = null;
+
+    // Metrics
+    private volatile long pingsSent = 0;
+    private volatile long lastRoundTripNanos = -1;
+
+    /// Creates keepalive sending given ping (null to only watch reads) and expecting given response
+    /// (null if any read data mean the link is alive)
+    BluetoothKeepalive(byte[] ping, long intervalMillis, byte[] response, long timeoutMillis) {
+        if (intervalMillis <= 0 || timeoutMillis <= 0) {
+            throw new IllegalArgumentException("interval and timeout must be positive");
+        }
+        if (response != null && response.length == 0) {
+            throw new IllegalArgumentException("response cannot be empty");
+        }
+        this.ping = ping != null && ping.length > 0 ? ping : null;
+        this.response = response;
+        this.intervalNanos = intervalMillis * 1000000;
+        this.timeoutNanos = timeoutMillis * 1000000;
+        this.failure = response != null ? buildFailure(response) : null;
+        this.lastActivityTime = System.nanoTime();
+    }
+
+    /// Starts periodic checks of the link on given scheduler
+    synchronized void start(ScheduledExecutorService scheduler, Link link) {
+        lastActivityTime = System.nanoTime();
+        final long period = Math.max(MIN_PERIOD_NANOS, Math.min(intervalNanos, timeoutNanos) / 4);
+        task = scheduler.scheduleAtFixedRate(() -> check(link), period, period, TimeUnit.NANOSECONDS);
+    }
+
+    /// Stops the checks
+    synchronized void stop() {
+        if (task != null) {
+            task.cancel(false);
+            task = null;
+        }
+    }
+
+    boolean isExpired() {
+        return expired;
+    }
+
+    long getPingsSent() {
+        return pingsSent;
+    }
+
+    /// Returns time from last ping to the response (or other activity), -1 if not known yet
+    long getLastRoundTripNanos() {
+        return lastRoundTripNanos;
+    }
+
+    /// Called by the reading thread with data as read from the transport
+    void onRead(byte[] data, int length) {
+        if (response == null) {
+            onActivity();
+            return;
+        }
+        for (int i = 0; i < length; i++) {
+            while (matched > 0 && data[i] != response[matched]) {
+                matched = failure[matched - 1];
+            }
+            if (data[i] == response[matched]) {
+                matched++;
+            }
+            if (matched == response.length) {
+                matched = failure[matched - 1];
+                onActivity();
+            }
+        }
+    }
+
+    private void onActivity() {
+        final long now = System.nanoTime();
+        lastActivityTime = now;
+        if (pingPending) {
+            pingPending = false;
+            lastRoundTripNanos = now - lastPingTime;
+        }
+    }
+
+    private void check(Link link) {
+        if (expired) {
+            return;
+        }
+        final long now = System.nanoTime();
+        final long idle = now - lastActivityTime;
+        if (idle >= timeoutNanos) {
+            expired = true;
+            stop();
+            link.expire();
+            return;
+        }
+        if (ping != null && idle >= intervalNanos && (pingsSent == 0 || now - lastPingTime >= intervalNanos)) {
+            lastPingTime = now;
+            pingPending = true;
+            pingsSent++;
+            try {
+                link.ping(ping);
+            } catch (IOException ex) {
+                // Not connected anymore, checks are stopped by the connection
+            }
+        }
+    }
+
+    private static int[] buildFailure(byte[] pattern) {
+        int[] failure = new int[pattern.length];
+        int k = 0;
+        for (int i = 1; i < pattern.length; i++) {
+            while (k > 0 && pattern[i] != pattern[k]) {
+                k = failure[k - 1];
+            }
+            if (pattern[i] == pattern[k]) {
+                k++;
+            }
+            failure[i] = k;
+        }
+        return failure;
+    }
+}
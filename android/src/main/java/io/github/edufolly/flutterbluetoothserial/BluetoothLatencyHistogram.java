@@ -0,0 +1,113 @@
+package io.github.edufolly.flutterbluetoothserial;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/// Lock-free histogram of latencies, cheap enough to be recorded on hot paths.
+///
+/// Values are counted in microseconds, in logarithmic buckets: each power of two range
+/// is split into 4 buckets, so percentiles are reported with at most 25% error.
+final class BluetoothLatencyHistogram
+{
+    private static final int SUB_BUCKETS = 4;
+    /// Enough for latencies up to 2^40 microseconds
+    private static final int BUCKETS = 40 * SUB_BUCKETS;
+
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong sumNanos = new AtomicLong();
+    private final AtomicLong maxNanos = new AtomicLong();
+
+    /// Records single latency
+    void record(long nanos) {
+        if (nanos < 0) {
+            nanos = 0;
+        }
+        buckets.incrementAndGet(bucketOf(nanos / 1000));
+        count.incrementAndGet();
+        sumNanos.addAndGet(nanos);
+        long max;
+        while (nanos > (max = maxNanos.get()) && !maxNanos.compareAndSet(max, nanos)) {}
+    }
+
+    long getCount() {
+        return count.get();
+    }
+
+    /// Returns latency (in microseconds) below which given fraction (0 to 1) of recorded values are,
+    /// as upper bound of the bucket (but not more than the maximum). Returns 0 if nothing recorded.
+    long getPercentileMicros(double fraction) {
+        final long total = count.get();
+        if (total == 0) {
+            return 0;
+        }
+        final long rank = Math.max(1, (long) Math.ceil(fraction * total));
+        final long maxMicros = maxNanos.get() / 1000;
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += buckets.get(i);
+            if (seen >= rank) {
+                return Math.min(upperBoundOf(i) - 1, maxMicros);
+            }
+        }
+        return maxMicros;
+    }
+
+    void reset() {
+        for (int i = 0; i < BUCKETS; i++) {
+            buckets.set(i, 0);
+        }
+        count.set(0);
+        sumNanos.set(0);
+        maxNanos.set(0);
+    }
+
+    /// Returns summary: count, mean, max and usual percentiles (in microseconds), and non-empty
+    /// buckets as list of `[upper bound (exclusive) in microseconds, count]` pairs
+    Map<String, Object> toMap() {
+        Map<String, Object> map = new HashMap<>();
+        final long total = count.get();
+        map.put("count", total);
+        map.put("meanMicros", total == 0 ? 0L : sumNanos.get() / total / 1000);
+        map.put("maxMicros", maxNanos.get() / 1000);
+        map.put("p50Micros", getPercentileMicros(0.50));
+        map.put("p90Micros", getPercentileMicros(0.90));
+        map.put("p99Micros", getPercentileMicros(0.99));
+        map.put("p999Micros", getPercentileMicros(0.999));
+        List<List<Long>> nonEmpty = new ArrayList<>();
+        for (int i = 0; i < BUCKETS; i++) {
+            final long bucketCount = buckets.get(i);
+            if (bucketCount > 0) {
+                List<Long> pair = new ArrayList<>(2);
+                pair.add(upperBoundOf(i));
+                pair.add(bucketCount);
+                nonEmpty.add(pair);
+            }
+        }
+        map.put("buckets", nonEmpty);
+        return map;
+    }
+
+    private static int bucketOf(long micros) {
+        if (micros < 2 * SUB_BUCKETS) {
+            return (int) micros;
+        }
+        final int exponent = 63 - Long.numberOfLeadingZeros(micros);
+        final int index = (exponent - 1) * SUB_BUCKETS + (int) ((micros >>> (exponent - 2)) & (SUB_BUCKETS - 1));
+        return Math.min(index, BUCKETS - 1);
+    }
+
+    /// Returns upper bound (exclusive) of bucket values, in microseconds
+    private static long upperBoundOf(int index) {
+        if (index < 2 * SUB_BUCKETS) {
+            return index + 1;
+        }
+        final int exponent = index / SUB_BUCKETS + 1;
+        final int sub = index % SUB_BUCKETS;
+        return (long) (SUB_BUCKETS + sub + 1) << (exponent - 2);
+    }
+}
@@ -0,0 +1,372 @@
+package io.github.edufolly.flutterbluetoothserial;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/// Modbus RTU master: builds requests with CRC, parses and checks responses by expected length,
+/// batches reads of nearby registers into single requests and polls them periodically.
+///
+/// Bytes over Bluetooth arrive in packets, so inter-character silence cannot delimit frames on
+/// reading; it is kept when writing instead: each request waits until the line was silent for
+/// 3.5 characters (at the baud rate of the serial side) after the previous frame.
+final class BluetoothModbusEngine extends BluetoothProtocolEngine
+{
+    static final int FUNCTION_READ_HOLDING_REGISTERS = 0x03;
+    static final int FUNCTION_READ_INPUT_REGISTERS = 0x04;
+    static final int FUNCTION_WRITE_SINGLE_REGISTER = 0x06;
+    static final int FUNCTION_WRITE_MULTIPLE_REGISTERS = 0x10;
+
+    /// Most registers single request can read (or write)
+    static final int MAX_READ_COUNT = 125;
+    static final int MAX_WRITE_COUNT = 123;
+
+    private static final BluetoothChecksum CRC = BluetoothChecksum.byName("crc16-modbus");
+
+    /// Exception response of the device
+    static final class ModbusException extends IOException {
+        final int code;
+
+        ModbusException(int code) {
+            super("modbus exception " + code);
+            this.code = code;
+        }
+    }
+
+    /// Read of registers range
+    static final class Read {
+        final int unit;
+        final boolean input;
+        final int address;
+        final int count;
+
+        Read(int unit, boolean input, int address, int count) {
+            checkUnit(unit);
+            if (address < 0 || count < 1 || count > MAX_READ_COUNT || address + count > 0x10000) {
+                throw new IllegalArgumentException("invalid registers range");
+            }
+            this.unit = unit;
+            this.input = input;
+            this.address = address;
+            this.count = count;
+        }
+    }
+
+    /// Result of single read: values, or error
+    static final class Result {
+        final int[] values;
+        final IOException error;
+
+        Result(int[] values, IOException error) {
+            this.values = values;
+            this.error = error;
+        }
+    }
+
+    interface ReadCallback {
+        /// Called with result of each read, in order of the reads
+        void onFinished(Result[] results, long timestamp);
+    }
+
+    interface WriteCallback {
+        void onFinished(IOException error);
+    }
+
+    /// Reads covered by single request
+    private static final class Batch {
+        final int unit;
+        final boolean input;
+        final int address;
+        int count;
+        final List<Integer> members = new ArrayList<>(2);
+
+        Batch(Read read, int index) {
+            this.unit = read.unit;
+            this.input = read.input;
+            this.address = read.address;
+            this.count = read.count;
+            members.add(index);
+        }
+    }
+
+    // Polling (guarded by `this`)
+    private ScheduledFuture<?> pollTask = null;
+    private boolean pollInProgress = false;
+
+    // Metrics (guarded by `this`)
+    private long reads = 0;
+    private long readRequests = 0;
+    private long pollCycles = 0;
+    private long pollOverruns = 0;
+
+    BluetoothModbusEngine(BluetoothConnection connection, int baudRate, long timeoutMillis, int retries) {
+        super(connection, timeoutMillis, retries, silenceNanos(baudRate));
+    }
+
+    /// Returns 3.5 characters time (of 11 bits) at given baud rate, fixed to 1.75 ms above 19200 baud
+    static long silenceNanos(int baudRate) {
+        if (baudRate <= 0) {
+            throw new IllegalArgumentException("baud rate must be positive");
+        }
+        if (baudRate > 19200) {
+            return 1750000;
+        }
+        return 35 * 1000000000L * 11 / 10 / baudRate;
+    }
+
+    private static void checkUnit(int unit) {
+        // Broadcast (0) gets no response
+        if (unit < 1 || unit > 247) {
+            throw new IllegalArgumentException("unit must be from 1 to 247");
+        }
+    }
+
+    /// Reads given registers ranges, ranges of the same unit and function which are at most
+    /// `maxGap` registers apart are read by single request
+    void read(List<Read> reads, int maxGap, ReadCallback callback) {
+        readBatches(reads, batch(reads, maxGap), callback);
+    }
+
+    /// Writes registers starting at given address
+    void write(int unit, int address, int[] values, WriteCallback callback) {
+        checkUnit(unit);
+        if (values.length < 1 || values.length > MAX_WRITE_COUNT || address < 0 || address + values.length > 0x10000) {
+            throw new IllegalArgumentException("invalid registers range");
+        }
+        for (int value : values) {
+            if (value < 0 || value > 0xFFFF) {
+                throw new IllegalArgumentException("register values must be from 0 to 65535");
+            }
+        }
+
+        final byte[] request;
+        if (values.length == 1) {
+            request = frame(unit, FUNCTION_WRITE_SINGLE_REGISTER, address, values[0], null);
+        } else {
+            byte[] data = new byte[1 + 2 * values.length];
+            data[0] = (byte) (2 * values.length);
+            for (int i = 0; i < values.length; i++) {
+                data[1 + 2 * i] = (byte) (values[i] >> 8);
+                data[2 + 2 * i] = (byte) values[i];
+            }
+            request = frame(unit, FUNCTION_WRITE_MULTIPLE_REGISTERS, address, values.length, data);
+        }
+        submit(request, new Callback() {
+            @Override
+            public void onResponse(byte[] response, long timestamp) {
+                callback.onFinished(exceptionOf(response));
+            }
+
+            @Override
+            public void onError(IOException error) {
+                callback.onFinished(error);
+            }
+        });
+    }
+
+    /// Starts reading given ranges every period, all requests of the cycle are queued at once.
+    /// Cycle is skipped if the previous one is still running.
+    synchronized void startPolling(List<Read> reads, int maxGap, long periodMillis, ReadCallback callback) {
+        if (periodMillis <= 0) {
+            throw new IllegalArgumentException("period must be positive");
+        }
+        stopPolling();
+        final List<Batch> batches = batch(reads, maxGap);
+        pollTask = BluetoothConnection.getScheduler().scheduleAtFixedRate(() -> {
+            synchronized (this) {
+                if (pollInProgress) {
+                    pollOverruns++;
+                    return;
+                }
+                pollInProgress = true;
+                pollCycles++;
+            }
+            readBatches(reads, batches, (results, timestamp) -> {
+                synchronized (this) {
+                    pollInProgress = false;
+                }
+                callback.onFinished(results, timestamp);
+            });
+        }, 0, periodMillis, TimeUnit.MILLISECONDS);
+    }
+
+    synchronized void stopPolling() {
+        if (pollTask != null) {
+            pollTask.cancel(false);
+            pollTask = null;
+        }
+    }
+
+    @Override
+    void onClosed() {
+        stopPolling();
+        super.onClosed();
+    }
+
+    @Override
+    synchronized Map<String, Object> getStats() {
+        Map<String, Object> stats = super.getStats();
+        stats.put("reads", reads);
+        stats.put("readRequests", readRequests);
+        stats.put("pollCycles", pollCycles);
+        stats.put("pollOverruns", pollOverruns);
+        return stats;
+    }
+
+    /// Groups reads into requests: by unit and function, in order of address, merging ranges
+    /// at most `maxGap` registers apart (or overlapping) while the request stays within limit
+    private static List<Batch> batch(List<Read> reads, int maxGap) {
+        List<Integer> order = new ArrayList<>(reads.size());
+        for (int i = 0; i < reads.size(); i++) {
+            order.add(i);
+        }
+        Collections.sort(order, (a, b) -> {
+            final Read x = reads.get(a);
+            final Read y = reads.get(b);
+            if (x.unit != y.unit) return x.unit - y.unit;
+            if (x.input != y.input) return x.input ? 1 : -1;
+            return x.address - y.address;
+        });
+
+        List<Batch> batches = new ArrayList<>();
+        Batch last = null;
+        for (int index : order) {
+            final Read read = reads.get(index);
+            if (last != null && last.unit == read.unit && last.input == read.input) {
+                final int end = last.address + last.count;
+                final int newEnd = Math.max(end, read.address + read.count);
+                if (read.address <= end + maxGap && newEnd - last.address <= MAX_READ_COUNT) {
+                    last.count = newEnd - last.address;
+                    last.members.add(index);
+                    continue;
+                }
+            }
+            last = new Batch(read, index);
+            batches.add(last);
+        }
+        return batches;
+    }
+
+    /// Queues requests of all batches, callback gets results once all of them finished
+    private void readBatches(List<Read> reads, List<Batch> batches, ReadCallback callback) {
+        synchronized (this) {
+            this.reads += reads.size();
+            this.readRequests += batches.size();
+        }
+        final Result[] results = new Result[reads.size()];
+        final int[] remaining = { batches.size() };
+        if (batches.isEmpty()) {
+            callback.onFinished(results, 0);
+            return;
+        }
+        for (Batch batch : batches) {
+            final byte[] request = frame(batch.unit, batch.input ? FUNCTION_READ_INPUT_REGISTERS : FUNCTION_READ_HOLDING_REGISTERS,
+                    batch.address, batch.count, null);
+            submit(request, new Callback() {
+                @Override
+                public void onResponse(byte[] response, long timestamp) {
+                    final IOException exception = exceptionOf(response);
+                    for (int index : batch.members) {
+                        if (exception != null) {
+                            results[index] = new Result(null, exception);
+                            continue;
+                        }
+                        final Read read = reads.get(index);
+                        int[] values = new int[read.count];
+                        final int offset = 3 + 2 * (read.address - batch.address);
+                        for (int i = 0; i < read.count; i++) {
+                            values[i] = ((response[offset + 2 * i] & 0xFF) << 8) | (response[offset + 2 * i + 1] & 0xFF);
+                        }
+                        results[index] = new Result(values, null);
+                    }
+                    onBatchFinished(timestamp);
+                }
+
+                @Override
+                public void onError(IOException error) {
+                    for (int index : batch.members) {
+                        results[index] = new Result(null, error);
+                    }
+                    onBatchFinished(0);
+                }
+
+                private void onBatchFinished(long timestamp) {
+                    final boolean last;
+                    synchronized (remaining) {
+                        last = --remaining[0] == 0;
+                    }
+                    if (last) {
+                        callback.onFinished(results, timestamp);
+                    }
+                }
+            });
+        }
+    }
+
+    /// Builds request frame: unit, function, address, value (or count), optional data and CRC
+    private static byte[] frame(int unit, int function, int address, int value, byte[] data) {
+        final int dataLength = data != null ? data.length : 0;
+        byte[] frame = new byte[6 + dataLength + 2];
+        frame[0] = (byte) unit;
+        frame[1] = (byte) function;
+        frame[2] = (byte) (address >> 8);
+        frame[3] = (byte) address;
+        frame[4] = (byte) (value >> 8);
+        frame[5] = (byte) value;
+        if (data != null) {
+            System.arraycopy(data, 0, frame, 6, dataLength);
+        }
+        // CRC is sent low byte first
+        CRC.write(CRC.compute(frame, 0, frame.length - 2), frame, frame.length - 2, false);
+        return frame;
+    }
+
+    /// Returns exception of exception response, null for normal response
+    private static IOException exceptionOf(byte[] response) {
+        return (response[1] & 0x80) != 0 ? new ModbusException(response[2] & 0xFF) : null;
+    }
+
+    @Override
+    protected int parseResponse(byte[] buffer, int length, byte[] request, Object context) {
+        if (buffer[0] != request[0]) {
+            return -1;
+        }
+        if (length < 3) {
+            return 0;
+        }
+        final int function = buffer[1] & 0xFF;
+        if ((function & 0x7F) != (request[1] & 0xFF)) {
+            return -1;
+        }
+
+        final int expected;
+        if ((function & 0x80) != 0) {
+            expected = 5;
+        } else if (function == FUNCTION_READ_HOLDING_REGISTERS || function == FUNCTION_READ_INPUT_REGISTERS) {
+            final int count = ((request[4] & 0xFF) << 8) | (request[5] & 0xFF);
+            if ((buffer[2] & 0xFF) != 2 * count) {
+                return -1;
+            }
+            expected = 5 + 2 * count;
+        } else {
+            // Writes echo address and value (or count)
+            expected = 8;
+        }
+        if (length < expected) {
+            return 0;
+        }
+
+        if (CRC.read(buffer, expected - 2, false) != CRC.compute(buffer, 0, expected - 2)) {
+            return -1;
+        }
+        if (expected == 8 && !Arrays.equals(Arrays.copyOfRange(buffer, 2, 6), Arrays.copyOfRange(request, 2, 6))) {
+            return -1;
+        }
+        return expected;
+    }
+}
@@ -0,0 +1,381 @@
+package io.github.edufolly.flutterbluetoothserial;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+
+import android.util.Log;
+
+/// Splits single connection into logical channels (up to 256), each with own read stream,
+/// write queue and credit-based flow control, so one stalled channel does not block others.
+///
+/// Every message on the link is prefixed by 4 bytes header: channel number, message type
+/// and big endian payload length. `DATA` messages carry channel data, `CREDIT` messages
+/// carry 4 bytes (big endian) count of bytes the receiver is ready to accept further.
+/// Both sides start with credit of `window` bytes for each channel, so they must use the same window.
+class BluetoothMultiplexer
+{
+    private static final String TAG = "FlutterBluePlugin";
+
+    static final int HEADER_SIZE = 4;
+    static final int TYPE_DATA = 0;
+    static final int TYPE_CREDIT = 1;
+    static final int MAX_CHANNELS = 256;
+    static final int MAX_PAYLOAD = 0xFFFF;
+
+    /// Logical channel state (guarded by the multiplexer)
+    private static class Channel {
+        final int number;
+        final BluetoothReadSubscription receiver;
+
+        /// Bytes which can be sent before the remote side grants more
+        long sendCredit;
+        /// Bytes delivered locally, not yet granted back to the remote side
+        long consumedBytes = 0;
+        /// Bytes granted to the remote side in total, including initial window
+        long grantedBytes;
+        final ArrayDeque<PendingWrite> queue = new ArrayDeque<>();
+        long queuedBytes = 0;
+
+        // Metrics
+        long bytesSent = 0;
+        long bytesReceived = 0;
+        long creditStalls = 0;
+        long creditViolations = 0;
+
+        Channel(int number, BluetoothReadSubscription receiver, long sendCredit) {
+            this.number = number;
+            this.receiver = receiver;
+            this.sendCredit = sendCredit;
+            this.grantedBytes = sendCredit;
+        }
+    }
+
+    /// Data queued for writing to channel
+    private static class PendingWrite {
+        final byte[] data;
+        final BluetoothConnection.WriteCallback callback;
+        int offset = 0;
+
+        PendingWrite(byte[] data, BluetoothConnection.WriteCallback callback) {
+            this.data = data;
+            this.callback = callback;
+        }
+    }
+
+    private final BluetoothConnection connection;
+    private final int window;
+    private final int maxPayload;
+    private final Channel[] channels = new Channel[MAX_CHANNELS];
+    /// Channel to start next round-robin pass from
+    private int nextChannel = 0;
+    private boolean closed = false;
+    /// Credit messages waiting to be sent, before any data
+    private final ArrayDeque<byte[]> pendingCredits = new ArrayDeque<>();
+    /// Job writing messages to the link (null if there was nothing to send)
+    private LinkWriteJob linkWriter = null;
+
+    /// Decoder of incoming messages (used only by the reading thread)
+    private final BluetoothFrameDecoder decoder = BluetoothFrameDecoder.lengthPrefixed(2, 2, true, 0, HEADER_SIZE + MAX_PAYLOAD);
+
+    // Metrics
+    private long droppedBytes = 0;
+
+    BluetoothMultiplexer(BluetoothConnection connection, int window, int maxPayload) {
+        if (window <= 0) {
+            throw new IllegalArgumentException("window must be positive");
+        }
+        if (maxPayload <= 0 || maxPayload > MAX_PAYLOAD) {
+            throw new IllegalArgumentException("maximal payload must be between 1 and " + MAX_PAYLOAD);
+        }
+        this.connection = connection;
+        this.window = window;
+        this.maxPayload = maxPayload;
+    }
+
+    int getWindow() {
+        return window;
+    }
+
+    /// Opens channel of given number, read data of which are passed to the receiver
+    synchronized void openChannel(int number, BluetoothReadSubscription receiver) {
+        checkChannelNumber(number);
+        if (channels[number] != null) {
+            throw new IllegalStateException("channel " + number + " already open");
+        }
+        channels[number] = new Channel(number, receiver, window);
+    }
+
+    /// Closes channel, failing its queued writes. Data read for closed channel are dropped.
+    void closeChannel(int number) {
+        checkChannelNumber(number);
+        final Channel channel;
+        synchronized (this) {
+            channel = channels[number];
+            channels[number] = null;
+        }
+        if (channel != null) {
+            failQueued(channel, new IOException("channel closed"));
+        }
+    }
+
+    /// Queues data to be written to channel, as soon as the remote side grants credit
+    void write(int number, byte[] data, BluetoothConnection.WriteCallback callback) throws IOException {
+        checkChannelNumber(number);
+        synchronized (this) {
+            final Channel channel = channels[number];
+            if (closed || channel == null) {
+                throw new IOException(closed ? "not connected" : "channel " + number + " not open");
+            }
+            channel.queue.add(new PendingWrite(data, callback));
+            channel.queuedBytes += data.length;
+        }
+        pump();
+    }
+
+    /// Called after data read by channel were delivered, so the remote side can be granted more credit
+    void onConsumed(int number, int length) {
+        int grant = 0;
+        synchronized (this) {
+            final Channel channel = channels[number];
+            if (channel == null || closed) {
+                return;
+            }
+            channel.consumedBytes += length;
+            // Credit is granted in batches, to avoid message per every delivery
+            if (channel.consumedBytes >= window / 2) {
+                grant = (int) Math.min(channel.consumedBytes, Integer.MAX_VALUE);
+                channel.consumedBytes -= grant;
+                channel.grantedBytes += grant;
+            }
+        }
+        if (grant > 0) {
+            byte[] message = header(number, TYPE_CREDIT, 4);
+            message[4] = (byte) (grant >>> 24);
+            message[5] = (byte) (grant >>> 16);
+            message[6] = (byte) (grant >>> 8);
+            message[7] = (byte) grant;
+            synchronized (this) {
+                pendingCredits.add(message);
+            }
+            pump();
+        }
+    }
+
+    /// Feeds multiplexer with read data (from the reading thread)
+    void feed(byte[] data, int length) {
+        decoder.feed(data, length, this::onMessage);
+    }
+
+    /// Fails all queued writes, after the connection was closed
+    void onClosed() {
+        Channel[] open;
+        synchronized (this) {
+            closed = true;
+            open = channels.clone();
+        }
+        for (Channel channel : open) {
+            if (channel != null) {
+                failQueued(channel, new IOException("disconnected"));
+            }
+        }
+    }
+
+    /// Returns metrics by channel
+    synchronized Map<String, Object> getStats() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("droppedBytes", droppedBytes);
+        Map<String, Object> channelsStats = new HashMap<>();
+        for (Channel channel : channels) {
+            if (channel == null) {
+                continue;
+            }
+            Map<String, Object> channelStats = new HashMap<>();
+            channelStats.put("sendCredit", channel.sendCredit);
+            channelStats.put("queuedBytes", channel.queuedBytes);
+            channelStats.put("bytesSent", channel.bytesSent);
+            channelStats.put("bytesReceived", channel.bytesReceived);
+            channelStats.put("creditStalls", channel.creditStalls);
+            channelStats.put("creditViolations", channel.creditViolations);
+            channelStats.putAll(channel.receiver.getStats());
+            channelsStats.put(String.valueOf(channel.number), channelStats);
+        }
+        stats.put("channels", channelsStats);
+        return stats;
+    }
+
+    private void onMessage(byte[] message) {
+        final int number = message[0] & 0xFF;
+        final int type = message[1] & 0xFF;
+        final int length = message.length - HEADER_SIZE;
+        Channel channel;
+        synchronized (this) {
+            channel = channels[number];
+            if (channel == null) {
+                droppedBytes += length;
+                return;
+            }
+            if (type == TYPE_CREDIT && length == 4) {
+                final long credit = ((message[4] & 0xFFL) << 24) | ((message[5] & 0xFF) << 16) | ((message[6] & 0xFF) << 8) | (message[7] & 0xFF);
+                channel.sendCredit += credit;
+                channel = null;
+            } else if (type == TYPE_DATA) {
+                channel.bytesReceived += length;
+                if (channel.bytesReceived > channel.grantedBytes) {
+                    // Remote side sends more than granted, data might be dropped by the receiver
+                    channel.creditViolations++;
+                }
+            } else {
+                Log.w(TAG, "Unknown multiplexer message type " + type + " (channel " + number + ")");
+                droppedBytes += length;
+                return;
+            }
+        }
+        if (channel == null) {
+            // Credit was granted
+            pump();
+            return;
+        }
+        if (length > 0) {
+            byte[] payload = new byte[length];
+            System.arraycopy(message, HEADER_SIZE, payload, 0, length);
+            channel.receiver.feed(payload);
+        }
+    }
+
+    /// Makes sure queued messages are being sent, by queueing link write job if there is none
+    private void pump() {
+        final LinkWriteJob job;
+        synchronized (this) {
+            if (closed || linkWriter != null) {
+                return;
+            }
+            job = linkWriter = new LinkWriteJob();
+        }
+        try {
+            connection.enqueueWrite(job);
+        } catch (IOException ex) {
+            // Disconnected, queued writes are failed by `onClosed`
+            synchronized (this) {
+                if (linkWriter == job) {
+                    linkWriter = null;
+                }
+            }
+        }
+    }
+
+    /// Writes queued messages to the link, one message per chunk: pending credits first, then data of channels
+    /// as far as their credit allows, taking single message from each channel in turn, so channels share the link
+    /// fairly. Chunks are whole messages, so nothing else written in between can break the framing.
+    /// Finishes once there is nothing to send (`pump` queues new job then).
+    private class LinkWriteJob extends BluetoothWriteJob {
+        /// Callback of write completed by the message being written
+        private BluetoothConnection.WriteCallback writingCallback = null;
+
+        LinkWriteJob() {
+            super(LANE_BULK);
+        }
+
+        @Override
+        byte[] nextChunk() {
+            synchronized (BluetoothMultiplexer.this) {
+                final byte[] message = closed ? null : nextMessage();
+                if (message == null && linkWriter == this) {
+                    linkWriter = null;
+                }
+                return message;
+            }
+        }
+
+        /// Takes next message to be written (null if there is none), guarded by the multiplexer
+        private byte[] nextMessage() {
+            if (!pendingCredits.isEmpty()) {
+                return pendingCredits.poll();
+            }
+            for (int i = 0; i < MAX_CHANNELS; i++) {
+                final Channel channel = channels[(nextChannel + i) % MAX_CHANNELS];
+                if (channel == null || channel.queue.isEmpty()) {
+                    continue;
+                }
+                if (channel.sendCredit <= 0) {
+                    continue;
+                }
+
+                final PendingWrite write = channel.queue.peek();
+                final int length = (int) Math.min(Math.min(write.data.length - write.offset, maxPayload), channel.sendCredit);
+                byte[] message = header(channel.number, TYPE_DATA, length);
+                System.arraycopy(write.data, write.offset, message, HEADER_SIZE, length);
+                write.offset += length;
+                channel.sendCredit -= length;
+                channel.queuedBytes -= length;
+                channel.bytesSent += length;
+
+                if (write.offset >= write.data.length) {
+                    channel.queue.poll();
+                    writingCallback = write.callback;
+                }
+                if (channel.sendCredit <= 0 && !channel.queue.isEmpty()) {
+                    // Waiting for the remote side to consume data
+                    channel.creditStalls++;
+                }
+                nextChannel = (channel.number + 1) % MAX_CHANNELS;
+                return message;
+            }
+            return null;
+        }
+
+        @Override
+        void onChunkWritten(int length) {
+            final BluetoothConnection.WriteCallback callback = writingCallback;
+            writingCallback = null;
+            if (callback != null) {
+                callback.onWritten(null);
+            }
+        }
+
+        @Override
+        void onFinished(IOException error) {
+            synchronized (BluetoothMultiplexer.this) {
+                if (linkWriter == this) {
+                    linkWriter = null;
+                }
+            }
+            final BluetoothConnection.WriteCallback callback = writingCallback;
+            writingCallback = null;
+            if (callback != null) {
+                callback.onWritten(error);
+            }
+        }
+    }
+
+    private void failQueued(Channel channel, IOException error) {
+        PendingWrite[] writes;
+        synchronized (this) {
+            writes = channel.queue.toArray(new PendingWrite[0]);
+            channel.queue.clear();
+            channel.queuedBytes = 0;
+        }
+        for (PendingWrite write : writes) {
+            if (write.callback != null) {
+                write.callback.onWritten(error);
+            }
+        }
+    }
+
+    /// Returns message with header filled, for payload of given length
+    private static byte[] header(int number, int type, int length) {
+        byte[] message = new byte[HEADER_SIZE + length];
+        message[0] = (byte) number;
+        message[1] = (byte) type;
+        message[2] = (byte) (length >>> 8);
+        message[3] = (byte) length;
+        return message;
+    }
+
+    private static void checkChannelNumber(int number) {
+        if (number < 0 || number >= MAX_CHANNELS) {
+            throw new IllegalArgumentException("channel number must be between 0 and " + (MAX_CHANNELS - 1));
+        }
+    }
+}
@@ -0,0 +1,123 @@
+package io.github.edufolly.flutterbluetoothserial;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+import android.annotation.SuppressLint;
+import android.bluetooth.BluetoothDevice;
+import android.util.Log;
+
+/// Table of rules used to answer pairing requests natively, without waiting for the Dart handler.
+class BluetoothPairingRules
+{
+    private static final String TAG = "FlutterBluePlugin";
+
+    /// Single rule, matched by address and/or name of the remote device
+    private static class Rule {
+        final Pattern addressPattern;
+        final Pattern namePattern;
+        final String pin;
+        final Boolean confirm;
+
+        Rule(Pattern addressPattern, Pattern namePattern, String pin, Boolean confirm) {
+            this.addressPattern = addressPattern;
+            this.namePattern = namePattern;
+            this.pin = pin;
+            this.confirm = confirm;
+        }
+
+        boolean matches(BluetoothDevice device) {
+            if (addressPattern != null && !addressPattern.matcher(device.getAddress()).matches()) {
+                return false;
+            }
+            if (namePattern != null) {
+                final String name = device.getName();
+                if (name == null || !namePattern.matcher(name).matches()) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    /// Rules are replaced as whole, so readers (receiver) never see partially updated table
+    private volatile List<Rule> rules = new ArrayList<>();
+
+    /// Replaces rules with the ones from given list of maps (`address`, `name`, `pin`, `confirm`).
+    /// Throws `IllegalArgumentException` if any of the rules is invalid.
+    void set(List<Map<String, Object>> list) {
+        List<Rule> newRules = new ArrayList<>(list.size());
+        for (Map<String, Object> map : list) {
+            try {
+                final String address = (String) map.get("address");
+                final String name = (String) map.get("name");
+                final String pin = (String) map.get("pin");
+                final Boolean confirm = (Boolean) map.get("confirm");
+                if (pin == null && confirm == null) {
+                    throw new IllegalArgumentException("rule requires 'pin' or 'confirm' to be set");
+                }
+                newRules.add(new Rule(
+                        address == null ? null : Pattern.compile(address, Pattern.CASE_INSENSITIVE),
+                        name == null ? null : Pattern.compile(name),
+                        pin,
+                        confirm
+                ));
+            } catch (ClassCastException | PatternSyntaxException ex) {
+                throw new IllegalArgumentException("invalid pairing rule: " + ex.getMessage());
+            }
+        }
+        rules = newRules;
+    }
+
+    boolean isEmpty() {
+        return rules.isEmpty();
+    }
+
+    /// Tries to answer the pairing request using the first matching rule.
+    /// Returns `true` if the request was answered.
+    @SuppressLint("MissingPermission")
+    boolean answer(BluetoothDevice device, int pairingVariant) {
+        for (Rule rule : rules) {
+            if (!rule.matches(device)) {
+                continue;
+            }
+
+            switch (pairingVariant) {
+                case BluetoothDevice.PAIRING_VARIANT_PIN:
+                    if (rule.pin == null) {
+                        continue;
+                    }
+                    Log.d(TAG, "Setting passkey for pairing by rule (address: " + device.getAddress() + ")");
+                    try {
+                        return device.setPin(rule.pin.getBytes());
+                    } catch (Exception ex) {
+                        Log.e(TAG, "Setting passkey by rule failed", ex);
+                        return false;
+                    }
+
+                case BluetoothDevice.PAIRING_VARIANT_PASSKEY_CONFIRMATION:
+                case 3: //case BluetoothDevice.PAIRING_VARIANT_CONSENT:
+                    if (rule.confirm == null) {
+                        continue;
+                    }
+                    Log.d(TAG, "Setting pairing confirmation to " + rule.confirm + " by rule (address: " + device.getAddress() + ")");
+                    try {
+                        // @WARN `BLUETOOTH_PRIVILEGED` permission required, but might be
+                        // unavailable for thrid party apps on newer versions of Androids.
+                        return device.setPairingConfirmation(rule.confirm);
+                    } catch (Exception ex) {
+                        Log.e(TAG, "Setting pairing confirmation by rule failed", ex);
+                        return false;
+                    }
+
+                default:
+                    // Other variants require displaying the key, so they can't be automated
+                    return false;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,323 @@
+package io.github.edufolly.flutterbluetoothserial;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import android.util.SparseArray;
+
+/// Runs periodic command polls of any number of connections on single timer wheel, ticking on
+/// the scheduler shared by connections (instead of timer per poll), and collects responses into
+/// batches passed to the listener at most once per batch interval.
+///
+/// Poll is not sent again while its previous command is still waiting for response.
+final class BluetoothPollScheduler
+{
+    /// Listener of collected results
+    interface Listener {
+        /// Called on the scheduler thread with results collected since last batch: maps with poll `id`,
+        /// `timestampMicros` and response `data`, or `error`
+        void onBatch(List<Map<String, Object>> batch);
+
+        /// Called after last poll of the engine was removed (by `remove`, `clear` or by closing of
+        /// the engine), on the thread which removed it
+        void onEngineReleased(BluetoothProtocolEngine engine);
+    }
+
+    /// Resolution of the wheel
+    static final long TICK_MILLIS = 10;
+    private static final int SLOTS = 256;
+
+    private static final class Poll {
+        final int id;
+        final BluetoothProtocolEngine engine;
+        final byte[] command;
+        final BluetoothCommandEngine.Matcher matcher;
+        final long periodTicks;
+        final long timeoutMillis;
+        final boolean changedOnly;
+
+        long deadlineTick;
+        boolean inFlight = false;
+        boolean removed = false;
+        /// Last delivered payload (null if none or last poll failed)
+        byte[] last = null;
+        /// Message of last delivered error (null if last poll succeeded)
+        String lastError = null;
+
+        Poll(int id, BluetoothProtocolEngine engine, byte[] command, BluetoothCommandEngine.Matcher matcher, long periodTicks, long timeoutMillis, boolean changedOnly) {
+            this.id = id;
+            this.engine = engine;
+            this.command = command;
+            this.matcher = matcher;
+            this.periodTicks = periodTicks;
+            this.timeoutMillis = timeoutMillis;
+            this.changedOnly = changedOnly;
+        }
+    }
+
+    /// Default interval of passing batches to the listener
+    static final long DEFAULT_BATCH_MILLIS = 50;
+
+    private final Listener listener;
+
+    // Wheel (guarded by `this`)
+    @SuppressWarnings("unchecked")
+    private final ArrayList<Poll>[] slots = new ArrayList[SLOTS];
+    private final SparseArray<Poll> polls = new SparseArray<>();
+    private int lastPollId = 0;
+    private long currentTick = 0;
+    private ScheduledFuture<?> ticker = null;
+    private List<Map<String, Object>> batch = new ArrayList<>();
+    private long batchTicks = DEFAULT_BATCH_MILLIS / TICK_MILLIS;
+
+    // Metrics (guarded by `this`)
+    private long sent = 0;
+    private long skipped = 0;
+    private long responses = 0;
+    private long errors = 0;
+    private long unchanged = 0;
+    private long batches = 0;
+
+    BluetoothPollScheduler(Listener listener) {
+        this.listener = listener;
+        for (int i = 0; i < SLOTS; i++) {
+            slots[i] = new ArrayList<>(2);
+        }
+    }
+
+    /// Sets interval of passing batches to the listener (rounded to ticks, 0 for every tick)
+    synchronized void setBatchInterval(long millis) {
+        if (millis < 0) {
+            throw new IllegalArgumentException("batch interval cannot be negative");
+        }
+        batchTicks = Math.max(1, millis / TICK_MILLIS);
+    }
+
+    /// Checks arguments of poll, throws `IllegalArgumentException` if `add` would not accept them
+    static void validate(byte[] command, long periodMillis, long timeoutMillis) {
+        if (command == null || command.length == 0) {
+            throw new IllegalArgumentException("command cannot be empty");
+        }
+        if (periodMillis < TICK_MILLIS) {
+            throw new IllegalArgumentException("period must be at least " + TICK_MILLIS + " ms");
+        }
+        if (timeoutMillis <= 0) {
+            throw new IllegalArgumentException("timeout must be positive");
+        }
+    }
+
+    /// Adds poll sending the command to the engine every period, waiting for the response for given
+    /// time, returns ID of the poll
+    synchronized int add(BluetoothProtocolEngine engine, byte[] command, BluetoothCommandEngine.Matcher matcher, long periodMillis, long timeoutMillis, boolean changedOnly) {
+        validate(command, periodMillis, timeoutMillis);
+        final Poll poll = new Poll(++lastPollId, engine, command, matcher, (periodMillis + TICK_MILLIS / 2) / TICK_MILLIS, timeoutMillis, changedOnly);
+        polls.put(poll.id, poll);
+        // First poll on the next tick
+        insert(poll, currentTick + 1);
+        if (ticker == null) {
+            ticker = BluetoothConnection.getScheduler().scheduleAtFixedRate(this::tick, TICK_MILLIS, TICK_MILLIS, TimeUnit.MILLISECONDS);
+        }
+        return poll.id;
+    }
+
+    /// Removes poll, returns false if there is no such poll
+    boolean remove(int id) {
+        final Poll poll;
+        synchronized (this) {
+            poll = polls.get(id);
+            if (poll == null) {
+                return false;
+            }
+            unlink(poll);
+            if (hasPolls(poll.engine)) {
+                return true;
+            }
+        }
+        listener.onEngineReleased(poll.engine);
+        return true;
+    }
+
+    /// Removes all polls
+    void clear() {
+        List<BluetoothProtocolEngine> released = new ArrayList<>();
+        synchronized (this) {
+            while (polls.size() > 0) {
+                final Poll poll = polls.valueAt(0);
+                unlink(poll);
+                if (!released.contains(poll.engine)) {
+                    released.add(poll.engine);
+                }
+            }
+        }
+        for (BluetoothProtocolEngine engine : released) {
+            listener.onEngineReleased(engine);
+        }
+    }
+
+    /// Returns true if any poll of given engine is added
+    synchronized boolean hasPolls(BluetoothProtocolEngine engine) {
+        final int size = polls.size();
+        for (int i = 0; i < size; i++) {
+            if (polls.valueAt(i).engine == engine) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /// Removes poll from the wheel, stopping the ticker after the last one (called under `this`)
+    private void unlink(Poll poll) {
+        polls.remove(poll.id);
+        poll.removed = true;
+        slots[(int) (poll.deadlineTick % SLOTS)].remove(poll);
+        if (polls.size() == 0 && ticker != null) {
+            ticker.cancel(false);
+            ticker = null;
+        }
+    }
+
+    private void insert(Poll poll, long tick) {
+        poll.deadlineTick = tick;
+        slots[(int) (tick % SLOTS)].add(poll);
+    }
+
+    private void tick() {
+        List<Poll> due = new ArrayList<>();
+        List<Map<String, Object>> ready = null;
+        List<BluetoothProtocolEngine> released = new ArrayList<>();
+        synchronized (this) {
+            currentTick++;
+            final Iterator<Poll> iterator = slots[(int) (currentTick % SLOTS)].iterator();
+            List<Poll> rescheduled = new ArrayList<>();
+            while (iterator.hasNext()) {
+                final Poll poll = iterator.next();
+                // Polls with period longer than the wheel wait for further rounds
+                if (poll.deadlineTick > currentTick) {
+                    continue;
+                }
+                iterator.remove();
+                rescheduled.add(poll);
+                if (poll.engine.isClosed()) {
+                    polls.remove(poll.id);
+                    poll.removed = true;
+                    batch.add(errorResult(poll, "disconnected"));
+                    if (!released.contains(poll.engine)) {
+                        released.add(poll.engine);
+                    }
+                    continue;
+                }
+                if (poll.inFlight) {
+                    skipped++;
+                } else {
+                    poll.inFlight = true;
+                    sent++;
+                    due.add(poll);
+                }
+            }
+            for (Poll poll : rescheduled) {
+                if (!poll.removed) {
+                    insert(poll, currentTick + poll.periodTicks);
+                }
+            }
+            // Polls of closed engine in further slots are removed on their own ticks
+            final Iterator<BluetoothProtocolEngine> engines = released.iterator();
+            while (engines.hasNext()) {
+                if (hasPolls(engines.next())) {
+                    engines.remove();
+                }
+            }
+            if (polls.size() == 0 && ticker != null) {
+                ticker.cancel(false);
+                ticker = null;
+            }
+            if (!batch.isEmpty() && (currentTick % batchTicks == 0 || ticker == null)) {
+                ready = batch;
+                batch = new ArrayList<>();
+                batches++;
+            }
+        }
+
+        for (Poll poll : due) {
+            poll.engine.submit(poll.command, poll.matcher, poll.timeoutMillis, new BluetoothProtocolEngine.Callback() {
+                @Override
+                public void onResponse(byte[] response, long timestamp) {
+                    onPollResponse(poll, poll.matcher.payloadOf(response), timestamp);
+                }
+
+                @Override
+                public void onError(IOException error) {
+                    onPollError(poll, error);
+                }
+            });
+        }
+        if (ready != null) {
+            listener.onBatch(ready);
+        }
+        for (BluetoothProtocolEngine engine : released) {
+            listener.onEngineReleased(engine);
+        }
+    }
+
+    private synchronized void onPollResponse(Poll poll, byte[] payload, long timestamp) {
+        poll.inFlight = false;
+        if (poll.removed) {
+            return;
+        }
+        responses++;
+        if (poll.changedOnly && poll.lastError == null && Arrays.equals(payload, poll.last)) {
+            unchanged++;
+            return;
+        }
+        poll.last = payload;
+        poll.lastError = null;
+        Map<String, Object> result = new HashMap<>();
+        result.put("id", poll.id);
+        result.put("timestampMicros", timestamp / 1000);
+        result.put("data", payload);
+        batch.add(result);
+    }
+
+    private synchronized void onPollError(Poll poll, IOException error) {
+        poll.inFlight = false;
+        if (poll.removed) {
+            return;
+        }
+        errors++;
+        final String message = error.getMessage();
+        if (poll.changedOnly && message != null && message.equals(poll.lastError)) {
+            unchanged++;
+            return;
+        }
+        poll.last = null;
+        poll.lastError = message;
+        batch.add(errorResult(poll, message));
+    }
+
+    private static Map<String, Object> errorResult(Poll poll, String message) {
+        Map<String, Object> result = new HashMap<>();
+        result.put("id", poll.id);
+        result.put("error", message);
+        return result;
+    }
+
+    /// Returns count of polls and metrics: `sent` commands, `skipped` (previous still in flight),
+    /// `responses`, `errors`, `unchanged` (not delivered) and `batches`
+    synchronized Map<String, Object> getStats() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("polls", polls.size());
+        stats.put("sent", sent);
+        stats.put("skipped", skipped);
+        stats.put("responses", responses);
+        stats.put("errors", errors);
+        stats.put("unchanged", unchanged);
+        stats.put("batches", batches);
+        return stats;
+    }
+}
@@ -0,0 +1,333 @@
+package io.github.edufolly.flutterbluetoothserial;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/// Request-response protocol run natively above the connection: requests are queued and written
+/// one at a time, read data are parsed into response to the outstanding request (by subclass),
+/// with timeout and retries, so sequences of requests need no round trips to Dart between them.
+///
+/// While set on connection, read data are passed only to the engine (and subscriptions).
+abstract class BluetoothProtocolEngine
+{
+    /// Callback of single request, called on the reading thread or the scheduler thread
+    interface Callback {
+        void onResponse(byte[] response, long timestamp);
+
+        void onError(IOException error);
+    }
+
+    /// Request waiting in the queue or in flight
+    private static final class Transaction {
+        final byte[] request;
+        final Object context;
+        final long timeoutMillis;
+        final Callback callback;
+        int attempts = 0;
+        /// Time the request was written (0 if not yet)
+        long sentTime = 0;
+
+        Transaction(byte[] request, Object context, long timeoutMillis, Callback callback) {
+            this.request = request;
+            this.context = context;
+            this.timeoutMillis = timeoutMillis;
+            this.callback = callback;
+        }
+    }
+
+    /// Shortest quiet period after failed attempt
+    static final long QUIET_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+    protected final BluetoothConnection connection;
+    private final long timeoutMillis;
+    private final int retries;
+    /// Silence required after last read or written data before next request is written
+    private final long turnaroundNanos;
+    /// Silence required after response timed out (or was invalid) before next request is written,
+    /// so late response is drained instead of being taken for response of the next request
+    private final long quietNanos;
+
+    // Requests (guarded by `this`)
+    private final ArrayDeque<Transaction> queue = new ArrayDeque<>();
+    private Transaction current = null;
+    private ScheduledFuture<?> pending = null;
+    private boolean closed = false;
+
+    // Response being received (guarded by `this`)
+    private byte[] buffer = new byte[256];
+    private int buffered = 0;
+    private long lastActivityTime = 0;
+    /// Whether the last attempt failed, so next write waits for the quiet period instead of the turnaround
+    private boolean quieting = false;
+
+    // Metrics (guarded by `this`)
+    private long requests = 0;
+    private long responses = 0;
+    private long timeouts = 0;
+    private long retried = 0;
+    private long invalidResponses = 0;
+    private long unexpectedBytes = 0;
+    private final BluetoothLatencyHistogram roundTrip = new BluetoothLatencyHistogram();
+
+    BluetoothProtocolEngine(BluetoothConnection connection, long timeoutMillis, int retries, long turnaroundNanos) {
+        if (timeoutMillis <= 0 || retries < 0 || turnaroundNanos < 0) {
+            throw new IllegalArgumentException("timeout must be positive, retries and turnaround non-negative");
+        }
+        this.connection = connection;
+        this.timeoutMillis = timeoutMillis;
+        this.retries = retries;
+        this.turnaroundNanos = turnaroundNanos;
+        this.quietNanos = Math.max(turnaroundNanos, QUIET_NANOS);
+    }
+
+    /// Returns length of complete response to given request (submitted with given context) at start
+    /// of the buffer, 0 if more data are needed, or -1 if the data cannot be valid response
+    protected abstract int parseResponse(byte[] buffer, int length, byte[] request, Object context);
+
+    /// Queues request, callback gets its response (or error after retries are exhausted)
+    void submit(byte[] request, Callback callback) {
+        submit(request, null, callback);
+    }
+
+    /// Queues request with context passed to `parseResponse` (like expected response format)
+    void submit(byte[] request, Object context, Callback callback) {
+        submit(request, context, 0, callback);
+    }
+
+    /// Queues request with context, waiting for each attempt of its response for given time
+    /// (0 for the timeout of the engine)
+    void submit(byte[] request, Object context, long timeoutMillis, Callback callback) {
+        if (timeoutMillis < 0) {
+            throw new IllegalArgumentException("timeout cannot be negative");
+        }
+        synchronized (this) {
+            if (!closed) {
+                queue.add(new Transaction(request, context, timeoutMillis > 0 ? timeoutMillis : this.timeoutMillis, callback));
+                requests++;
+                if (current == null) {
+                    startNext();
+                }
+                return;
+            }
+        }
+        callback.onError(new IOException("disconnected"));
+    }
+
+    /// Takes next request from the queue and writes it after the turnaround (called under `this`)
+    private void startNext() {
+        current = queue.poll();
+        if (current != null) {
+            sendCurrent();
+        }
+    }
+
+    /// Writes current request once the line was silent for the turnaround (called under `this`)
+    private void sendCurrent() {
+        final Transaction transaction = current;
+        // Written from the scheduler even without waiting, so callbacks are never called under locks of the caller
+        pending = schedule(() -> send(transaction), Math.max(0, silenceWait()));
+    }
+
+    /// Returns time left until the line is silent long enough for next write (called under `this`)
+    private long silenceWait() {
+        if (lastActivityTime == 0) {
+            return 0;
+        }
+        return lastActivityTime + (quieting ? quietNanos : turnaroundNanos) - System.nanoTime();
+    }
+
+    private void send(Transaction transaction) {
+        synchronized (this) {
+            if (current != transaction || closed) {
+                return;
+            }
+            final long wait = silenceWait();
+            if (wait > 0) {
+                // Data were read meanwhile (like late response being drained), wait for silence again
+                pending = schedule(() -> send(transaction), wait);
+                return;
+            }
+            quieting = false;
+            transaction.attempts++;
+            // Anything read before the request is not its response
+            buffered = 0;
+            pending = schedule(() -> onTimeout(transaction), TimeUnit.MILLISECONDS.toNanos(transaction.timeoutMillis));
+        }
+        try {
+            connection.enqueueWrite(new BluetoothWriteJob(BluetoothWriteJob.LANE_CONTROL) {
+                private boolean written = false;
+
+                @Override
+                byte[] nextChunk() {
+                    if (written) {
+                        return null;
+                    }
+                    written = true;
+                    synchronized (BluetoothProtocolEngine.this) {
+                        transaction.sentTime = System.nanoTime();
+                    }
+                    return transaction.request;
+                }
+
+                @Override
+                void onChunkWritten(int length) {
+                    synchronized (BluetoothProtocolEngine.this) {
+                        lastActivityTime = System.nanoTime();
+                    }
+                }
+
+                @Override
+                void onFinished(IOException error) {
+                    if (error != null) {
+                        fail(transaction, error);
+                    }
+                }
+            });
+        } catch (IOException ex) {
+            fail(transaction, ex);
+        }
+    }
+
+    /// Called by the reading thread with data read
+    void feed(byte[] data, int length, long timestamp) {
+        Transaction completed = null;
+        Transaction invalid = null;
+        byte[] response = null;
+        synchronized (this) {
+            lastActivityTime = System.nanoTime();
+            final Transaction transaction = current;
+            if (transaction == null || transaction.sentTime == 0) {
+                unexpectedBytes += length;
+                return;
+            }
+            if (buffered + length > buffer.length) {
+                buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, buffered + length));
+            }
+            System.arraycopy(data, 0, buffer, buffered, length);
+            buffered += length;
+
+            final int parsed = parseResponse(buffer, buffered, transaction.request, transaction.context);
+            if (parsed > 0) {
+                response = Arrays.copyOf(buffer, parsed);
+                unexpectedBytes += buffered - parsed;
+                buffered = 0;
+                responses++;
+                roundTrip.record(System.nanoTime() - transaction.sentTime);
+                completed = transaction;
+                if (pending != null) {
+                    pending.cancel(false);
+                }
+                startNext();
+            } else if (parsed < 0) {
+                invalidResponses++;
+                buffered = 0;
+                // Rest of the invalid response might still be coming
+                quieting = true;
+                invalid = transaction;
+            }
+        }
+        if (completed != null) {
+            completed.callback.onResponse(response, timestamp);
+        } else if (invalid != null) {
+            retryOrFail(invalid, new IOException("invalid response"));
+        }
+    }
+
+    private void onTimeout(Transaction transaction) {
+        synchronized (this) {
+            if (current != transaction) {
+                return;
+            }
+            timeouts++;
+            // Quiet period starts now, response might still come late
+            quieting = true;
+            lastActivityTime = System.nanoTime();
+        }
+        retryOrFail(transaction, new IOException("response timed out"));
+    }
+
+    /// Writes the request again if it has retries left, fails it otherwise
+    private void retryOrFail(Transaction transaction, IOException error) {
+        synchronized (this) {
+            if (current != transaction || closed) {
+                return;
+            }
+            if (transaction.attempts <= retries) {
+                if (pending != null) {
+                    pending.cancel(false);
+                }
+                retried++;
+                transaction.sentTime = 0;
+                sendCurrent();
+                return;
+            }
+        }
+        fail(transaction, error);
+    }
+
+    /// Fails the request and moves to the next one
+    private void fail(Transaction transaction, IOException error) {
+        synchronized (this) {
+            if (current != transaction) {
+                return;
+            }
+            if (pending != null) {
+                pending.cancel(false);
+            }
+            buffered = 0;
+            startNext();
+        }
+        transaction.callback.onError(error);
+    }
+
+    synchronized boolean isClosed() {
+        return closed;
+    }
+
+    /// Called when the connection closes (or engine is replaced), fails all requests
+    void onClosed() {
+        List<Transaction> failed = new ArrayList<>();
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            if (pending != null) {
+                pending.cancel(false);
+            }
+            if (current != null) {
+                failed.add(current);
+                current = null;
+            }
+            failed.addAll(queue);
+            queue.clear();
+        }
+        final IOException error = new IOException("disconnected");
+        for (Transaction transaction : failed) {
+            transaction.callback.onError(error);
+        }
+    }
+
+    /// Returns request metrics and round trip times
+    synchronized Map<String, Object> getStats() {
+        Map<String, Object> stats = roundTrip.toMap();
+        stats.put("requests", requests);
+        stats.put("responses", responses);
+        stats.put("timeouts", timeouts);
+        stats.put("retries", retried);
+        stats.put("invalidResponses", invalidResponses);
+        stats.put("unexpectedBytes", unexpectedBytes);
+        stats.put("queued", queue.size() + (current != null ? 1 : 0));
+        return stats;
+    }
+
+    protected static ScheduledFuture<?> schedule(Runnable action, long delayNanos) {
+        return BluetoothConnection.getScheduler().schedule(action, delayNanos, TimeUnit.NANOSECONDS);
+    }
+}
@@ -0,0 +1,122 @@
+package io.github.edufolly.flutterbluetoothserial;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/// Named subscription to data read from connection, independent of other subscriptions.
+///
+/// Each subscription gets every read (decoded) payload, optionally split into frames by its own decoder,
+/// and keeps not yet delivered data in bounded buffer, so slow consumer affects neither the connection
+/// nor other subscriptions.
+abstract class BluetoothReadSubscription
+{
+    /// What to do with data which do not fit into the buffer of pending data
+    enum Overflow {
+        /// New data are dropped, keeping older ones
+        DROP_NEWEST,
+        /// Oldest pending data are dropped to make room for new ones
+        DROP_OLDEST,
+    }
+
+    private final String name;
+    private final BluetoothFrameDecoder decoder;
+    private final int maxPendingBytes;
+    private final Overflow overflow;
+
+    // Pending data (guarded by `this`)
+    private final ArrayDeque<byte[]> pending = new ArrayDeque<>();
+    private int pendingBytes = 0;
+    private boolean deliveryScheduled = false;
+
+    // Metrics (guarded by `this`)
+    private long deliveredBytes = 0;
+    private long droppedBytes = 0;
+
+    BluetoothReadSubscription(String name, BluetoothFrameDecoder decoder, int maxPendingBytes, Overflow overflow) {
+        if (maxPendingBytes <= 0) {
+            throw new IllegalArgumentException("maximal pending bytes must be positive");
+        }
+        this.name = name;
+        this.decoder = decoder;
+        this.maxPendingBytes = maxPendingBytes;
+        this.overflow = overflow;
+    }
+
+    String getName() {
+        return name;
+    }
+
+    /// Feeds subscription with read data (from the reading thread). Data must not be modified afterwards.
+    void feed(byte[] data) {
+        if (decoder != null) {
+            decoder.feed(data, data.length, this::offer);
+        } else {
+            offer(data);
+        }
+    }
+
+    /// Takes all pending data for delivery. Unframed data are merged into single array.
+    synchronized List<byte[]> takePending() {
+        deliveryScheduled = false;
+        if (pending.isEmpty()) {
+            return Collections.emptyList();
+        }
+
+        List<byte[]> items;
+        if (decoder == null && pending.size() > 1) {
+            byte[] merged = new byte[pendingBytes];
+            int offset = 0;
+            for (byte[] item : pending) {
+                System.arraycopy(item, 0, merged, offset, item.length);
+                offset += item.length;
+            }
+            items = Collections.singletonList(merged);
+        } else {
+            items = new ArrayList<>(pending);
+        }
+        pending.clear();
+        deliveredBytes += pendingBytes;
+        pendingBytes = 0;
+        return items;
+    }
+
+    /// Returns subscription metrics
+    synchronized Map<String, Object> getStats() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("pendingBytes", pendingBytes);
+        stats.put("deliveredBytes", deliveredBytes);
+        stats.put("droppedBytes", droppedBytes);
+        stats.put("framesOverflow", decoder == null ? 0L : decoder.getOverflowCount());
+        return stats;
+    }
+
+    /// Callback for new data pending, called once until the data are taken by `takePending`
+    protected abstract void onDataAvailable();
+
+    private void offer(byte[] item) {
+        synchronized (this) {
+            if (pendingBytes + item.length > maxPendingBytes) {
+                if (overflow == Overflow.DROP_NEWEST || item.length > maxPendingBytes) {
+                    droppedBytes += item.length;
+                    return;
+                }
+                while (pendingBytes + item.length > maxPendingBytes) {
+                    final byte[] oldest = pending.poll();
+                    pendingBytes -= oldest.length;
+                    droppedBytes += oldest.length;
+                }
+            }
+            pending.add(item);
+            pendingBytes += item.length;
+            if (deliveryScheduled) {
+                return;
+            }
+            deliveryScheduled = true;
+        }
+        onDataAvailable();
+    }
+}
@@ -0,0 +1,204 @@
+package io.github.edufolly.flutterbluetoothserial;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import android.bluetooth.BluetoothAdapter;
+import android.bluetooth.BluetoothServerSocket;
+import android.bluetooth.BluetoothSocket;
+
+/// Universal Bluetooth serial server class, accepting multiple incoming connections (for Java)
+public abstract class BluetoothServer
+{
+    protected static final UUID DEFAULT_UUID = UUID.fromString("00001101-0000-1000-8000-00805F9B34FB");
+
+    protected BluetoothAdapter bluetoothAdapter;
+
+    private final int maxClients;
+
+    /// Free client slots, accepting waits if there is none
+    private final Semaphore clientSlots;
+
+    private volatile AcceptThread acceptThread = null;
+    /// Whether accepting was requested by `startAccepting` (guarded by `this`)
+    private boolean acceptingRequested = false;
+
+    // Metrics
+    private final AtomicInteger acceptedCount = new AtomicInteger();
+    private final AtomicInteger activeCount = new AtomicInteger();
+    private final AtomicLong totalAcceptLatencyNanos = new AtomicLong();
+    private final AtomicLong maxAcceptLatencyNanos = new AtomicLong();
+
+    public boolean isListening() {
+        return acceptThread != null && acceptThread.requestedClosing != true;
+    }
+
+
+
+    public BluetoothServer(BluetoothAdapter bluetoothAdapter, int maxClients) {
+        this.bluetoothAdapter = bluetoothAdapter;
+        this.maxClients = maxClients;
+        this.clientSlots = new Semaphore(maxClients);
+    }
+
+
+
+    /// Starts listening for incoming connections with given service record. Connections are accepted
+    /// only after `startAccepting` is called (before or after listening), so none is accepted before
+    /// there is anyone to take it.
+    public void listen(String name, UUID uuid, boolean secure) throws IOException {
+        if (isListening()) {
+            throw new IOException("already listening");
+        }
+
+        BluetoothServerSocket serverSocket = secure
+                ? bluetoothAdapter.listenUsingRfcommWithServiceRecord(name, uuid)
+                : bluetoothAdapter.listenUsingInsecureRfcommWithServiceRecord(name, uuid);
+        if (serverSocket == null) {
+            throw new IOException("server socket not created");
+        }
+
+        synchronized (this) {
+            acceptThread = new AcceptThread(serverSocket);
+            if (acceptingRequested) {
+                acceptThread.start();
+            }
+        }
+    }
+    /// Starts listening for incoming connections and accepting them right away (default UUID used)
+    public void listen(String name) throws IOException {
+        startAccepting();
+        listen(name, DEFAULT_UUID, true);
+    }
+
+    /// Starts accepting incoming connections, once listening (ignore if already requested)
+    public synchronized void startAccepting() {
+        if (acceptingRequested) {
+            return;
+        }
+        acceptingRequested = true;
+        if (acceptThread != null) {
+            acceptThread.start();
+        }
+    }
+
+    /// Stops listening (ignore if not listening). Already accepted connections are left open.
+    public void close() {
+        if (isListening()) {
+            acceptThread.cancel();
+            acceptThread = null;
+        }
+    }
+
+    /// Should be called after accepted connection got closed, to free its client slot
+    public void releaseClient() {
+        activeCount.decrementAndGet();
+        clientSlots.release();
+    }
+
+    /// Returns server metrics
+    public Map<String, Object> getStats() {
+        final int accepted = acceptedCount.get();
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("isListening", isListening());
+        stats.put("maxClients", maxClients);
+        stats.put("activeClients", activeCount.get());
+        stats.put("accepted", accepted);
+        stats.put("averageAcceptLatencyMicros", accepted == 0 ? 0 : (int) (totalAcceptLatencyNanos.get() / accepted / 1000));
+        stats.put("maxAcceptLatencyMicros", (int) (maxAcceptLatencyNanos.get() / 1000));
+        return stats;
+    }
+
+    /// Callback for accepted connection, should take over the socket (it is closed if throws).
+    /// The callback is run on the accept thread.
+    protected abstract void onAccepted(BluetoothSocket socket) throws IOException;
+
+    /// Callback for stopped listening.
+    protected abstract void onClosed(boolean byError);
+
+    /// Thread to accept incoming connections
+    private class AcceptThread extends Thread {
+        private final BluetoothServerSocket serverSocket;
+        private volatile boolean requestedClosing = false;
+
+        AcceptThread(BluetoothServerSocket serverSocket) {
+            this.serverSocket = serverSocket;
+        }
+
+        /// Thread main code
+        public void run() {
+            while (!requestedClosing) {
+                try {
+                    // Wait for free slot before accepting, so remote devices over limit are not accepted
+                    clientSlots.acquire();
+                } catch (InterruptedException e) {
+                    break;
+                }
+
+                BluetoothSocket socket;
+                try {
+                    socket = serverSocket.accept();
+                } catch (IOException e) {
+                    // `accept` throws when server socket is closed
+                    clientSlots.release();
+                    break;
+                }
+
+                final long acceptedTime = System.nanoTime();
+                try {
+                    onAccepted(socket);
+                } catch (IOException e) {
+                    clientSlots.release();
+                    try {
+                        socket.close();
+                    }
+                    catch (Exception ex) {}
+                    continue;
+                }
+
+                final long latency = System.nanoTime() - acceptedTime;
+                acceptedCount.incrementAndGet();
+                activeCount.incrementAndGet();
+                totalAcceptLatencyNanos.addAndGet(latency);
+                long max;
+                do {
+                    max = maxAcceptLatencyNanos.get();
+                } while (latency > max && !maxAcceptLatencyNanos.compareAndSet(max, latency));
+            }
+
+            // Make sure server socket is closed
+            try {
+                serverSocket.close();
+            }
+            catch (Exception e) {}
+
+            // Callback on closed, with information whether it was requested
+            onClosed(!requestedClosing);
+
+            // Just prevent unnecessary `cancel`ing
+            requestedClosing = true;
+        }
+
+        /// Stops the thread, closes server socket
+        public void cancel() {
+            if (requestedClosing) {
+                return;
+            }
+            requestedClosing = true;
+
+            // Closing the server socket makes `accept` throw
+            try {
+                serverSocket.close();
+            }
+            catch (Exception e) {}
+
+            // Wake up if waiting for free slot
+            interrupt();
+        }
+    }
+}
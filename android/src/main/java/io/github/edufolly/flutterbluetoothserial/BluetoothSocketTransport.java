@@ -0,0 +1,32 @@
+package io.github.edufolly.flutterbluetoothserial;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import android.bluetooth.BluetoothSocket;
+
+/// Transport over connected Bluetooth (RFCOMM) socket
+class BluetoothSocketTransport implements BluetoothTransport
+{
+    private final BluetoothSocket socket;
+
+    BluetoothSocketTransport(BluetoothSocket socket) {
+        this.socket = socket;
+    }
+
+    @Override
+    public InputStream getInputStream() throws IOException {
+        return socket.getInputStream();
+    }
+
+    @Override
+    public OutputStream getOutputStream() throws IOException {
+        return socket.getOutputStream();
+    }
+
+    @Override
+    public void close() throws IOException {
+        socket.close();
+    }
+}
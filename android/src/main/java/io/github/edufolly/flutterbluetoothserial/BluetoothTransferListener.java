@@ -0,0 +1,13 @@
+package io.github.edufolly.flutterbluetoothserial;
+
+import java.io.IOException;
+
+/// Listener of bulk transfer progress
+interface BluetoothTransferListener
+{
+    /// Called periodically (at most once per configured progress interval) during transfer
+    void onProgress(long transferred, long total);
+
+    /// Called once transfer is finished, with error if failed or cancelled
+    void onFinished(long transferred, long total, IOException error);
+}
@@ -0,0 +1,16 @@
+package io.github.edufolly.flutterbluetoothserial;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/// Connected byte stream used by `BluetoothConnection`, usually RFCOMM socket.
+///
+/// Closing the transport should make pending `read` of its input stream throw (or end).
+public interface BluetoothTransport extends Closeable
+{
+    InputStream getInputStream() throws IOException;
+
+    OutputStream getOutputStream() throws IOException;
+}
@@ -0,0 +1,80 @@
+package io.github.edufolly.flutterbluetoothserial;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+
+/// Unit of work for connection writer thread, written chunk by chunk.
+///
+/// Jobs are queued in lanes: chunks of job in control lane are written before any chunk
+/// of job in bulk lane, so long jobs (like file transfers) do not delay urgent writes.
+/// Within a lane, jobs are written one after another (chunks of two jobs are never mixed).
+abstract class BluetoothWriteJob
+{
+    /// Lane for urgent, usually short writes (like commands)
+    static final int LANE_CONTROL = 0;
+    /// Lane for bulk data (like file transfers)
+    static final int LANE_BULK = 1;
+    static final int LANES_COUNT = 2;
+
+    private final int lane;
+    private volatile boolean cancelled = false;
+
+    /// Time the job was queued, used to measure lane latency
+    long queuedTime = 0;
+
+    /// Wakes up the writer waiting for the job to become ready (set by the writer once the job is queued)
+    private volatile Runnable readyListener = null;
+
+    BluetoothWriteJob(int lane) {
+        if (lane < 0 || lane >= LANES_COUNT) {
+            throw new IllegalArgumentException("invalid lane: " + lane);
+        }
+        this.lane = lane;
+    }
+
+    int getLane() {
+        return lane;
+    }
+
+    /// Whether `nextChunk` can be called without blocking. Until then the writer writes jobs of other lanes
+    /// (or waits), so jobs producing chunks on other threads must call `signalReady` once they are ready.
+    boolean isReady() {
+        return true;
+    }
+
+    /// Returns next chunk to be written, or null if the job is finished. Called only once the job is ready.
+    abstract byte[] nextChunk() throws IOException;
+
+    /// Called after chunk was written
+    void onChunkWritten(int length) {}
+
+    /// Called exactly once when the job is finished, with error if failed or cancelled
+    abstract void onFinished(IOException error);
+
+    /// Requests cancelling the job, which will be finished before its next chunk is written
+    void cancel() {
+        cancelled = true;
+        signalReady();
+    }
+
+    void setReadyListener(Runnable listener) {
+        readyListener = listener;
+    }
+
+    /// Wakes up the writer, after the job which was not ready became ready
+    void signalReady() {
+        final Runnable listener = readyListener;
+        if (listener != null) {
+            listener.run();
+        }
+    }
+
+    boolean isCancelled() {
+        return cancelled;
+    }
+
+    /// Error used to finish cancelled jobs
+    static IOException cancelledError() {
+        return new InterruptedIOException("cancelled");
+    }
+}
@@ -0,0 +1,88 @@
+package io.github.edufolly.flutterbluetoothserial;
+
+import java.io.InterruptedIOException;
+
+/// Token bucket pacing written data to rate sustainable by the remote device, with optional gap between chunks.
+///
+/// Written data are split into chunks of at most `chunkSize` bytes, each waiting for enough tokens
+/// (refilled at `bytesPerSecond`, up to `burst`) and at least `gapNanos` since the previous chunk.
+/// Used only by the connection writer thread.
+class BluetoothWritePacer
+{
+    private final long bytesPerSecond;
+    private final long burst;
+    private final long gapNanos;
+    private final int chunkSize;
+
+    private double tokens;
+    private long lastRefillTime;
+    private long lastChunkTime = 0;
+
+    // Metrics (written only by the writer thread)
+    private volatile long delayedNanos = 0;
+
+    /// Creates pacer. Non-positive `bytesPerSecond` means no rate limit, non-positive `chunkSize`
+    /// and `burst` are chosen from the rate (about 20 ms of data, but at most 1024 bytes).
+    BluetoothWritePacer(long bytesPerSecond, long gapNanos, int chunkSize, long burst) {
+        if (bytesPerSecond <= 0 && gapNanos <= 0) {
+            throw new IllegalArgumentException("either rate or gap must be positive");
+        }
+        if (chunkSize <= 0) {
+            chunkSize = bytesPerSecond > 0 ? (int) Math.max(1, Math.min(1024, bytesPerSecond / 50)) : 1024;
+        }
+        this.bytesPerSecond = bytesPerSecond;
+        this.gapNanos = Math.max(0, gapNanos);
+        this.chunkSize = chunkSize;
+        // Bucket must hold at least single chunk
+        this.burst = Math.max(burst, chunkSize);
+        this.tokens = this.burst;
+        this.lastRefillTime = System.nanoTime();
+    }
+
+    int getChunkSize() {
+        return chunkSize;
+    }
+
+    /// Returns total time spent waiting because of pacing
+    long getDelayedNanos() {
+        return delayedNanos;
+    }
+
+    /// Waits until chunk of given length can be written
+    void acquire(int length) throws InterruptedIOException {
+        long now = System.nanoTime();
+        long wait = 0;
+
+        if (lastChunkTime != 0 && gapNanos > 0) {
+            wait = Math.max(wait, lastChunkTime + gapNanos - now);
+        }
+
+        if (bytesPerSecond > 0) {
+            tokens = Math.min(burst, tokens + (now - lastRefillTime) * bytesPerSecond / 1e9);
+            lastRefillTime = now;
+            if (tokens < length) {
+                wait = Math.max(wait, (long) ((length - tokens) * 1e9 / bytesPerSecond));
+            }
+        }
+
+        if (wait > 0) {
+            try {
+                Thread.sleep(wait / 1000000, (int) (wait % 1000000));
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("interrupted while pacing");
+            }
+            delayedNanos += wait;
+            now = System.nanoTime();
+            if (bytesPerSecond > 0) {
+                tokens = Math.min(burst, tokens + (now - lastRefillTime) * bytesPerSecond / 1e9);
+                lastRefillTime = now;
+            }
+        }
+
+        if (bytesPerSecond > 0) {
+            tokens -= length;
+        }
+        lastChunkTime = now;
+    }
+}
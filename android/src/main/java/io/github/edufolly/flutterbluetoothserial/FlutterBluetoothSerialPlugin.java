@@ -6,6 +6,7 @@ import android.app.Activity;
 import android.bluetooth.BluetoothAdapter;
 import android.bluetooth.BluetoothDevice;
 import android.bluetooth.BluetoothManager;
+import android.bluetooth.BluetoothSocket;
 import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.Intent;
@@ -19,7 +20,9 @@ import androidx.core.content.ContextCompat;
 import android.util.Log;
 import android.util.SparseArray;
 import android.os.AsyncTask;
+import android.os.SystemClock;
 
+import java.io.IOException;
 import java.io.PrintWriter;
 import java.io.StringWriter;
 import java.util.Enumeration;
@@ -27,6 +30,8 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.net.NetworkInterface;
 
 import io.flutter.embedding.engine.plugins.FlutterPlugin;
@@ -54,61 +59,172 @@ public class FlutterBluetoothSerialPlugin implements FlutterPlugin, ActivityAwar
     private static final int REQUEST_DISCOVERABLE_BLUETOOTH = 2137;
 
     // General Bluetooth
+    /// Looked up on first use by `getBluetoothAdapter`, null if there is no Bluetooth
     private BluetoothAdapter bluetoothAdapter;
-
-    // State
-    private final BroadcastReceiver stateReceiver;
+    private boolean isBluetoothAdapterResolved = false;
+
+    // State and events
+    /// Single receiver for adapter state, ACL and bond changes, shared by state and events channels
+    private BroadcastReceiver stateReceiver = null;
+    private boolean isStateReceiverRegistered = false;
+    private boolean isStateReceiverForEvents = false;
+    /// Adapter state passed last, so repeated broadcasts of the same state are coalesced (`ERROR` if none yet)
+    private int lastAdapterState = BluetoothDevice.ERROR;
     private EventSink stateSink;
+    private EventSink eventsSink;
 
     // Pairing requests
-    private final BroadcastReceiver pairingRequestReceiver;
+    private BroadcastReceiver pairingRequestReceiver = null;
     private boolean isPairingRequestHandlerSet = false;
-    private BroadcastReceiver bondStateBroadcastReceiver = null;
+    private boolean isPairingRequestReceiverRegistered = false;
+    private final BluetoothPairingRules pairingRules = new BluetoothPairingRules();
+
+    // Bonding
+    private BluetoothBondingEngine bondingEngine;
 
     private EventSink discoverySink;
-    private final BroadcastReceiver discoveryReceiver;
+    private BroadcastReceiver discoveryReceiver = null;
+    private BluetoothDiscoveryScheduler discoveryScheduler = null;
 
     // Connections
-    /// Contains all active connections. Maps ID of the connection with plugin data channels. 
-    private final SparseArray<BluetoothConnectionWrapper> connections = new SparseArray<>(2);
+    /// Contains all active connections of the process, shared with plugin instances of other engines.
+    /// Maps ID of the connection with wrapper, to which each engine binds its own data channels.
+    private final BluetoothConnectionRegistry connections = BluetoothConnectionRegistry.getInstance();
+
+    /// Passes link status changes of all connections to the events sink of this engine
+    private final BluetoothConnectionRegistry.Listener registryListener = this::onLinkStatus;
+
+    /// Number of this engine within the process, given by the registry on attach
+    private int engineNumber = 0;
+
+    /// Codec factories available to `setCodec` method by name
+    private static final Map<String, BluetoothCodec.Factory> codecFactories = new HashMap<>();
+    static {
+        codecFactories.put("deflate", options -> {
+            final Object level = options.get("level");
+            final Object raw = options.get("raw");
+            return new BluetoothDeflateCodec(
+                    level instanceof Integer ? (Integer) level : java.util.zip.Deflater.DEFAULT_COMPRESSION,
+                    raw instanceof Boolean && (Boolean) raw
+            );
+        });
+    }
+
+    // Servers
+    /// Contains all listening servers. Maps ID of the server with plugin data channels.
+    private final SparseArray<BluetoothServerWrapper> servers = new SparseArray<>(1);
+
+    /// Last ID given to any server, used to avoid duplicate IDs
+    private int lastServerId = 0;
+
+    // Transfers
+    /// Contains all ongoing bulk transfers. Maps ID of the transfer with its progress channel.
+    private final SparseArray<BluetoothTransferWrapper> transfers = new SparseArray<>(1);
+
+    /// Last ID given to any transfer, used to avoid duplicate IDs
+    private int lastTransferId = 0;
+
+    // Polling
+    /// Periodic command polls of all connections of this engine, created on first use
+    private BluetoothPollScheduler pollScheduler = null;
+    private EventSink pollsSink;
 
-    /// Last ID given to any connection, used to avoid duplicate IDs 
-    private int lastConnectionId = 0;
     private Activity activity;
     private BinaryMessenger messenger;
     private Context activeContext;
 
-    /// Constructs the plugin instance
-    public FlutterBluetoothSerialPlugin() {
+    // Startup
+    /// Time spent in attaching to the engine, the activity and looking up the adapter (-1 if not yet)
+    private long attachToEngineNanos = -1;
+    private long attachToActivityNanos = -1;
+    private long adapterLookupNanos = -1;
+
+    /// Returns the state receiver, created on first registration
+    private BroadcastReceiver getStateReceiver() {
+        if (stateReceiver == null) {
+            stateReceiver = createStateReceiver();
+        }
+        return stateReceiver;
+    }
+
+    /// Returns the pairing request receiver, created on first registration
+    private BroadcastReceiver getPairingRequestReceiver() {
+        if (pairingRequestReceiver == null) {
+            pairingRequestReceiver = createPairingRequestReceiver();
+        }
+        return pairingRequestReceiver;
+    }
+
+    /// Returns the discovery receiver, created on first registration
+    private BroadcastReceiver getDiscoveryReceiver() {
+        if (discoveryReceiver == null) {
+            discoveryReceiver = createDiscoveryReceiver();
+        }
+        return discoveryReceiver;
+    }
 
-        // State
-        stateReceiver = new BroadcastReceiver() {
+    /// Creates receiver of adapter state, ACL and bond changes, shared by state and events channels
+    private BroadcastReceiver createStateReceiver() {
+        return new BroadcastReceiver() {
             @Override
             public void onReceive(Context context, Intent intent) {
-                if (stateSink == null) {
-                    return;
-                }
-
                 final String action = intent.getAction();
                 switch (action) {
-                    case BluetoothAdapter.ACTION_STATE_CHANGED:
-                        // Disconnect all connections
-                        int size = connections.size();
-                        for (int i = 0; i < size; i++) {
-                            BluetoothConnection connection = connections.valueAt(i);
-                            connection.disconnect();
+                    case BluetoothAdapter.ACTION_STATE_CHANGED: {
+                        final int state = intent.getIntExtra(BluetoothAdapter.EXTRA_STATE, BluetoothDevice.ERROR);
+                        if (state == BluetoothAdapter.STATE_TURNING_OFF || state == BluetoothAdapter.STATE_OFF) {
+                            // Disconnect all connections (of every engine, the first receiving engine takes them)
+                            for (BluetoothConnection connection : connections.removeAll()) {
+                                // Adapter is going off, nothing more can be written
+                                connection.disconnect(0, null);
+                            }
+                        }
+
+                        if (state == lastAdapterState) {
+                            // Repeated broadcast of the state already passed
+                            break;
+                        }
+                        lastAdapterState = state;
+                        if (stateSink != null) {
+                            stateSink.success(state);
+                        }
+                        if (eventsSink != null) {
+                            final int previousState = intent.getIntExtra(BluetoothAdapter.EXTRA_PREVIOUS_STATE, BluetoothDevice.ERROR);
+                            eventsSink.success(BluetoothEvents.adapterState(previousState, state));
+                        }
+                        break;
+                    }
+
+                    case BluetoothDevice.ACTION_ACL_CONNECTED:
+                    case BluetoothDevice.ACTION_ACL_DISCONNECTED: {
+                        if (eventsSink == null) {
+                            break;
                         }
-                        connections.clear();
+                        final BluetoothDevice device = intent.getParcelableExtra(BluetoothDevice.EXTRA_DEVICE);
+                        eventsSink.success(BluetoothEvents.acl(BluetoothDevice.ACTION_ACL_CONNECTED.equals(action), device.getAddress()));
+                        break;
+                    }
 
-                        stateSink.success(intent.getIntExtra(BluetoothAdapter.EXTRA_STATE, BluetoothDevice.ERROR));
+                    case BluetoothDevice.ACTION_BOND_STATE_CHANGED: {
+                        if (eventsSink == null) {
+                            break;
+                        }
+                        final BluetoothDevice device = intent.getParcelableExtra(BluetoothDevice.EXTRA_DEVICE);
+                        eventsSink.success(BluetoothEvents.bondState(
+                                device.getAddress(),
+                                intent.getIntExtra(BluetoothDevice.EXTRA_PREVIOUS_BOND_STATE, BluetoothDevice.ERROR),
+                                intent.getIntExtra(BluetoothDevice.EXTRA_BOND_STATE, BluetoothDevice.ERROR)
+                        ));
                         break;
+                    }
                 }
             }
         };
+    }
 
-
-        // Pairing requests
-        pairingRequestReceiver = new BroadcastReceiver() {
+    /// Creates receiver of pairing requests, answering them natively or passing them to Dart
+    private BroadcastReceiver createPairingRequestReceiver() {
+        return new BroadcastReceiver() {
             @Override
             public void onReceive(Context context, Intent intent) {
                 switch (intent.getAction()) {
@@ -116,6 +232,17 @@ public class FlutterBluetoothSerialPlugin implements FlutterPlugin, ActivityAwar
                         final BluetoothDevice device = intent.getParcelableExtra(BluetoothDevice.EXTRA_DEVICE);
                         final int pairingVariant = intent.getIntExtra(BluetoothDevice.EXTRA_PAIRING_VARIANT, BluetoothDevice.ERROR);
                         Log.d(TAG, "Pairing request (variant " + pairingVariant + ") incoming from " + device.getAddress());
+
+                        // Answer immediately if any of native rules matches
+                        if (pairingRules.answer(device, pairingVariant)) {
+                            abortBroadcast();
+                            break;
+                        }
+                        // Leave unmatched requests for the system if there is no Dart handler
+                        if (!isPairingRequestHandlerSet) {
+                            break;
+                        }
+
                         switch (pairingVariant) {
                             case BluetoothDevice.PAIRING_VARIANT_PIN:
                                 // Simplest method - 4 digit number
@@ -148,7 +275,9 @@ public class FlutterBluetoothSerialPlugin implements FlutterPlugin, ActivityAwar
                                             //Intent intent = new Intent(BluetoothAdapter.ACTION_PAIRING_REQUEST);
                                             //intent.putExtra(BluetoothDevice.EXTRA_DEVICE, device);
                                             //intent.putExtra(BluetoothDevice.EXTRA_PAIRING_VARIANT, pairingVariant)
-                                            ActivityCompat.startActivity(activity, intent, null);
+                                            if (activity != null) {
+                                                ActivityCompat.startActivity(activity, intent, null);
+                                            }
                                         }
                                         broadcastResult.finish();
                                     }
@@ -204,7 +333,9 @@ public class FlutterBluetoothSerialPlugin implements FlutterPlugin, ActivityAwar
                                             }
                                         } else {
                                             Log.d(TAG, "Manual passkey confirmation pairing in progress (key: " + pairingKey + ")");
-                                            ActivityCompat.startActivity(activity, intent, null);
+                                            if (activity != null) {
+                                                ActivityCompat.startActivity(activity, intent, null);
+                                            }
                                         }
                                         broadcastResult.finish();
                                     }
@@ -259,32 +390,17 @@ public class FlutterBluetoothSerialPlugin implements FlutterPlugin, ActivityAwar
                 }
             }
         };
+    }
 
-        // Discovery
-        discoveryReceiver = new BroadcastReceiver() {
+    /// Creates receiver of discovery results
+    private BroadcastReceiver createDiscoveryReceiver() {
+        return new BroadcastReceiver() {
             @Override
             public void onReceive(Context context, Intent intent) {
                 final String action = intent.getAction();
                 switch (action) {
                     case BluetoothDevice.ACTION_FOUND:
-                        final BluetoothDevice device = intent.getParcelableExtra(BluetoothDevice.EXTRA_DEVICE);
-                        //final BluetoothClass deviceClass = intent.getParcelableExtra(BluetoothDevice.EXTRA_CLASS); // @TODO . !BluetoothClass!
-                        //final String extraName = intent.getStringExtra(BluetoothDevice.EXTRA_NAME); // @TODO ? !EXTRA_NAME!
-                        final int deviceRSSI = intent.getShortExtra(BluetoothDevice.EXTRA_RSSI, Short.MIN_VALUE);
-
-                        Map<String, Object> discoveryResult = new HashMap<>();
-                        discoveryResult.put("address", device.getAddress());
-                        discoveryResult.put("name", device.getName());
-                        discoveryResult.put("type", device.getType());
-                        //discoveryResult.put("class", deviceClass); // @TODO . it isn't my priority for now !BluetoothClass!
-                        discoveryResult.put("isConnected", checkIsDeviceConnected(device));
-                        discoveryResult.put("bondState", device.getBondState());
-                        discoveryResult.put("rssi", deviceRSSI);
-
-                        Log.d(TAG, "Discovered " + device.getAddress());
-                        if (discoverySink != null) {
-                            discoverySink.success(discoveryResult);
-                        }
+                        onDeviceDiscovered(intent);
                         break;
 
                     case BluetoothAdapter.ACTION_DISCOVERY_FINISHED:
@@ -309,82 +425,167 @@ public class FlutterBluetoothSerialPlugin implements FlutterPlugin, ActivityAwar
                 }
             }
         };
-
     }
 
     @Override
     public void onAttachedToEngine(@NonNull FlutterPlugin.FlutterPluginBinding binding) {
         Log.v("FlutterBluetoothSerial", "Attached to engine");
 //        if (true) throw new RuntimeException("FlutterBluetoothSerial Attached to engine");
+        final long startTime = SystemClock.elapsedRealtimeNanos();
         messenger = binding.getBinaryMessenger();
 
+        activeContext = binding.getApplicationContext();
+        engineNumber = connections.attach(registryListener);
+
         methodChannel = new MethodChannel(messenger, PLUGIN_NAMESPACE + "/methods");
         methodChannel.setMethodCallHandler( new FlutterBluetoothSerialMethodCallHandler() );
 
-        EventChannel stateChannel = new EventChannel(messenger, PLUGIN_NAMESPACE + "/state");
+        // Event channels have to be registered before Dart starts listening, but the handlers
+        // only store the sinks; receivers and the adapter are set up on first use.
+        new EventChannel(messenger, PLUGIN_NAMESPACE + "/state").setStreamHandler(new PluginStreamHandler(PluginStreamHandler.STATE));
+        new EventChannel(messenger, PLUGIN_NAMESPACE + "/events").setStreamHandler(new PluginStreamHandler(PluginStreamHandler.EVENTS));
+        new EventChannel(messenger, PLUGIN_NAMESPACE + "/discovery").setStreamHandler(new PluginStreamHandler(PluginStreamHandler.DISCOVERY));
+        new EventChannel(messenger, PLUGIN_NAMESPACE + "/polls").setStreamHandler(new PluginStreamHandler(PluginStreamHandler.POLLS));
 
-        stateChannel.setStreamHandler(new StreamHandler() {
-            @Override
-            public void onListen(Object o, EventSink eventSink) {
-                stateSink = eventSink;
+        attachToEngineNanos = SystemClock.elapsedRealtimeNanos() - startTime;
+        Log.d(TAG, "Attached to engine in " + attachToEngineNanos / 1000 + " us");
+    }
 
-                activeContext.registerReceiver(stateReceiver, new IntentFilter(BluetoothAdapter.ACTION_STATE_CHANGED));
-            }
+    /// Handler of the plugin event channels
+    private class PluginStreamHandler implements StreamHandler {
+        static final int STATE = 0;
+        static final int EVENTS = 1;
+        static final int DISCOVERY = 2;
+        static final int POLLS = 3;
 
-            @Override
-            public void onCancel(Object o) {
-                stateSink = null;
-                try {
-                    activeContext.unregisterReceiver(stateReceiver);
-                } catch (IllegalArgumentException ex) {
-                    // Ignore `Receiver not registered` exception
-                }
-            }
-        });
+        private final int channel;
 
-        // Discovery
-        EventChannel discoveryChannel = new EventChannel(messenger, PLUGIN_NAMESPACE + "/discovery");
+        PluginStreamHandler(int channel) {
+            this.channel = channel;
+        }
 
-        // Ignore `Receiver not registered` exception
-        StreamHandler discoveryStreamHandler = new StreamHandler() {
-            @Override
-            public void onListen(Object o, EventSink eventSink) {
-                discoverySink = eventSink;
+        @Override
+        public void onListen(Object o, EventSink eventSink) {
+            switch (channel) {
+                case STATE:
+                    stateSink = eventSink;
+                    updateStateReceiver();
+                    break;
+                case EVENTS:
+                    eventsSink = eventSink;
+                    updateStateReceiver();
+                    break;
+                case DISCOVERY:
+                    discoverySink = eventSink;
+                    break;
+                case POLLS:
+                    pollsSink = eventSink;
+                    if (o instanceof Integer) {
+                        getPollScheduler().setBatchInterval((Integer) o);
+                    }
+                    break;
             }
+        }
 
-            @Override
-            public void onCancel(Object o) {
-                Log.d(TAG, "Canceling discovery (stream closed)");
-                try {
-                    activeContext.unregisterReceiver(discoveryReceiver);
-                } catch (IllegalArgumentException ex) {
-                    // Ignore `Receiver not registered` exception
-                }
+        @Override
+        public void onCancel(Object o) {
+            switch (channel) {
+                case STATE:
+                    stateSink = null;
+                    updateStateReceiver();
+                    break;
+                case EVENTS:
+                    eventsSink = null;
+                    updateStateReceiver();
+                    break;
+                case DISCOVERY:
+                    Log.d(TAG, "Canceling discovery (stream closed)");
+                    if (discoveryScheduler != null) {
+                        discoveryScheduler.stop();
+                    }
+                    unregisterDiscoveryReceiver();
 
-                bluetoothAdapter.cancelDiscovery();
+                    // Nothing could be discovering if the adapter was not looked up yet
+                    if (bluetoothAdapter != null) {
+                        bluetoothAdapter.cancelDiscovery();
+                    }
 
-                if (discoverySink != null) {
-                    discoverySink.endOfStream();
-                    discoverySink = null;
-                }
+                    if (discoverySink != null) {
+                        discoverySink.endOfStream();
+                        discoverySink = null;
+                    }
+                    break;
+                case POLLS:
+                    // Polls keep running, results are dropped until listened again
+                    pollsSink = null;
+                    break;
             }
-        };
-        discoveryChannel.setStreamHandler(discoveryStreamHandler);
+        }
     }
 
     @Override
     public void onDetachedFromEngine(@NonNull FlutterPlugin.FlutterPluginBinding binding) {
         if (methodChannel != null) methodChannel.setMethodCallHandler(null);
+        // Connections stay open in the registry, for other engines (or this one reattached),
+        // everything else of this engine is released, as it would report to dead messenger
+        connections.detach(registryListener);
+        for (BluetoothConnection connection : connections.getAll()) {
+            releaseConnectionBindings((BluetoothConnectionWrapper) connection);
+        }
+        stateSink = null;
+        eventsSink = null;
+        updateStateReceiver();
+
+        isPairingRequestHandlerSet = false;
+        pairingRules.set(new ArrayList<>());
+        updatePairingRequestReceiver();
+
+        if (bondingEngine != null) {
+            bondingEngine.cancelAll();
+        }
+
+        final boolean wasDiscovering = discoverySink != null || (discoveryScheduler != null && discoveryScheduler.isRunning());
+        discoverySink = null;
+        if (discoveryScheduler != null) {
+            discoveryScheduler.stop();
+        }
+        unregisterDiscoveryReceiver();
+        if (wasDiscovering && bluetoothAdapter != null) {
+            bluetoothAdapter.cancelDiscovery();
+        }
+
+        synchronized (servers) {
+            for (int i = 0; i < servers.size(); i++) {
+                final BluetoothServerWrapper server = servers.valueAt(i);
+                server.acceptSink = null;
+                server.close();
+                server.acceptChannel.setStreamHandler(null);
+            }
+            servers.clear();
+        }
+        synchronized (transfers) {
+            for (int i = 0; i < transfers.size(); i++) {
+                final BluetoothTransferWrapper transfer = transfers.valueAt(i);
+                transfer.progressSink = null;
+                if (transfer.started) {
+                    transfer.cancel();
+                }
+                transfer.progressChannel.setStreamHandler(null);
+            }
+            transfers.clear();
+        }
+
+        pollsSink = null;
+        if (pollScheduler != null) {
+            pollScheduler.clear();
+        }
     }
 
     @Override
     public void onAttachedToActivity(@NonNull ActivityPluginBinding binding) {
 //        if (true) throw new RuntimeException("FlutterBluetoothSerial Attached to activity");
+        final long startTime = SystemClock.elapsedRealtimeNanos();
         this.activity = binding.getActivity();
-        BluetoothManager bluetoothManager = (BluetoothManager) activity.getSystemService(Context.BLUETOOTH_SERVICE);
-        assert bluetoothManager != null;
-
-        this.bluetoothAdapter = bluetoothManager.getAdapter();
 
         binding.addActivityResultListener(
                 (requestCode, resultCode, data) -> {
@@ -419,21 +620,110 @@ public class FlutterBluetoothSerialPlugin implements FlutterPlugin, ActivityAwar
         activity = binding.getActivity();
         activeContext = binding.getActivity().getApplicationContext();
 
+        attachToActivityNanos = SystemClock.elapsedRealtimeNanos() - startTime;
+        Log.d(TAG, "Attached to activity in " + attachToActivityNanos / 1000 + " us");
+    }
+
+    /// Returns the adapter, looked up on first use (null if Bluetooth is not available)
+    private BluetoothAdapter getBluetoothAdapter() {
+        if (!isBluetoothAdapterResolved) {
+            final long startTime = SystemClock.elapsedRealtimeNanos();
+            final BluetoothManager bluetoothManager = (BluetoothManager) activeContext.getSystemService(Context.BLUETOOTH_SERVICE);
+            bluetoothAdapter = bluetoothManager != null ? bluetoothManager.getAdapter() : null;
+            isBluetoothAdapterResolved = true;
+            adapterLookupNanos = SystemClock.elapsedRealtimeNanos() - startTime;
+        }
+        return bluetoothAdapter;
+    }
+
+    /// Returns the bonding engine, created on first use
+    private BluetoothBondingEngine getBondingEngine() {
+        if (bondingEngine == null) {
+            bondingEngine = new BluetoothBondingEngine(activeContext);
+        }
+        return bondingEngine;
+    }
+
+    /// Returns the poll scheduler, created on first use
+    private BluetoothPollScheduler getPollScheduler() {
+        if (pollScheduler == null) {
+            pollScheduler = new BluetoothPollScheduler(new BluetoothPollScheduler.Listener() {
+                @Override
+                public void onBatch(List<Map<String, Object>> batch) {
+                    runOnUiThread(() -> {
+                        if (pollsSink != null) {
+                            pollsSink.success(batch);
+                        }
+                    });
+                }
+
+                @Override
+                public void onEngineReleased(BluetoothProtocolEngine engine) {
+                    // Engine set up only for polling is removed, so read data go to `onRead` again,
+                    // unless poll was added meanwhile, or other Flutter engine polls the connection too
+                    runOnUiThread(() -> {
+                        final BluetoothConnectionWrapper connection = (BluetoothConnectionWrapper) engine.connection;
+                        if (pollScheduler.hasPolls(engine)) {
+                            return;
+                        }
+                        if (connections.removePoller(connection.id, registryListener) || connection.getProtocolEngine() != engine) {
+                            return;
+                        }
+                        try {
+                            connection.setProtocolEngine(null);
+                        } catch (IOException ex) {
+                            // Never thrown on removing
+                        }
+                    });
+                }
+            });
+        }
+        return pollScheduler;
+    }
+
+    /// Returns startup costs of the plugin, in microseconds (-1 for steps not done yet), and which
+    /// of the lazily created parts were created so far
+    private Map<String, Object> getStartupStats() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("attachToEngineMicros", attachToEngineNanos < 0 ? -1L : attachToEngineNanos / 1000);
+        stats.put("attachToActivityMicros", attachToActivityNanos < 0 ? -1L : attachToActivityNanos / 1000);
+        stats.put("adapterLookupMicros", adapterLookupNanos < 0 ? -1L : adapterLookupNanos / 1000);
+        List<String> created = new ArrayList<>();
+        if (stateReceiver != null) created.add("stateReceiver");
+        if (pairingRequestReceiver != null) created.add("pairingRequestReceiver");
+        if (discoveryReceiver != null) created.add("discoveryReceiver");
+        if (bondingEngine != null) created.add("bondingEngine");
+        if (pollScheduler != null) created.add("pollScheduler");
+        stats.put("created", created);
+        return stats;
     }
 
     @Override
     public void onDetachedFromActivityForConfigChanges() {
-
+        activity = null;
     }
 
     @Override
     public void onReattachedToActivityForConfigChanges(@NonNull ActivityPluginBinding binding) {
-
+        onAttachedToActivity(binding);
     }
 
 
     public void onDetachedFromActivity() {
+        // Engine might keep running headless, methods requiring activity report `no_activity`
+        activity = null;
+    }
 
+    /// Whether the method requires activity attached (to start activity or ask for result)
+    private static boolean requiresActivity(String method) {
+        switch (method) {
+            case "openSettings":
+            case "requestEnable":
+            case "requestDiscoverable":
+                return true;
+            default:
+                return false;
+        }
     }
 
 
@@ -445,12 +735,17 @@ public class FlutterBluetoothSerialPlugin implements FlutterPlugin, ActivityAwar
 
     private void ensurePermissions(EnsurePermissionsCallback callbacks) {
         if (
-                ContextCompat.checkSelfPermission(activity,
+                ContextCompat.checkSelfPermission(activeContext,
                         Manifest.permission.ACCESS_COARSE_LOCATION)
                         != PackageManager.PERMISSION_GRANTED
-                        || ContextCompat.checkSelfPermission(activity,
+                        || ContextCompat.checkSelfPermission(activeContext,
                         Manifest.permission.ACCESS_FINE_LOCATION)
                         != PackageManager.PERMISSION_GRANTED) {
+            if (activity == null) {
+                // Cannot ask without activity (headless engine)
+                callbacks.onResult(false);
+                return;
+            }
             ActivityCompat.requestPermissions(activity,
                     new String[]{Manifest.permission.ACCESS_COARSE_LOCATION, Manifest.permission.ACCESS_FINE_LOCATION},
                     REQUEST_COARSE_LOCATION_PERMISSIONS);
@@ -462,6 +757,237 @@ public class FlutterBluetoothSerialPlugin implements FlutterPlugin, ActivityAwar
     }
 
 
+    /// Registers pairing request receiver if there is Dart handler or native rules set, unregisters otherwise
+    private void updatePairingRequestReceiver() {
+        final boolean needed = isPairingRequestHandlerSet || !pairingRules.isEmpty();
+        if (needed == isPairingRequestReceiverRegistered) {
+            return;
+        }
+
+        if (needed) {
+            Log.d(TAG, "Starting listening for pairing requests to handle");
+            final IntentFilter filter = new IntentFilter(BluetoothDevice.ACTION_PAIRING_REQUEST);
+            //filter.setPriority(pairingRequestReceiverPriority);
+            activeContext.registerReceiver(getPairingRequestReceiver(), filter);
+        } else {
+            try {
+                activeContext.unregisterReceiver(pairingRequestReceiver);
+                Log.d(TAG, "Stopped listening for pairing requests to handle");
+            } catch (IllegalArgumentException ex) {
+                // Ignore `Receiver not registered` exception
+            }
+        }
+        isPairingRequestReceiverRegistered = needed;
+    }
+
+    /// Unregisters the discovery receiver, if it was registered
+    private void unregisterDiscoveryReceiver() {
+        if (discoveryReceiver == null) {
+            return;
+        }
+        try {
+            activeContext.unregisterReceiver(discoveryReceiver);
+        } catch (IllegalArgumentException ex) {
+            // Ignore `Receiver not registered` exception
+        }
+    }
+
+    /// Registers the state receiver for actions required by state and events sinks, unregisters if none listening
+    private void updateStateReceiver() {
+        final boolean needed = stateSink != null || eventsSink != null;
+        final boolean forEvents = eventsSink != null;
+        if (needed == isStateReceiverRegistered && forEvents == isStateReceiverForEvents) {
+            return;
+        }
+
+        if (isStateReceiverRegistered) {
+            try {
+                activeContext.unregisterReceiver(stateReceiver);
+            } catch (IllegalArgumentException ex) {
+                // Ignore `Receiver not registered` exception
+            }
+            isStateReceiverRegistered = false;
+            if (!needed) {
+                lastAdapterState = BluetoothDevice.ERROR;
+            }
+        }
+
+        if (needed) {
+            IntentFilter filter = new IntentFilter(BluetoothAdapter.ACTION_STATE_CHANGED);
+            if (forEvents) {
+                filter.addAction(BluetoothDevice.ACTION_ACL_CONNECTED);
+                filter.addAction(BluetoothDevice.ACTION_ACL_DISCONNECTED);
+                filter.addAction(BluetoothDevice.ACTION_BOND_STATE_CHANGED);
+            }
+            activeContext.registerReceiver(getStateReceiver(), filter);
+            isStateReceiverRegistered = true;
+        }
+        isStateReceiverForEvents = forEvents;
+    }
+
+    /// Passes link status change to the events sink (must be called on the UI thread)
+    private void onLinkStatus(int id, byte status) {
+        if (eventsSink != null) {
+            eventsSink.success(BluetoothEvents.linkStatus(id, status));
+        }
+    }
+
+    /// Passes discovery result from `ACTION_FOUND` intent to the discovery sink
+    private void onDeviceDiscovered(Intent intent) {
+        final BluetoothDevice device = intent.getParcelableExtra(BluetoothDevice.EXTRA_DEVICE);
+        //final BluetoothClass deviceClass = intent.getParcelableExtra(BluetoothDevice.EXTRA_CLASS); // @TODO . !BluetoothClass!
+        //final String extraName = intent.getStringExtra(BluetoothDevice.EXTRA_NAME); // @TODO ? !EXTRA_NAME!
+        final int deviceRSSI = intent.getShortExtra(BluetoothDevice.EXTRA_RSSI, Short.MIN_VALUE);
+
+        Map<String, Object> discoveryResult = new HashMap<>();
+        discoveryResult.put("address", device.getAddress());
+        discoveryResult.put("name", device.getName());
+        discoveryResult.put("type", device.getType());
+        //discoveryResult.put("class", deviceClass); // @TODO . it isn't my priority for now !BluetoothClass!
+        discoveryResult.put("isConnected", checkIsDeviceConnected(device));
+        discoveryResult.put("bondState", device.getBondState());
+        discoveryResult.put("rssi", deviceRSSI);
+
+        Log.d(TAG, "Discovered " + device.getAddress());
+        if (discoverySink != null) {
+            discoverySink.success(discoveryResult);
+        }
+    }
+
+    /// Helper function to get snapshot of active connections
+    private List<BluetoothConnection> getConnectionsSnapshot() {
+        return connections.getAll();
+    }
+
+    /// Helper function to get connection by `id` argument of the call, reports error and returns null if not found
+    private BluetoothConnectionWrapper getConnectionArgument(MethodCall call, Result result) {
+        if (!call.hasArgument("id")) {
+            result.error("invalid_argument", "argument 'id' not found", null);
+            return null;
+        }
+
+        int id;
+        try {
+            id = call.argument("id");
+        } catch (ClassCastException ex) {
+            result.error("invalid_argument", "'id' argument is required to be integer id of connection", null);
+            return null;
+        }
+
+        // Connections are opened only by plugin instances, so all of them are wrapped (maybe by other engine)
+        final BluetoothConnectionWrapper connection = (BluetoothConnectionWrapper) connections.get(id);
+        if (connection == null) {
+            result.error("invalid_argument", "there is no connection with provided id", null);
+        }
+        return connection;
+    }
+
+    /// Helper function to create connection delivering its data to `/read/<id>` channel of this engine
+    private BluetoothConnectionWrapper createConnection(int id) {
+        final BluetoothConnectionWrapper connection = new BluetoothConnectionWrapper(id, bluetoothAdapter);
+        connection.readBinding = new BluetoothReadBinding(connection);
+        return connection;
+    }
+
+    /// Helper function to drop everything of this engine bound to the connection: its read channel,
+    /// subscriptions, multiplexer channels and Modbus polling. The connection stays open for other engines.
+    private void releaseConnectionBindings(BluetoothConnectionWrapper connection) {
+        final BluetoothReadBinding binding = connection.readBinding;
+        if (binding != null && binding.plugin == this) {
+            binding.release();
+        }
+        for (BluetoothReadSubscription subscription : connection.getSubscriptions()) {
+            final BluetoothReadSubscriptionWrapper wrapper = (BluetoothReadSubscriptionWrapper) subscription;
+            if (wrapper.plugin == this) {
+                wrapper.readSink = null;
+                wrapper.dispose();
+            }
+        }
+        final List<BluetoothMuxChannelWrapper> muxChannels = new ArrayList<>();
+        synchronized (connection.muxChannels) {
+            for (int i = 0; i < connection.muxChannels.size(); i++) {
+                if (connection.muxChannels.valueAt(i).plugin == this) {
+                    muxChannels.add(connection.muxChannels.valueAt(i));
+                }
+            }
+        }
+        for (BluetoothMuxChannelWrapper channel : muxChannels) {
+            channel.readSink = null;
+            channel.dispose();
+        }
+        final BluetoothModbusPollWrapper poll = connection.modbusPoll;
+        if (poll != null && poll.plugin == this) {
+            poll.pollSink = null;
+            poll.dispose();
+        }
+        if (connection.readBinding == null && connection.disconnected) {
+            // Disconnected while bound here, so it was left for this engine to dispose
+            AsyncTask.execute(connection::dispose);
+        }
+    }
+
+    /// Helper function to create frame decoder described by framing arguments (null for `none` mode)
+    private static BluetoothFrameDecoder createFrameDecoder(Map<String, Object> arguments) {
+        final String mode = arguments.containsKey("mode") ? (String) arguments.get("mode") : "none";
+        Integer maxFrameLength = (Integer) arguments.get("maxFrameLength");
+        if (maxFrameLength == null) {
+            maxFrameLength = 64 * 1024;
+        }
+        switch (mode) {
+            case "none":
+                return null;
+            case "delimiter": {
+                final byte[] delimiter = (byte[]) arguments.get("delimiter");
+                final Boolean stripDelimiter = (Boolean) arguments.get("stripDelimiter");
+                return BluetoothFrameDecoder.delimited(delimiter, stripDelimiter != null && stripDelimiter, maxFrameLength);
+            }
+            case "fixed": {
+                final Integer length = (Integer) arguments.get("length");
+                if (length == null) {
+                    throw new IllegalArgumentException("argument 'length' not found");
+                }
+                return BluetoothFrameDecoder.fixedLength(length);
+            }
+            case "length": {
+                final Integer lengthOffset = (Integer) arguments.get("lengthOffset");
+                final Integer lengthSize = (Integer) arguments.get("lengthSize");
+                final Boolean lengthBigEndian = (Boolean) arguments.get("lengthBigEndian");
+                final Integer lengthAdjustment = (Integer) arguments.get("lengthAdjustment");
+                return BluetoothFrameDecoder.lengthPrefixed(
+                        lengthOffset != null ? lengthOffset : 0,
+                        lengthSize != null ? lengthSize : 1,
+                        lengthBigEndian == null || lengthBigEndian,
+                        lengthAdjustment != null ? lengthAdjustment : 0,
+                        maxFrameLength
+                );
+            }
+            default:
+                throw new IllegalArgumentException("unknown framing mode: " + mode);
+        }
+    }
+
+    /// Helper function to prefix data with 8 bytes big endian timestamp
+    private static byte[] withTimestampHeader(byte[] data, long timestampNanos) {
+        byte[] event = new byte[8 + data.length];
+        for (int i = 0; i < 8; i++) {
+            event[i] = (byte) (timestampNanos >>> (56 - 8 * i));
+        }
+        System.arraycopy(data, 0, event, 8, data.length);
+        return event;
+    }
+
+    /// Registers codec available to `setCodec` method under given name (for example LZ4 codec provided by application)
+    public static void registerCodec(String name, BluetoothCodec.Factory factory) {
+        synchronized (codecFactories) {
+            codecFactories.put(name, factory);
+        }
+    }
+
+    /// Runs given action on the UI thread, even if there is no activity attached
+    private void runOnUiThread(Runnable action) {
+        connections.post(action);
+    }
+
     /// Helper function to get string out of exception
     static private String exceptionToString(Exception ex) {
         StringWriter sw = new StringWriter();
@@ -482,86 +1008,640 @@ public class FlutterBluetoothSerialPlugin implements FlutterPlugin, ActivityAwar
     }
 
 
-    /// Helper wrapper class for `BluetoothConnection`
-    private class BluetoothConnectionWrapper extends BluetoothConnection {
+    /// Helper wrapper class for `BluetoothConnection`, kept in the registry independently of engines.
+    /// Engines bind their own sinks to it: the engine which opened it by its `/read/<id>` channel
+    /// (until that engine is detached), other engines by read subscriptions.
+    private static class BluetoothConnectionWrapper extends BluetoothConnection {
         private final int id;
 
-        protected EventSink readSink;
+        private final BluetoothConnectionRegistry connections = BluetoothConnectionRegistry.getInstance();
 
-        protected EventChannel readChannel;
+        /// Binding of the engine which opened the connection (null once that engine is detached)
+        private volatile BluetoothReadBinding readBinding = null;
+
+        /// Server which accepted the connection (null for outgoing connections)
+        private BluetoothServerWrapper server = null;
+
+        /// Open multiplexer channels, by number
+        private final SparseArray<BluetoothMuxChannelWrapper> muxChannels = new SparseArray<>(2);
 
-        private final BluetoothConnectionWrapper self = this;
+        /// Modbus polling delivering to `/modbus/<id>` channel (null if not polling)
+        private BluetoothModbusPollWrapper modbusPoll = null;
+
+        /// Whether the link was closed, and whether the connection was disposed after that
+        private volatile boolean disconnected = false;
+        private final AtomicBoolean disposed = new AtomicBoolean(false);
 
         public BluetoothConnectionWrapper(int id, BluetoothAdapter adapter) {
             super(adapter);
             this.id = id;
+        }
 
-            readChannel = new EventChannel(messenger, PLUGIN_NAMESPACE + "/read/" + id);
-            // If canceled by local, disconnects - in other case, by remote, does nothing
-            // True dispose
-            StreamHandler readStreamHandler = new StreamHandler() {
-                @Override
-                public void onListen(Object o, EventSink eventSink) {
-                    readSink = eventSink;
-                }
-
-                @Override
-                public void onCancel(Object o) {
-                    // If canceled by local, disconnects - in other case, by remote, does nothing
-                    self.disconnect();
+        /// Whether read data are delivered with header holding the read timestamp
+        private volatile boolean readTimestamps = false;
 
-                    // True dispose
-                    AsyncTask.execute(() -> {
-                        readChannel.setStreamHandler(null);
-                        connections.remove(id);
+        @Override
+        protected void onRead(byte[] buffer) {
+            onRead(buffer, SystemClock.elapsedRealtimeNanos());
+        }
 
-                        Log.d(TAG, "Disconnected (id: " + id + ")");
-                    });
-                }
-            };
-            readChannel.setStreamHandler(readStreamHandler);
+        @Override
+        protected void onRead(byte[] buffer, long timestampNanos) {
+            final BluetoothReadBinding binding = readBinding;
+            if (binding == null) {
+                return;
+            }
+            binding.onRead(readTimestamps ? withTimestampHeader(buffer, timestampNanos) : buffer, timestampNanos);
         }
 
         @Override
-        protected void onRead(byte[] buffer) {
-            activity.runOnUiThread(() -> {
-                if (readSink != null) {
-                    readSink.success(buffer);
-                }
-            });
+        protected void onCorruptFrame(byte[] frame) {
+            final BluetoothReadBinding binding = readBinding;
+            if (binding != null) {
+                binding.onCorruptFrame(frame);
+            }
         }
 
         @Override
         protected void onDisconnected(boolean byRemote) {
-            activity.runOnUiThread(() -> {
+            disconnected = true;
+            if (server != null) {
+                server.releaseClient();
+            }
+            // Connection leaves the registry, so `stopCapture` could not be called anymore
+            final BluetoothCaptureLog log = stopCapture();
+            if (log != null) {
+                AsyncTask.execute(log::close);
+            }
+            connections.post(() -> {
+                connections.notifyLinkStatus(id, !byRemote ? BluetoothEvents.LINK_CLOSED_BY_LOCAL
+                        : isKeepaliveExpired() ? BluetoothEvents.LINK_EXPIRED : BluetoothEvents.LINK_CLOSED_BY_REMOTE);
+                final BluetoothReadBinding binding = readBinding;
                 if (byRemote) {
                     Log.d(TAG, "onDisconnected by remote (id: " + id + ")");
-                    if (readSink != null) {
-                        readSink.endOfStream();
-                        readSink = null;
+                    if (binding != null) {
+                        binding.end();
                     }
                 } else {
                     Log.d(TAG, "onDisconnected by local (id: " + id + ")");
                 }
+                if (binding == null) {
+                    // Engine which opened the connection is gone, so nobody else would dispose it
+                    AsyncTask.execute(this::dispose);
+                }
             });
+            // Subscriptions and multiplexer channels end either way, after their pending data are delivered
+            for (BluetoothReadSubscription subscription : getSubscriptions()) {
+                ((BluetoothReadSubscriptionWrapper) subscription).end();
+            }
+            synchronized (muxChannels) {
+                for (int i = 0; i < muxChannels.size(); i++) {
+                    muxChannels.valueAt(i).end();
+                }
+            }
+            final BluetoothModbusPollWrapper poll = modbusPoll;
+            if (poll != null) {
+                poll.end();
+            }
         }
-    }
 
-    private class FlutterBluetoothSerialMethodCallHandler implements MethodCallHandler {
-        /// Provides access to the plugin methods
-        @Override
-        public void onMethodCall(MethodCall call, Result result) {
-            if (bluetoothAdapter == null) {
-                if ("isAvailable".equals(call.method)) {
-                    result.success(false);
-                } else {
-                    result.error("bluetooth_unavailable", "bluetooth is not available", null);
-                }
+        /// Releases channels of all engines bound to the connection and removes it from the registry
+        void dispose() {
+            if (!disposed.compareAndSet(false, true)) {
                 return;
             }
-
-            methodCallDispatching:
-            switch (call.method) {
+            final BluetoothReadBinding binding = readBinding;
+            if (binding != null) {
+                binding.readChannel.setStreamHandler(null);
+            }
+            for (BluetoothReadSubscription subscription : getSubscriptions()) {
+                ((BluetoothReadSubscriptionWrapper) subscription).dispose();
+            }
+            synchronized (muxChannels) {
+                while (muxChannels.size() > 0) {
+                    muxChannels.valueAt(0).dispose();
+                }
+            }
+            final BluetoothModbusPollWrapper poll = modbusPoll;
+            if (poll != null) {
+                poll.dispose();
+            }
+            connections.remove(id);
+
+            Log.d(TAG, "Disconnected (id: " + id + ")");
+        }
+    }
+
+    /// Binding of the `/read/<id>` channel of this engine to connection it opened
+    private class BluetoothReadBinding {
+        private final BluetoothConnectionWrapper connection;
+
+        /// Plugin instance (engine) the binding delivers to
+        protected final FlutterBluetoothSerialPlugin plugin = FlutterBluetoothSerialPlugin.this;
+
+        protected EventSink readSink;
+
+        protected EventChannel readChannel;
+
+        public BluetoothReadBinding(BluetoothConnectionWrapper connection) {
+            this.connection = connection;
+
+            readChannel = new EventChannel(messenger, PLUGIN_NAMESPACE + "/read/" + connection.id);
+            StreamHandler readStreamHandler = new StreamHandler() {
+                @Override
+                public void onListen(Object o, EventSink eventSink) {
+                    readSink = eventSink;
+                }
+
+                @Override
+                public void onCancel(Object o) {
+                    // If canceled by local, disconnects - in other case, by remote, does nothing
+                    connection.disconnect();
+
+                    // True dispose
+                    AsyncTask.execute(connection::dispose);
+                }
+            };
+            readChannel.setStreamHandler(readStreamHandler);
+        }
+
+        void onRead(byte[] event, long timestampNanos) {
+            runOnUiThread(() -> {
+                if (readSink != null) {
+                    connection.recordDeliveryLatency(timestampNanos);
+                    readSink.success(event);
+                }
+            });
+        }
+
+        void onCorruptFrame(byte[] frame) {
+            runOnUiThread(() -> {
+                if (readSink != null) {
+                    readSink.error("corrupt_frame", "frame checksum mismatch", frame);
+                }
+            });
+        }
+
+        /// Ends the stream, once disconnected by remote (must be called on the main thread)
+        void end() {
+            if (readSink != null) {
+                readSink.endOfStream();
+                readSink = null;
+            }
+        }
+
+        /// Unbinds the channel, as this engine is detached, leaving the connection open for other engines
+        void release() {
+            readSink = null;
+            if (connection.readBinding == this) {
+                connection.readBinding = null;
+            }
+            AsyncTask.execute(() -> readChannel.setStreamHandler(null));
+        }
+    }
+
+    /// Helper wrapper class for `BluetoothReadSubscription`, delivering data to its own `/read/<id>/<name>` channel
+    private class BluetoothReadSubscriptionWrapper extends BluetoothReadSubscription {
+        protected final BluetoothConnectionWrapper connection;
+
+        /// Plugin instance (engine) the wrapper delivers to
+        protected final FlutterBluetoothSerialPlugin plugin = FlutterBluetoothSerialPlugin.this;
+
+        protected EventSink readSink;
+
+        protected EventChannel readChannel;
+
+        private final BluetoothReadSubscriptionWrapper self = this;
+
+        public BluetoothReadSubscriptionWrapper(BluetoothConnectionWrapper connection, String name, BluetoothFrameDecoder decoder, int maxPendingBytes, Overflow overflow) {
+            this(connection, PLUGIN_NAMESPACE + "/read/" + connection.id + "/" + name, name, decoder, maxPendingBytes, overflow);
+        }
+
+        protected BluetoothReadSubscriptionWrapper(BluetoothConnectionWrapper connection, String channelName, String name, BluetoothFrameDecoder decoder, int maxPendingBytes, Overflow overflow) {
+            super(name, decoder, maxPendingBytes, overflow);
+            this.connection = connection;
+
+            readChannel = new EventChannel(messenger, channelName);
+            StreamHandler readStreamHandler = new StreamHandler() {
+                @Override
+                public void onListen(Object o, EventSink eventSink) {
+                    readSink = eventSink;
+                    // Deliver data buffered before listening
+                    deliver();
+                }
+
+                @Override
+                public void onCancel(Object o) {
+                    // Only this subscription is closed, the connection stays open
+                    readSink = null;
+                    self.dispose();
+                    Log.d(TAG, "Unsubscribed '" + name + "' (id: " + connection.id + ")");
+                }
+            };
+            readChannel.setStreamHandler(readStreamHandler);
+        }
+
+        @Override
+        protected void onDataAvailable() {
+            runOnUiThread(this::deliver);
+        }
+
+        /// Passes pending data to the sink (if listened, otherwise they are kept pending)
+        private void deliver() {
+            if (readSink == null) {
+                return;
+            }
+            int delivered = 0;
+            for (byte[] data : takePending()) {
+                readSink.success(data);
+                delivered += data.length;
+            }
+            if (delivered > 0) {
+                onDelivered(delivered);
+            }
+        }
+
+        /// Called after data were passed to the sink
+        protected void onDelivered(int length) {}
+
+        /// Delivers remaining data and ends the stream
+        void end() {
+            runOnUiThread(() -> {
+                deliver();
+                if (readSink != null) {
+                    readSink.endOfStream();
+                    readSink = null;
+                }
+            });
+        }
+
+        void dispose() {
+            connection.removeSubscription(this);
+            AsyncTask.execute(() -> readChannel.setStreamHandler(null));
+        }
+    }
+
+    /// Helper wrapper class for multiplexer channel, delivering its data to `/mux/<id>/<channel>` channel
+    /// and granting credit to the remote side once delivered
+    private class BluetoothMuxChannelWrapper extends BluetoothReadSubscriptionWrapper {
+        private final BluetoothMultiplexer multiplexer;
+        private final int number;
+
+        public BluetoothMuxChannelWrapper(BluetoothConnectionWrapper connection, BluetoothMultiplexer multiplexer, int number) {
+            // Remote side should not send more than window, twice as much is kept in case it does not respect credit
+            super(connection, PLUGIN_NAMESPACE + "/mux/" + connection.id + "/" + number, "mux" + number, null, 2 * multiplexer.getWindow(), Overflow.DROP_NEWEST);
+            this.multiplexer = multiplexer;
+            this.number = number;
+        }
+
+        @Override
+        protected void onDelivered(int length) {
+            multiplexer.onConsumed(number, length);
+        }
+
+        @Override
+        void dispose() {
+            synchronized (connection.muxChannels) {
+                connection.muxChannels.remove(number);
+            }
+            multiplexer.closeChannel(number);
+            AsyncTask.execute(() -> readChannel.setStreamHandler(null));
+        }
+    }
+
+    /// Helper wrapper class for Modbus polling, delivering results of each cycle to `/modbus/<id>` channel.
+    /// Polling starts once the channel is listened.
+    private class BluetoothModbusPollWrapper implements BluetoothModbusEngine.ReadCallback {
+        private final BluetoothConnectionWrapper connection;
+        private final BluetoothModbusEngine engine;
+
+        /// Plugin instance (engine) the wrapper delivers to
+        protected final FlutterBluetoothSerialPlugin plugin = FlutterBluetoothSerialPlugin.this;
+
+        protected EventSink pollSink;
+
+        protected EventChannel pollChannel;
+
+        public BluetoothModbusPollWrapper(BluetoothConnectionWrapper connection, BluetoothModbusEngine engine, List<BluetoothModbusEngine.Read> reads, int maxGap, long periodMillis) {
+            this.connection = connection;
+            this.engine = engine;
+
+            pollChannel = new EventChannel(messenger, PLUGIN_NAMESPACE + "/modbus/" + connection.id);
+            pollChannel.setStreamHandler(new StreamHandler() {
+                @Override
+                public void onListen(Object o, EventSink eventSink) {
+                    pollSink = eventSink;
+                    engine.startPolling(reads, maxGap, periodMillis, BluetoothModbusPollWrapper.this);
+                }
+
+                @Override
+                public void onCancel(Object o) {
+                    pollSink = null;
+                    dispose();
+                }
+            });
+        }
+
+        @Override
+        public void onFinished(BluetoothModbusEngine.Result[] results, long timestamp) {
+            Map<String, Object> event = new HashMap<>();
+            event.put("timestampMicros", timestamp / 1000);
+            event.put("results", modbusResultsToList(results));
+            runOnUiThread(() -> {
+                if (pollSink != null) {
+                    pollSink.success(event);
+                }
+            });
+        }
+
+        void end() {
+            runOnUiThread(() -> {
+                if (pollSink != null) {
+                    pollSink.endOfStream();
+                    pollSink = null;
+                }
+            });
+        }
+
+        void dispose() {
+            engine.stopPolling();
+            if (connection.modbusPoll == this) {
+                connection.modbusPoll = null;
+            }
+            AsyncTask.execute(() -> pollChannel.setStreamHandler(null));
+        }
+    }
+
+    /// Helper function to create Modbus reads from list of maps with `unit`, `input`, `address` and `count`
+    private static List<BluetoothModbusEngine.Read> createModbusReads(List<Map<String, Object>> list) {
+        if (list == null) {
+            throw new IllegalArgumentException("argument 'reads' not found");
+        }
+        List<BluetoothModbusEngine.Read> reads = new ArrayList<>(list.size());
+        for (Map<String, Object> map : list) {
+            final Boolean input = (Boolean) map.get("input");
+            reads.add(new BluetoothModbusEngine.Read(
+                    (Integer) map.get("unit"),
+                    input != null && input,
+                    (Integer) map.get("address"),
+                    (Integer) map.get("count")
+            ));
+        }
+        return reads;
+    }
+
+    /// Helper function to convert Modbus read results into list of maps with `values`, or `error` (and `exception` code)
+    private static List<Map<String, Object>> modbusResultsToList(BluetoothModbusEngine.Result[] results) {
+        List<Map<String, Object>> list = new ArrayList<>(results.length);
+        for (BluetoothModbusEngine.Result result : results) {
+            Map<String, Object> map = new HashMap<>();
+            if (result.values != null) {
+                List<Integer> values = new ArrayList<>(result.values.length);
+                for (int value : result.values) {
+                    values.add(value);
+                }
+                map.put("values", values);
+            } else {
+                map.put("error", result.error.getMessage());
+                if (result.error instanceof BluetoothModbusEngine.ModbusException) {
+                    map.put("exception", ((BluetoothModbusEngine.ModbusException) result.error).code);
+                }
+            }
+            list.add(map);
+        }
+        return list;
+    }
+
+    /// Helper function to get Modbus engine of the connection, reports error and returns null if not set
+    private static BluetoothModbusEngine getModbusEngine(BluetoothConnection connection, Result result) {
+        final BluetoothProtocolEngine engine = connection.getProtocolEngine();
+        if (!(engine instanceof BluetoothModbusEngine)) {
+            result.error("logic_error", "modbus is not set", null);
+            return null;
+        }
+        return (BluetoothModbusEngine) engine;
+    }
+
+    /// Helper function to get command engine of the connection, set up if there is no engine yet.
+    /// Reports error and returns null if other engine is set.
+    private static BluetoothCommandEngine getCommandEngine(BluetoothConnection connection, long timeoutMillis, Result result) {
+        final BluetoothProtocolEngine engine = connection.getProtocolEngine();
+        if (engine instanceof BluetoothCommandEngine && !engine.isClosed()) {
+            return (BluetoothCommandEngine) engine;
+        }
+        if (engine != null && !engine.isClosed()) {
+            result.error("logic_error", "other protocol engine is set", null);
+            return null;
+        }
+        final BluetoothCommandEngine created = new BluetoothCommandEngine(connection, timeoutMillis);
+        try {
+            connection.setProtocolEngine(created);
+        } catch (IOException | IllegalStateException ex) {
+            result.error("logic_error", ex.getMessage(), null);
+            return null;
+        }
+        return created;
+    }
+
+    /// Helper wrapper class for `BluetoothServer`
+    private class BluetoothServerWrapper extends BluetoothServer {
+        private final int id;
+
+        protected EventSink acceptSink;
+
+        protected EventChannel acceptChannel;
+
+        private final BluetoothServerWrapper self = this;
+
+        public BluetoothServerWrapper(int id, BluetoothAdapter adapter, int maxClients) {
+            super(adapter, maxClients);
+            this.id = id;
+
+            acceptChannel = new EventChannel(messenger, PLUGIN_NAMESPACE + "/server/" + id);
+            StreamHandler acceptStreamHandler = new StreamHandler() {
+                @Override
+                public void onListen(Object o, EventSink eventSink) {
+                    acceptSink = eventSink;
+                    // Accepted connections have somewhere to go now
+                    startAccepting();
+                }
+
+                @Override
+                public void onCancel(Object o) {
+                    // Stops listening, but leaves accepted connections open
+                    self.close();
+
+                    // True dispose
+                    AsyncTask.execute(() -> {
+                        acceptChannel.setStreamHandler(null);
+                        synchronized (servers) {
+                            servers.remove(id);
+                        }
+
+                        Log.d(TAG, "Stopped listening (server id: " + id + ")");
+                    });
+                }
+            };
+            acceptChannel.setStreamHandler(acceptStreamHandler);
+        }
+
+        @Override
+        protected void onAccepted(BluetoothSocket socket) throws IOException {
+            final int connectionId = connections.nextId();
+            BluetoothConnectionWrapper connection = createConnection(connectionId);
+            connection.server = this;
+            connection.connect(socket);
+            connections.put(connectionId, connection);
+
+            final BluetoothDevice device = socket.getRemoteDevice();
+            Log.d(TAG, "Accepted connection from " + device.getAddress() + " (id: " + connectionId + ", server id: " + id + ")");
+
+            Map<String, Object> event = new HashMap<>();
+            event.put("id", connectionId);
+            event.put("address", device.getAddress());
+            event.put("name", device.getName());
+            runOnUiThread(() -> {
+                connections.notifyLinkStatus(connectionId, BluetoothEvents.LINK_OPENED);
+                if (acceptSink == null) {
+                    // Stopped listening meanwhile, nobody would take the connection, so it is dropped
+                    // (which also frees its client slot)
+                    Log.d(TAG, "Dropping accepted connection (id: " + connectionId + ", server id: " + id + ")");
+                    connection.disconnect();
+                    AsyncTask.execute(connection::dispose);
+                    return;
+                }
+                acceptSink.success(event);
+            });
+        }
+
+        @Override
+        protected void onClosed(boolean byError) {
+            runOnUiThread(() -> {
+                Log.d(TAG, "Server closed (id: " + id + ", by error: " + byError + ")");
+                if (acceptSink != null) {
+                    if (byError) {
+                        acceptSink.error("listen_error", "server socket closed unexpectedly", null);
+                    }
+                    acceptSink.endOfStream();
+                    acceptSink = null;
+                }
+            });
+        }
+    }
+
+    /// Helper wrapper class for bulk transfers, passing progress to the transfer channel
+    private class BluetoothTransferWrapper implements BluetoothTransferListener {
+        private final int id;
+
+        protected EventSink progressSink;
+
+        protected EventChannel progressChannel;
+
+        /// Starts the transfer once progress is listened to, so no progress is lost
+        private Runnable startAction;
+        private Runnable cancelAction;
+        private boolean started = false;
+        private volatile boolean cancelled = false;
+
+        public BluetoothTransferWrapper(int id) {
+            this.id = id;
+
+            progressChannel = new EventChannel(messenger, PLUGIN_NAMESPACE + "/transfer/" + id);
+            StreamHandler progressStreamHandler = new StreamHandler() {
+                @Override
+                public void onListen(Object o, EventSink eventSink) {
+                    progressSink = eventSink;
+                    if (!started) {
+                        started = true;
+                        startAction.run();
+                    }
+                }
+
+                @Override
+                public void onCancel(Object o) {
+                    // Nobody waits for the transfer anymore
+                    progressSink = null;
+                    cancel();
+                }
+            };
+            progressChannel.setStreamHandler(progressStreamHandler);
+        }
+
+        /// Sets actions starting and cancelling the transfer, must be called before the ID is passed to Dart.
+        /// Start action is run on the UI thread, so it should only initiate the transfer.
+        void setActions(Runnable startAction, Runnable cancelAction) {
+            this.startAction = startAction;
+            this.cancelAction = cancelAction;
+        }
+
+        void cancel() {
+            cancelled = true;
+            cancelAction.run();
+        }
+
+        @Override
+        public void onProgress(long transferred, long total) {
+            Map<String, Object> event = new HashMap<>();
+            event.put("transferred", transferred);
+            event.put("total", total);
+            runOnUiThread(() -> {
+                if (progressSink != null) {
+                    progressSink.success(event);
+                }
+            });
+        }
+
+        @Override
+        public void onFinished(long transferred, long total, IOException error) {
+            Map<String, Object> event = new HashMap<>();
+            event.put("transferred", transferred);
+            event.put("total", total);
+            event.put("done", true);
+            runOnUiThread(() -> {
+                Log.d(TAG, "Transfer finished (id: " + id + ", transferred: " + transferred + ", error: " + error + ")");
+                if (progressSink != null) {
+                    if (error == null) {
+                        progressSink.success(event);
+                    } else if (cancelled) {
+                        progressSink.error("transfer_cancelled", "transfer cancelled", event);
+                    } else {
+                        progressSink.error("transfer_error", error.getMessage(), event);
+                    }
+                    progressSink.endOfStream();
+                    progressSink = null;
+                }
+                progressChannel.setStreamHandler(null);
+                synchronized (transfers) {
+                    transfers.remove(id);
+                }
+            });
+        }
+    }
+
+    private class FlutterBluetoothSerialMethodCallHandler implements MethodCallHandler {
+        /// Provides access to the plugin methods
+        @Override
+        public void onMethodCall(MethodCall call, Result result) {
+            if ("getStartupStats".equals(call.method)) {
+                // Before the adapter check, so it does not count the adapter lookup itself
+                result.success(getStartupStats());
+                return;
+            }
+            if (getBluetoothAdapter() == null) {
+                if ("isAvailable".equals(call.method)) {
+                    result.success(false);
+                } else {
+                    result.error("bluetooth_unavailable", "bluetooth is not available", null);
+                }
+                return;
+            }
+            if (activity == null && requiresActivity(call.method)) {
+                result.error("no_activity", "method '" + call.method + "' requires activity, but none is attached", null);
+                return;
+            }
+
+            methodCallDispatching:
+            switch (call.method) {
                 ////////////////////////////////////////
                 /* Adapter settings and general */
                 case "isAvailable":
@@ -804,8 +1884,18 @@ public class FlutterBluetoothSerialPlugin implements FlutterPlugin, ActivityAwar
                         break;
                     }
 
-                    if (bondStateBroadcastReceiver != null) {
-                        result.error("bond_error", "another bonding process is ongoing from local device", null);
+                    long timeout = 0;
+                    if (call.hasArgument("timeout")) {
+                        try {
+                            timeout = (int) call.argument("timeout");
+                        } catch (ClassCastException ex) {
+                            result.error("invalid_argument", "'timeout' argument is required to be integer (milliseconds)", null);
+                            break;
+                        }
+                    }
+
+                    if (getBondingEngine().isBonding(address)) {
+                        result.error("bond_error", "another bonding process with the device is ongoing from local device", null);
                         break;
                     }
 
@@ -822,75 +1912,60 @@ public class FlutterBluetoothSerialPlugin implements FlutterPlugin, ActivityAwar
                             break;
                     }
 
-                    bondStateBroadcastReceiver = new BroadcastReceiver() {
+                    boolean started = getBondingEngine().bond(device, timeout, new BluetoothBondingEngine.Callback() {
                         @Override
-                        public void onReceive(Context context, Intent intent) {
-                            switch (intent.getAction()) {
-                                // @TODO . BluetoothDevice.ACTION_PAIRING_CANCEL
-                                case BluetoothDevice.ACTION_BOND_STATE_CHANGED:
-                                    final BluetoothDevice someDevice = intent.getParcelableExtra(BluetoothDevice.EXTRA_DEVICE);
-                                    if (!someDevice.equals(device)) {
-                                        break;
-                                    }
-
-                                    final int newBondState = intent.getIntExtra(BluetoothDevice.EXTRA_BOND_STATE, BluetoothDevice.ERROR);
-                                    switch (newBondState) {
-                                        case BluetoothDevice.BOND_BONDING:
-                                            // Wait for true bond result :F
-                                            return;
-                                        case BluetoothDevice.BOND_BONDED:
-                                            result.success(true);
-                                            break;
-                                        case BluetoothDevice.BOND_NONE:
-                                            result.success(false);
-                                            break;
-                                        default:
-                                            result.error("bond_error", "invalid bond state while bonding", null);
-                                            break;
-                                    }
-                                    activeContext.unregisterReceiver(this);
-                                    bondStateBroadcastReceiver = null;
-                                    break;
-
-                                default:
-                                    // Ignore.
-                                    break;
-                            }
+                        public void onFinished(boolean bonded) {
+                            result.success(bonded);
                         }
-                    };
 
-                    final IntentFilter filter = new IntentFilter(BluetoothDevice.ACTION_BOND_STATE_CHANGED);
-                    //filter.setPriority(pairingRequestReceiverPriority + 1);
-                    activeContext.registerReceiver(bondStateBroadcastReceiver, filter);
-
-                    if (!device.createBond()) {
+                        @Override
+                        public void onError(String message) {
+                            result.error("bond_error", message, null);
+                        }
+                    });
+                    if (!started) {
                         result.error("bond_error", "error starting bonding process", null);
                     }
                     break;
                 }
 
+                case "getBondingStats":
+                    result.success(getBondingEngine().getStats());
+                    break;
+
                 case "pairingRequestHandlingEnable":
                     if (FlutterBluetoothSerialPlugin.this.isPairingRequestHandlerSet) {
                         result.error("logic_error", "pairing request handling is already enabled", null);
                         break;
                     }
-                    Log.d(TAG, "Starting listening for pairing requests to handle");
-
                     FlutterBluetoothSerialPlugin.this.isPairingRequestHandlerSet = true;
-                    final IntentFilter filter = new IntentFilter(BluetoothDevice.ACTION_PAIRING_REQUEST);
-                    //filter.setPriority(pairingRequestReceiverPriority);
-                    activeContext.registerReceiver(pairingRequestReceiver, filter);
+                    updatePairingRequestReceiver();
                     break;
 
                 case "pairingRequestHandlingDisable":
                     FlutterBluetoothSerialPlugin.this.isPairingRequestHandlerSet = false;
-                    try {
-                        activeContext.unregisterReceiver(pairingRequestReceiver);
-                        Log.d(TAG, "Stopped listening for pairing requests to handle");
-                    } catch (IllegalArgumentException ex) {
-                        // Ignore `Receiver not registered` exception
+                    updatePairingRequestReceiver();
+                    break;
+
+                case "setPairingRules": {
+                    if (!call.hasArgument("rules")) {
+                        result.error("invalid_argument", "argument 'rules' not found", null);
+                        break;
+                    }
+
+                    try {
+                        List<Map<String, Object>> rules = call.argument("rules");
+                        pairingRules.set(rules);
+                    } catch (ClassCastException | IllegalArgumentException ex) {
+                        result.error("invalid_argument", "'rules' argument is required to be list of valid pairing rules", ex.getMessage());
+                        break;
                     }
+                    Log.d(TAG, "Pairing rules updated");
+
+                    updatePairingRequestReceiver();
+                    result.success(null);
                     break;
+                }
 
                 case "getBondedDevices":
                     ensurePermissions(granted -> {
@@ -925,11 +2000,16 @@ public class FlutterBluetoothSerialPlugin implements FlutterPlugin, ActivityAwar
                             return;
                         }
 
+                        if (discoveryScheduler != null && discoveryScheduler.isRunning()) {
+                            result.error("discovery_error", "scheduled discovery is running", null);
+                            return;
+                        }
+
                         Log.d(TAG, "Starting discovery");
                         IntentFilter intent = new IntentFilter();
                         intent.addAction(BluetoothAdapter.ACTION_DISCOVERY_FINISHED);
                         intent.addAction(BluetoothDevice.ACTION_FOUND);
-                        activeContext.registerReceiver(discoveryReceiver, intent);
+                        activeContext.registerReceiver(getDiscoveryReceiver(), intent);
 
                         bluetoothAdapter.startDiscovery();
 
@@ -939,11 +2019,10 @@ public class FlutterBluetoothSerialPlugin implements FlutterPlugin, ActivityAwar
 
                 case "cancelDiscovery":
                     Log.d(TAG, "Canceling discovery");
-                    try {
-                        activeContext.unregisterReceiver(discoveryReceiver);
-                    } catch (IllegalArgumentException ex) {
-                        // Ignore `Receiver not registered` exception
+                    if (discoveryScheduler != null) {
+                        discoveryScheduler.stop();
                     }
+                    unregisterDiscoveryReceiver();
 
                     bluetoothAdapter.cancelDiscovery();
 
@@ -955,6 +2034,77 @@ public class FlutterBluetoothSerialPlugin implements FlutterPlugin, ActivityAwar
                     result.success(null);
                     break;
 
+                case "startScheduledDiscovery": {
+                    long scanMillis;
+                    long idleMillis;
+                    long throughputThreshold = 0;
+                    try {
+                        scanMillis = (int) call.argument("scanMillis");
+                        idleMillis = (int) call.argument("idleMillis");
+                        if (call.hasArgument("throughputThreshold")) {
+                            throughputThreshold = (int) call.argument("throughputThreshold");
+                        }
+                    } catch (ClassCastException | NullPointerException ex) {
+                        result.error("invalid_argument", "'scanMillis', 'idleMillis' and 'throughputThreshold' arguments are required to be integers", null);
+                        break;
+                    }
+                    if (scanMillis <= 0 || idleMillis < 0) {
+                        result.error("invalid_argument", "'scanMillis' is required to be positive and 'idleMillis' non-negative", null);
+                        break;
+                    }
+
+                    final long scan = scanMillis;
+                    final long idle = idleMillis;
+                    final long threshold = throughputThreshold;
+                    ensurePermissions(granted -> {
+                        if (!granted) {
+                            result.error("no_permissions", "discovering other devices requires location access permission", null);
+                            return;
+                        }
+
+                        // Make sure one-shot discovery is not running along
+                        unregisterDiscoveryReceiver();
+                        bluetoothAdapter.cancelDiscovery();
+
+                        if (discoveryScheduler == null) {
+                            discoveryScheduler = new BluetoothDiscoveryScheduler(activeContext, bluetoothAdapter, new BluetoothDiscoveryScheduler.Listener() {
+                                @Override
+                                public void onDeviceFound(Intent intent) {
+                                    onDeviceDiscovered(intent);
+                                }
+
+                                @Override
+                                public Iterable<? extends BluetoothConnection> getConnections() {
+                                    return getConnectionsSnapshot();
+                                }
+                            });
+                        }
+                        discoveryScheduler.start(scan, idle, threshold);
+
+                        result.success(null);
+                    });
+                    break;
+                }
+
+                case "stopScheduledDiscovery":
+                    if (discoveryScheduler != null) {
+                        discoveryScheduler.stop();
+                    }
+                    if (discoverySink != null) {
+                        discoverySink.endOfStream();
+                        discoverySink = null;
+                    }
+                    result.success(null);
+                    break;
+
+                case "getDiscoveryStats":
+                    if (discoveryScheduler == null) {
+                        result.success(null);
+                        break;
+                    }
+                    result.success(discoveryScheduler.getStats());
+                    break;
+
                 case "isDiscoverable":
                     result.success(bluetoothAdapter.getScanMode() == BluetoothAdapter.SCAN_MODE_CONNECTABLE_DISCOVERABLE);
                     break;
@@ -988,16 +2138,16 @@ public class FlutterBluetoothSerialPlugin implements FlutterPlugin, ActivityAwar
                     String address;
                     try {
                         address = call.argument("address");
-                        if (!BluetoothAdapter.checkBluetoothAddress(address)) {
+                        if (!BluetoothAdapter.checkBluetoothAddress(address) && !BluetoothConnection.isVirtualAddress(address)) {
                             throw new ClassCastException();
                         }
                     } catch (ClassCastException ex) {
-                        result.error("invalid_argument", "'address' argument is required to be string containing remote MAC address", null);
+                        result.error("invalid_argument", "'address' argument is required to be string containing remote MAC address (or virtual transport address)", null);
                         break;
                     }
 
-                    int id = ++lastConnectionId;
-                    BluetoothConnectionWrapper connection = new BluetoothConnectionWrapper(id, bluetoothAdapter);
+                    final int id = connections.nextId();
+                    final BluetoothConnectionWrapper connection = createConnection(id);
                     connections.put(id, connection);
 
                     Log.d(TAG, "Connecting to " + address + " (id: " + id + ")");
@@ -1005,15 +2155,112 @@ public class FlutterBluetoothSerialPlugin implements FlutterPlugin, ActivityAwar
                     AsyncTask.execute(() -> {
                         try {
                             connection.connect(address);
-                            activity.runOnUiThread(() -> result.success(id));
+                            runOnUiThread(() -> {
+                                connections.notifyLinkStatus(id, BluetoothEvents.LINK_OPENED);
+                                result.success(id);
+                            });
                         } catch (Exception ex) {
-                            activity.runOnUiThread(() -> result.error("connect_error", ex.getMessage(), exceptionToString(ex)));
+                            runOnUiThread(() -> result.error("connect_error", ex.getMessage(), exceptionToString(ex)));
                             connections.remove(id);
                         }
                     });
                     break;
                 }
 
+                case "attach": {
+                    // Connection opened by other engine, data are passed to `/read/<id>` channel of this engine by subscription
+                    BluetoothConnectionWrapper connection = getConnectionArgument(call, result);
+                    if (connection == null) {
+                        break;
+                    }
+                    if (!connection.isConnected()) {
+                        result.error("logic_error", "connection is not open", null);
+                        break;
+                    }
+
+                    final BluetoothReadBinding binding = connection.readBinding;
+                    if (binding != null && binding.plugin == FlutterBluetoothSerialPlugin.this) {
+                        result.error("logic_error", "connection is owned by this engine", null);
+                        break;
+                    }
+                    final String name = "engine" + engineNumber;
+                    if (connection.getSubscription(name) != null) {
+                        result.error("logic_error", "connection is already attached to this engine", null);
+                        break;
+                    }
+                    BluetoothReadSubscriptionWrapper subscription = new BluetoothReadSubscriptionWrapper(
+                            connection,
+                            PLUGIN_NAMESPACE + "/read/" + connection.id,
+                            name,
+                            null,
+                            64 * 1024,
+                            BluetoothReadSubscription.Overflow.DROP_NEWEST
+                    );
+                    try {
+                        connection.addSubscription(subscription);
+                    } catch (IOException ex) {
+                        subscription.readChannel.setStreamHandler(null);
+                        result.error("logic_error", ex.getMessage(), null);
+                        break;
+                    }
+                    Log.d(TAG, "Attached to engine " + engineNumber + " (id: " + connection.id + ")");
+                    result.success(null);
+                    break;
+                }
+
+                case "getConnectionStats": {
+                    if (!call.hasArgument("id")) {
+                        result.error("invalid_argument", "argument 'id' not found", null);
+                        break;
+                    }
+
+                    int id;
+                    try {
+                        id = call.argument("id");
+                    } catch (ClassCastException ex) {
+                        result.error("invalid_argument", "'id' argument is required to be integer id of connection", null);
+                        break;
+                    }
+
+                    final BluetoothConnection connection = connections.get(id);
+                    if (connection == null) {
+                        result.error("invalid_argument", "there is no connection with provided id", null);
+                        break;
+                    }
+
+                    result.success(connection.getStats());
+                    break;
+                }
+
+                case "disconnect": {
+                    BluetoothConnectionWrapper connection = getConnectionArgument(call, result);
+                    if (connection == null) {
+                        break;
+                    }
+
+                    long drainTimeout = BluetoothConnection.DEFAULT_DRAIN_TIMEOUT;
+                    try {
+                        if (call.hasArgument("drainTimeout")) {
+                            drainTimeout = ((Number) call.argument("drainTimeout")).longValue();
+                        }
+                    } catch (ClassCastException | NullPointerException ex) {
+                        result.error("invalid_argument", "'drainTimeout' argument is required to be integer", null);
+                        break;
+                    }
+
+                    // Closing is done off this thread, result is passed once closed
+                    boolean closing = connection.disconnect(drainTimeout, (latencyMicros, drained) -> {
+                        Map<String, Object> stats = new HashMap<>();
+                        stats.put("closeLatencyMicros", latencyMicros);
+                        stats.put("drained", drained);
+                        runOnUiThread(() -> result.success(stats));
+                    });
+                    if (!closing) {
+                        result.success(null);
+                    }
+                    break;
+                }
+
                 case "write": {
                     if (!call.hasArgument("id")) {
                         result.error("invalid_argument", "argument 'id' not found", null);
@@ -1028,34 +2275,1162 @@ public class FlutterBluetoothSerialPlugin implements FlutterPlugin, ActivityAwar
                         break;
                     }
 
-                    BluetoothConnection connection = connections.get(id);
+                    final BluetoothConnection connection = connections.get(id);
                     if (connection == null) {
                         result.error("invalid_argument", "there is no connection with provided id", null);
                         break;
                     }
 
+                    byte[] bytes;
                     if (call.hasArgument("string")) {
                         String string = call.argument("string");
-                        AsyncTask.execute(() -> {
-                            try {
-                                connection.write(string.getBytes());
-                                activity.runOnUiThread(() -> result.success(null));
-                            } catch (Exception ex) {
-                                activity.runOnUiThread(() -> result.error("write_error", ex.getMessage(), exceptionToString(ex)));
-                            }
-                        });
+                        bytes = string.getBytes();
                     } else if (call.hasArgument("bytes")) {
-                        byte[] bytes = call.argument("bytes");
-                        AsyncTask.execute(() -> {
-                            try {
-                                connection.write(bytes);
-                                activity.runOnUiThread(() -> result.success(null));
-                            } catch (Exception ex) {
-                                activity.runOnUiThread(() -> result.error("write_error", ex.getMessage(), exceptionToString(ex)));
+                        bytes = call.argument("bytes");
+                    } else {
+                        result.error("invalid_argument", "there must be 'string' or 'bytes' argument", null);
+                        break;
+                    }
+
+                    // Queued without blocking any thread, so urgent writes are not delayed behind earlier ones
+                    try {
+                        connection.writeAsync(bytes, Boolean.TRUE.equals(call.argument("bulk")), (error) -> {
+                            if (error == null) {
+                                runOnUiThread(() -> result.success(null));
+                            } else {
+                                runOnUiThread(() -> result.error("write_error", error.getMessage(), exceptionToString(error)));
                             }
                         });
+                    } catch (IOException ex) {
+                        result.error("write_error", ex.getMessage(), exceptionToString(ex));
+                    }
+                    break;
+                }
+
+                ////////////////////////////////////////////////////////////////////////////////
+                /* Codec */
+                case "setCodec": {
+                    BluetoothConnectionWrapper connection = getConnectionArgument(call, result);
+                    if (connection == null) {
+                        break;
+                    }
+
+                    String name;
+                    try {
+                        name = call.argument("codec");
+                    } catch (ClassCastException ex) {
+                        result.error("invalid_argument", "'codec' argument is required to be string", null);
+                        break;
+                    }
+                    if (name == null || name.equals("none")) {
+                        connection.setCodec(null);
+                        result.success(null);
+                        break;
+                    }
+
+                    BluetoothCodec.Factory factory;
+                    synchronized (codecFactories) {
+                        factory = codecFactories.get(name);
+                    }
+                    if (factory == null) {
+                        result.error("invalid_argument", "unknown codec: " + name, null);
+                        break;
+                    }
+
+                    Map<String, Object> options = call.argument("options");
+                    try {
+                        connection.setCodec(factory.create(options != null ? options : new HashMap<>()));
+                    } catch (IllegalArgumentException ex) {
+                        result.error("invalid_argument", ex.getMessage(), null);
+                        break;
+                    }
+                    result.success(null);
+                    break;
+                }
+
+                ////////////////////////////////////////////////////////////////////////////////
+                /* Pacing */
+                case "setWritePacing": {
+                    BluetoothConnectionWrapper connection = getConnectionArgument(call, result);
+                    if (connection == null) {
+                        break;
+                    }
+
+                    long bytesPerSecond = 0;
+                    long gapMicros = 0;
+                    int chunkSize = 0;
+                    long burst = 0;
+                    try {
+                        if (call.hasArgument("bytesPerSecond")) {
+                            bytesPerSecond = ((Number) call.argument("bytesPerSecond")).longValue();
+                        }
+                        if (call.hasArgument("gapMicros")) {
+                            gapMicros = ((Number) call.argument("gapMicros")).longValue();
+                        }
+                        if (call.hasArgument("chunkSize")) {
+                            chunkSize = call.argument("chunkSize");
+                        }
+                        if (call.hasArgument("burst")) {
+                            burst = ((Number) call.argument("burst")).longValue();
+                        }
+                    } catch (ClassCastException | NullPointerException ex) {
+                        result.error("invalid_argument", "pacing arguments are required to be integers", null);
+                        break;
+                    }
+
+                    if (bytesPerSecond <= 0 && gapMicros <= 0) {
+                        // Unlimited
+                        connection.setWritePacer(null);
                     } else {
-                        result.error("invalid_argument", "there must be 'string' or 'bytes' argument", null);
+                        connection.setWritePacer(new BluetoothWritePacer(bytesPerSecond, gapMicros * 1000, chunkSize, burst));
+                    }
+                    result.success(null);
+                    break;
+                }
+
+                ////////////////////////////////////////////////////////////////////////////////
+                /* Keepalive */
+                case "setKeepalive": {
+                    BluetoothConnectionWrapper connection = getConnectionArgument(call, result);
+                    if (connection == null) {
+                        break;
+                    }
+
+                    BluetoothKeepalive keepalive = null;
+                    if (call.hasArgument("timeoutMillis")) {
+                        try {
+                            final Integer intervalMillis = call.argument("intervalMillis");
+                            final int timeoutMillis = call.argument("timeoutMillis");
+                            keepalive = new BluetoothKeepalive(
+                                    call.argument("ping"),
+                                    intervalMillis != null ? intervalMillis : timeoutMillis / 3,
+                                    call.argument("response"),
+                                    timeoutMillis
+                            );
+                        } catch (ClassCastException | NullPointerException ex) {
+                            result.error("invalid_argument", "invalid type of keepalive argument", null);
+                            break;
+                        } catch (IllegalArgumentException ex) {
+                            result.error("invalid_argument", ex.getMessage(), null);
+                            break;
+                        }
+                    }
+
+                    try {
+                        connection.setKeepalive(keepalive);
+                    } catch (IOException ex) {
+                        result.error("logic_error", ex.getMessage(), null);
+                        break;
+                    }
+                    result.success(null);
+                    break;
+                }
+
+                ////////////////////////////////////////////////////////////////////////////////
+                /* Timing */
+                case "setReadTimestamps": {
+                    BluetoothConnectionWrapper connection = getConnectionArgument(call, result);
+                    if (connection == null) {
+                        break;
+                    }
+
+                    connection.readTimestamps = Boolean.TRUE.equals(call.argument("enabled"));
+                    result.success(null);
+                    break;
+                }
+
+                case "measureLatency": {
+                    BluetoothConnectionWrapper connection = getConnectionArgument(call, result);
+                    if (connection == null) {
+                        break;
+                    }
+
+                    BluetoothBenchmark benchmark;
+                    try {
+                        byte[] payload = call.argument("payload");
+                        if (payload == null) {
+                            final Integer size = call.argument("size");
+                            payload = new byte[size != null ? size : 16];
+                            for (int i = 0; i < payload.length; i++) {
+                                payload[i] = (byte) i;
+                            }
+                        }
+                        final Integer count = call.argument("count");
+                        final Integer timeoutMillis = call.argument("timeoutMillis");
+                        benchmark = new BluetoothBenchmark.Latency(connection, payload,
+                                count != null ? count : 100,
+                                timeoutMillis != null ? timeoutMillis : 1000,
+                                (measured, error) -> runOnUiThread(() -> {
+                                    if (error == null) {
+                                        result.success(measured);
+                                    } else {
+                                        result.error("benchmark_error", error.getMessage(), exceptionToString(error));
+                                    }
+                                }));
+                    } catch (ClassCastException ex) {
+                        result.error("invalid_argument", "invalid type of benchmark argument", null);
+                        break;
+                    } catch (IllegalArgumentException ex) {
+                        result.error("invalid_argument", ex.getMessage(), null);
+                        break;
+                    }
+
+                    try {
+                        connection.startBenchmark(benchmark);
+                    } catch (IOException ex) {
+                        result.error("benchmark_error", ex.getMessage(), exceptionToString(ex));
+                    }
+                    break;
+                }
+
+                case "measureThroughput": {
+                    BluetoothConnectionWrapper connection = getConnectionArgument(call, result);
+                    if (connection == null) {
+                        break;
+                    }
+
+                    BluetoothBenchmark benchmark;
+                    try {
+                        final Number bytes = call.argument("bytes");
+                        final String direction = call.argument("direction");
+                        final Integer chunkSize = call.argument("chunkSize");
+                        final Integer timeoutMillis = call.argument("timeoutMillis");
+                        benchmark = new BluetoothBenchmark.Throughput(connection,
+                                BluetoothBenchmark.Throughput.Direction.valueOf((direction != null ? direction : "write").toUpperCase()),
+                                bytes != null ? bytes.longValue() : 1024 * 1024,
+                                chunkSize != null ? chunkSize : 1024,
+                                timeoutMillis != null ? timeoutMillis : 60000,
+                                (measured, error) -> runOnUiThread(() -> {
+                                    if (error == null) {
+                                        result.success(measured);
+                                    } else {
+                                        result.error("benchmark_error", error.getMessage(), exceptionToString(error));
+                                    }
+                                }));
+                    } catch (ClassCastException ex) {
+                        result.error("invalid_argument", "invalid type of benchmark argument", null);
+                        break;
+                    } catch (IllegalArgumentException ex) {
+                        // Also unknown direction
+                        result.error("invalid_argument", ex.getMessage(), null);
+                        break;
+                    }
+
+                    try {
+                        connection.startBenchmark(benchmark);
+                    } catch (IOException ex) {
+                        result.error("benchmark_error", ex.getMessage(), exceptionToString(ex));
+                    }
+                    break;
+                }
+
+                ////////////////////////////////////////////////////////////////////////////////
+                /* Framing */
+                case "setFraming": {
+                    BluetoothConnectionWrapper connection = getConnectionArgument(call, result);
+                    if (connection == null) {
+                        break;
+                    }
+
+                    BluetoothFrameDecoder decoder;
+                    try {
+                        decoder = createFrameDecoder(call.arguments());
+                    } catch (ClassCastException ex) {
+                        result.error("invalid_argument", "invalid type of framing argument", null);
+                        break;
+                    } catch (IllegalArgumentException ex) {
+                        result.error("invalid_argument", ex.getMessage(), null);
+                        break;
+                    }
+
+                    connection.setFrameDecoder(decoder);
+                    result.success(null);
+                    break;
+                }
+
+                case "setFrameValidation": {
+                    BluetoothConnectionWrapper connection = getConnectionArgument(call, result);
+                    if (connection == null) {
+                        break;
+                    }
+
+                    if (!call.hasArgument("algorithm") && !call.hasArgument("width")) {
+                        connection.setFrameValidator(null);
+                        result.success(null);
+                        break;
+                    }
+                    if (connection.getFrameDecoder() == null) {
+                        result.error("logic_error", "framing must be set before frame validation", null);
+                        break;
+                    }
+
+                    BluetoothFrameValidator validator;
+                    try {
+                        BluetoothChecksum checksum;
+                        if (call.hasArgument("algorithm")) {
+                            checksum = BluetoothChecksum.byName(call.argument("algorithm"));
+                        } else {
+                            // Custom CRC parameters
+                            Boolean refIn = call.argument("refIn");
+                            Boolean refOut = call.argument("refOut");
+                            checksum = BluetoothChecksum.crc(
+                                    call.argument("width"),
+                                    ((Number) call.argument("poly")).longValue(),
+                                    call.hasArgument("init") ? ((Number) call.argument("init")).longValue() : 0,
+                                    refIn != null && refIn,
+                                    refOut != null && refOut,
+                                    call.hasArgument("xorOut") ? ((Number) call.argument("xorOut")).longValue() : 0
+                            );
+                        }
+                        Boolean bigEndian = call.argument("bigEndian");
+                        Integer skipStart = call.argument("skipStart");
+                        Integer trailerLength = call.argument("trailerLength");
+                        Boolean stripChecksum = call.argument("stripChecksum");
+                        validator = new BluetoothFrameValidator(
+                                checksum,
+                                bigEndian != null && bigEndian,
+                                skipStart != null ? skipStart : 0,
+                                trailerLength != null ? trailerLength : 0,
+                                "flag".equals(call.argument("policy")) ? BluetoothFrameValidator.Policy.FLAG : BluetoothFrameValidator.Policy.DROP,
+                                stripChecksum != null && stripChecksum
+                        );
+                    } catch (ClassCastException | NullPointerException ex) {
+                        result.error("invalid_argument", "invalid type of checksum argument", null);
+                        break;
+                    } catch (IllegalArgumentException ex) {
+                        result.error("invalid_argument", ex.getMessage(), null);
+                        break;
+                    }
+
+                    connection.setFrameValidator(validator);
+                    result.success(null);
+                    break;
+                }
+
+                case "subscribe": {
+                    BluetoothConnectionWrapper connection = getConnectionArgument(call, result);
+                    if (connection == null) {
+                        break;
+                    }
+
+                    final String name = call.argument("name");
+                    if (name == null || name.isEmpty() || name.contains("/")) {
+                        result.error("invalid_argument", "'name' argument is required to be non-empty name without slashes", null);
+                        break;
+                    }
+                    if (connection.getSubscription(name) != null) {
+                        // Checked before creating the channel, which would replace handler of the existing one
+                        result.error("logic_error", "subscription '" + name + "' already exists", null);
+                        break;
+                    }
+
+                    BluetoothReadSubscriptionWrapper subscription;
+                    try {
+                        final Map<String, Object> framing = call.argument("framing");
+                        final Integer maxPendingBytes = call.argument("maxPendingBytes");
+                        final Boolean dropOldest = call.argument("dropOldest");
+                        subscription = new BluetoothReadSubscriptionWrapper(
+                                connection,
+                                name,
+                                framing != null ? createFrameDecoder(framing) : null,
+                                maxPendingBytes != null ? maxPendingBytes : 64 * 1024,
+                                dropOldest != null && dropOldest ? BluetoothReadSubscription.Overflow.DROP_OLDEST : BluetoothReadSubscription.Overflow.DROP_NEWEST
+                        );
+                    } catch (ClassCastException ex) {
+                        result.error("invalid_argument", "invalid type of subscription argument", null);
+                        break;
+                    } catch (IllegalArgumentException ex) {
+                        result.error("invalid_argument", ex.getMessage(), null);
+                        break;
+                    }
+
+                    try {
+                        connection.addSubscription(subscription);
+                    } catch (IOException ex) {
+                        subscription.readChannel.setStreamHandler(null);
+                        result.error("logic_error", ex.getMessage(), null);
+                        break;
+                    }
+                    Log.d(TAG, "Subscribed '" + name + "' (id: " + connection.id + ")");
+                    result.success(null);
+                    break;
+                }
+
+                case "setMultiplexing": {
+                    BluetoothConnectionWrapper connection = getConnectionArgument(call, result);
+                    if (connection == null) {
+                        break;
+                    }
+
+                    BluetoothMultiplexer multiplexer;
+                    try {
+                        final Integer window = call.argument("window");
+                        final Integer maxPayload = call.argument("maxPayload");
+                        multiplexer = new BluetoothMultiplexer(connection, window != null ? window : 16 * 1024, maxPayload != null ? maxPayload : 1024);
+                    } catch (ClassCastException ex) {
+                        result.error("invalid_argument", "invalid type of multiplexing argument", null);
+                        break;
+                    } catch (IllegalArgumentException ex) {
+                        result.error("invalid_argument", ex.getMessage(), null);
+                        break;
+                    }
+
+                    try {
+                        connection.setMultiplexer(multiplexer);
+                    } catch (IOException | IllegalStateException ex) {
+                        result.error("logic_error", ex.getMessage(), null);
+                        break;
+                    }
+                    result.success(null);
+                    break;
+                }
+
+                case "openChannel": {
+                    BluetoothConnectionWrapper connection = getConnectionArgument(call, result);
+                    if (connection == null) {
+                        break;
+                    }
+
+                    final BluetoothMultiplexer multiplexer = connection.getMultiplexer();
+                    if (multiplexer == null) {
+                        result.error("logic_error", "multiplexing must be set before opening channels", null);
+                        break;
+                    }
+
+                    final int number;
+                    try {
+                        number = call.argument("channel");
+                    } catch (ClassCastException | NullPointerException ex) {
+                        result.error("invalid_argument", "'channel' argument is required to be integer channel number", null);
+                        break;
+                    }
+                    if (number < 0 || number >= BluetoothMultiplexer.MAX_CHANNELS) {
+                        result.error("invalid_argument", "channel number must be between 0 and " + (BluetoothMultiplexer.MAX_CHANNELS - 1), null);
+                        break;
+                    }
+
+                    synchronized (connection.muxChannels) {
+                        if (connection.muxChannels.get(number) != null) {
+                            // Checked before creating the channel, which would replace handler of the existing one
+                            result.error("logic_error", "channel " + number + " already open", null);
+                            break;
+                        }
+                        BluetoothMuxChannelWrapper channel = new BluetoothMuxChannelWrapper(connection, multiplexer, number);
+                        multiplexer.openChannel(number, channel);
+                        connection.muxChannels.put(number, channel);
+                    }
+                    Log.d(TAG, "Opened channel " + number + " (id: " + connection.id + ")");
+                    result.success(null);
+                    break;
+                }
+
+                case "writeChannel": {
+                    BluetoothConnectionWrapper connection = getConnectionArgument(call, result);
+                    if (connection == null) {
+                        break;
+                    }
+
+                    final BluetoothMultiplexer multiplexer = connection.getMultiplexer();
+                    if (multiplexer == null) {
+                        result.error("logic_error", "multiplexing must be set before writing to channels", null);
+                        break;
+                    }
+
+                    final int number;
+                    final byte[] bytes;
+                    try {
+                        number = call.argument("channel");
+                        bytes = call.argument("bytes");
+                    } catch (ClassCastException | NullPointerException ex) {
+                        result.error("invalid_argument", "'channel' and 'bytes' arguments are required", null);
+                        break;
+                    }
+
+                    // Completed once written, which can take long if the remote side does not grant credit
+                    try {
+                        multiplexer.write(number, bytes, (error) -> {
+                            if (error == null) {
+                                runOnUiThread(() -> result.success(null));
+                            } else {
+                                runOnUiThread(() -> result.error("write_error", error.getMessage(), exceptionToString(error)));
+                            }
+                        });
+                    } catch (IllegalArgumentException ex) {
+                        result.error("invalid_argument", ex.getMessage(), null);
+                    } catch (IOException ex) {
+                        result.error("write_error", ex.getMessage(), exceptionToString(ex));
+                    }
+                    break;
+                }
+
+                ////////////////////////////////////////////////////////////////////////////////
+                /* Modbus */
+                case "setModbus": {
+                    BluetoothConnectionWrapper connection = getConnectionArgument(call, result);
+                    if (connection == null) {
+                        break;
+                    }
+
+                    BluetoothModbusEngine engine = null;
+                    final Boolean enabled = call.argument("enabled");
+                    if (enabled == null || enabled) {
+                        try {
+                            final Integer baudRate = call.argument("baudRate");
+                            final Integer timeoutMillis = call.argument("timeoutMillis");
+                            final Integer retries = call.argument("retries");
+                            engine = new BluetoothModbusEngine(
+                                    connection,
+                                    baudRate != null ? baudRate : 9600,
+                                    timeoutMillis != null ? timeoutMillis : 1000,
+                                    retries != null ? retries : 0
+                            );
+                        } catch (ClassCastException ex) {
+                            result.error("invalid_argument", "invalid type of modbus argument", null);
+                            break;
+                        } catch (IllegalArgumentException ex) {
+                            result.error("invalid_argument", ex.getMessage(), null);
+                            break;
+                        }
+                    }
+
+                    try {
+                        connection.setProtocolEngine(engine);
+                    } catch (IOException | IllegalStateException ex) {
+                        result.error("logic_error", ex.getMessage(), null);
+                        break;
+                    }
+                    // Polling of the replaced engine has stopped
+                    final BluetoothModbusPollWrapper poll = connection.modbusPoll;
+                    if (poll != null) {
+                        poll.end();
+                        poll.dispose();
+                    }
+                    result.success(null);
+                    break;
+                }
+
+                case "modbusRead": {
+                    BluetoothConnectionWrapper connection = getConnectionArgument(call, result);
+                    if (connection == null) {
+                        break;
+                    }
+                    final BluetoothModbusEngine engine = getModbusEngine(connection, result);
+                    if (engine == null) {
+                        break;
+                    }
+
+                    try {
+                        final List<BluetoothModbusEngine.Read> reads = createModbusReads(call.argument("reads"));
+                        final Integer maxGap = call.argument("maxGap");
+                        engine.read(reads, maxGap != null ? maxGap : 0,
+                                (results, timestamp) -> {
+                                    final List<Map<String, Object>> list = modbusResultsToList(results);
+                                    runOnUiThread(() -> result.success(list));
+                                });
+                    } catch (ClassCastException | NullPointerException ex) {
+                        result.error("invalid_argument", "'reads' argument is required to be list of maps with integer 'unit', 'address' and 'count'", null);
+                    } catch (IllegalArgumentException ex) {
+                        result.error("invalid_argument", ex.getMessage(), null);
+                    }
+                    break;
+                }
+
+                case "modbusWrite": {
+                    BluetoothConnectionWrapper connection = getConnectionArgument(call, result);
+                    if (connection == null) {
+                        break;
+                    }
+                    final BluetoothModbusEngine engine = getModbusEngine(connection, result);
+                    if (engine == null) {
+                        break;
+                    }
+
+                    try {
+                        final int unit = call.argument("unit");
+                        final int address = call.argument("address");
+                        final List<Integer> list = call.argument("values");
+                        int[] values = new int[list.size()];
+                        for (int i = 0; i < values.length; i++) {
+                            values[i] = list.get(i);
+                        }
+                        engine.write(unit, address, values, (error) -> {
+                            if (error == null) {
+                                runOnUiThread(() -> result.success(null));
+                            } else {
+                                final Object code = error instanceof BluetoothModbusEngine.ModbusException
+                                        ? ((BluetoothModbusEngine.ModbusException) error).code : null;
+                                runOnUiThread(() -> result.error("modbus_error", error.getMessage(), code));
+                            }
+                        });
+                    } catch (ClassCastException | NullPointerException ex) {
+                        result.error("invalid_argument", "'unit' and 'address' arguments are required to be integers and 'values' list of integers", null);
+                    } catch (IllegalArgumentException ex) {
+                        result.error("invalid_argument", ex.getMessage(), null);
+                    }
+                    break;
+                }
+
+                case "modbusStartPolling": {
+                    BluetoothConnectionWrapper connection = getConnectionArgument(call, result);
+                    if (connection == null) {
+                        break;
+                    }
+                    final BluetoothModbusEngine engine = getModbusEngine(connection, result);
+                    if (engine == null) {
+                        break;
+                    }
+                    if (connection.modbusPoll != null) {
+                        // Checked before creating the channel, which would replace handler of the existing one
+                        result.error("logic_error", "already polling", null);
+                        break;
+                    }
+
+                    final List<BluetoothModbusEngine.Read> reads;
+                    final int maxGap;
+                    final int periodMillis;
+                    try {
+                        reads = createModbusReads(call.argument("reads"));
+                        final Integer maxGapArgument = call.argument("maxGap");
+                        maxGap = maxGapArgument != null ? maxGapArgument : 0;
+                        periodMillis = call.argument("periodMillis");
+                    } catch (ClassCastException | NullPointerException ex) {
+                        result.error("invalid_argument", "'reads' argument is required to be list of maps with integer 'unit', 'address' and 'count', and 'periodMillis' integer", null);
+                        break;
+                    } catch (IllegalArgumentException ex) {
+                        result.error("invalid_argument", ex.getMessage(), null);
+                        break;
+                    }
+
+                    if (periodMillis <= 0) {
+                        result.error("invalid_argument", "'periodMillis' is required to be positive", null);
+                        break;
+                    }
+
+                    connection.modbusPoll = new BluetoothModbusPollWrapper(connection, engine, reads, maxGap, periodMillis);
+                    result.success(null);
+                    break;
+                }
+
+                ////////////////////////////////////////////////////////////////////////////////
+                /* Polling */
+                case "addPoll": {
+                    BluetoothConnectionWrapper connection = getConnectionArgument(call, result);
+                    if (connection == null) {
+                        break;
+                    }
+
+                    final byte[] command;
+                    final BluetoothCommandEngine.Matcher matcher;
+                    final int periodMillis;
+                    final boolean changedOnly;
+                    final int timeoutMillis;
+                    try {
+                        command = call.argument("command");
+                        final Integer length = call.argument("length");
+                        final Boolean stripDelimiter = call.argument("stripDelimiter");
+                        matcher = new BluetoothCommandEngine.Matcher(
+                                call.argument("prefix"),
+                                call.argument("delimiter"),
+                                length != null ? length : 0,
+                                stripDelimiter == null || stripDelimiter
+                        );
+                        periodMillis = call.argument("periodMillis");
+                        final Boolean changedOnlyArgument = call.argument("changedOnly");
+                        changedOnly = changedOnlyArgument != null && changedOnlyArgument;
+                        final Integer timeoutArgument = call.argument("timeoutMillis");
+                        timeoutMillis = timeoutArgument != null ? timeoutArgument : 1000;
+                        // Before setting up the engine, which would be left behind otherwise
+                        BluetoothPollScheduler.validate(command, periodMillis, timeoutMillis);
+                    } catch (ClassCastException | NullPointerException ex) {
+                        result.error("invalid_argument", "'command' argument is required to be byte array and 'periodMillis' integer", null);
+                        break;
+                    } catch (IllegalArgumentException ex) {
+                        result.error("invalid_argument", ex.getMessage(), null);
+                        break;
+                    }
+
+                    final BluetoothCommandEngine engine = getCommandEngine(connection, timeoutMillis, result);
+                    if (engine == null) {
+                        break;
+                    }
+                    connections.addPoller(connection.id, registryListener);
+                    result.success(getPollScheduler().add(engine, command, matcher, periodMillis, timeoutMillis, changedOnly));
+                    break;
+                }
+
+                case "removePoll": {
+                    final Integer pollId = call.argument("pollId");
+                    if (pollId == null) {
+                        result.error("invalid_argument", "argument 'pollId' not found", null);
+                        break;
+                    }
+                    result.success(pollScheduler != null && pollScheduler.remove(pollId));
+                    break;
+                }
+
+                case "getPollStats":
+                    result.success(getPollScheduler().getStats());
+                    break;
+
+                ////////////////////////////////////////////////////////////////////////////////
+                /* Transfers */
+                case "sendFile": {
+                    BluetoothConnectionWrapper connection = getConnectionArgument(call, result);
+                    if (connection == null) {
+                        break;
+                    }
+
+                    String path;
+                    int chunkSize = 1024;
+                    int window = 8;
+                    int progressInterval = 250;
+                    try {
+                        path = call.argument("path");
+                        if (path == null) {
+                            throw new ClassCastException();
+                        }
+                        if (call.hasArgument("chunkSize")) {
+                            chunkSize = call.argument("chunkSize");
+                        }
+                        if (call.hasArgument("window")) {
+                            window = call.argument("window");
+                        }
+                        if (call.hasArgument("progressInterval")) {
+                            progressInterval = call.argument("progressInterval");
+                        }
+                    } catch (ClassCastException ex) {
+                        result.error("invalid_argument", "'path' argument is required to be string, 'chunkSize', 'window' and 'progressInterval' integers", null);
+                        break;
+                    }
+
+                    int transferId;
+                    synchronized (transfers) {
+                        transferId = ++lastTransferId;
+                    }
+
+                    BluetoothTransferWrapper wrapper = new BluetoothTransferWrapper(transferId);
+                    BluetoothFileTransfer transfer;
+                    try {
+                        transfer = new BluetoothFileTransfer(path, chunkSize, window, progressInterval, wrapper);
+                    } catch (IOException ex) {
+                        wrapper.progressChannel.setStreamHandler(null);
+                        result.error("transfer_error", ex.getMessage(), null);
+                        break;
+                    } catch (IllegalArgumentException ex) {
+                        wrapper.progressChannel.setStreamHandler(null);
+                        result.error("invalid_argument", ex.getMessage(), null);
+                        break;
+                    }
+                    wrapper.setActions(() -> {
+                        try {
+                            transfer.start();
+                            connection.enqueueWrite(transfer);
+                        } catch (IOException ex) {
+                            transfer.onFinished(ex);
+                        }
+                    }, transfer::cancel);
+                    synchronized (transfers) {
+                        transfers.put(transferId, wrapper);
+                    }
+
+                    Log.d(TAG, "Sending file " + path + " (id: " + connection.id + ", transfer id: " + transferId + ")");
+                    result.success(transferId);
+                    break;
+                }
+
+                case "receiveFile": {
+                    BluetoothConnectionWrapper connection = getConnectionArgument(call, result);
+                    if (connection == null) {
+                        break;
+                    }
+
+                    String path;
+                    long byteCount = 0;
+                    byte[] delimiter;
+                    boolean includeDelimiter;
+                    boolean framed;
+                    int progressInterval = 250;
+                    try {
+                        path = call.argument("path");
+                        if (path == null) {
+                            throw new ClassCastException();
+                        }
+                        if (call.hasArgument("byteCount")) {
+                            byteCount = ((Number) call.argument("byteCount")).longValue();
+                        }
+                        delimiter = call.argument("delimiter");
+                        includeDelimiter = Boolean.TRUE.equals(call.argument("includeDelimiter"));
+                        framed = Boolean.TRUE.equals(call.argument("framed"));
+                        if (call.hasArgument("progressInterval")) {
+                            progressInterval = call.argument("progressInterval");
+                        }
+                    } catch (ClassCastException ex) {
+                        result.error("invalid_argument", "'path' argument is required to be string, 'byteCount' and 'progressInterval' integers, 'delimiter' bytes", null);
+                        break;
+                    }
+                    if (framed && connection.getFrameDecoder() == null) {
+                        result.error("logic_error", "framing must be set before receiving frames to file", null);
+                        break;
+                    }
+
+                    int transferId;
+                    synchronized (transfers) {
+                        transferId = ++lastTransferId;
+                    }
+
+                    BluetoothTransferWrapper wrapper = new BluetoothTransferWrapper(transferId);
+                    BluetoothFileReceiver receiver;
+                    try {
+                        receiver = new BluetoothFileReceiver(path, byteCount, delimiter, includeDelimiter, framed, progressInterval, wrapper);
+                    } catch (IOException ex) {
+                        wrapper.progressChannel.setStreamHandler(null);
+                        result.error("transfer_error", ex.getMessage(), null);
+                        break;
+                    } catch (IllegalArgumentException ex) {
+                        wrapper.progressChannel.setStreamHandler(null);
+                        result.error("invalid_argument", ex.getMessage(), null);
+                        break;
+                    }
+                    wrapper.setActions(() -> {
+                        try {
+                            connection.startReceiving(receiver);
+                        } catch (IOException ex) {
+                            receiver.finish(ex);
+                        }
+                    }, () -> receiver.finish(BluetoothWriteJob.cancelledError()));
+                    synchronized (transfers) {
+                        transfers.put(transferId, wrapper);
+                    }
+
+                    Log.d(TAG, "Receiving to file " + path + " (id: " + connection.id + ", transfer id: " + transferId + ")");
+                    result.success(transferId);
+                    break;
+                }
+
+                case "cancelTransfer": {
+                    int transferId;
+                    try {
+                        transferId = call.argument("transferId");
+                    } catch (ClassCastException | NullPointerException ex) {
+                        result.error("invalid_argument", "'transferId' argument is required to be integer id of transfer", null);
+                        break;
+                    }
+
+                    BluetoothTransferWrapper wrapper;
+                    synchronized (transfers) {
+                        wrapper = transfers.get(transferId);
+                    }
+                    if (wrapper != null) {
+                        wrapper.cancel();
+                    }
+                    result.success(null);
+                    break;
+                }
+
+                ////////////////////////////////////////////////////////////////////////////////
+                /* Capturing */
+                case "startCapture": {
+                    BluetoothConnectionWrapper connection = getConnectionArgument(call, result);
+                    if (connection == null) {
+                        break;
+                    }
+
+                    String path;
+                    int segmentSize = 4 * 1024 * 1024;
+                    int maxSegments = 8;
+                    try {
+                        path = call.argument("path");
+                        if (path == null) {
+                            throw new ClassCastException();
+                        }
+                        if (call.hasArgument("segmentSize")) {
+                            segmentSize = call.argument("segmentSize");
+                        }
+                        if (call.hasArgument("maxSegments")) {
+                            maxSegments = call.argument("maxSegments");
+                        }
+                    } catch (ClassCastException ex) {
+                        result.error("invalid_argument", "'path' argument is required to be string, 'segmentSize' and 'maxSegments' integers", null);
+                        break;
+                    }
+
+                    BluetoothCaptureLog log;
+                    try {
+                        log = new BluetoothCaptureLog(path, segmentSize, maxSegments);
+                    } catch (IllegalArgumentException ex) {
+                        result.error("invalid_argument", ex.getMessage(), null);
+                        break;
+                    }
+
+                    BluetoothCaptureLog previous = connection.startCapture(log);
+                    if (previous != null) {
+                        AsyncTask.execute(previous::close);
+                    }
+                    Log.d(TAG, "Capturing to " + path + " (id: " + connection.id + ")");
+                    result.success(null);
+                    break;
+                }
+
+                case "stopCapture": {
+                    BluetoothConnectionWrapper connection = getConnectionArgument(call, result);
+                    if (connection == null) {
+                        break;
+                    }
+
+                    BluetoothCaptureLog log = connection.stopCapture();
+                    if (log == null) {
+                        result.success(null);
+                        break;
+                    }
+                    // Closing waits for queued records to be written
+                    AsyncTask.execute(() -> {
+                        Map<String, Object> stats = log.close();
+                        runOnUiThread(() -> result.success(stats));
+                    });
+                    break;
+                }
+
+                case "replayCapture": {
+                    BluetoothConnectionWrapper connection = getConnectionArgument(call, result);
+                    if (connection == null) {
+                        break;
+                    }
+
+                    String path;
+                    boolean realtime = true;
+                    try {
+                        path = call.argument("path");
+                        if (path == null) {
+                            throw new ClassCastException();
+                        }
+                        if (call.hasArgument("realtime")) {
+                            realtime = call.argument("realtime");
+                        }
+                    } catch (ClassCastException ex) {
+                        result.error("invalid_argument", "'path' argument is required to be string and 'realtime' boolean", null);
+                        break;
+                    }
+
+                    // Replayed data are passed to the reader thread, which only loopback transport allows
+                    if (!connection.canInjectRead()) {
+                        result.error("logic_error", "replaying requires loopback connection (or replay:// address)", null);
+                        break;
+                    }
+
+                    final boolean replayRealtime = realtime;
+                    new Thread(() -> {
+                        try {
+                            final IOException[] injectError = { null };
+                            long count = BluetoothCaptureLog.replay(path, replayRealtime, (timestamp, direction, data) -> {
+                                if (direction == BluetoothCaptureLog.DIRECTION_IN) {
+                                    try {
+                                        connection.injectRead(data);
+                                    } catch (IOException ex) {
+                                        injectError[0] = ex;
+                                        return false;
+                                    }
+                                }
+                                return true;
+                            });
+                            if (injectError[0] != null) {
+                                throw injectError[0];
+                            }
+                            runOnUiThread(() -> result.success(count));
+                        } catch (Exception ex) {
+                            runOnUiThread(() -> result.error("replay_error", ex.getMessage(), exceptionToString(ex)));
+                        }
+                    }, "CaptureReplay").start();
+                    break;
+                }
+
+                ////////////////////////////////////////////////////////////////////////////////
+                /* Background collecting */
+                case "startBackgroundCollecting": {
+                    List<Integer> ids;
+                    int maxBytes = 4 * 1024 * 1024;
+                    try {
+                        ids = call.argument("ids");
+                        if (ids == null) {
+                            throw new ClassCastException();
+                        }
+                        if (call.hasArgument("maxBytes")) {
+                            maxBytes = call.argument("maxBytes");
+                        }
+                    } catch (ClassCastException ex) {
+                        result.error("invalid_argument", "'ids' argument is required to be list of connection ids and 'maxBytes' integer", null);
+                        break;
+                    }
+
+                    List<BluetoothConnection> collected = new ArrayList<>(ids.size());
+                    synchronized (connections) {
+                        for (int id : ids) {
+                            BluetoothConnection connection = connections.get(id);
+                            if (connection == null) {
+                                result.error("invalid_argument", "there is no connection with provided id (" + id + ")", null);
+                                break methodCallDispatching;
+                            }
+                            collected.add(connection);
+                        }
+                    }
+
+                    for (int i = 0; i < ids.size(); i++) {
+                        collected.get(i).startCollecting(maxBytes);
+                        BluetoothCollectingService.addConnection(ids.get(i), collected.get(i));
+                    }
+                    Log.d(TAG, "Starting background collecting (ids: " + ids + ")");
+                    BluetoothCollectingService.start(activeContext, call.argument("title"), call.argument("text"));
+                    result.success(null);
+                    break;
+                }
+
+                case "getCollectingConnectionIds": {
+                    List<Integer> list = new ArrayList<>();
+                    for (int id : BluetoothCollectingService.getConnectionIds()) {
+                        list.add(id);
+                    }
+                    result.success(list);
+                    break;
+                }
+
+                case "takeCollected": {
+                    if (!call.hasArgument("id")) {
+                        result.error("invalid_argument", "argument 'id' not found", null);
+                        break;
+                    }
+
+                    int id;
+                    try {
+                        id = call.argument("id");
+                    } catch (ClassCastException ex) {
+                        result.error("invalid_argument", "'id' argument is required to be integer id of connection", null);
+                        break;
+                    }
+
+                    BluetoothConnection connection = BluetoothCollectingService.getConnection(id);
+                    if (connection == null) {
+                        result.error("invalid_argument", "there is no collecting connection with provided id", null);
+                        break;
+                    }
+
+                    byte[] bytes = connection.takeCollected();
+                    if (!connection.isConnected()) {
+                        // Nothing more to collect from closed connection
+                        BluetoothCollectingService.removeConnection(id);
+                    }
+                    result.success(bytes);
+                    break;
+                }
+
+                case "stopBackgroundCollecting": {
+                    boolean disconnect = false;
+                    if (call.hasArgument("disconnect")) {
+                        try {
+                            disconnect = call.argument("disconnect");
+                        } catch (ClassCastException ex) {
+                            result.error("invalid_argument", "'disconnect' argument is required to be boolean", null);
+                            break;
+                        }
+                    }
+
+                    // Return data left in buffers, by connection ID
+                    Map<Integer, byte[]> remaining = new HashMap<>();
+                    for (int id : BluetoothCollectingService.getConnectionIds()) {
+                        BluetoothConnection connection = BluetoothCollectingService.removeConnection(id);
+                        remaining.put(id, connection.stopCollecting());
+                        if (disconnect) {
+                            connection.disconnect();
+                        }
+                    }
+                    Log.d(TAG, "Stopping background collecting");
+                    BluetoothCollectingService.stop(activeContext);
+                    result.success(remaining);
+                    break;
+                }
+
+                ////////////////////////////////////////////////////////////////////////////////
+                /* Listening for incoming connections */
+                case "listen": {
+                    String name = "FlutterBluetoothSerial";
+                    UUID uuid = BluetoothServer.DEFAULT_UUID;
+                    boolean secure = true;
+                    int maxClients = 1;
+                    try {
+                        if (call.hasArgument("name")) {
+                            name = call.argument("name");
+                        }
+                        if (call.hasArgument("uuid")) {
+                            uuid = UUID.fromString(call.argument("uuid"));
+                        }
+                        if (call.hasArgument("secure")) {
+                            secure = call.argument("secure");
+                        }
+                        if (call.hasArgument("maxClients")) {
+                            maxClients = call.argument("maxClients");
+                            if (maxClients < 1) {
+                                throw new IllegalArgumentException();
+                            }
+                        }
+                    } catch (ClassCastException | IllegalArgumentException ex) {
+                        result.error("invalid_argument", "'name' and 'uuid' arguments are required to be strings, 'secure' to be boolean and 'maxClients' positive integer", null);
+                        break;
+                    }
+
+                    int id;
+                    BluetoothServerWrapper server;
+                    synchronized (servers) {
+                        id = ++lastServerId;
+                        server = new BluetoothServerWrapper(id, bluetoothAdapter, maxClients);
+                        servers.put(id, server);
+                    }
+
+                    Log.d(TAG, "Listening as " + name + " (server id: " + id + ", max clients: " + maxClients + ")");
+
+                    final String serviceName = name;
+                    final UUID serviceUuid = uuid;
+                    final boolean serviceSecure = secure;
+                    AsyncTask.execute(() -> {
+                        try {
+                            server.listen(serviceName, serviceUuid, serviceSecure);
+                            runOnUiThread(() -> result.success(id));
+                        } catch (Exception ex) {
+                            runOnUiThread(() -> result.error("listen_error", ex.getMessage(), exceptionToString(ex)));
+                            synchronized (servers) {
+                                servers.remove(id);
+                            }
+                        }
+                    });
+                    break;
+                }
+
+                case "stopListening":
+                case "getServerStats": {
+                    if (!call.hasArgument("id")) {
+                        result.error("invalid_argument", "argument 'id' not found", null);
+                        break;
+                    }
+
+                    int id;
+                    try {
+                        id = call.argument("id");
+                    } catch (ClassCastException ex) {
+                        result.error("invalid_argument", "'id' argument is required to be integer id of server", null);
+                        break;
+                    }
+
+                    BluetoothServer server;
+                    synchronized (servers) {
+                        server = servers.get(id);
+                    }
+                    if (server == null) {
+                        result.error("invalid_argument", "there is no server with provided id", null);
+                        break;
+                    }
+
+                    if ("stopListening".equals(call.method)) {
+                        server.close();
+                        result.success(null);
+                    } else {
+                        result.success(server.getStats());
                     }
                     break;
                 }
@@ -0,0 +1,35 @@
+package io.github.edufolly.flutterbluetoothserial;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/// Transport without any radio: everything written is read back, as from an echo device
+class LoopbackTransport implements BluetoothTransport
+{
+    private final StreamPipe pipe;
+
+    LoopbackTransport(int bufferSize) {
+        this.pipe = new StreamPipe(bufferSize);
+    }
+
+    @Override
+    public InputStream getInputStream() {
+        return pipe.getInputStream();
+    }
+
+    @Override
+    public OutputStream getOutputStream() {
+        return pipe.getOutputStream();
+    }
+
+    /// Feeds data to be read as if received from the remote device (for example replayed capture)
+    void inject(byte[] data) throws IOException {
+        pipe.getOutputStream().write(data);
+    }
+
+    @Override
+    public void close() {
+        pipe.close();
+    }
+}
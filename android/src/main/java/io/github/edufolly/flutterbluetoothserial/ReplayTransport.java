@@ -0,0 +1,75 @@
+package io.github.edufolly.flutterbluetoothserial;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import android.util.Log;
+
+/// Transport without any radio: reads data received in recorded capture log, discards written data.
+///
+/// The remote side "disconnects" after the whole log is replayed.
+class ReplayTransport implements BluetoothTransport
+{
+    private static final String TAG = "FlutterBluePlugin";
+
+    private final StreamPipe pipe;
+    private final Thread feeder;
+    private volatile boolean closed = false;
+
+    private final OutputStream output = new OutputStream() {
+        @Override
+        public void write(int b) throws IOException {
+            write(null, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] bytes, int offset, int length) throws IOException {
+            if (closed) {
+                throw new IOException("transport closed");
+            }
+            // Discarded
+        }
+    };
+
+    ReplayTransport(String path, boolean realtime, int bufferSize) {
+        this.pipe = new StreamPipe(bufferSize);
+        this.feeder = new Thread(() -> {
+            try {
+                BluetoothCaptureLog.replay(path, realtime, (timestamp, direction, data) -> {
+                    if (direction != BluetoothCaptureLog.DIRECTION_IN) {
+                        return true;
+                    }
+                    try {
+                        pipe.getOutputStream().write(data);
+                        return true;
+                    } catch (IOException ex) {
+                        // Closed
+                        return false;
+                    }
+                });
+            } catch (IOException ex) {
+                Log.e(TAG, "Replaying capture log failed", ex);
+            }
+            pipe.close();
+        }, "ReplayTransport");
+        this.feeder.start();
+    }
+
+    @Override
+    public InputStream getInputStream() {
+        return pipe.getInputStream();
+    }
+
+    @Override
+    public OutputStream getOutputStream() {
+        return output;
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        pipe.close();
+        feeder.interrupt();
+    }
+}
@@ -0,0 +1,128 @@
+package io.github.edufolly.flutterbluetoothserial;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+
+/// In-memory pipe with bounded ring buffer: bytes written to `output` can be read from `input`.
+///
+/// Unlike `PipedInputStream`, it does not depend on liveness of the reading or writing threads,
+/// so any thread (for example from a pool) can use it. Writing blocks while the buffer is full.
+/// After closing, reading returns remaining bytes and then end of stream, writing throws.
+class StreamPipe
+{
+    private final byte[] buffer;
+    private int readPosition = 0;
+    private int available = 0;
+    private boolean closed = false;
+
+    private final InputStream input = new InputStream() {
+        @Override
+        public int read() throws IOException {
+            byte[] single = new byte[1];
+            return read(single, 0, 1) < 0 ? -1 : (single[0] & 0xFF);
+        }
+
+        @Override
+        public int read(byte[] bytes, int offset, int length) throws IOException {
+            return StreamPipe.this.read(bytes, offset, length);
+        }
+
+        @Override
+        public int available() {
+            synchronized (StreamPipe.this) {
+                return available;
+            }
+        }
+
+        @Override
+        public void close() {
+            StreamPipe.this.close();
+        }
+    };
+
+    private final OutputStream output = new OutputStream() {
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] { (byte) b }, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] bytes, int offset, int length) throws IOException {
+            StreamPipe.this.write(bytes, offset, length);
+        }
+
+        @Override
+        public void close() {
+            StreamPipe.this.close();
+        }
+    };
+
+    StreamPipe(int capacity) {
+        this.buffer = new byte[capacity];
+    }
+
+    InputStream getInputStream() {
+        return input;
+    }
+
+    OutputStream getOutputStream() {
+        return output;
+    }
+
+    synchronized void close() {
+        closed = true;
+        notifyAll();
+    }
+
+    private synchronized int read(byte[] bytes, int offset, int length) throws IOException {
+        if (length == 0) {
+            return 0;
+        }
+        try {
+            while (available == 0) {
+                if (closed) {
+                    return -1;
+                }
+                wait();
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        }
+
+        final int count = Math.min(length, available);
+        final int firstPart = Math.min(count, buffer.length - readPosition);
+        System.arraycopy(buffer, readPosition, bytes, offset, firstPart);
+        System.arraycopy(buffer, 0, bytes, offset + firstPart, count - firstPart);
+        readPosition = (readPosition + count) % buffer.length;
+        available -= count;
+        notifyAll();
+        return count;
+    }
+
+    private synchronized void write(byte[] bytes, int offset, int length) throws IOException {
+        while (length > 0) {
+            try {
+                while (available == buffer.length && !closed) {
+                    wait();
+                }
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException();
+            }
+            if (closed) {
+                throw new IOException("pipe closed");
+            }
+
+            final int writePosition = (readPosition + available) % buffer.length;
+            final int count = Math.min(length, Math.min(buffer.length - available, buffer.length - writePosition));
+            System.arraycopy(bytes, offset, buffer, writePosition, count);
+            available += count;
+            offset += count;
+            length -= count;
+            notifyAll();
+        }
+    }
+}
@@ -0,0 +1,115 @@
+package io.github.edufolly.flutterbluetoothserial;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+/// Runs benchmarks against loopback stand-ins of echoing device
+public class BluetoothBenchmarkTest
+{
+    private static final long TIMEOUT_MILLIS = 5000;
+
+    /// Collects result of benchmark
+    private static class Result implements BluetoothBenchmark.Listener {
+        final CountDownLatch finished = new CountDownLatch(1);
+        volatile Map<String, Object> result;
+        volatile IOException error;
+
+        @Override
+        public void onFinished(Map<String, Object> result, IOException error) {
+            this.result = result;
+            this.error = error;
+            finished.countDown();
+        }
+
+        Map<String, Object> await() throws Exception {
+            assertTrue("benchmark not finished", finished.await(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS));
+            assertNull(error);
+            assertNotNull(result);
+            return result;
+        }
+    }
+
+    private static byte[] payload(int length) {
+        byte[] payload = new byte[length];
+        // Differs from sequence numbers of the probes
+        Arrays.fill(payload, (byte) 0x55);
+        return payload;
+    }
+
+    @Test
+    public void latencyOverLoopbackRecordsEveryProbe() throws Exception {
+        RecordingConnection connection = new RecordingConnection();
+        connection.connect(new LoopbackTransport(1024));
+
+        Result listener = new Result();
+        connection.startBenchmark(new BluetoothBenchmark.Latency(connection, payload(16), 50, 1000, listener));
+        Map<String, Object> result = listener.await();
+
+        assertEquals(50, result.get("sent"));
+        assertEquals(0, result.get("lost"));
+        assertEquals(0, result.get("corrupted"));
+        assertEquals(0L, result.get("staleBytes"));
+        assertEquals(50L, result.get("count"));
+        // Echo is consumed by the measurement
+        assertEquals(0, connection.getReceived().length);
+        connection.disconnect();
+    }
+
+    @Test
+    public void lateEchoIsNotTakenForNextProbe() throws Exception {
+        RecordingConnection connection = new RecordingConnection();
+        // First echo comes after the timeout and the drain period, while the second probe is awaited
+        connection.connect(new StallingEchoTransport(250));
+
+        Result listener = new Result();
+        connection.startBenchmark(new BluetoothBenchmark.Latency(connection, payload(16), 5, 100, listener));
+        Map<String, Object> result = listener.await();
+
+        assertEquals(1, result.get("lost"));
+        assertEquals(0, result.get("corrupted"));
+        // Late echo of the first probe skipped by sequence number, not recorded as round trip
+        assertEquals(16L, result.get("staleBytes"));
+        assertEquals(4L, result.get("count"));
+        connection.disconnect();
+    }
+
+    @Test
+    public void echoThroughputOverLoopbackCompletes() throws Exception {
+        RecordingConnection connection = new RecordingConnection();
+        connection.connect(new LoopbackTransport(4096));
+
+        Result listener = new Result();
+        connection.startBenchmark(new BluetoothBenchmark.Throughput(connection,
+                BluetoothBenchmark.Throughput.Direction.ECHO, 256 * 1024, 1000, TIMEOUT_MILLIS, listener));
+        Map<String, Object> result = listener.await();
+
+        assertEquals(true, result.get("completed"));
+        assertEquals(256L * 1024, result.get("bytes"));
+        connection.disconnect();
+    }
+
+    @Test
+    public void benchmarkFailsOnDisconnect() throws Exception {
+        RecordingConnection connection = new RecordingConnection();
+        LoopbackTransport transport = new LoopbackTransport(1024);
+        connection.connect(transport);
+
+        Result listener = new Result();
+        connection.startBenchmark(new BluetoothBenchmark.Throughput(connection,
+                BluetoothBenchmark.Throughput.Direction.READ, 1024, 1000, TIMEOUT_MILLIS, listener));
+        transport.close();
+
+        assertTrue(listener.finished.await(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS));
+        assertNotNull(listener.error);
+    }
+}
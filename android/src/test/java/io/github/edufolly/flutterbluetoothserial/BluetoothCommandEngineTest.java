@@ -0,0 +1,129 @@
+package io.github.edufolly.flutterbluetoothserial;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+/// Runs command engine over loopback stand-ins of devices
+public class BluetoothCommandEngineTest
+{
+    private static final long TIMEOUT_MILLIS = 5000;
+
+    /// Collects outcome of single request
+    private static class Outcome implements BluetoothProtocolEngine.Callback {
+        final CountDownLatch finished = new CountDownLatch(1);
+        volatile byte[] response;
+        volatile IOException error;
+
+        @Override
+        public void onResponse(byte[] response, long timestamp) {
+            this.response = response;
+            finished.countDown();
+        }
+
+        @Override
+        public void onError(IOException error) {
+            this.error = error;
+            finished.countDown();
+        }
+
+        void await() throws InterruptedException {
+            assertTrue("request not finished", finished.await(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS));
+        }
+    }
+
+    /// Device which never answers: written data are dropped
+    private static class SilentTransport implements BluetoothTransport {
+        private final StreamPipe pipe = new StreamPipe(256);
+
+        private final OutputStream output = new OutputStream() {
+            @Override
+            public void write(int b) {
+                // Dropped
+            }
+        };
+
+        @Override
+        public InputStream getInputStream() {
+            return pipe.getInputStream();
+        }
+
+        @Override
+        public OutputStream getOutputStream() {
+            return output;
+        }
+
+        @Override
+        public void close() {
+            pipe.close();
+        }
+    }
+
+    private static byte[] ascii(String text) {
+        return text.getBytes(StandardCharsets.US_ASCII);
+    }
+
+    @Test
+    public void echoedCommandIsMatchedByDelimiter() throws Exception {
+        RecordingConnection connection = new RecordingConnection();
+        connection.connect(new LoopbackTransport(1024));
+        BluetoothCommandEngine engine = new BluetoothCommandEngine(connection, 1000);
+        connection.setProtocolEngine(engine);
+
+        BluetoothCommandEngine.Matcher matcher = new BluetoothCommandEngine.Matcher(ascii("AT"), ascii("\r"), 0, true);
+        for (int i = 0; i < 10; i++) {
+            Outcome outcome = new Outcome();
+            engine.submit(ascii("AT+" + i + "\r"), matcher, outcome);
+            outcome.await();
+            assertArrayEquals(ascii("AT+" + i), matcher.payloadOf(outcome.response));
+        }
+        // Read data are passed only to the engine
+        assertEquals(0, connection.getReceived().length);
+        connection.disconnect();
+    }
+
+    @Test
+    public void requestTimeoutOverridesEngineTimeout() throws Exception {
+        RecordingConnection connection = new RecordingConnection();
+        connection.connect(new SilentTransport());
+        BluetoothCommandEngine engine = new BluetoothCommandEngine(connection, 60 * 1000);
+        connection.setProtocolEngine(engine);
+
+        BluetoothCommandEngine.Matcher matcher = new BluetoothCommandEngine.Matcher(null, ascii("\r"), 0, true);
+        final long start = System.nanoTime();
+        Outcome outcome = new Outcome();
+        engine.submit(ascii("AT\r"), matcher, 50, outcome);
+        outcome.await();
+        assertNotNull(outcome.error);
+        assertEquals("response timed out", outcome.error.getMessage());
+        assertTrue(System.nanoTime() - start < TimeUnit.MILLISECONDS.toNanos(TIMEOUT_MILLIS));
+        assertEquals(1L, engine.getStats().get("timeouts"));
+        connection.disconnect();
+    }
+
+    @Test
+    public void removingEngineFailsPendingRequests() throws Exception {
+        RecordingConnection connection = new RecordingConnection();
+        connection.connect(new SilentTransport());
+        BluetoothCommandEngine engine = new BluetoothCommandEngine(connection, 60 * 1000);
+        connection.setProtocolEngine(engine);
+
+        Outcome outcome = new Outcome();
+        engine.submit(ascii("AT\r"), new BluetoothCommandEngine.Matcher(null, ascii("\r"), 0, true), outcome);
+        connection.setProtocolEngine(null);
+        outcome.await();
+        assertEquals("disconnected", outcome.error.getMessage());
+        assertTrue(engine.isClosed());
+        connection.disconnect();
+    }
+}
@@ -0,0 +1,63 @@
+package io.github.edufolly.flutterbluetoothserial;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.Deflater;
+
+import org.junit.Test;
+
+/// Runs deflate codec against itself and against streams it cannot decode
+public class BluetoothDeflateCodecTest
+{
+    @Test
+    public void encodedWritesAreDecodedOneByOne() throws Exception {
+        BluetoothDeflateCodec local = new BluetoothDeflateCodec(Deflater.DEFAULT_COMPRESSION, false);
+        BluetoothDeflateCodec remote = new BluetoothDeflateCodec(Deflater.DEFAULT_COMPRESSION, false);
+        for (int i = 0; i < 10; i++) {
+            final byte[] data = ("message " + i + " repeated, repeated, repeated").getBytes(StandardCharsets.US_ASCII);
+            final byte[] encoded = local.encode(data);
+            // Each write is flushed, so it is decoded without waiting for more data
+            assertArrayEquals(data, remote.decode(encoded, encoded.length));
+        }
+        local.close();
+        remote.close();
+    }
+
+    @Test
+    public void streamRequiringDictionaryFails() throws Exception {
+        Deflater deflater = new Deflater();
+        deflater.setDictionary("dictionary".getBytes(StandardCharsets.US_ASCII));
+        deflater.setInput("data".getBytes(StandardCharsets.US_ASCII));
+        deflater.finish();
+        final byte[] encoded = new byte[256];
+        final int length = deflater.deflate(encoded);
+        deflater.end();
+
+        BluetoothDeflateCodec codec = new BluetoothDeflateCodec(Deflater.DEFAULT_COMPRESSION, false);
+        try {
+            codec.decode(encoded, length);
+            fail("stream requiring dictionary should fail");
+        } catch (IOException ex) {
+            // Expected
+        }
+        codec.close();
+    }
+
+    @Test
+    public void closedCodecFails() throws Exception {
+        BluetoothDeflateCodec codec = new BluetoothDeflateCodec(Deflater.DEFAULT_COMPRESSION, false);
+        codec.close();
+        // Closing again is harmless
+        codec.close();
+        codec.reset();
+        try {
+            codec.encode(new byte[] { 1, 2, 3 });
+            fail("encoding by closed codec should fail");
+        } catch (IOException ex) {
+            // Expected
+        }
+    }
+}
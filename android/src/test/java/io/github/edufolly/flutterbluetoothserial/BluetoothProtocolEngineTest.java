@@ -0,0 +1,83 @@
+package io.github.edufolly.flutterbluetoothserial;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+/// Runs request-response engine against loopback stand-ins of devices
+public class BluetoothProtocolEngineTest
+{
+    private static final long TIMEOUT_MILLIS = 5000;
+
+    /// Engine taking responses ending by carriage return
+    private static class LineEngine extends BluetoothProtocolEngine {
+        LineEngine(BluetoothConnection connection, long timeoutMillis) {
+            super(connection, timeoutMillis, 0, 0);
+        }
+
+        @Override
+        protected int parseResponse(byte[] buffer, int length, byte[] request, Object context) {
+            for (int i = 0; i < length; i++) {
+                if (buffer[i] == '\r') {
+                    return i + 1;
+                }
+            }
+            return 0;
+        }
+    }
+
+    /// Collects outcome of single request
+    private static class Outcome implements BluetoothProtocolEngine.Callback {
+        final CountDownLatch finished = new CountDownLatch(1);
+        volatile byte[] response;
+        volatile IOException error;
+
+        @Override
+        public void onResponse(byte[] response, long timestamp) {
+            this.response = response;
+            finished.countDown();
+        }
+
+        @Override
+        public void onError(IOException error) {
+            this.error = error;
+            finished.countDown();
+        }
+
+        void await() throws InterruptedException {
+            assertTrue("request not finished", finished.await(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS));
+        }
+    }
+
+    private static byte[] ascii(String text) {
+        return text.getBytes(StandardCharsets.US_ASCII);
+    }
+
+    @Test
+    public void lateResponseIsDrainedAfterTimeout() throws Exception {
+        RecordingConnection connection = new RecordingConnection();
+        // Echo of the first request comes after its timeout, but within the quiet period
+        connection.connect(new StallingEchoTransport(100));
+        LineEngine engine = new LineEngine(connection, 40);
+        connection.setProtocolEngine(engine);
+
+        Outcome first = new Outcome();
+        Outcome second = new Outcome();
+        engine.submit(ascii("A1\r"), first);
+        engine.submit(ascii("A2\r"), second);
+        first.await();
+        second.await();
+        assertEquals("response timed out", first.error.getMessage());
+        // Late echo of the first request is not taken for response of the second one
+        assertArrayEquals(ascii("A2\r"), second.response);
+        assertEquals(3L, engine.getStats().get("unexpectedBytes"));
+        connection.disconnect();
+    }
+}
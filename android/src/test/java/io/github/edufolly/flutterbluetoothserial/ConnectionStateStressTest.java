@@ -0,0 +1,199 @@
+package io.github.edufolly.flutterbluetoothserial;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+/// Stresses connection state machine by concurrent writes, disconnects, remote closes and connects
+/// over in-memory stream pair
+public class ConnectionStateStressTest
+{
+    private static final long TIMEOUT_MILLIS = 5000;
+
+    /// Loopback transport recording writes done after it was closed
+    private static class TrackingTransport implements BluetoothTransport {
+        final StreamPipe pipe = new StreamPipe(256);
+        final AtomicBoolean closed = new AtomicBoolean();
+        final AtomicInteger writesAfterClose = new AtomicInteger();
+
+        private final OutputStream output = new OutputStream() {
+            @Override
+            public void write(int b) throws IOException {
+                write(new byte[] { (byte) b }, 0, 1);
+            }
+
+            @Override
+            public void write(byte[] bytes, int offset, int length) throws IOException {
+                if (closed.get()) {
+                    writesAfterClose.incrementAndGet();
+                }
+                pipe.getOutputStream().write(bytes, offset, length);
+            }
+        };
+
+        @Override
+        public InputStream getInputStream() {
+            return pipe.getInputStream();
+        }
+
+        @Override
+        public OutputStream getOutputStream() {
+            return output;
+        }
+
+        @Override
+        public void close() {
+            closed.set(true);
+            pipe.close();
+        }
+    }
+
+    private static Thread start(List<Thread> threads, Runnable runnable) {
+        Thread thread = new Thread(runnable);
+        threads.add(thread);
+        thread.start();
+        return thread;
+    }
+
+    @Test
+    public void concurrentWritesAndClosesEndSessionOnce() throws Exception {
+        final Random random = new Random(41);
+        for (int iteration = 0; iteration < 200; iteration++) {
+            final RecordingConnection connection = new RecordingConnection();
+            final TrackingTransport transport = new TrackingTransport();
+            connection.connect(transport);
+
+            final boolean remoteCloses = iteration % 4 == 3;
+            final int closeDelayMicros = random.nextInt(2000);
+            final CountDownLatch go = new CountDownLatch(1);
+            final AtomicInteger issued = new AtomicInteger();
+            final AtomicInteger callbacks = new AtomicInteger();
+            final AtomicInteger accepted = new AtomicInteger();
+            final AtomicInteger unexpected = new AtomicInteger();
+            List<Thread> threads = new ArrayList<>();
+
+            for (int w = 0; w < 4; w++) {
+                final int writer = w;
+                start(threads, () -> {
+                    final byte[] chunk = new byte[1 + writer * 40];
+                    try {
+                        go.await();
+                        for (int j = 0; j < 500; j++) {
+                            if (j % 2 == 0) {
+                                connection.write(chunk);
+                            } else {
+                                connection.writeAsync(chunk, j % 3 == 0, error -> callbacks.incrementAndGet());
+                                issued.incrementAndGet();
+                            }
+                        }
+                    } catch (IOException ex) {
+                        // Closed meanwhile
+                    } catch (Throwable ex) {
+                        unexpected.incrementAndGet();
+                    }
+                });
+            }
+            for (int c = 0; c < 2; c++) {
+                final boolean remote = remoteCloses && c == 0;
+                start(threads, () -> {
+                    try {
+                        go.await();
+                        Thread.sleep(closeDelayMicros / 1000, (closeDelayMicros % 1000) * 1000);
+                        if (remote) {
+                            transport.close();
+                        } else if (connection.disconnect(TIMEOUT_MILLIS, null)) {
+                            accepted.incrementAndGet();
+                        }
+                    } catch (Throwable ex) {
+                        unexpected.incrementAndGet();
+                    }
+                });
+            }
+
+            go.countDown();
+            for (Thread thread : threads) {
+                thread.join(TIMEOUT_MILLIS);
+                assertFalse("thread stuck in iteration " + iteration, thread.isAlive());
+            }
+
+            assertTrue("not disconnected in iteration " + iteration, connection.awaitDisconnected(TIMEOUT_MILLIS));
+            final long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+            while (callbacks.get() < issued.get() && System.currentTimeMillis() < deadline) {
+                Thread.sleep(1);
+            }
+
+            assertEquals("unexpected exceptions", 0, unexpected.get());
+            assertEquals("every queued write gets single callback", issued.get(), callbacks.get());
+            assertEquals("single disconnect callback", 1, connection.getDisconnectedCount());
+            assertFalse(connection.isConnected());
+            if (!remoteCloses) {
+                assertEquals("single disconnect accepted", 1, accepted.get());
+                assertFalse(connection.isDisconnectedByRemote());
+                // Draining closes the transport only after the writer is done
+                assertEquals("writes after close", 0, transport.writesAfterClose.get());
+            }
+        }
+    }
+
+    @Test
+    public void concurrentConnectsOpenSingleSession() throws Exception {
+        for (int iteration = 0; iteration < 50; iteration++) {
+            final RecordingConnection connection = new RecordingConnection();
+            final CountDownLatch go = new CountDownLatch(1);
+            final AtomicInteger connected = new AtomicInteger();
+            final AtomicInteger unexpected = new AtomicInteger();
+            final List<TrackingTransport> transports = new ArrayList<>();
+            final List<TrackingTransport> winners = new ArrayList<>();
+            List<Thread> threads = new ArrayList<>();
+
+            for (int t = 0; t < 8; t++) {
+                final TrackingTransport transport = new TrackingTransport();
+                transports.add(transport);
+                start(threads, () -> {
+                    try {
+                        go.await();
+                        connection.connect(transport);
+                        connected.incrementAndGet();
+                        synchronized (winners) {
+                            winners.add(transport);
+                        }
+                    } catch (IOException ex) {
+                        // Already connected
+                    } catch (Throwable ex) {
+                        unexpected.incrementAndGet();
+                    }
+                });
+            }
+
+            go.countDown();
+            for (Thread thread : threads) {
+                thread.join(TIMEOUT_MILLIS);
+            }
+
+            assertEquals(0, unexpected.get());
+            assertEquals("single connect succeeds", 1, connected.get());
+            assertTrue(connection.isConnected());
+            for (TrackingTransport transport : transports) {
+                // Transports of failed attempts are closed, the connected one stays open
+                assertEquals(!winners.contains(transport), transport.closed.get());
+            }
+
+            assertTrue(connection.disconnect(TIMEOUT_MILLIS, null));
+            assertFalse(connection.disconnect(TIMEOUT_MILLIS, null));
+            assertTrue(connection.awaitDisconnected(TIMEOUT_MILLIS));
+            assertEquals(1, connection.getDisconnectedCount());
+        }
+    }
+}
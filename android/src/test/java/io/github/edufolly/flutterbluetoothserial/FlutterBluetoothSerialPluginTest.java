@@ -0,0 +1,58 @@
+package io.github.edufolly.flutterbluetoothserial;
+
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verifyNoInteractions;
+import static org.mockito.Mockito.when;
+
+import android.content.Context;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import io.flutter.embedding.engine.plugins.FlutterPlugin;
+import io.flutter.plugin.common.BinaryMessenger;
+
+/// Attaches the plugin to stand-ins of engines, checking nothing but channels is set up on startup
+public class FlutterBluetoothSerialPluginTest
+{
+    private static FlutterPlugin.FlutterPluginBinding binding(Context context) {
+        FlutterPlugin.FlutterPluginBinding binding = mock(FlutterPlugin.FlutterPluginBinding.class);
+        when(binding.getBinaryMessenger()).thenReturn(mock(BinaryMessenger.class));
+        when(binding.getApplicationContext()).thenReturn(context);
+        return binding;
+    }
+
+    @Test
+    public void attachingRegistersNoReceiversNorLooksUpAdapter() {
+        Context context = mock(Context.class);
+        FlutterPlugin.FlutterPluginBinding binding = binding(context);
+
+        FlutterBluetoothSerialPlugin plugin = new FlutterBluetoothSerialPlugin();
+        plugin.onAttachedToEngine(binding);
+        // Receivers, adapter and system services are set up only on first use from Dart
+        verifyNoInteractions(context);
+        plugin.onDetachedFromEngine(binding);
+        verifyNoInteractions(context);
+    }
+
+    @Test
+    public void attachingIsCheap() {
+        final int count = 200;
+        FlutterPlugin.FlutterPluginBinding binding = binding(mock(Context.class));
+
+        long total = 0;
+        for (int i = 0; i < count; i++) {
+            FlutterBluetoothSerialPlugin plugin = new FlutterBluetoothSerialPlugin();
+            final long start = System.nanoTime();
+            plugin.onAttachedToEngine(binding);
+            total += System.nanoTime() - start;
+            plugin.onDetachedFromEngine(binding);
+        }
+        final long averageMicros = TimeUnit.NANOSECONDS.toMicros(total / count);
+        System.out.println("Attached to engine in " + averageMicros + " us on average");
+        // Generous bound, only setting up channels
+        assertTrue("attaching took " + averageMicros + " us", averageMicros < 5000);
+    }
+}
@@ -0,0 +1,237 @@
+package io.github.edufolly.flutterbluetoothserial;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/// Drives `BluetoothConnection` over in-memory transports, without any radio
+public class LoopbackConnectionTest
+{
+    private static final long TIMEOUT_MILLIS = 5000;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static byte[] pattern(int length, int seed) {
+        byte[] data = new byte[length];
+        for (int i = 0; i < length; i++) {
+            data[i] = (byte) (seed + i * 31);
+        }
+        return data;
+    }
+
+    /// Transport reading from one pipe and writing to another, as a socket to a silent device
+    private static class PipeTransport implements BluetoothTransport {
+        final StreamPipe incoming = new StreamPipe(4096);
+        final StreamPipe outgoing = new StreamPipe(4096);
+
+        @Override
+        public InputStream getInputStream() {
+            return incoming.getInputStream();
+        }
+
+        @Override
+        public OutputStream getOutputStream() {
+            return outgoing.getOutputStream();
+        }
+
+        @Override
+        public void close() {
+            incoming.close();
+            outgoing.close();
+        }
+    }
+
+    @Test
+    public void echoesWrittenDataInOrder() throws Exception {
+        RecordingConnection connection = new RecordingConnection();
+        connection.connect(new LoopbackTransport(1024));
+        assertTrue(connection.isConnected());
+
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        for (int i = 0; i < 100; i++) {
+            // Chunks larger than the loopback buffer too
+            final byte[] chunk = pattern(1 + (i * 37) % 3000, i);
+            expected.write(chunk);
+            // Same lane, as control writes overtake bulk ones
+            if (i % 2 == 0) {
+                connection.write(chunk);
+            } else {
+                connection.writeAsync(chunk, false, null);
+            }
+        }
+
+        assertArrayEquals(expected.toByteArray(), connection.awaitReceived(expected.size(), TIMEOUT_MILLIS));
+        connection.disconnect();
+        assertTrue(connection.awaitDisconnected(TIMEOUT_MILLIS));
+    }
+
+    @Test
+    public void localDisconnectDrainsQueuedWrites() throws Exception {
+        RecordingConnection connection = new RecordingConnection();
+        connection.connect(new LoopbackTransport(1024));
+
+        final byte[] data = pattern(64 * 1024, 7);
+        connection.writeAsync(data, true, null);
+
+        CountDownLatch closed = new CountDownLatch(1);
+        AtomicBoolean drained = new AtomicBoolean();
+        assertTrue(connection.disconnect(TIMEOUT_MILLIS, (latencyMicros, allWritten) -> {
+            drained.set(allWritten);
+            closed.countDown();
+        }));
+
+        assertTrue(closed.await(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS));
+        assertTrue(drained.get());
+        assertTrue(connection.awaitDisconnected(TIMEOUT_MILLIS));
+        assertFalse(connection.isDisconnectedByRemote());
+        assertFalse(connection.isConnected());
+
+        try {
+            connection.write(new byte[] { 1 });
+            fail("write after disconnect should throw");
+        } catch (IOException ex) {
+            // Expected
+        }
+    }
+
+    @Test
+    public void controlWriteGoesBetweenPacedBulkPieces() throws Exception {
+        RecordingConnection connection = new RecordingConnection();
+        connection.connect(new LoopbackTransport(1024));
+        // About 200 ms for the bulk write
+        connection.setWritePacer(new BluetoothWritePacer(10000, 0, 100, 100));
+
+        final byte[] bulk = new byte[2000];
+        final byte[] control = { 1, 2, 3, 4 };
+        connection.writeAsync(bulk, true, null);
+        // Bulk write is being written already
+        connection.awaitReceived(1, TIMEOUT_MILLIS);
+        connection.writeAsync(control, false, null);
+
+        final byte[] received = connection.awaitReceived(bulk.length + control.length, TIMEOUT_MILLIS);
+        assertEquals(bulk.length + control.length, received.length);
+        int position = 0;
+        while (position < received.length && received[position] == 0) {
+            position++;
+        }
+        assertTrue("control write waited for whole bulk write", position > 0 && position < bulk.length);
+        connection.disconnect();
+    }
+
+    @Test
+    public void fileTransferLeavesWriterFreeWhileReadingAhead() throws Exception {
+        final File file = folder.newFile("transfer");
+        final byte[] content = pattern(256 * 1024, 5);
+        try (FileOutputStream output = new FileOutputStream(file)) {
+            output.write(content);
+        }
+
+        RecordingConnection connection = new RecordingConnection();
+        connection.connect(new LoopbackTransport(1024));
+        CountDownLatch finished = new CountDownLatch(1);
+        AtomicReference<IOException> error = new AtomicReference<>();
+        BluetoothFileTransfer transfer = new BluetoothFileTransfer(file.getPath(), 512, 4, 1000, new BluetoothTransferListener() {
+            @Override
+            public void onProgress(long transferred, long total) {}
+
+            @Override
+            public void onFinished(long transferred, long total, IOException failure) {
+                error.set(failure);
+                finished.countDown();
+            }
+        });
+        transfer.start();
+        connection.enqueueWrite(transfer);
+        // Control writes keep going through while the transfer waits for the disk
+        for (int i = 0; i < 50; i++) {
+            connection.write(new byte[] { (byte) i });
+        }
+
+        assertTrue(finished.await(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS));
+        assertEquals(null, error.get());
+        assertEquals(content.length + 50, connection.awaitReceived(content.length + 50, TIMEOUT_MILLIS).length);
+        connection.disconnect();
+    }
+
+    @Test
+    public void remoteCloseIsReportedAsRemote() throws Exception {
+        RecordingConnection connection = new RecordingConnection();
+        LoopbackTransport transport = new LoopbackTransport(1024);
+        connection.connect(transport);
+
+        transport.close();
+
+        assertTrue(connection.awaitDisconnected(TIMEOUT_MILLIS));
+        assertTrue(connection.isDisconnectedByRemote());
+        assertFalse(connection.isConnected());
+        assertFalse(connection.disconnect(0, null));
+    }
+
+    @Test
+    public void injectedDataGoThroughReaderOnlyOnLoopback() throws Exception {
+        RecordingConnection loopback = new RecordingConnection();
+        loopback.connect(new LoopbackTransport(1024));
+        assertTrue(loopback.canInjectRead());
+        final byte[] data = pattern(5000, 3);
+        loopback.injectRead(data);
+        assertArrayEquals(data, loopback.awaitReceived(data.length, TIMEOUT_MILLIS));
+        loopback.disconnect();
+
+        RecordingConnection socket = new RecordingConnection();
+        socket.connect(new PipeTransport());
+        assertFalse(socket.canInjectRead());
+        try {
+            socket.injectRead(data);
+            fail("injecting into non-loopback connection should throw");
+        } catch (IOException ex) {
+            // Expected
+        }
+        socket.disconnect();
+    }
+
+    @Test
+    public void capturedSessionIsReplayed() throws Exception {
+        final String path = new File(folder.getRoot(), "capture").getPath();
+
+        RecordingConnection recorded = new RecordingConnection();
+        recorded.connect(new LoopbackTransport(1024));
+        recorded.startCapture(new BluetoothCaptureLog(path, 4096, 8));
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        for (int i = 0; i < 20; i++) {
+            final byte[] chunk = pattern(100 + i * 50, i);
+            expected.write(chunk);
+            recorded.write(chunk);
+        }
+        recorded.awaitReceived(expected.size(), TIMEOUT_MILLIS);
+        final BluetoothCaptureLog log = recorded.stopCapture();
+        final Object records = log.close().get("records");
+        // Closing again (as on disconnection racing with stopping capture) changes nothing
+        assertEquals(records, log.close().get("records"));
+        recorded.disconnect();
+
+        RecordingConnection replayed = new RecordingConnection();
+        replayed.connect(new ReplayTransport(path, false, 1024));
+        assertTrue(replayed.awaitDisconnected(TIMEOUT_MILLIS));
+        assertTrue(replayed.isDisconnectedByRemote());
+        assertArrayEquals(expected.toByteArray(), replayed.getReceived());
+        assertEquals(1, replayed.getDisconnectedCount());
+    }
+}
@@ -0,0 +1,66 @@
+package io.github.edufolly.flutterbluetoothserial;
+
+import java.io.ByteArrayOutputStream;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/// Connection recording all data read and its disconnection, for tests
+class RecordingConnection extends BluetoothConnection
+{
+    private final ByteArrayOutputStream received = new ByteArrayOutputStream();
+    private final CountDownLatch disconnected = new CountDownLatch(1);
+    private volatile boolean disconnectedByRemote = false;
+    private final AtomicInteger disconnectedCount = new AtomicInteger();
+
+    RecordingConnection() {
+        super(null);
+    }
+
+    @Override
+    protected void onRead(byte[] data) {
+        synchronized (received) {
+            received.write(data, 0, data.length);
+            received.notifyAll();
+        }
+    }
+
+    @Override
+    protected void onDisconnected(boolean byRemote) {
+        disconnectedByRemote = byRemote;
+        disconnectedCount.incrementAndGet();
+        disconnected.countDown();
+    }
+
+    /// Returns all data read so far
+    byte[] getReceived() {
+        synchronized (received) {
+            return received.toByteArray();
+        }
+    }
+
+    /// Waits until at least given count of bytes was read (or timeout), returns all data read so far
+    byte[] awaitReceived(int count, long timeoutMillis) throws InterruptedException {
+        final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        synchronized (received) {
+            long remaining;
+            while (received.size() < count && (remaining = deadline - System.nanoTime()) > 0) {
+                TimeUnit.NANOSECONDS.timedWait(received, remaining);
+            }
+            return received.toByteArray();
+        }
+    }
+
+    /// Waits for `onDisconnected`, returns false on timeout
+    boolean awaitDisconnected(long timeoutMillis) throws InterruptedException {
+        return disconnected.await(timeoutMillis, TimeUnit.MILLISECONDS);
+    }
+
+    boolean isDisconnectedByRemote() {
+        return disconnectedByRemote;
+    }
+
+    int getDisconnectedCount() {
+        return disconnectedCount.get();
+    }
+}
@@ -0,0 +1,62 @@
+package io.github.edufolly.flutterbluetoothserial;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/// Echoing device, serial like: echoes writes in order, stalling before echo of the first write (for tests)
+class StallingEchoTransport implements BluetoothTransport
+{
+    private final StreamPipe pipe = new StreamPipe(4096);
+    private final LinkedBlockingQueue<byte[]> writes = new LinkedBlockingQueue<>();
+    private final Thread device;
+
+    private final OutputStream output = new OutputStream() {
+        @Override
+        public void write(int b) {
+            write(new byte[] { (byte) b }, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] bytes, int offset, int length) {
+            writes.add(Arrays.copyOfRange(bytes, offset, offset + length));
+        }
+    };
+
+    StallingEchoTransport(long stallMillis) {
+        device = new Thread(() -> {
+            try {
+                boolean first = true;
+                while (true) {
+                    final byte[] data = writes.take();
+                    if (first) {
+                        Thread.sleep(stallMillis);
+                        first = false;
+                    }
+                    pipe.getOutputStream().write(data);
+                }
+            } catch (InterruptedException | IOException ex) {
+                // Closed
+            }
+        });
+        device.start();
+    }
+
+    @Override
+    public InputStream getInputStream() {
+        return pipe.getInputStream();
+    }
+
+    @Override
+    public OutputStream getOutputStream() {
+        return output;
+    }
+
+    @Override
+    public void close() {
+        pipe.close();
+        device.interrupt();
+    }
+}
@@ -0,0 +1,28 @@
+part of flutter_bluetooth_serial;
+
+/// Logical channel of multiplexed connection (see
+/// `BluetoothConnection.setMultiplexing`), with own read stream, write queue
+/// and flow control, so it is not blocked by other channels.
+class BluetoothChannel {
+  final int? _connectionId;
+
+  /// Number of the channel, the same on both sides.
+  final int number;
+
+  /// Stream of data read by the channel. Cancelling it closes the channel,
+  /// but not the connection. Data are delivered as byte stream, so message
+  /// boundaries are not kept.
+  final Stream<Uint8List> input;
+
+  BluetoothChannel._(this._connectionId, this.number)
+      : input = EventChannel(
+                '${FlutterBluetoothSerial.namespace}/mux/$_connectionId/$number')
+            .receiveBroadcastStream()
+            .cast<Uint8List>();
+
+  /// Writes data to the channel. Completes once written, which waits for
+  /// the remote side to consume earlier data if the channel window is full.
+  Future<void> write(Uint8List data) async =>
+      await FlutterBluetoothSerial._methodChannel.invokeMethod('writeChannel',
+          {'id': _connectionId, 'channel': number, 'bytes': data});
+}
@@ -19,6 +19,13 @@ class BluetoothConnection {
   /// This ID identifies real full `BluetoothConenction` object on platform side code.
   final int? _id;
 
+  /// ID of the connection, which can be used to refer to the connection
+  /// later (for example after collecting data in background).
+  int? get id => _id;
+
+  /// Address of the remote device (if known).
+  final String? address;
+
   final EventChannel _readChannel;
   late StreamSubscription<Uint8List> _readStreamSubscription;
   late StreamController<Uint8List> _readStreamController;
@@ -38,7 +45,7 @@ class BluetoothConnection {
   /// Describes is stream connected.
   bool get isConnected => output.isConnected;
 
-  BluetoothConnection._consumeConnectionID(int? id)
+  BluetoothConnection._consumeConnectionID(int? id, [this.address])
       : this._id = id,
         this._readChannel =
             EventChannel('${FlutterBluetoothSerial.namespace}/read/$id') {
@@ -56,13 +63,413 @@ class BluetoothConnection {
   }
 
   /// Returns connection to given address.
+  ///
+  /// Besides hardware addresses, virtual transports not using any radio can
+  /// be used for testing and benchmarking: `loopback://` (everything written
+  /// is read back) or `replay://<path>` (data read in capture log at given
+  /// path are replayed, `?realtime=false` can be appended to skip timing).
   static Future<BluetoothConnection> toAddress(String? address) async {
     // Sorry for pseudo-factory, but `factory` keyword disallows `Future`.
     return BluetoothConnection._consumeConnectionID(await FlutterBluetoothSerial
         ._methodChannel
-        .invokeMethod('connect', {"address": address}));
+        .invokeMethod('connect', {"address": address}), address);
+  }
+
+  /// Returns connection already opened by other Flutter engine of the process
+  /// (for example by the UI while this is headless one), without reconnecting.
+  ///
+  /// Data read are delivered to both engines. Closing the attached connection
+  /// (or its `input`) only detaches this engine, while `finish` disconnects
+  /// the link for all of them. Attaching connection opened by this engine
+  /// fails, as it is already delivered here. Connections stay open when the
+  /// engine which opened them is detached, so they can be attached again.
+  static Future<BluetoothConnection> attach(int id) async {
+    await FlutterBluetoothSerial._methodChannel
+        .invokeMethod('attach', {'id': id});
+    return BluetoothConnection._consumeConnectionID(id);
+  }
+
+  /// Returns connection metrics, such as `bytesRead` and `bytesWritten`.
+  Future<Map<String, dynamic>> getStats() async => Map<String, dynamic>.from(
+      await FlutterBluetoothSerial._methodChannel
+          .invokeMethod('getConnectionStats', {'id': _id}));
+
+  /// Sets codec used on platform side to encode written and decode read
+  /// data, or sends data raw if `codec` is null.
+  ///
+  /// Available codecs are `deflate` (options: `level` from 0 to 9 and `raw`
+  /// to skip zlib header) and any registered by the application using
+  /// `FlutterBluetoothSerialPlugin.registerCodec`. Codec should be set
+  /// before any data are transferred, as both sides keep stream state.
+  Future<void> setCodec(String? codec, {Map<String, dynamic>? options}) async =>
+      await FlutterBluetoothSerial._methodChannel.invokeMethod('setCodec', {
+        'id': _id,
+        'codec': codec,
+        if (options != null) 'options': options,
+      });
+
+  /// Writes data directly, bypassing queue of the `output` sink.
+  ///
+  /// Writes are done in two lanes on platform side: data in control lane
+  /// (default) are written before any queued data in bulk lane, between
+  /// chunks of bulk transfers (like `sendFile`), so urgent commands are not
+  /// delayed by large transfers. Within a lane, writes keep their order.
+  Future<void> write(Uint8List data, {bool bulk = false}) async =>
+      await FlutterBluetoothSerial._methodChannel.invokeMethod(
+          'write', {'id': _id, 'bytes': data, 'bulk': bulk});
+
+  /// Paces data written to the connection on platform side, for devices
+  /// dropping data written faster than they can handle (like modules with
+  /// slow UART). Calling without arguments writes as fast as possible again.
+  ///
+  /// Written data are split into chunks of `chunkSize` bytes, each sent
+  /// at most at `bytesPerSecond` rate (allowing `burst` bytes at once) and
+  /// at least `gap` after the previous chunk. Both chunk size and burst are
+  /// chosen from the rate if not set.
+  Future<void> setWritePacing({
+    int? bytesPerSecond,
+    Duration? gap,
+    int? chunkSize,
+    int? burst,
+  }) async =>
+      await FlutterBluetoothSerial._methodChannel.invokeMethod('setWritePacing', {
+        'id': _id,
+        if (bytesPerSecond != null) 'bytesPerSecond': bytesPerSecond,
+        if (gap != null) 'gapMicros': gap.inMicroseconds,
+        if (chunkSize != null) 'chunkSize': chunkSize,
+        if (burst != null) 'burst': burst,
+      });
+
+  /// Detects dead link on platform side, without waiting for the socket to
+  /// fail (which can take tens of seconds). Calling without `timeout`
+  /// disables the checks.
+  ///
+  /// If nothing is read for `interval` (a third of `timeout` by default),
+  /// `ping` is written. If nothing is read for `timeout` (or `response` is
+  /// set and not read within that time), the connection is closed as if by
+  /// remote, with `BluetoothLinkStatus.expired` reported by events.
+  Future<void> setKeepalive({
+    Duration? timeout,
+    Duration? interval,
+    List<int>? ping,
+    List<int>? response,
+  }) async =>
+      await FlutterBluetoothSerial._methodChannel.invokeMethod('setKeepalive', {
+        'id': _id,
+        if (timeout != null) 'timeoutMillis': timeout.inMilliseconds,
+        if (interval != null) 'intervalMillis': interval.inMilliseconds,
+        if (ping != null) 'ping': Uint8List.fromList(ping),
+        if (response != null) 'response': Uint8List.fromList(response),
+      });
+
+  /// Enables prefixing each `input` event (chunk or frame) with 8 bytes
+  /// header holding time the data were read from the socket, which can be
+  /// parsed by `BluetoothTimestampedData.fromEvent`. Latency from reading
+  /// to delivery is reported as `deliveryLatency` histogram by `getStats`.
+  Future<void> setReadTimestamps(bool enabled) async =>
+      await FlutterBluetoothSerial._methodChannel
+          .invokeMethod('setReadTimestamps', {'id': _id, 'enabled': enabled});
+
+  /// Measures round trip latency against device echoing data back (or
+  /// `loopback://`), on platform side.
+  ///
+  /// `payload` (or `size` bytes of pattern) is written `count` times, each
+  /// after the previous echo was read completely or `timeout` passed (then
+  /// after another `timeout`, letting late echo drain). First byte of each
+  /// probe is replaced by its sequence number, so late echo is not taken for
+  /// the next probe. Data read meanwhile are consumed by the measurement.
+  /// Returns `sent`, `lost`, `corrupted` counts, count of skipped
+  /// `staleBytes` and round trip times in microseconds: `minMicros`,
+  /// `meanMicros`, `maxMicros`, `p50Micros`, `p90Micros`, `p99Micros`,
+  /// `p999Micros` and histogram `buckets`.
+  Future<Map<String, dynamic>> measureLatency({
+    List<int>? payload,
+    int size = 16,
+    int count = 100,
+    Duration timeout = const Duration(seconds: 1),
+  }) async =>
+      Map<String, dynamic>.from(await FlutterBluetoothSerial._methodChannel
+          .invokeMethod('measureLatency', {
+        'id': _id,
+        if (payload != null) 'payload': Uint8List.fromList(payload),
+        'size': size,
+        'count': count,
+        'timeoutMillis': timeout.inMilliseconds,
+      }));
+
+  /// Measures throughput of the link on platform side: writing (`write`),
+  /// reading data sent by the device (`read`) or writing and reading back
+  /// from echoing device (`echo`) given count of `bytes`, in chunks of
+  /// `chunkSize`. Data read meanwhile are consumed by the measurement
+  /// (except when only writing).
+  ///
+  /// Returns `completed` (false if `timeout` passed), `bytes`,
+  /// `durationMicros`, `bytesPerSecond` and `chunkLatency` percentiles (of
+  /// each chunk write, or of intervals between reads).
+  Future<Map<String, dynamic>> measureThroughput(
+    int bytes, {
+    String direction = 'write',
+    int chunkSize = 1024,
+    Duration timeout = const Duration(minutes: 1),
+  }) async =>
+      Map<String, dynamic>.from(await FlutterBluetoothSerial._methodChannel
+          .invokeMethod('measureThroughput', {
+        'id': _id,
+        'bytes': bytes,
+        'direction': direction,
+        'chunkSize': chunkSize,
+        'timeoutMillis': timeout.inMilliseconds,
+      }));
+
+  /// Sets how read data are split into frames on platform side, so each
+  /// `input` event is single complete frame. Resets frame validation if
+  /// framing is disabled.
+  Future<void> setFraming(BluetoothFraming framing) async =>
+      await FlutterBluetoothSerial._methodChannel
+          .invokeMethod('setFraming', {'id': _id, ...framing.toMap()});
+
+  /// Enables checksum validation of frames (framing must be set before),
+  /// or disables it if `validation` is null. Counts of good and bad frames
+  /// are reported as `framesGood` and `framesBad` by `getStats`.
+  Future<void> setFrameValidation(BluetoothFrameValidation? validation) async =>
+      await FlutterBluetoothSerial._methodChannel.invokeMethod(
+          'setFrameValidation', {'id': _id, ...?validation?.toMap()});
+
+  /// Returns additional stream of data read by the connection, named `name`
+  /// (unique for the connection), independent of `input` and other
+  /// subscriptions. Cancelling it does not close the connection.
+  ///
+  /// Data are optionally split into frames by own `framing` on platform
+  /// side. At most `maxPendingBytes` not yet delivered bytes are kept,
+  /// dropping new data (or oldest ones, if `dropOldest` is set) above that.
+  /// Data read after subscribing are kept until the stream is listened to.
+  Future<Stream<Uint8List>> subscribe(
+    String name, {
+    BluetoothFraming? framing,
+    int maxPendingBytes = 64 * 1024,
+    bool dropOldest = false,
+  }) async {
+    await FlutterBluetoothSerial._methodChannel.invokeMethod('subscribe', {
+      'id': _id,
+      'name': name,
+      if (framing != null) 'framing': framing.toMap(),
+      'maxPendingBytes': maxPendingBytes,
+      'dropOldest': dropOldest,
+    });
+    return EventChannel('${FlutterBluetoothSerial.namespace}/read/$_id/$name')
+        .receiveBroadcastStream()
+        .cast<Uint8List>();
+  }
+
+  /// Splits the connection into logical channels (up to 256), which can be
+  /// opened by `openChannel`. Read data are passed only to the channels
+  /// afterwards, not to `input`.
+  ///
+  /// Each message is prefixed by 4 bytes header (channel number, type and
+  /// big endian length). Channel can send at most `window` bytes not yet
+  /// consumed by the remote side, which grants more by credit messages, so
+  /// both sides must use the same `window`. Data are sent in messages of at
+  /// most `maxPayload` bytes, taken from channels in turn.
+  Future<void> setMultiplexing(
+          {int window = 16 * 1024, int maxPayload = 1024}) async =>
+      await FlutterBluetoothSerial._methodChannel.invokeMethod(
+          'setMultiplexing',
+          {'id': _id, 'window': window, 'maxPayload': maxPayload});
+
+  /// Opens logical channel of given `number` (from 0 to 255), multiplexing
+  /// must be set before.
+  Future<BluetoothChannel> openChannel(int number) async {
+    await FlutterBluetoothSerial._methodChannel
+        .invokeMethod('openChannel', {'id': _id, 'channel': number});
+    return BluetoothChannel._(_id, number);
+  }
+
+  /// Makes the connection Modbus RTU master (or plain connection again, if
+  /// not `enabled`), after which read data are passed only to Modbus
+  /// requests, not to `input`.
+  ///
+  /// Each request waits for 3.5 characters of silence at `baudRate` of the
+  /// serial side, and is repeated up to `retries` times if no valid response
+  /// was read within `timeout`.
+  Future<void> setModbus({
+    bool enabled = true,
+    int baudRate = 9600,
+    Duration timeout = const Duration(seconds: 1),
+    int retries = 0,
+  }) async =>
+      await FlutterBluetoothSerial._methodChannel.invokeMethod('setModbus', {
+        'id': _id,
+        'enabled': enabled,
+        'baudRate': baudRate,
+        'timeoutMillis': timeout.inMilliseconds,
+        'retries': retries,
+      });
+
+  /// Reads registers ranges. Ranges of the same unit and function at most
+  /// `maxGap` registers apart are read by single request. Returns result of
+  /// each read, in the same order.
+  Future<List<BluetoothModbusResult>> modbusRead(
+          List<BluetoothModbusRead> reads,
+          {int maxGap = 0}) async =>
+      BluetoothModbusResult._fromList(await FlutterBluetoothSerial
+          ._methodChannel
+          .invokeMethod('modbusRead', {
+        'id': _id,
+        'reads': reads.map((read) => read.toMap()).toList(),
+        'maxGap': maxGap,
+      }));
+
+  /// Writes registers starting at `address` (single register write is used
+  /// for one value). Throws `PlatformException` with `modbus_error` code (and
+  /// exception code in details, if the device responded by exception).
+  Future<void> modbusWrite(int unit, int address, List<int> values) async =>
+      await FlutterBluetoothSerial._methodChannel.invokeMethod('modbusWrite', {
+        'id': _id,
+        'unit': unit,
+        'address': address,
+        'values': values,
+      });
+
+  /// Reads given registers ranges every `period` on platform side, as
+  /// `modbusRead` does, while the returned stream is listened. Cycle is
+  /// skipped if the previous one is still running.
+  Future<Stream<BluetoothModbusPoll>> modbusPoll(
+    List<BluetoothModbusRead> reads,
+    Duration period, {
+    int maxGap = 0,
+  }) async {
+    await FlutterBluetoothSerial._methodChannel
+        .invokeMethod('modbusStartPolling', {
+      'id': _id,
+      'reads': reads.map((read) => read.toMap()).toList(),
+      'maxGap': maxGap,
+      'periodMillis': period.inMilliseconds,
+    });
+    return EventChannel('${FlutterBluetoothSerial.namespace}/modbus/$_id')
+        .receiveBroadcastStream()
+        .map((event) => BluetoothModbusPoll.fromMap(event));
   }
 
+  /// Adds poll sending `command` every `period` (at least 10 ms) on
+  /// platform side, returns ID of the poll. Results of all polls are
+  /// delivered in batches by `FlutterBluetoothSerial.onPollResults`.
+  ///
+  /// Response ends by `delimiter` (stripped from the data unless
+  /// `stripDelimiter` is false) or has fixed `length`, and starts with
+  /// `prefix`, if given. If `changedOnly` is set, responses equal to the
+  /// previous one (and repeated errors) are not delivered. Command is not
+  /// sent again while its response is still awaited.
+  ///
+  /// While any poll of the connection is added, data read are passed only
+  /// to the polls, and to `input` again after the last one is removed.
+  /// Each poll waits for its response for its own `timeout`.
+  Future<int> addPoll(
+    Uint8List command,
+    Duration period, {
+    Uint8List? delimiter,
+    int? length,
+    Uint8List? prefix,
+    bool stripDelimiter = true,
+    bool changedOnly = false,
+    Duration timeout = const Duration(seconds: 1),
+  }) async =>
+      await FlutterBluetoothSerial._methodChannel.invokeMethod('addPoll', {
+        'id': _id,
+        'command': command,
+        'periodMillis': period.inMilliseconds,
+        'delimiter': delimiter,
+        'length': length,
+        'prefix': prefix,
+        'stripDelimiter': stripDelimiter,
+        'changedOnly': changedOnly,
+        'timeoutMillis': timeout.inMilliseconds,
+      });
+
+  /// Sends file at given `path` on platform side, streaming it from disk
+  /// straight to the connection in chunks of `chunkSize` bytes, with at
+  /// most `window` chunks read ahead.
+  ///
+  /// Other data written meanwhile are interleaved between the chunks.
+  /// Progress is reported every `progressInterval`.
+  Future<BluetoothTransfer> sendFile(
+    String path, {
+    int chunkSize = 1024,
+    int window = 8,
+    Duration progressInterval = const Duration(milliseconds: 250),
+  }) async =>
+      BluetoothTransfer._consumeTransferID(
+          await FlutterBluetoothSerial._methodChannel.invokeMethod('sendFile', {
+        'id': _id,
+        'path': path,
+        'chunkSize': chunkSize,
+        'window': window,
+        'progressInterval': progressInterval.inMilliseconds,
+      }));
+
+  /// Redirects data read by the connection to file at given `path` on
+  /// platform side, so they do not pass through `input` at all.
+  ///
+  /// Receiving ends after `byteCount` bytes, after `delimiter` (written to
+  /// the file only if `includeDelimiter` is set) or when the connection
+  /// closes if neither is set. Data read after the end continue to `input`.
+  /// If `framed` is set (framing must be set before), whole frames are
+  /// written and `delimiter` is matched against whole frames.
+  Future<BluetoothTransfer> receiveFile(
+    String path, {
+    int? byteCount,
+    List<int>? delimiter,
+    bool includeDelimiter = false,
+    bool framed = false,
+    Duration progressInterval = const Duration(milliseconds: 250),
+  }) async =>
+      BluetoothTransfer._consumeTransferID(await FlutterBluetoothSerial
+          ._methodChannel
+          .invokeMethod('receiveFile', {
+        'id': _id,
+        'path': path,
+        if (byteCount != null) 'byteCount': byteCount,
+        if (delimiter != null) 'delimiter': Uint8List.fromList(delimiter),
+        'includeDelimiter': includeDelimiter,
+        'framed': framed,
+        'progressInterval': progressInterval.inMilliseconds,
+      }));
+
+  /// Starts capturing all data read and written by the connection to log
+  /// at given `path`, on platform side.
+  ///
+  /// The log is split into segments of `segmentSize` bytes (named `path.1`,
+  /// `path.2` and so on), keeping at most `maxSegments` latest segments.
+  /// Each record holds capture timestamp, direction and the data.
+  Future<void> startCapture(String path,
+          {int segmentSize = 4 * 1024 * 1024, int maxSegments = 8}) async =>
+      await FlutterBluetoothSerial._methodChannel.invokeMethod('startCapture', {
+        'id': _id,
+        'path': path,
+        'segmentSize': segmentSize,
+        'maxSegments': maxSegments,
+      });
+
+  /// Stops capturing, returning capture metrics (`records`, `bytes` and
+  /// `segments`), or null if not capturing.
+  Future<Map<String, dynamic>?> stopCapture() async {
+    final Map? stats = await FlutterBluetoothSerial._methodChannel
+        .invokeMethod('stopCapture', {'id': _id});
+    return stats == null ? null : Map<String, dynamic>.from(stats);
+  }
+
+  /// Replays data read in capture log at given `path` through the `input`,
+  /// as if it were read from the remote device. If `realtime` is set, data
+  /// are replayed with the same timing as captured.
+  ///
+  /// Only `loopback://` connections (see `BluetoothConnection.toAddress`)
+  /// can be replayed into; connect to `replay://<path>` address to replay
+  /// recorded session instead of a device.
+  ///
+  /// Returns count of replayed records.
+  Future<int> replayCapture(String path, {bool realtime = true}) async =>
+      await FlutterBluetoothSerial._methodChannel.invokeMethod(
+          'replayCapture', {'id': _id, 'path': path, 'realtime': realtime});
+
   /// Should be called to make sure the connection is closed and resources are freed (sockets/channels).
   void dispose() {
     finish();
@@ -84,9 +491,19 @@ class BluetoothConnection {
   Future<void> cancel() => this.close();
 
   /// Closes connection (rather gracefully), in result should also disconnect.
-  Future<void> finish() async {
+  ///
+  /// Waits until data added to `output` are passed to platform side, then
+  /// platform side closes the connection once all queued data are written
+  /// (waiting at most `drainTimeout`). Returns closing metrics
+  /// (`closeLatencyMicros` and `drained`), or null if already disconnected.
+  Future<Map<String, dynamic>?> finish(
+      {Duration drainTimeout = const Duration(seconds: 1)}) async {
     await output.allSent;
+    final Map? stats = await FlutterBluetoothSerial._methodChannel.invokeMethod(
+        'disconnect',
+        {'id': _id, 'drainTimeout': drainTimeout.inMilliseconds});
     close();
+    return stats == null ? null : Map<String, dynamic>.from(stats);
   }
 }
 
@@ -100,24 +517,12 @@ class _BluetoothStreamSink<Uint8List> extends StreamSink<Uint8List> {
   /// Chain of features, the variable represents last of the futures.
   Future<void> _chainedFutures = Future.value(/* Empty future :F */);
 
-  late Future<dynamic> _doneFuture;
+  final Completer<void> _doneCompleter = Completer<void>();
 
   /// Exception to be returend from `done` Future, passed from `add` function or related.
   dynamic exception;
 
-  _BluetoothStreamSink(this._id) {
-    // `_doneFuture` must be initialized here because `close` must return the same future.
-    // If it would be in `done` get body, it would result in creating new futures every call.
-    _doneFuture = Future(() async {
-      // @TODO ? is there any better way to do it? xD this below is weird af
-      while (this.isConnected) {
-        await Future.delayed(Duration(milliseconds: 111));
-      }
-      if (this.exception != null) {
-        throw this.exception;
-      }
-    });
-  }
+  _BluetoothStreamSink(this._id);
 
   /// Adds raw bytes to the output sink.
   ///
@@ -173,11 +578,19 @@ class _BluetoothStreamSink<Uint8List> extends StreamSink<Uint8List> {
   @override
   Future close() {
     isConnected = false;
+    // `done` completes right away, instead of being polled for
+    if (!_doneCompleter.isCompleted) {
+      if (this.exception != null) {
+        _doneCompleter.completeError(this.exception);
+      } else {
+        _doneCompleter.complete();
+      }
+    }
     return this.done;
   }
 
   @override
-  Future get done => _doneFuture;
+  Future get done => _doneCompleter.future;
 
   /// Returns a future which is completed when the sink sent all added data,
   /// instead of only if the sink got closed.
@@ -0,0 +1,114 @@
+part of flutter_bluetooth_serial;
+
+/// Base class for events provided by `FlutterBluetoothSerial.onEvent`.
+///
+/// Events are passed from platform code in compact binary form, starting
+/// with type byte (see `BluetoothEvents` in platform code for the layout).
+abstract class BluetoothEvent {
+  const BluetoothEvent();
+
+  factory BluetoothEvent.fromBytes(Uint8List bytes) {
+    final data = ByteData.sublistView(bytes);
+    switch (bytes[0]) {
+      case 1:
+        return BluetoothAdapterStateEvent._(
+          BluetoothState.fromUnderlyingValue(data.getInt8(1)),
+          BluetoothState.fromUnderlyingValue(data.getInt8(2)),
+        );
+      case 2:
+      case 3:
+        return BluetoothAclEvent._(_addressFromBytes(bytes, 1), bytes[0] == 2);
+      case 4:
+        return BluetoothBondStateEvent._(
+          _addressFromBytes(bytes, 1),
+          BluetoothBondState.fromUnderlyingValue(data.getInt8(7)),
+          BluetoothBondState.fromUnderlyingValue(data.getInt8(8)),
+        );
+      case 5:
+        return BluetoothLinkStatusEvent._(
+          data.getInt32(1),
+          BluetoothLinkStatus._(bytes[5]),
+        );
+      default:
+        throw FormatException('unknown event type', bytes[0]);
+    }
+  }
+
+  static String _addressFromBytes(Uint8List bytes, int offset) => bytes
+      .sublist(offset, offset + 6)
+      .map((b) => b.toRadixString(16).padLeft(2, '0').toUpperCase())
+      .join(':');
+}
+
+/// Bluetooth adapter state changed.
+class BluetoothAdapterStateEvent extends BluetoothEvent {
+  final BluetoothState previousState;
+  final BluetoothState state;
+
+  const BluetoothAdapterStateEvent._(this.previousState, this.state);
+}
+
+/// Low level (ACL) connection with remote device established or lost.
+class BluetoothAclEvent extends BluetoothEvent {
+  final String address;
+  final bool isConnected;
+
+  const BluetoothAclEvent._(this.address, this.isConnected);
+}
+
+/// Bond state with remote device changed.
+class BluetoothBondStateEvent extends BluetoothEvent {
+  final String address;
+  final BluetoothBondState previousBondState;
+  final BluetoothBondState bondState;
+
+  const BluetoothBondStateEvent._(
+      this.address, this.previousBondState, this.bondState);
+}
+
+/// Enum-like class for status of `BluetoothConnection` link.
+class BluetoothLinkStatus {
+  final int underlyingValue;
+
+  const BluetoothLinkStatus._(this.underlyingValue);
+
+  static const opened = BluetoothLinkStatus._(1);
+  static const closedByLocal = BluetoothLinkStatus._(2);
+  static const closedByRemote = BluetoothLinkStatus._(3);
+
+  /// Closed because keepalive detected dead link.
+  static const expired = BluetoothLinkStatus._(4);
+
+  @override
+  String toString() {
+    switch (underlyingValue) {
+      case 1:
+        return 'BluetoothLinkStatus.opened';
+      case 2:
+        return 'BluetoothLinkStatus.closedByLocal';
+      case 3:
+        return 'BluetoothLinkStatus.closedByRemote';
+      case 4:
+        return 'BluetoothLinkStatus.expired';
+      default:
+        return 'BluetoothLinkStatus.unknown';
+    }
+  }
+
+  @override
+  operator ==(Object other) {
+    return other is BluetoothLinkStatus &&
+        other.underlyingValue == this.underlyingValue;
+  }
+
+  @override
+  int get hashCode => underlyingValue.hashCode;
+}
+
+/// `BluetoothConnection` with given ID opened or closed.
+class BluetoothLinkStatusEvent extends BluetoothEvent {
+  final int connectionId;
+  final BluetoothLinkStatus status;
+
+  const BluetoothLinkStatusEvent._(this.connectionId, this.status);
+}
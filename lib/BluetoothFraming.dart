@@ -0,0 +1,137 @@
+part of flutter_bluetooth_serial;
+
+/// Describes how data read from the connection are split into frames on
+/// platform side, so `input` receives one event per complete frame.
+class BluetoothFraming {
+  final String _mode;
+  final Map<String, dynamic> _arguments;
+
+  /// Maximal length of single frame, longer data are discarded.
+  final int maxFrameLength;
+
+  const BluetoothFraming._(this._mode, this._arguments,
+      {this.maxFrameLength = 64 * 1024});
+
+  /// Data are passed as read, without framing.
+  const BluetoothFraming.none() : this._('none', const {});
+
+  /// Frames ending with given `delimiter` (for example `[13, 10]`).
+  BluetoothFraming.delimiter(List<int> delimiter,
+      {bool stripDelimiter = false, int maxFrameLength = 64 * 1024})
+      : this._(
+            'delimiter',
+            {
+              'delimiter': Uint8List.fromList(delimiter),
+              'stripDelimiter': stripDelimiter,
+            },
+            maxFrameLength: maxFrameLength);
+
+  /// Frames of fixed `length`.
+  BluetoothFraming.fixed(int length)
+      : this._('fixed', {'length': length}, maxFrameLength: length);
+
+  /// Frames with length field of `lengthSize` bytes (1, 2 or 4) placed at
+  /// `lengthOffset`. Whole frame length is `lengthOffset + lengthSize +
+  /// value + lengthAdjustment`, so the adjustment can be used to include
+  /// trailing checksum not counted by the length field.
+  BluetoothFraming.length({
+    int lengthOffset = 0,
+    int lengthSize = 1,
+    bool bigEndian = true,
+    int lengthAdjustment = 0,
+    int maxFrameLength = 64 * 1024,
+  }) : this._(
+            'length',
+            {
+              'lengthOffset': lengthOffset,
+              'lengthSize': lengthSize,
+              'lengthBigEndian': bigEndian,
+              'lengthAdjustment': lengthAdjustment,
+            },
+            maxFrameLength: maxFrameLength);
+
+  Map<String, dynamic> toMap() => {
+        'mode': _mode,
+        'maxFrameLength': maxFrameLength,
+        ..._arguments,
+      };
+}
+
+/// Describes checksum validation of frames done on platform side.
+///
+/// Checksum is expected at the end of each frame (before `trailerLength`
+/// bytes, like not stripped delimiter) and is computed over the frame data
+/// starting from `skipStart` byte.
+class BluetoothFrameValidation {
+  /// Name of checksum algorithm: `crc8`, `crc8-maxim`, `crc16-modbus`,
+  /// `crc16-ccitt`, `crc16-xmodem`, `crc16-kermit`, `crc32`, `xor` or `sum8`.
+  /// If null, custom CRC described by `width`, `poly`, `init`, `refIn`,
+  /// `refOut` and `xorOut` is used.
+  final String? algorithm;
+
+  final int? width;
+  final int? poly;
+  final int init;
+  final bool refIn;
+  final bool refOut;
+  final int xorOut;
+
+  /// Whether checksum is stored in frame as big endian.
+  final bool bigEndian;
+
+  final int skipStart;
+  final int trailerLength;
+
+  /// If set, corrupt frames are passed as errors (`corrupt_frame` code,
+  /// with the frame as details) to `input`, otherwise they are dropped.
+  /// Either way they are counted in `framesBad` of connection stats.
+  final bool flagCorrupt;
+
+  /// Whether checksum is removed from valid frames.
+  final bool stripChecksum;
+
+  const BluetoothFrameValidation(
+    String this.algorithm, {
+    this.bigEndian = false,
+    this.skipStart = 0,
+    this.trailerLength = 0,
+    this.flagCorrupt = false,
+    this.stripChecksum = false,
+  })  : width = null,
+        poly = null,
+        init = 0,
+        refIn = false,
+        refOut = false,
+        xorOut = 0;
+
+  const BluetoothFrameValidation.crc({
+    required int this.width,
+    required int this.poly,
+    this.init = 0,
+    this.refIn = false,
+    this.refOut = false,
+    this.xorOut = 0,
+    this.bigEndian = false,
+    this.skipStart = 0,
+    this.trailerLength = 0,
+    this.flagCorrupt = false,
+    this.stripChecksum = false,
+  }) : algorithm = null;
+
+  Map<String, dynamic> toMap() => {
+        if (algorithm != null) 'algorithm': algorithm,
+        if (algorithm == null) ...{
+          'width': width,
+          'poly': poly,
+          'init': init,
+          'refIn': refIn,
+          'refOut': refOut,
+          'xorOut': xorOut,
+        },
+        'bigEndian': bigEndian,
+        'skipStart': skipStart,
+        'trailerLength': trailerLength,
+        'policy': flagCorrupt ? 'flag' : 'drop',
+        'stripChecksum': stripChecksum,
+      };
+}
@@ -0,0 +1,67 @@
+part of flutter_bluetooth_serial;
+
+/// Read of Modbus registers range, see `BluetoothConnection.modbusRead`.
+class BluetoothModbusRead {
+  /// Address of the device (from 1 to 247).
+  final int unit;
+
+  /// First register address.
+  final int address;
+
+  /// Count of registers (at most 125).
+  final int count;
+
+  /// Whether input registers (function 4) are read, holding registers
+  /// (function 3) otherwise.
+  final bool input;
+
+  const BluetoothModbusRead(this.unit, this.address, this.count,
+      {this.input = false});
+
+  Map<String, dynamic> toMap() => {
+        'unit': unit,
+        'address': address,
+        'count': count,
+        'input': input,
+      };
+}
+
+/// Result of single `BluetoothModbusRead`: register values, or error.
+class BluetoothModbusResult {
+  /// Register values (null if failed).
+  final List<int>? values;
+
+  /// Error message (null if succeeded), for example `response timed out`.
+  final String? error;
+
+  /// Modbus exception code, if the device responded by exception.
+  final int? exception;
+
+  const BluetoothModbusResult({this.values, this.error, this.exception});
+
+  factory BluetoothModbusResult.fromMap(Map map) => BluetoothModbusResult(
+        values: map['values'] != null ? List<int>.from(map['values']) : null,
+        error: map['error'],
+        exception: map['exception'],
+      );
+
+  bool get isSuccess => values != null;
+
+  static List<BluetoothModbusResult> _fromList(List list) =>
+      list.map((item) => BluetoothModbusResult.fromMap(item)).toList();
+}
+
+/// Results of single Modbus polling cycle.
+class BluetoothModbusPoll {
+  /// Time the last response of the cycle was read, in microseconds since
+  /// boot (0 if none was read).
+  final int timestampMicros;
+
+  /// Results, in order of the polled reads.
+  final List<BluetoothModbusResult> results;
+
+  const BluetoothModbusPoll(this.timestampMicros, this.results);
+
+  factory BluetoothModbusPoll.fromMap(Map map) => BluetoothModbusPoll(
+      map['timestampMicros'], BluetoothModbusResult._fromList(map['results']));
+}
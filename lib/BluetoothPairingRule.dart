@@ -0,0 +1,34 @@
+part of flutter_bluetooth_serial;
+
+/// Rule used to answer incoming pairing requests natively, without calling
+/// the Dart pairing request handler.
+class BluetoothPairingRule {
+  /// Regular expression matched against whole address of the remote device
+  /// (case insensitive). Matches any device if null.
+  final String? addressPattern;
+
+  /// Regular expression matched against whole name of the remote device.
+  /// Matches any device if null.
+  final String? namePattern;
+
+  /// Pin to be used for `PairingVariant.Pin` requests.
+  final String? pin;
+
+  /// Confirmation to be used for `PairingVariant.PasskeyConfirmation`
+  /// and `PairingVariant.Consent` requests.
+  final bool? confirm;
+
+  const BluetoothPairingRule({
+    this.addressPattern,
+    this.namePattern,
+    this.pin,
+    this.confirm,
+  }) : assert(pin != null || confirm != null);
+
+  Map<String, dynamic> toMap() => {
+        "address": addressPattern,
+        "name": namePattern,
+        "pin": pin,
+        "confirm": confirm,
+      };
+}
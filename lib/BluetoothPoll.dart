@@ -0,0 +1,30 @@
+part of flutter_bluetooth_serial;
+
+/// Result of single poll added by `BluetoothConnection.addPoll`: parsed
+/// response, or error.
+class BluetoothPollResult {
+  /// ID of the poll, as returned by `BluetoothConnection.addPoll`.
+  final int pollId;
+
+  /// Time the response was read, in microseconds since boot (0 for errors).
+  final int timestampMicros;
+
+  /// Response payload (null if failed).
+  final Uint8List? data;
+
+  /// Error message (null if succeeded), for example `response timed out`.
+  /// Poll failing with `disconnected` was removed.
+  final String? error;
+
+  const BluetoothPollResult(this.pollId,
+      {this.timestampMicros = 0, this.data, this.error});
+
+  factory BluetoothPollResult.fromMap(Map map) => BluetoothPollResult(
+        map['id'],
+        timestampMicros: map['timestampMicros'] ?? 0,
+        data: map['data'],
+        error: map['error'],
+      );
+
+  bool get isSuccess => data != null;
+}
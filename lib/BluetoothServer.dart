@@ -0,0 +1,55 @@
+part of flutter_bluetooth_serial;
+
+/// Represents RFCOMM server listening for incoming connections from remote devices.
+class BluetoothServer {
+  /// This ID identifies real full `BluetoothServer` object on platform side code.
+  final int _id;
+
+  final EventChannel _acceptChannel;
+
+  /// Stream of accepted connections.
+  ///
+  /// Incoming connections are accepted only once the stream is listened to.
+  /// Cancelling the subscription stops listening, but connections accepted
+  /// before are left open (each of them should be closed on its own).
+  late Stream<BluetoothConnection> connections;
+
+  BluetoothServer._consumeServerID(this._id)
+      : this._acceptChannel =
+            EventChannel('${FlutterBluetoothSerial.namespace}/server/$_id') {
+    connections = _acceptChannel.receiveBroadcastStream().map((event) =>
+        BluetoothConnection._consumeConnectionID(
+            event['id'], event['address']));
+  }
+
+  /// Starts listening for incoming connections using service record with
+  /// given `name` and `uuid` (Serial Port Profile UUID by default).
+  ///
+  /// At most `maxClients` connections are being kept at once, remote devices
+  /// over the limit are not accepted until any of the connections gets closed.
+  static Future<BluetoothServer> listen({
+    String name = 'FlutterBluetoothSerial',
+    String? uuid,
+    bool secure = true,
+    int maxClients = 1,
+  }) async {
+    return BluetoothServer._consumeServerID(
+        await FlutterBluetoothSerial._methodChannel.invokeMethod('listen', {
+      "name": name,
+      if (uuid != null) "uuid": uuid,
+      "secure": secure,
+      "maxClients": maxClients,
+    }));
+  }
+
+  /// Stops listening for incoming connections.
+  Future<void> close() async => await FlutterBluetoothSerial._methodChannel
+      .invokeMethod('stopListening', {'id': _id});
+
+  /// Returns server metrics, such as `accepted` and `activeClients` counts,
+  /// and `averageAcceptLatencyMicros`/`maxAcceptLatencyMicros` (time from
+  /// accepting the socket to having the connection ready).
+  Future<Map<String, dynamic>> getStats() async => Map<String, dynamic>.from(
+      await FlutterBluetoothSerial._methodChannel
+          .invokeMethod('getServerStats', {'id': _id}));
+}
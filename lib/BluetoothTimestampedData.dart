@@ -0,0 +1,21 @@
+part of flutter_bluetooth_serial;
+
+/// Data read by connection with read timestamps enabled (see
+/// `BluetoothConnection.setReadTimestamps`).
+class BluetoothTimestampedData {
+  /// Time the data were read from the socket on platform side, in
+  /// nanoseconds since boot (Android `SystemClock.elapsedRealtimeNanos`,
+  /// the same clock as sensor event timestamps).
+  final int timestampNanos;
+
+  /// The data (chunk or frame) itself.
+  final Uint8List data;
+
+  const BluetoothTimestampedData(this.timestampNanos, this.data);
+
+  /// Parses `input` event, which starts with 8 bytes big endian timestamp.
+  factory BluetoothTimestampedData.fromEvent(Uint8List event) =>
+      BluetoothTimestampedData(
+          ByteData.sublistView(event, 0, 8).getInt64(0, Endian.big),
+          Uint8List.sublistView(event, 8));
+}
@@ -0,0 +1,73 @@
+part of flutter_bluetooth_serial;
+
+/// Progress of bulk transfer.
+class BluetoothTransferProgress {
+  /// Count of bytes transferred so far.
+  final int transferred;
+
+  /// Count of bytes to be transferred (or -1 if unknown).
+  final int total;
+
+  /// Whether the transfer is finished.
+  final bool isDone;
+
+  const BluetoothTransferProgress(this.transferred, this.total,
+      {this.isDone = false});
+
+  factory BluetoothTransferProgress.fromMap(Map map) =>
+      BluetoothTransferProgress(map['transferred'], map['total'],
+          isDone: map['done'] ?? false);
+
+  /// Transferred part of the total, between 0 and 1 (or null if unknown).
+  double? get fraction =>
+      total > 0 ? transferred / total : (isDone ? 1.0 : null);
+}
+
+/// Represents bulk transfer done on platform side (sending or receiving a file),
+/// reporting only its progress and completion.
+class BluetoothTransfer {
+  /// This ID identifies the transfer on platform side code.
+  final int _id;
+
+  final EventChannel _progressChannel;
+  final StreamController<BluetoothTransferProgress> _progressController =
+      StreamController<BluetoothTransferProgress>.broadcast();
+  final Completer<BluetoothTransferProgress> _doneCompleter =
+      Completer<BluetoothTransferProgress>();
+
+  BluetoothTransfer._consumeTransferID(this._id)
+      : this._progressChannel =
+            EventChannel('${FlutterBluetoothSerial.namespace}/transfer/$_id') {
+    // Listening starts the transfer on platform side
+    _progressChannel.receiveBroadcastStream().listen(
+      (event) {
+        final progress = BluetoothTransferProgress.fromMap(event);
+        _progressController.add(progress);
+        if (progress.isDone && !_doneCompleter.isCompleted) {
+          _doneCompleter.complete(progress);
+        }
+      },
+      onError: (error) {
+        _progressController.addError(error);
+        if (!_doneCompleter.isCompleted) {
+          _doneCompleter.completeError(error);
+        }
+      },
+      onDone: _progressController.close,
+    );
+    // Errors are also reported by `progress`, avoid them being unhandled
+    _doneCompleter.future.catchError((_) => BluetoothTransferProgress(0, -1));
+  }
+
+  /// Stream of transfer progress, at rate configured when the transfer was
+  /// started. Fails with `PlatformException` if the transfer fails (code
+  /// `transfer_error`) or gets cancelled (code `transfer_cancelled`).
+  Stream<BluetoothTransferProgress> get progress => _progressController.stream;
+
+  /// Future completed with final progress once the transfer is finished.
+  Future<BluetoothTransferProgress> get done => _doneCompleter.future;
+
+  /// Cancels the transfer.
+  Future<void> cancel() async => await FlutterBluetoothSerial._methodChannel
+      .invokeMethod('cancelTransfer', {'transferId': _id});
+}
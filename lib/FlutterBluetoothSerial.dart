@@ -28,6 +28,15 @@ class FlutterBluetoothSerial {
   }
 
   /* Status */
+  /// Returns startup costs of the plugin: `attachToEngineMicros`,
+  /// `attachToActivityMicros` and `adapterLookupMicros` (-1 if not done yet),
+  /// and `created` list of the lazily created receivers and engines.
+  ///
+  /// Does not look up the adapter, so it can be called first to measure it.
+  Future<Map<String, dynamic>> getStartupStats() async =>
+      Map<String, dynamic>.from(
+          await _methodChannel.invokeMethod('getStartupStats'));
+
   /// Checks is the Bluetooth interface avaliable on host device.
   Future<bool?> get isAvailable async =>
       await _methodChannel.invokeMethod('isAvailable');
@@ -48,6 +57,19 @@ class FlutterBluetoothSerial {
       .receiveBroadcastStream()
       .map((data) => BluetoothState.fromUnderlyingValue(data));
 
+  static final EventChannel _eventsChannel =
+      const EventChannel('$namespace/events');
+
+  /// Allows monitoring adapter state changes, low level (ACL) connections,
+  /// bond state changes and `BluetoothConnection` link status at once.
+  ///
+  /// Events are subclasses of `BluetoothEvent`, for example
+  /// `BluetoothBondStateEvent`. Single subscription of this stream is cheaper
+  /// than listening to each of the sources separately.
+  Stream<BluetoothEvent> onEvent() => _eventsChannel
+      .receiveBroadcastStream()
+      .map((data) => BluetoothEvent.fromBytes(data));
+
   /// State of the Bluetooth adapter.
   Future<BluetoothState> get state async => BluetoothState.fromUnderlyingValue(
       await _methodChannel.invokeMethod('getState'));
@@ -106,8 +128,11 @@ class FlutterBluetoothSerial {
   ///
   /// Note: `passkeyConfirm` will probably not work, since 3rd party apps cannot
   /// get `BLUETOOTH_PRIVILEGED` permission (at least on newest Androids).
+  ///
+  /// Bonding with multiple devices at once is supported. If `timeout` is
+  /// provided, the bonding process is aborted and fails after that duration.
   Future<bool?> bondDeviceAtAddress(String address,
-      {String? pin, bool? passkeyConfirm}) async {
+      {String? pin, bool? passkeyConfirm, Duration? timeout}) async {
     if (pin != null || passkeyConfirm != null) {
       if (_pairingRequestHandler != null) {
         throw "pairing request handler already registered";
@@ -139,10 +164,44 @@ class FlutterBluetoothSerial {
         return null;
       });
     }
-    return await _methodChannel
-        .invokeMethod('bondDevice', {"address": address});
+    return await _methodChannel.invokeMethod('bondDevice', {
+      "address": address,
+      if (timeout != null) "timeout": timeout.inMilliseconds,
+    });
   }
 
+  /// Returns bonding metrics, such as count of `pending`, `started`, `bonded`
+  /// and `failed` bonds, `bondsPerMinute` (within last minute),
+  /// `averageBondingMillis` and `failureReasons` (map of reason to count).
+  Future<Map<String, dynamic>> getBondingStats() async =>
+      Map<String, dynamic>.from(
+          await _methodChannel.invokeMethod('getBondingStats'));
+
+  static final EventChannel _pollsChannel =
+      const EventChannel('$namespace/polls');
+
+  /// Allows receiving results of polls added by `BluetoothConnection.addPoll`,
+  /// collected on platform side and delivered every `batchInterval`.
+  Stream<List<BluetoothPollResult>> onPollResults(
+          {Duration batchInterval = const Duration(milliseconds: 50)}) =>
+      _pollsChannel
+          .receiveBroadcastStream(batchInterval.inMilliseconds)
+          .map((batch) => (batch as List)
+              .map((item) => BluetoothPollResult.fromMap(item))
+              .toList());
+
+  /// Removes poll added by `BluetoothConnection.addPoll`, returns false if
+  /// there was no such poll.
+  Future<bool> removePoll(int pollId) async =>
+      await _methodChannel.invokeMethod('removePoll', {'pollId': pollId});
+
+  /// Returns polling metrics, such as count of `polls`, `sent` commands,
+  /// `skipped` (previous still awaited), `responses`, `errors`, `unchanged`
+  /// (not delivered) and `batches`.
+  Future<Map<String, dynamic>> getPollStats() async =>
+      Map<String, dynamic>.from(
+          await _methodChannel.invokeMethod('getPollStats'));
+
   /// Removes bond with device with specified address.
   /// Returns true if unbonded, false if canceled or failed gracefully.
   ///
@@ -192,6 +251,17 @@ class FlutterBluetoothSerial {
     _pairingRequestHandler = handler;
   }
 
+  /// Sets rules used to answer incoming pairing requests natively.
+  ///
+  /// Requests matching any of the rules (first matching is used) are answered
+  /// immediately on platform side, so there is no round-trip to Dart. Only
+  /// unmatched requests are passed to the pairing request handler (if set).
+  ///
+  /// Pass empty list to remove all the rules.
+  Future<void> setPairingRules(List<BluetoothPairingRule> rules) async =>
+      await _methodChannel.invokeMethod('setPairingRules',
+          {"rules": rules.map((rule) => rule.toMap()).toList()});
+
   /// Returns list of bonded devices.
   Future<List<BluetoothDevice>> getBondedDevices() async {
     final List list = await (_methodChannel.invokeMethod('getBondedDevices'));
@@ -229,6 +299,56 @@ class FlutterBluetoothSerial {
         .map((map) => BluetoothDiscoveryResult.fromMap(map));
   }
 
+  /// Starts duty-cycled discovery and provides stream of `BluetoothDiscoveryResult`s.
+  ///
+  /// Discovery runs for `scanWindow`, then stays idle for `idleWindow`, and so
+  /// on, until the stream subscription is cancelled. Since discovery degrades
+  /// throughput of ongoing connections, scanning is paused while any of the
+  /// connections transfers more than `throughputThreshold` bytes per second
+  /// (never paused if zero) and resumed afterwards.
+  ///
+  /// The same device can be reported multiple times (once per scan window).
+  Stream<BluetoothDiscoveryResult> startScheduledDiscovery({
+    Duration scanWindow = const Duration(seconds: 12),
+    Duration idleWindow = const Duration(seconds: 30),
+    int throughputThreshold = 0,
+  }) async* {
+    late StreamSubscription subscription;
+    StreamController controller;
+
+    controller = new StreamController(
+      onCancel: () {
+        // Stopping happens automaticly by platform code when closing event sink
+        subscription.cancel();
+      },
+    );
+
+    await _methodChannel.invokeMethod('startScheduledDiscovery', {
+      "scanMillis": scanWindow.inMilliseconds,
+      "idleMillis": idleWindow.inMilliseconds,
+      "throughputThreshold": throughputThreshold,
+    });
+
+    subscription = _discoveryChannel.receiveBroadcastStream().listen(
+          controller.add,
+          onError: controller.addError,
+          onDone: controller.close,
+        );
+
+    yield* controller.stream
+        .map((map) => BluetoothDiscoveryResult.fromMap(map));
+  }
+
+  /// Returns scheduled discovery metrics, such as `state`, count of `cycles`,
+  /// `inquiries` and `pauses`, `scanningMillis`, `pausedMillis`, `results`,
+  /// `uniqueDevices` and `lastCycleNewDevices`.
+  ///
+  /// Returns null if scheduled discovery was never started.
+  Future<Map<String, dynamic>?> getDiscoveryStats() async {
+    final Map? stats = await _methodChannel.invokeMethod('getDiscoveryStats');
+    return stats == null ? null : Map<String, dynamic>.from(stats);
+  }
+
   /// Cancels the discovery
   Future<void> cancelDiscovery() async =>
       await _methodChannel.invokeMethod('cancelDiscovery');
@@ -245,6 +365,47 @@ class FlutterBluetoothSerial {
       await _methodChannel
           .invokeMethod("requestDiscoverable", {"duration": durationInSeconds});
 
+  /* Background collecting */
+  /// Starts collecting data of given connections natively, in foreground
+  /// service, which keeps running even without the application UI.
+  ///
+  /// Since then, data are not passed to connections `input`, but buffered
+  /// natively (up to `maxBytes` per connection, newer data are dropped) and
+  /// should be taken in bulk using `takeCollected`. Notification with given
+  /// `title` and `text` is displayed while collecting.
+  Future<void> startBackgroundCollecting(
+    List<BluetoothConnection> connections, {
+    int maxBytes = 4 * 1024 * 1024,
+    String? title,
+    String? text,
+  }) async =>
+      await _methodChannel.invokeMethod('startBackgroundCollecting', {
+        "ids": connections.map((connection) => connection._id).toList(),
+        "maxBytes": maxBytes,
+        "title": title,
+        "text": text,
+      });
+
+  /// Returns IDs of connections collected in background, also these started
+  /// by previous Flutter engine (for example before the UI was recreated).
+  Future<List<int>> getCollectingConnectionIds() async =>
+      List<int>.from(
+          await _methodChannel.invokeMethod('getCollectingConnectionIds'));
+
+  /// Takes data collected in background for connection with given ID.
+  ///
+  /// Once the connection is closed and its data were taken, the connection
+  /// is no longer reported as collected.
+  Future<Uint8List> takeCollected(int connectionId) async =>
+      await _methodChannel.invokeMethod('takeCollected', {'id': connectionId});
+
+  /// Stops background collecting, returning data left in buffers by
+  /// connection ID. Connections are left open, unless `disconnect` is set.
+  Future<Map<int, Uint8List>> stopBackgroundCollecting(
+          {bool disconnect = false}) async =>
+      Map<int, Uint8List>.from(await _methodChannel.invokeMethod(
+          'stopBackgroundCollecting', {'disconnect': disconnect}));
+
   /* Connecting and connection */
   // Default connection methods
   BluetoothConnection? _defaultConnection;
@@ -11,6 +11,15 @@ part './BluetoothBondState.dart';
 part './BluetoothDeviceType.dart';
 part './BluetoothDevice.dart';
 part './BluetoothPairingRequest.dart';
+part './BluetoothPairingRule.dart';
 part './BluetoothDiscoveryResult.dart';
+part './BluetoothEvent.dart';
+part './BluetoothFraming.dart';
 part './BluetoothConnection.dart';
+part './BluetoothTransfer.dart';
+part './BluetoothChannel.dart';
+part './BluetoothTimestampedData.dart';
+part './BluetoothModbus.dart';
+part './BluetoothPoll.dart';
+part './BluetoothServer.dart';
 part './FlutterBluetoothSerial.dart';